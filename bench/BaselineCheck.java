@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+/**
+ * Check of the call text against the text the original simulator printed, ending with exit status 1 if anything
+ * differs.
+ *
+ * The saved city has many routes of equal cost, and several taxis at the same cost from some clients, so the text
+ * depends on which of the tied routes each search keeps and on which search the multiple solutions are read from.
+ * Every call is dispatched through the PriorityQueue of Paths, both searching again for every taxi and fare and in a
+ * single pass, with the driver accepting and with the driver declining, and the text of each call must be the same,
+ * byte for byte, as the text saved from the original simulator with the driver always accepting or always declining.
+ *
+ * Usage: java -cp bin:bench/bin BaselineCheck [input file] [accepted text file] [declined text file]
+ */
+public class BaselineCheck
+{
+    /** The saved city with many ties.*/
+    private static final String INPUT = "bench/baseline/ties.txt";
+    /** The text the original simulator printed for the saved city with the driver always accepting.*/
+    private static final String ACCEPTED = "bench/baseline/ties-accepted.txt";
+    /** The text the original simulator printed for the saved city with the driver always declining.*/
+    private static final String DECLINED = "bench/baseline/ties-declined.txt";
+
+    /**
+     * Split saved text into the text of each call, each of which starts with its client line.
+     * @param path The path of the saved text.
+     * @return The text of each call, in order.
+     * @throws IOException If the file cannot be read.
+    */
+    private static List<String> calls(String path) throws IOException {
+        String text = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+        List<String> calls = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()){
+            int next = text.indexOf("\nclient ", start);
+            int end = next < 0 ? text.length() : next + 1;
+            calls.add(text.substring(start, end));
+            start = end;
+        }
+        return calls;
+    }
+
+    /**
+     * Dispatch every call of a simulation and compare the text of each with the saved text.
+     * @param simulator The simulation, set up to dispatch the way being checked.
+     * @param accepts If the driver accepts every call.
+     * @param expected The saved text of each call.
+     * @param mismatches The count the comparisons are added to.
+     * @param way The way the calls are dispatched, which describes the differences.
+    */
+    private static void compare(TaxiSimulator simulator, boolean accepts, List<String> expected, Mismatches mismatches, String way){
+        StringTokenizer calls = new StringTokenizer(simulator.getCalls());
+        int call = 0;
+        while (calls.hasMoreTokens()){
+            String client = calls.nextToken();
+            String company = calls.nextToken();
+            String text = simulator.dispatch(client, company, accepts);
+            mismatches.compare(call < expected.size() ? expected.get(call) : null, text, way + ", call " + call);
+            call++;
+        }
+        mismatches.check(call == expected.size(), "%s: %d calls dispatched, %d saved", way, call, expected.size());
+    }
+
+    /**
+     * Run the check on the given city and saved text, or on the saved city with many ties.
+     * @param args The path of the input file and of the saved text with the driver accepting and declining.
+    */
+    public static void main(String[] args) throws IOException {
+        String input = args.length > 0 ? args[0] : INPUT;
+        List<String> accepted = calls(args.length > 1 ? args[1] : ACCEPTED);
+        List<String> declined = calls(args.length > 2 ? args[2] : DECLINED);
+
+        TaxiSimulator simulator = new TaxiSimulator(input);
+        simulator.getPathCache().setCapacity(0);
+        simulator.setIndexedHeap(false);
+        System.out.printf("%-12s %,8d vertices, %,8d edges, %,6d calls\n", Paths.get(input).getFileName(),
+                          simulator.compact().size(), simulator.compact().edgeCount(), accepted.size());
+        Mismatches mismatches = new Mismatches("baseline text");
+        for (boolean singlePass : new boolean[]{false, true}){
+            simulator.setSinglePass(singlePass);
+            String way = singlePass ? "single pass" : "searching again";
+            compare(simulator, true, accepted, mismatches, way + ", accepted");
+            compare(simulator, false, declined, mismatches, way + ", declined");
+        }
+        mismatches.report();
+        if (Mismatches.anyFailed()){
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Small harness for timing benchmarks in the style of JMH: each benchmark runs a number of timed warm up iterations,
+ * whose results are thrown away, followed by timed measurement iterations. The score is the average time per operation
+ * over the measurement iterations, with the half-width of its 99.9% confidence interval as the error.
+ *
+ * The value returned by every operation is folded into a field that is read at the end of the run,
+ * so the JIT compiler cannot remove the work being measured.
+ *
+ * Scores can be saved to a baseline file and compared against a saved baseline in a later run.
+ */
+public class BenchmarkRunner
+{
+    /** The 99.9% quantile of the standard normal distribution.*/
+    private static final double Z_999 = 3.291;
+
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationNanos;
+    private final Pattern filter;
+    /** The score of every benchmark run, in nanoseconds per operation, in the order they ran.*/
+    private final Map<String,Double> scores = new LinkedHashMap<>();
+    /** Value which the result of every operation is folded into.*/
+    private int sink;
+
+    /**
+     * Create a new BenchmarkRunner.
+     * @param warmupIterations The number of warm up iterations of each benchmark.
+     * @param measurementIterations The number of measured iterations of each benchmark.
+     * @param iterationMillis The length of each iteration in milliseconds.
+     * @param filter Regular expression which a benchmark name must contain to be run.
+    */
+    public BenchmarkRunner(int warmupIterations, int measurementIterations, long iterationMillis, String filter){
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = Math.max(1, measurementIterations);
+        this.iterationNanos = iterationMillis * 1000000L;
+        this.filter = Pattern.compile(filter);
+        System.out.printf("%-32s %6s %5s %14s %12s  %s\n", "Benchmark", "Mode", "Cnt", "Score", "Error", "Units");
+    }
+
+    /**
+     * Run the given benchmark, unless its name does not match the filter, and print its score.
+     * @param name The name of the benchmark.
+     * @param operation The operation to time, returning a value that depends on its work.
+    */
+    public void run(String name, Supplier<Object> operation){
+        if (!filter.matcher(name).find()){
+            return;
+        }
+        for (int i = 0; i < warmupIterations; i++){
+            iteration(operation);
+        }
+        double[] samples = new double[measurementIterations];
+        double mean = 0;
+        for (int i = 0; i < measurementIterations; i++){
+            samples[i] = iteration(operation);
+            mean += samples[i] / measurementIterations;
+        }
+        double variance = 0;
+        for (double sample : samples){
+            variance += (sample - mean) * (sample - mean);
+        }
+        variance = measurementIterations > 1 ? variance / (measurementIterations - 1) : 0;
+        double error = Z_999 * Math.sqrt(variance / measurementIterations);
+        scores.put(name, mean);
+        System.out.printf("%-32s %6s %5d %14.3f +- %9.3f  us/op\n", name, "avgt", measurementIterations, mean / 1e3, error / 1e3);
+    }
+
+    /**
+     * Run the operation repeatedly for the length of one iteration.
+     * @return The average time per operation in nanoseconds.
+    */
+    private double iteration(Supplier<Object> operation){
+        long operations = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            Object result = operation.get();
+            sink += result == null ? 0 : result.hashCode();
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        return (double) elapsed / operations;
+    }
+
+    /**
+     * Save the scores of this run as a baseline file, one "name nanoseconds" line per benchmark.
+     * @param path The path of the baseline file, which is replaced if it exists.
+     * @throws IOException If the file cannot be written.
+    */
+    public void save(String path) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8))){
+            for (Map.Entry<String,Double> score : scores.entrySet()){
+                out.println(score.getKey() + " " + score.getValue());
+            }
+        }
+    }
+
+    /**
+     * Print the scores of this run next to those of a saved baseline.
+     * @param path The path of the baseline file.
+     * @throws IOException If the file cannot be read.
+    */
+    public void compare(String path) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8);
+        Map<String,Double> baseline = new LinkedHashMap<>();
+        for (String line : lines){
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length == 2){
+                baseline.put(fields[0], Double.parseDouble(fields[1]));
+            }
+        }
+        System.out.printf("\n%-32s %14s %14s %9s\n", "Benchmark", "Baseline", "Current", "Speedup");
+        for (Map.Entry<String,Double> score : scores.entrySet()){
+            Double before = baseline.get(score.getKey());
+            if (before != null){
+                System.out.printf("%-32s %14.3f %14.3f %8.2fx\n", score.getKey(), before / 1e3, score.getValue() / 1e3, before / score.getValue());
+            }
+        }
+    }
+
+    /**
+     * Obtain the value that every operation result was folded into.
+     * Printing it keeps the results of the measured operations alive.
+     * @return The folded value.
+    */
+    public int getSink(){
+        return sink;
+    }
+}
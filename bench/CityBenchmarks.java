@@ -0,0 +1,160 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.StringTokenizer;
+
+/**
+ * Benchmarks of the Taxi Simulator on a synthetic city from CityGraphGenerator.
+ * The city, the choice of sources and clients, and the fares are all seeded, so two runs with the same options
+ * measure the same work, and a run can be compared against a saved baseline.
+ *
+ * The path cache is disabled, so every benchmark measures the searches themselves rather than cache hits.
+ *
+ * Usage: java -cp bin:bench/bin CityBenchmarks [options]
+ *   --topology grid|geometric   layout of the city (grid)
+ *   --nodes N                   number of nodes (10000)
+ *   --shops D                   fraction of the nodes that are shops (0.01)
+ *   --calls N                   number of calls (1000)
+ *   --seed S                    seed of the city and of the benchmark inputs (17062024)
+ *   --warmup N                  warm up iterations (3)
+ *   --iterations N              measurement iterations (5)
+ *   --time MS                   length of each iteration in milliseconds (1000)
+ *   --filter REGEX              only run benchmarks whose name contains a match (all)
+ *   --save FILE                 save the scores as a baseline
+ *   --baseline FILE             compare the scores with a saved baseline
+ */
+public class CityBenchmarks
+{
+    /** The number of fares worked out by one getTaxiFare batch.*/
+    private static final int FARE_BATCH = 1000;
+
+    /**
+     * Generate the city and run the benchmarks.
+     * @param args The options described above.
+    */
+    public static void main(String[] args) throws IOException {
+        CityGraphGenerator.Topology topology = CityGraphGenerator.Topology.GRID;
+        int numNodes = 10000;
+        double shopDensity = 0.01;
+        int numCalls = 1000;
+        long seed = 17062024L;
+        int warmup = 3;
+        int iterations = 5;
+        long millis = 1000;
+        String filter = "";
+        String save = null;
+        String baseline = null;
+        for (int i = 0; i + 1 < args.length; i += 2){
+            String value = args[i + 1];
+            switch (args[i]){
+                case "--topology": topology = CityGraphGenerator.Topology.valueOf(value.toUpperCase()); break;
+                case "--nodes": numNodes = Integer.parseInt(value); break;
+                case "--shops": shopDensity = Double.parseDouble(value); break;
+                case "--calls": numCalls = Integer.parseInt(value); break;
+                case "--seed": seed = Long.parseLong(value); break;
+                case "--warmup": warmup = Integer.parseInt(value); break;
+                case "--iterations": iterations = Integer.parseInt(value); break;
+                case "--time": millis = Long.parseLong(value); break;
+                case "--filter": filter = value; break;
+                case "--save": save = value; break;
+                case "--baseline": baseline = value; break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        // Step 1 - Generate the city and load it.
+        File input = File.createTempFile("city", ".txt");
+        input.deleteOnExit();
+        new CityGraphGenerator(topology, numNodes, shopDensity, numCalls, seed).write(input.getPath());
+        TaxiSimulator simulator = new TaxiSimulator(input.getPath());
+        simulator.getPathCache().setCapacity(0);
+        System.out.printf("%s city: %,d vertices, %,d edges, %,d calls, seed %d\n\n", topology.toString().toLowerCase(),
+                          simulator.compact().size(), simulator.compact().edgeCount(), numCalls, seed);
+
+        // Step 2 - Draw the benchmark inputs.
+        Random random = new Random(seed);
+        ArrayList<String> names = new ArrayList<>(simulator.vertexMap.keySet());
+        String[] sources = new String[1024];
+        for (int i = 0; i < sources.length; i++){
+            sources[i] = names.get(random.nextInt(names.size()));
+        }
+        ArrayList<String> clients = new ArrayList<>();
+        ArrayList<String> companies = new ArrayList<>();
+        StringTokenizer calls = new StringTokenizer(simulator.getCalls());
+        while (calls.hasMoreTokens()){
+            clients.add(calls.nextToken());
+            companies.add(calls.nextToken());
+        }
+        double[] pickUpCosts = new double[FARE_BATCH];
+        double[] dropOffCosts = new double[FARE_BATCH];
+        String[] fareCompanies = new String[FARE_BATCH];
+        for (int i = 0; i < FARE_BATCH; i++){
+            pickUpCosts[i] = random.nextInt(200);
+            dropOffCosts[i] = random.nextInt(200);
+            fareCompanies[i] = random.nextBoolean() ? "QnQ" : "Shopify";
+        }
+
+        // Step 3 - Run the benchmarks, each cycling through its inputs.
+        BenchmarkRunner runner = new BenchmarkRunner(warmup, iterations, millis, filter);
+        int[] next = new int[1];
+        runner.run("dijkstra", () -> {
+            simulator.dijkstra(sources[next[0]++ & (sources.length - 1)]);
+            return simulator.vertexMap.size();
+        });
+        runner.run("search", () -> {
+            try (ShortestPaths result = simulator.search(sources[next[0]++ & (sources.length - 1)])){
+                return result.source();
+            }
+        });
+        simulator.setIndexedHeap(false);
+        runner.run("search.priorityQueue", () -> {
+            try (ShortestPaths result = simulator.search(sources[next[0]++ & (sources.length - 1)])){
+                return result.source();
+            }
+        });
+        simulator.setIndexedHeap(true);
+        runner.run("findNearestTaxi", () -> {
+            int call = next[0]++ % clients.size();
+            return simulator.findNearestTaxi(clients.get(call), companies.get(call)).size();
+        });
+        runner.run("findNearestShop", () -> {
+            int call = next[0]++ % clients.size();
+            return simulator.findNearestShop(clients.get(call), companies.get(call)).size();
+        });
+        runner.run("getTaxiFare.batch", () -> {
+            double total = 0;
+            for (int i = 0; i < FARE_BATCH; i++){
+                total += simulator.getTaxiFare(pickUpCosts[i], dropOffCosts[i], fareCompanies[i]);
+            }
+            return total;
+        });
+        runner.run("dispatch", () -> {
+            int call = next[0]++ % clients.size();
+            return simulator.dispatch(clients.get(call), companies.get(call), true).length();
+        });
+        runner.run("createSimulationGraph", () -> new TaxiSimulator(input.getPath()).vertexMap.size());
+        simulator.buildShopDistanceOracle();
+        runner.run("findNearestTaxi.oracle", () -> {
+            int call = next[0]++ % clients.size();
+            return simulator.findNearestTaxi(clients.get(call), companies.get(call)).size();
+        });
+        runner.run("findNearestShop.oracle", () -> {
+            int call = next[0]++ % clients.size();
+            return simulator.findNearestShop(clients.get(call), companies.get(call)).size();
+        });
+        runner.run("dispatch.oracle", () -> {
+            int call = next[0]++ % clients.size();
+            return simulator.dispatch(clients.get(call), companies.get(call), true).length();
+        });
+        simulator.clearShopDistanceOracle();
+
+        if (save != null){
+            runner.save(save);
+        }
+        if (baseline != null){
+            runner.compare(baseline);
+        }
+        System.out.println("\n(sink " + runner.getSink() + ")");
+    }
+}
@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The differences found by a measurement that works the same answers out two ways, such as a new search against
+ * Dijkstra's algorithm, or a snapshot against the text file it was written from.
+ *
+ * Every comparison is counted, and the first few that differ are described in the report. A report with any
+ * difference marks the run as failed, so that SimulatorBenchmark ends with a non-zero exit status and the checks can
+ * be run from a script. Comparisons may be counted from several threads.
+ */
+public class Mismatches
+{
+    /** The number of differing comparisons that are described in the report.*/
+    private static final int EXAMPLES = 5;
+    /** The number of reports with a difference since the program started.*/
+    private static int failedReports;
+
+    /** What is being compared, which starts the report.*/
+    private final String name;
+    /** The number of comparisons counted.*/
+    private long compared;
+    /** The number of comparisons that differed.*/
+    private long differed;
+    /** The descriptions of the first comparisons that differed.*/
+    private final List<String> examples = new ArrayList<>();
+
+    /**
+     * Create a new count of differences.
+     * @param name What is being compared, such as "text" or "costs".
+    */
+    public Mismatches(String name){
+        this.name = name;
+    }
+
+    /**
+     * Count one comparison.
+     * @param same True if both ways gave the same answer.
+     * @param format The format of the description of what was compared, which is only formatted if they differ.
+     * @param args The values of the description.
+     * @return same.
+    */
+    public synchronized boolean check(boolean same, String format, Object... args){
+        compared++;
+        if (!same){
+            differed++;
+            if (examples.size() < EXAMPLES){
+                examples.add(String.format(format, args));
+            }
+        }
+        return same;
+    }
+
+    /**
+     * Count one comparison of two answers, describing both if they differ.
+     * @param expected The answer of the way being checked against.
+     * @param actual The answer of the way being checked.
+     * @param what What was compared.
+     * @return True if the answers are equal.
+    */
+    public boolean compare(Object expected, Object actual, String what){
+        boolean same = expected == null ? actual == null : expected.equals(actual);
+        return check(same, "%s: expected %s, found %s", what, expected, actual);
+    }
+
+    /**
+     * Obtain the number of comparisons that differed so far.
+     * @return The number of mismatches.
+    */
+    public synchronized long count(){
+        return differed;
+    }
+
+    /**
+     * Print the number of comparisons and of differences, followed by the first differences found.
+    */
+    public synchronized void report(){
+        System.out.printf("%-28s %,10d of %,d compared\n", name + " mismatches", differed, compared);
+        for (String example : examples){
+            System.out.println("    " + example.replace("\n", "\n    "));
+        }
+        if (differed > 0){
+            failedReports++;
+        }
+    }
+
+    /**
+     * Determine if any report so far found a difference.
+     * @return True if the run has failed.
+    */
+    public static synchronized boolean anyFailed(){
+        return failedReports > 0;
+    }
+}
@@ -0,0 +1,1312 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.StringTokenizer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Command line measurements for the Taxi Simulator graph code.
+ * Measurements that work the same answers out two ways count their differences with Mismatches, and the run ends
+ * with exit status 1 if any were found.
+ *
+ * Usage:
+ *   java -cp bin:bench/bin SimulatorBenchmark footprint [number of vertices] [edges per vertex]
+ *   java -cp bin:bench/bin SimulatorBenchmark dispatch [maximum workers] [copies of the call list]
+ *   java -cp bin:bench/bin SimulatorBenchmark parse [input file] [runs]
+ *   java -cp bin:bench/bin SimulatorBenchmark snapshot [input file] [snapshot file] [calls checked]
+ *   java -cp bin:bench/bin SimulatorBenchmark mapped [input file] [mapped file] [calls checked]
+ *   java -cp bin:bench/bin SimulatorBenchmark pointtopoint [input file] [queries]
+ *   java -cp bin:bench/bin SimulatorBenchmark landmarks [input file] [landmarks] [queries]
+ *   java -cp bin:bench/bin SimulatorBenchmark hierarchy [input file] [hierarchy file] [queries]
+ *   java -cp bin:bench/bin SimulatorBenchmark oracle [input file] [added roads]
+ *   java -cp bin:bench/bin SimulatorBenchmark updates [input file] [cached trees] [rounds] [changes per batch...]
+ *   java -cp bin:bench/bin SimulatorBenchmark metrics [input file] [rounds]
+ *   java -cp bin:bench/bin SimulatorBenchmark fleet [input file] [calls] [taxis per shop] [hours] [minutes per cost]
+ *   java -cp bin:bench/bin SimulatorBenchmark nearest [input file] [k] [maximum cost] [queries]
+ *   java -cp bin:bench/bin SimulatorBenchmark delta [input file] [bucket width] [searches] [maximum workers]
+ *   java -cp bin:bench/bin SimulatorBenchmark ties [input file] [clients checked]
+ *   java -cp bin:bench/bin SimulatorBenchmark sharded [input file] [shards] [queries]
+ *   java -cp bin:bench/bin SimulatorBenchmark server [input file] [connections] [requests per connection] [pipeline depth] [batch window]
+ *   java -cp bin:bench/bin SimulatorBenchmark assign [input file] [calls] [taxis per shop] [hours] [minutes per cost] [batch window]
+ */
+public class SimulatorBenchmark
+{
+    /** Seed used for every randomly generated graph, so that runs can be compared.*/
+    private static final long SEED = 17062024L;
+
+    /**
+     * Build a random graph with the given number of vertices and outgoing edges per vertex.
+     * @param numVertices The number of vertices.
+     * @param degree The number of outgoing edges of each vertex.
+     * @return The generated Graph.
+    */
+    private static Graph randomGraph(int numVertices, int degree){
+        Random random = new Random(SEED);
+        Graph graph = new Graph();
+        for (int v = 0; v < numVertices; v++){
+            for (int i = 0; i < degree; i++){
+                graph.addEdge(Integer.toString(v), Integer.toString(random.nextInt(numVertices)), 1 + random.nextInt(20));
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Compare the adjacency memory of the CompactGraph with the LinkedList of Edge objects it replaced.
+     * @param numVertices The number of vertices.
+     * @param degree The number of outgoing edges of each vertex.
+    */
+    private static void footprint(int numVertices, int degree){
+        CompactGraph graph = randomGraph(numVertices, degree).compact();
+        long compactBytes = graph.estimatedBytes();
+        long linkedListBytes = CompactGraph.estimatedLinkedListBytes(graph.size(), graph.edgeCount());
+        System.out.printf("vertices %d, edges %d\n", graph.size(), graph.edgeCount());
+        System.out.printf("LinkedList<Edge> adjacency  %,15d bytes (%.1f bytes per edge)\n", linkedListBytes, (double) linkedListBytes / graph.edgeCount());
+        System.out.printf("CompactGraph adjacency      %,15d bytes (%.1f bytes per edge)\n", compactBytes, (double) compactBytes / graph.edgeCount());
+        System.out.printf("reduction                   %15.1fx\n", (double) linkedListBytes / compactBytes);
+    }
+
+    /**
+     * Measure the throughput of BatchDispatcher on the calls of Input.txt as the number of workers grows.
+     * The call list is repeated to give a stream long enough to time, and the text of the calls is discarded.
+     * @param maxWorkers The largest number of workers to measure.
+     * @param copies The number of times the call list is repeated.
+    */
+    private static void dispatch(int maxWorkers, int copies){
+        TaxiSimulator simulator = new TaxiSimulator();
+        StringBuilder calls = new StringBuilder();
+        for (int i = 0; i < copies; i++){
+            calls.append(simulator.getCalls()).append(' ');
+        }
+        simulator.getPathCache().setCapacity(16);  // The cache is off by default; measure its counters here.
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        int workers = 1;
+        while (true){
+            BatchDispatcher dispatcher = new BatchDispatcher(simulator, workers);
+            dispatcher.dispatch(calls.toString(), discard);  // Warm up before timing.
+            long start = System.nanoTime();
+            int dispatched = dispatcher.dispatch(calls.toString(), discard);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            dispatcher.shutdown();
+            System.out.printf("workers %3d  %,10d calls  %,12.0f calls/sec\n", workers, dispatched, dispatched / seconds);
+            System.out.println("            " + simulator.getPathCache());
+            if (workers == maxWorkers){
+                break;
+            }
+            workers = Math.min(workers * 2, maxWorkers);
+        }
+    }
+
+    /**
+     * Compare the throughput of dispatching the calls of an input file with metrics switched off and on,
+     * alternating between the two so that both see the same warm up, then print the metrics recorded.
+     * @param inputPath The path of the input file.
+     * @param rounds The number of timed rounds of each kind.
+    */
+    private static void metrics(String inputPath, int rounds){
+        TaxiSimulator simulator = new TaxiSimulator(inputPath);
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        BatchDispatcher dispatcher = new BatchDispatcher(simulator, Runtime.getRuntime().availableProcessors());
+        dispatcher.dispatch(simulator.getCalls(), discard);  // Warm up before timing.
+        long[] nanos = new long[2];
+        int dispatched = 0;
+        for (int round = 0; round < rounds; round++){
+            for (int on = 0; on < 2; on++){
+                SimulatorMetrics.setEnabled(on == 1);
+                long start = System.nanoTime();
+                dispatched = dispatcher.dispatch(simulator.getCalls(), discard);
+                nanos[on] += System.nanoTime() - start;
+            }
+        }
+        SimulatorMetrics.setEnabled(false);
+        dispatcher.shutdown();
+        double off = (double) dispatched * rounds / (nanos[0] / 1e9);
+        double on = (double) dispatched * rounds / (nanos[1] / 1e9);
+        System.out.printf("%s: %,d calls per round, %d rounds\n", inputPath, dispatched, rounds);
+        System.out.printf("metrics off  %,12.0f calls/sec\n", off);
+        System.out.printf("metrics on   %,12.0f calls/sec (%+.1f%%)\n", on, (on / off - 1) * 100);
+        System.out.print(SimulatorMetrics.snapshot());
+    }
+
+    /**
+     * Simulate a day of a taxi fleet serving random calls with FleetSimulation, and report the results and wall time.
+     * @param inputPath The path of the input file, whose calls are drawn from at random.
+     * @param numCalls The number of calls over the day.
+     * @param perShop The number of taxis starting at every Shop.
+     * @param hours The length of the day in hours.
+     * @param minutesPerCost The travel time of one unit of road cost.
+    */
+    private static void fleet(String inputPath, int numCalls, int perShop, double hours, double minutesPerCost){
+        TaxiSimulator simulator = new TaxiSimulator(inputPath);
+        long begin = System.nanoTime();
+        FleetSimulation fleet = new FleetSimulation(simulator);
+        fleet.setMinutesPerCost(minutesPerCost);
+        fleet.addTaxisAtShops(perShop);
+        fleet.addRandomCalls(numCalls, hours * 60, SEED);
+        long setupNanos = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        fleet.run();
+        long runNanos = System.nanoTime() - begin;
+        System.out.printf("%s: %,d vertices, %,d edges\n", inputPath, simulator.compact().size(), simulator.compact().edgeCount());
+        System.out.print(fleet.summary());
+        System.out.printf("setup %,10.1f ms, run %,10.1f ms (%,.0f events/sec)\n", setupNanos / 1e6, runNanos / 1e6,
+                          fleet.eventsProcessed() / (runNanos / 1e9));
+    }
+
+    /**
+     * Compare the k nearest Taxis and Shops found by NearestQuery with sorting the costs of a full search,
+     * for the calls of an input file, and report the nodes settled and the time per query of both.
+     * @param inputPath The path of the input file.
+     * @param k The number of Taxis and Shops to find.
+     * @param maxCost The largest cost of a Taxi or Shop.
+     * @param queries The number of calls queried, taken from the calls of the input in turn.
+    */
+    private static void nearest(String inputPath, int k, double maxCost, int queries){
+        TaxiSimulator simulator = new TaxiSimulator(inputPath);
+        VertexRoles roles = simulator.getRoles();
+        CompactGraph graph = simulator.compact();
+        String[] tokens = simulator.getCalls() == null ? new String[0] : simulator.getCalls().trim().split("\\s+");
+        if (tokens.length < 2){
+            System.out.println("The input has no calls");
+            return;
+        }
+        long querySettled = 0;
+        long fullSettled = 0;
+        long queryNanos = 0;
+        long fullNanos = 0;
+        Mismatches mismatches = new Mismatches("nearest");
+        for (int q = 0; q < queries; q++){
+            int call = q % (tokens.length / 2);
+            String client = tokens[2 * call];
+            String company = tokens[2 * call + 1];
+            VertexRoles.Company shopCompany = VertexRoles.Company.of(company);
+            if (shopCompany == null || !simulator.vertexMap.containsKey(client)){
+                continue;
+            }
+            for (boolean taxis : new boolean[]{true, false}){
+                long begin = System.nanoTime();
+                double[] found = new double[k];
+                int numFound = 0;
+                try (NearestQuery query = taxis ? simulator.nearestTaxis(client, company, maxCost)
+                                                : simulator.nearestShops(client, company, maxCost)){
+                    while (numFound < k && query.next() >= 0){
+                        found[numFound++] = query.cost();
+                    }
+                    querySettled += query.settledCount();
+                }
+                queryNanos += System.nanoTime() - begin;
+                // Sort the costs of every Shop of the company from a full search.
+                begin = System.nanoTime();
+                double[] costs = new double[roles.shopCount(shopCompany)];
+                int numCosts = 0;
+                try (ShortestPaths full = taxis ? simulator.searchTo(client) : simulator.search(client)){
+                    for (int i = 0; i < costs.length; i++){
+                        double cost = full.dist(roles.shop(shopCompany, i));
+                        if (cost != Graph.INFINITY && cost <= maxCost){
+                            costs[numCosts++] = cost;
+                        }
+                    }
+                }
+                Arrays.sort(costs, 0, numCosts);
+                fullNanos += System.nanoTime() - begin;
+                fullSettled += graph.size();
+                boolean same = numFound == Math.min(k, numCosts);
+                for (int i = 0; same && i < numFound; i++){
+                    same = found[i] == costs[i];
+                }
+                mismatches.check(same, "%s of %s %s: %s, expected %s", taxis ? "taxis" : "shops", client, company,
+                                 Arrays.toString(Arrays.copyOf(found, numFound)), Arrays.toString(Arrays.copyOf(costs, Math.min(k, numCosts))));
+            }
+        }
+        System.out.printf("%s: %,d vertices, %,d edges, k %d, maximum cost %s\n", inputPath, graph.size(), graph.edgeCount(), k, maxCost);
+        System.out.printf("nearest query  %,12.1f settled per query, %,10.1f us per query\n",
+                          querySettled / (2.0 * queries), queryNanos / (2e3 * queries));
+        System.out.printf("full search    %,12.1f settled per query, %,10.1f us per query\n",
+                          fullSettled / (2.0 * queries), fullNanos / (2e3 * queries));
+        mismatches.report();
+    }
+
+    /**
+     * Compare parallel delta-stepping searches from random vertices with Dijkstra's algorithm, checking that the costs,
+     * duplicate paths and single paths agree, and report the time per search with 1, 2, 4, ... workers.
+     * @param inputPath The path of the input file.
+     * @param delta The bucket width, or 0 for DeltaStepping.suggestDelta.
+     * @param searches The number of searches timed for each number of workers.
+     * @param maxWorkers The largest number of workers.
+    */
+    private static void delta(String inputPath, double delta, int searches, int maxWorkers){
+        TaxiSimulator simulator = new TaxiSimulator(inputPath);
+        CompactGraph graph = simulator.compact();
+        double width = delta > 0 ? delta : DeltaStepping.suggestDelta(graph);
+        Random random = new Random(SEED);
+        int[] starts = new int[searches];
+        for (int i = 0; i < searches; i++){
+            starts[i] = random.nextInt(graph.size());
+        }
+        System.out.printf("%s: %,d vertices, %,d edges, bucket width %.2f\n", inputPath, graph.size(), graph.edgeCount(), width);
+        // Time Dijkstra's algorithm, keeping the trees to check the parallel searches against.
+        ShortestPathTree[] expected = new ShortestPathTree[searches];
+        try (SearchContext context = graph.acquireContext()){
+            context.search(starts[0]);  // Warm up before timing.
+        }
+        long begin = System.nanoTime();
+        for (int i = 0; i < searches; i++){
+            try (SearchContext context = graph.acquireContext()){
+                expected[i] = new ShortestPathTree(context.search(starts[i]));
+            }
+        }
+        double dijkstraMillis = (System.nanoTime() - begin) / 1e6 / searches;
+        System.out.printf("dijkstra              %,10.2f ms per search\n", dijkstraMillis);
+        int workers = 1;
+        while (true){
+            ForkJoinPool pool = new ForkJoinPool(workers);
+            DeltaStepping engine = new DeltaStepping(graph, width, pool);
+            engine.search(starts[0]);  // Warm up before timing.
+            Mismatches mismatches = new Mismatches("delta-stepping " + workers);
+            begin = System.nanoTime();
+            ShortestPathTree[] found = new ShortestPathTree[searches];
+            for (int i = 0; i < searches; i++){
+                found[i] = engine.search(starts[i]);
+            }
+            double millis = (System.nanoTime() - begin) / 1e6 / searches;
+            pool.shutdown();
+            for (int i = 0; i < searches; i++){
+                for (int v = 0; v < graph.size(); v++){
+                    boolean duplicates = expected[i].hasDuplicatePaths(v);
+                    mismatches.check(found[i].dist(v) == expected[i].dist(v) && found[i].hasDuplicatePaths(v) == duplicates
+                                     && (duplicates || found[i].prev(v) == expected[i].prev(v)), "search from %d, vertex %d", starts[i], v);
+                }
+            }
+            System.out.printf("delta-stepping %3d    %,10.2f ms per search, %5.2fx dijkstra\n", workers, millis, dijkstraMillis / millis);
+            mismatches.report();
+            if (workers == maxWorkers){
+                break;
+            }
+            workers = Math.min(workers * 2, maxWorkers);
+        }
+    }
+
+    /**
+     * Dispatch every Client of an input file with both companies and both decisions of the driver, once searching
+     * again for every taxi and fare and once from one search to and one search from the Client, checking that the
+     * text is the same, and report the searches and the time per call of both. The path cache is switched off, so
+     * that every search is counted. The shortest path counts of the first Clients are also checked against counting
+     * every vertex in order of cost.
+     * @param inputPath The path of the input file.
+     * @param checked The number of Clients whose shortest path counts are checked.
+    */
+    private static void ties(String inputPath, int checked){
+        TaxiSimulator simulator = new TaxiSimulator(inputPath);
+        simulator.getPathCache().setCapacity(0);
+        VertexRoles roles = simulator.getRoles();
+        CompactGraph graph = simulator.compact();
+        java.util.ArrayList<String> clients = new java.util.ArrayList<>();
+        for (int v = 0; v < graph.size(); v++){
+            if (roles.isClient(v)){
+                clients.add(graph.name(v));
+            }
+        }
+        String[] companies = {"QnQ", "Shopify"};
+        int calls = clients.size() * companies.length * 2;
+        System.out.printf("%s: %,d vertices, %,d edges, %,d clients, %,d calls\n", inputPath, graph.size(), graph.edgeCount(), clients.size(), calls);
+        // Dispatch every call both ways, alternating so that both see the same warm up, and keep the text of the last round.
+        String[][] texts = new String[2][calls];
+        long[] nanos = new long[2];
+        long[] searches = new long[2];
+        SimulatorMetrics.setEnabled(true);
+        for (int round = 0; round < 2; round++){
+            for (int pass = 0; pass < 2; pass++){
+                simulator.setSinglePass(pass == 1);
+                long before = SimulatorMetrics.searches();
+                long start = System.nanoTime();
+                int call = 0;
+                for (String client : clients){
+                    for (String company : companies){
+                        texts[pass][call++] = simulator.dispatch(client, company, true);
+                        texts[pass][call++] = simulator.dispatch(client, company, false);
+                    }
+                }
+                if (round == 1){
+                    nanos[pass] = System.nanoTime() - start;
+                    searches[pass] = SimulatorMetrics.searches() - before;
+                }
+            }
+        }
+        SimulatorMetrics.setEnabled(false);
+        Mismatches mismatches = new Mismatches("text");
+        for (int call = 0; call < calls; call++){
+            mismatches.compare(texts[0][call], texts[1][call], "call " + call);
+        }
+        System.out.printf("searching again   %,10.1f searches per call  %,10.1f us per call\n", (double) searches[0] / calls, nanos[0] / (1e3 * calls));
+        System.out.printf("single pass       %,10.1f searches per call  %,10.1f us per call  (%.1fx)\n", (double) searches[1] / calls,
+                          nanos[1] / (1e3 * calls), (double) nanos[0] / nanos[1]);
+        mismatches.report();
+        // Count the shortest paths to every vertex in order of cost, adding up the counts of the vertices before it.
+        Mismatches countMismatches = new Mismatches("count");
+        long tied = 0;
+        CompactGraph incoming = graph.reverse();
+        for (int c = 0; c < Math.min(checked, clients.size()); c++){
+            try (ShortestPaths result = simulator.search(clients.get(c))){
+                ShortestPathCounts counts = new ShortestPathCounts(result);
+                Integer[] order = new Integer[graph.size()];
+                for (int v = 0; v < order.length; v++){
+                    order[v] = v;
+                }
+                Arrays.sort(order, (a, b) -> Double.compare(result.dist(a), result.dist(b)));
+                long[] expected = new long[graph.size()];
+                for (int v : order){
+                    if (result.dist(v) == Graph.INFINITY){
+                        break;
+                    }
+                    long total = v == result.source() ? 1 : 0;
+                    for (int e = incoming.firstEdge(v); e < incoming.edgeEnd(v); e++){
+                        int u = incoming.target(e);
+                        if (result.dist(u) != Graph.INFINITY && result.dist(u) + incoming.cost(e) == result.dist(v)){
+                            total = total > Long.MAX_VALUE - expected[u] ? Long.MAX_VALUE : total + expected[u];
+                        }
+                    }
+                    expected[v] = total;
+                    countMismatches.check(counts.count(v) == total, "client %s, vertex %s: %d paths, expected %d",
+                                          clients.get(c), graph.name(v), counts.count(v), total);
+                    if (total > 1){
+                        tied++;
+                    }
+                }
+            }
+        }
+        System.out.printf("tied paths        %,10d vertices\n", tied);
+        countMismatches.report();
+    }
+
+    /**
+     * Split the graph of an input file into parts grown by breadth-first search, serve each part from its own
+     * ShardWorker process, and check the costs between random pairs of nodes and the nearest taxis and shops of every
+     * client against searching the whole graph in one process. Reports the time per query of both and the memory and
+     * latency of each shard.
+     * @param inputPath The path of the input file.
+     * @param shards The number of parts and worker processes.
+     * @param queries The number of random pairs of nodes whose costs are checked.
+    */
+    private static void sharded(String inputPath, int shards, int queries) throws IOException {
+        TaxiSimulator simulator = new TaxiSimulator(inputPath);
+        simulator.getPathCache().setCapacity(0);
+        CompactGraph graph = simulator.compact();
+        long start = System.nanoTime();
+        GraphPartition partition = GraphPartition.grow(graph, simulator.getRoles(), shards);
+        System.out.printf("%s: %,d vertices, %,d edges\n", inputPath, graph.size(), graph.edgeCount());
+        System.out.printf("partition   %s in %.1f ms\n", partition, (System.nanoTime() - start) / 1e6);
+        java.nio.file.Path directory = java.nio.file.Files.createTempDirectory("taxi-shards");
+        try {
+            start = System.nanoTime();
+            try (ShardCoordinator coordinator = ShardCoordinator.start(graph, partition, directory.toFile())){
+                System.out.printf("startup     %.1f ms to write the shards, start the workers and build the overlay\n", (System.nanoTime() - start) / 1e6);
+                // Check the costs between random pairs of nodes.
+                Random random = new Random(SEED);
+                Mismatches costMismatches = new Mismatches("getCost");
+                long shardedNanos = 0;
+                long singleNanos = 0;
+                for (int q = 0; q < queries; q++){
+                    String from = graph.name(random.nextInt(graph.size()));
+                    String to = graph.name(random.nextInt(graph.size()));
+                    long begin = System.nanoTime();
+                    double sharded = coordinator.getCost(from, to);
+                    shardedNanos += System.nanoTime() - begin;
+                    begin = System.nanoTime();
+                    double single;
+                    try (ShortestPaths full = simulator.search(from)){
+                        single = simulator.getCost(full, to);
+                    }
+                    singleNanos += System.nanoTime() - begin;
+                    costMismatches.compare(single, sharded, from + " to " + to);
+                }
+                // Check the nearest taxis and shops of every client with both companies.
+                VertexRoles roles = simulator.getRoles();
+                Mismatches nearestMismatches = new Mismatches("nearest");
+                for (int v = 0; v < graph.size(); v++){
+                    if (!roles.isClient(v)){
+                        continue;
+                    }
+                    for (String company : new String[]{"QnQ", "Shopify"}){
+                        for (boolean taxis : new boolean[]{true, false}){
+                            java.util.List<String> expected = new java.util.ArrayList<>();
+                            for (Vertex found : taxis ? simulator.findNearestTaxi(graph.name(v), company) : simulator.findNearestShop(graph.name(v), company)){
+                                expected.add(found.name);
+                            }
+                            java.util.List<String> actual = taxis ? coordinator.findNearestTaxi(graph.name(v), company)
+                                                                  : coordinator.findNearestShop(graph.name(v), company);
+                            nearestMismatches.compare(expected, actual, (taxis ? "taxis of " : "shops of ") + graph.name(v) + ' ' + company);
+                        }
+                    }
+                }
+                System.out.printf("getCost     %,10.1f us per query sharded, %,10.1f us single process\n",
+                                  shardedNanos / (1e3 * queries), singleNanos / (1e3 * queries));
+                costMismatches.report();
+                nearestMismatches.report();
+                System.out.printf("single process graph %,d bytes\n", graph.estimatedBytes());
+                System.out.print(coordinator.stats());
+            }
+        } finally {
+            for (File file : directory.toFile().listFiles()){
+                file.delete();
+            }
+            directory.toFile().delete();
+        }
+    }
+
+    /**
+     * Run a DispatchServer on a local port and drive it with pipelined connections, once answering each request on its
+     * own and once coalescing the requests into batches, and report the throughput and the latency seen by the clients.
+     * @param inputPath The path of the input file, whose calls are sent in order and repeated.
+     * @param connections The number of client connections.
+     * @param perConnection The number of requests sent on each connection.
+     * @param depth The largest number of requests each connection has waiting for a response.
+     * @param windowMicros The batch window of the batching server in microseconds.
+    */
+    private static void server(String inputPath, int connections, int perConnection, int depth, long windowMicros) throws IOException {
+        TaxiSimulator simulator = new TaxiSimulator(inputPath);
+        StringTokenizer tokenizer = new StringTokenizer(simulator.getCalls());
+        java.util.ArrayList<String> calls = new java.util.ArrayList<>();
+        while (tokenizer.hasMoreTokens()){
+            calls.add(tokenizer.nextToken() + ' ' + tokenizer.nextToken());
+        }
+        System.out.printf("%s: %,d connections, %,d requests each, %d in flight per connection\n", inputPath, connections, perConnection, depth);
+        for (int maxBatch : new int[]{1, DispatchServer.DEFAULT_MAX_BATCH}){
+            Mismatches mismatches = new Mismatches(maxBatch == 1 ? "unbatched" : "batched");
+            for (int round = 0; round < 2; round++){
+                // The first round warms up the simulation and is not reported.
+                try (DispatchServer server = new DispatchServer(simulator, Runtime.getRuntime().availableProcessors(), maxBatch == 1 ? 0 : windowMicros, maxBatch)){
+                    int port = server.listen(0);
+                    LatencyHistogram latency = new LatencyHistogram();
+                    long start = System.nanoTime();
+                    load(port, calls, connections, round == 0 ? Math.min(perConnection, 200) : perConnection, depth, latency, mismatches);
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    if (round == 1){
+                        System.out.printf("%-9s %,9.0f calls/sec  p50 %,9.1f us  p99 %,9.1f us  max %,9.1f us  %,7d batches\n",
+                                          maxBatch == 1 ? "unbatched" : "batched", latency.count() / seconds, latency.quantileNanos(0.50) / 1e3,
+                                          latency.quantileNanos(0.99) / 1e3, latency.maxNanos() / 1e3, server.batches());
+                    }
+                }
+            }
+            mismatches.report();
+        }
+    }
+
+    /**
+     * Send pipelined requests on several connections to a local DispatchServer and record the time until each
+     * response has been read, counting the responses that were not for the client requested.
+    */
+    private static void load(int port, java.util.List<String> calls, int connections, int perConnection, int depth, LatencyHistogram latency,
+                             Mismatches mismatches) throws IOException {
+        Thread[] threads = new Thread[connections];
+        for (int c = 0; c < connections; c++){
+            java.net.Socket socket = new java.net.Socket(java.net.InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            int offset = c * 7;
+            java.util.concurrent.Semaphore inFlight = new java.util.concurrent.Semaphore(depth);
+            java.util.concurrent.ConcurrentLinkedQueue<Long> sent = new java.util.concurrent.ConcurrentLinkedQueue<>();
+            // Send the requests on one thread, keeping at most depth of them waiting for a response.
+            Thread sender = new Thread(() -> {
+                try {
+                    java.io.Writer out = new java.io.OutputStreamWriter(socket.getOutputStream(), java.nio.charset.StandardCharsets.UTF_8);
+                    for (int i = 0; i < perConnection; i++){
+                        inFlight.acquire();
+                        sent.add(System.nanoTime());
+                        out.write(calls.get((offset + i) % calls.size()) + "\n");
+                        if (inFlight.availablePermits() == 0 || i == perConnection - 1){
+                            out.flush();
+                        }
+                    }
+                    out.write("quit\n");
+                    out.flush();
+                } catch (IOException | InterruptedException e){
+                    throw new IllegalStateException(e);
+                }
+            });
+            sender.start();
+            // Read the responses on another, which ends when the server closes the connection after the last one.
+            threads[c] = new Thread(() -> {
+                try (java.io.BufferedReader in = new java.io.BufferedReader(new java.io.InputStreamReader(socket.getInputStream(), java.nio.charset.StandardCharsets.UTF_8))){
+                    for (int i = 0; i < perConnection; i++){
+                        String first = in.readLine();
+                        String line = first;
+                        while (line != null && !line.isEmpty()){
+                            line = in.readLine();
+                        }
+                        latency.record(System.nanoTime() - sent.remove());
+                        inFlight.release();
+                        String client = calls.get((offset + i) % calls.size()).split(" ")[0];
+                        mismatches.compare("client " + client, first, "first line of response " + i);
+                    }
+                    sender.join();
+                } catch (IOException | InterruptedException e){
+                    throw new IllegalStateException(e);
+                }
+            });
+            threads[c].start();
+        }
+        for (Thread thread : threads){
+            try {
+                thread.join();
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Time the AssignmentSolver on random square matrices, then simulate the same day of a taxi fleet twice,
+     * sending each call the nearest idle taxi and matching the calls of each batch window together.
+     * @param inputPath The path of the input file, whose calls are drawn from at random.
+     * @param numCalls The number of calls over the day.
+     * @param perShop The number of taxis starting at every Shop.
+     * @param hours The length of the day in hours.
+     * @param minutesPerCost The travel time of one unit of road cost.
+     * @param window The length of each batch window in minutes.
+    */
+    private static void assign(String inputPath, int numCalls, int perShop, double hours, double minutesPerCost, double window){
+        Random random = new Random(SEED);
+        for (int n : new int[]{100, 300, 500}){
+            double[][] cost = new double[n][n];
+            for (double[] row : cost){
+                for (int j = 0; j < n; j++){
+                    row[j] = 1 + random.nextInt(1000);
+                }
+            }
+            int[] match = null;
+            long nanos = Long.MAX_VALUE;
+            for (int run = 0; run < 5; run++){
+                long begin = System.nanoTime();
+                match = AssignmentSolver.solve(cost);
+                nanos = Math.min(nanos, System.nanoTime() - begin);
+            }
+            double total = 0;
+            for (int i = 0; i < n; i++){
+                total += cost[i][match[i]];
+            }
+            System.out.printf("solve %d x %d: %,8.2f ms (best of 5), total cost %,.0f\n", n, n, nanos / 1e6, total);
+        }
+        TaxiSimulator simulator = new TaxiSimulator(inputPath);
+        System.out.printf("%s: %,d vertices, %,d edges\n", inputPath, simulator.compact().size(), simulator.compact().edgeCount());
+        for (double batchWindow : new double[]{0, window}){
+            FleetSimulation fleet = new FleetSimulation(simulator);
+            fleet.setMinutesPerCost(minutesPerCost);
+            fleet.setBatchWindow(batchWindow);
+            fleet.addTaxisAtShops(perShop);
+            fleet.addRandomCalls(numCalls, hours * 60, SEED);
+            long begin = System.nanoTime();
+            fleet.run();
+            long runNanos = System.nanoTime() - begin;
+            System.out.println(batchWindow == 0 ? "nearest taxi per call:" : String.format("batches of %.1f min:", batchWindow));
+            System.out.print(fleet.summary());
+            System.out.printf("run %,10.1f ms, %,d batches, %,.1f ms matching\n", runNanos / 1e6, fleet.batches(), fleet.batchNanos() / 1e6);
+        }
+    }
+
+    /**
+     * Read the adjacency lines of the given input file with Scanner and StringTokenizer, as TaxiSimulator used to,
+     * decoding the names as UTF-8 like the InputParser does whatever the default charset of the platform.
+     * @param inputPath The path of the input file.
+     * @return The graph read.
+    */
+    private static Graph scannerParse(String inputPath) throws IOException {
+        Graph graph = new Graph();
+        try (Scanner input = new Scanner(new FileInputStream(inputPath), StandardCharsets.UTF_8)){
+            int numNodes = input.nextInt();
+            input.nextLine();
+            for (int i = 0; i < numNodes; i++){
+                StringTokenizer tokenizer = new StringTokenizer(input.nextLine());
+                String source = tokenizer.nextToken();
+                while (tokenizer.hasMoreTokens()){
+                    String destination = tokenizer.nextToken();
+                    int cost = Integer.parseInt(tokenizer.nextToken());
+                    graph.addEdge(source, destination, cost);
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Read the adjacency lines of the given input file with the memory-mapped InputParser.
+     * @param inputPath The path of the input file.
+     * @return The graph read.
+    */
+    private static Graph mappedParse(String inputPath) throws IOException {
+        Graph graph = new Graph();
+        try (InputParser input = new InputParser(inputPath)){
+            input.readAdjacency(graph);
+        }
+        return graph;
+    }
+
+    /**
+     * Check that the Scanner parser and the InputParser read the same graph from an input file: the same names in
+     * the same order, and the same roads from each node.
+     * @param inputPath The path of the input file.
+     * @param mismatches Records the differences.
+    */
+    private static void compareParsers(String inputPath, Mismatches mismatches) throws IOException {
+        CompactGraph expected = scannerParse(inputPath).compact();
+        CompactGraph actual = mappedParse(inputPath).compact();
+        if (!mismatches.compare(expected.size(), actual.size(), inputPath + " vertices")){
+            return;
+        }
+        for (int v = 0; v < expected.size(); v++){
+            mismatches.compare(expected.name(v), actual.name(v), inputPath + " name of vertex " + v);
+            StringBuilder expectedRoads = new StringBuilder();
+            StringBuilder actualRoads = new StringBuilder();
+            for (int e = expected.firstEdge(v); e < expected.edgeEnd(v); e++){
+                expectedRoads.append(expected.target(e)).append(':').append(expected.cost(e)).append(' ');
+            }
+            for (int e = actual.firstEdge(v); e < actual.edgeEnd(v); e++){
+                actualRoads.append(actual.target(e)).append(':').append(actual.cost(e)).append(' ');
+            }
+            mismatches.compare(expectedRoads.toString(), actualRoads.toString(), inputPath + " roads of " + expected.name(v));
+        }
+    }
+
+    /**
+     * Compare the time taken to load the graph of an input file by the Scanner parser and the InputParser.
+     * Each parser is run the given number of times after one warm up run, and the fastest run is reported.
+     * Both parsers are first checked to read the same graph, from the input file and from a small file of
+     * non-ASCII names, whose UTF-8 bytes are all 0x80 and above.
+     * @param inputPath The path of the input file.
+     * @param runs The number of timed runs of each parser.
+    */
+    private static void parse(String inputPath, int runs) throws IOException {
+        Mismatches mismatches = new Mismatches("parse");
+        compareParsers(inputPath, mismatches);
+        // Path is the queue entry of Graph here, so the file path is named in full.
+        java.nio.file.Path names = Files.createTempFile("taxi-names", ".txt");
+        try {
+            String text = "4\n\u00e9 \u00df 2 \u6771\u4eac 4\n\u00df \u00e9 1 \u00ff 7\n\u6771\u4eac \u00e9 3\n\u00ff\n";
+            Files.write(names, text.getBytes(StandardCharsets.UTF_8));
+            compareParsers(names.toString(), mismatches);
+        } finally {
+            Files.delete(names);
+        }
+        mismatches.report();
+        long scannerBest = Long.MAX_VALUE;
+        long mappedBest = Long.MAX_VALUE;
+        int edges = 0;
+        scannerParse(inputPath);
+        mappedParse(inputPath);
+        for (int i = 0; i < runs; i++){
+            long start = System.nanoTime();
+            scannerParse(inputPath).compact();
+            scannerBest = Math.min(scannerBest, System.nanoTime() - start);
+            start = System.nanoTime();
+            edges = mappedParse(inputPath).compact().edgeCount();
+            mappedBest = Math.min(mappedBest, System.nanoTime() - start);
+        }
+        System.out.printf("%s: %,d edges, best of %d runs\n", inputPath, edges, runs);
+        System.out.printf("Scanner + StringTokenizer  %,10.1f ms\n", scannerBest / 1e6);
+        System.out.printf("InputParser (mapped)       %,10.1f ms\n", mappedBest / 1e6);
+        System.out.printf("speedup                    %10.1fx\n", (double) scannerBest / mappedBest);
+    }
+
+    /**
+     * Write a snapshot of the given input file, check that the snapshot loads the same simulation with
+     * SnapshotCheck.compare, and compare load times.
+     * @param inputPath The path of the text input file.
+     * @param snapshotPath The path of the snapshot file to write.
+     * @param maxCalls The largest number of calls whose text is compared.
+    */
+    private static void snapshot(String inputPath, String snapshotPath, int maxCalls) throws IOException {
+        long start = System.nanoTime();
+        TaxiSimulator text = new TaxiSimulator(inputPath);
+        text.compact();
+        double textMillis = (System.nanoTime() - start) / 1e6;
+        text.saveSnapshot(snapshotPath);
+        start = System.nanoTime();
+        TaxiSimulator loaded = new TaxiSimulator(snapshotPath);
+        loaded.compact();
+        double snapshotMillis = (System.nanoTime() - start) / 1e6;
+
+        Mismatches mismatches = new Mismatches("snapshot");
+        int callsChecked = SnapshotCheck.compare(text, loaded, maxCalls, mismatches);
+        CompactGraph expected = text.compact();
+        System.out.printf("%s: %,d vertices, %,d edges, %,d calls checked\n", inputPath, expected.size(), expected.edgeCount(), callsChecked);
+        mismatches.report();
+        System.out.printf("text load      %,10.1f ms\n", textMillis);
+        System.out.printf("snapshot load  %,10.1f ms (%s, %,d bytes)\n", snapshotMillis, snapshotPath, new java.io.File(snapshotPath).length());
+    }
+
+    /**
+     * Write a mapped graph of an input file, check that MappedSimulator gives the same text as TaxiSimulator for
+     * the calls of the file, and compare the time per call and the heap used with the graph loaded and mapped.
+     * @param inputPath The path of the input file.
+     * @param mappedPath The path of the mapped graph file written.
+     * @param maxCalls The largest number of calls checked.
+    */
+    private static void mapped(String inputPath, String mappedPath, int maxCalls) throws IOException {
+        long baseline = usedHeap();
+        TaxiSimulator text = new TaxiSimulator(inputPath);
+        text.compact();
+        text.getPathCache().setCapacity(0);
+        text.saveMapped(mappedPath);
+        long textHeap = usedHeap() - baseline;
+        java.util.ArrayList<String> clients = new java.util.ArrayList<>();
+        java.util.ArrayList<String> companies = new java.util.ArrayList<>();
+        StringTokenizer calls = new StringTokenizer(text.getCalls());
+        while (calls.hasMoreTokens() && clients.size() < maxCalls){
+            clients.add(calls.nextToken());
+            companies.add(calls.nextToken());
+        }
+        // Warm up the loaded graph, so the heap measured for the mapped graph holds only what it adds.
+        for (int i = 0; i < clients.size(); i++){
+            text.dispatch(clients.get(i), companies.get(i), true);
+        }
+        Mismatches mismatches = new Mismatches("mapped");
+        long textNanos = 0;
+        long mappedNanos = 0;
+        long loadedHeap = usedHeap();
+        try (MappedGraph graph = MappedGraph.open(mappedPath)){
+            MappedSimulator mapped = new MappedSimulator(graph);
+            mismatches.compare(text.getCalls().trim(), graph.getCalls(), "call list");
+            for (int i = 0; i < clients.size(); i++){
+                for (boolean accepts : new boolean[]{true, false}){
+                    long begin = System.nanoTime();
+                    String expected = text.dispatch(clients.get(i), companies.get(i), accepts);
+                    long middle = System.nanoTime();
+                    String actual = mapped.dispatch(clients.get(i), companies.get(i), accepts);
+                    mappedNanos += System.nanoTime() - middle;
+                    textNanos += middle - begin;
+                    mismatches.compare(expected, actual, clients.get(i) + ' ' + companies.get(i));
+                }
+            }
+            long mappedHeap = usedHeap() - loadedHeap;
+            System.out.printf("%s: %,d vertices, %,d edges, %,d calls checked\n", inputPath, graph.size(), graph.edgeCount(), clients.size());
+            mismatches.report();
+            System.out.printf("loaded graph  %,10.3f ms per call, %,14d bytes of heap\n", textNanos / 1e6 / (2 * clients.size()), textHeap);
+            System.out.printf("mapped graph  %,10.3f ms per call, %,14d bytes of heap, %,d bytes mapped (%s)\n",
+                              mappedNanos / 1e6 / (2 * clients.size()), mappedHeap, graph.mappedBytes(), mappedPath);
+        }
+    }
+
+    /**
+     * Obtain the heap in use once the garbage collector has run.
+    */
+    private static long usedHeap(){
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++){
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Compare full searches with point-to-point and bidirectional searches between random pairs of vertices.
+     * Every point-to-point result is checked against the full search for its cost, tie flag and path, and every
+     * bidirectional result for its cost and for a path of that cost along edges of the graph.
+     * @param inputPath The path of the input file.
+     * @param queries The number of random pairs.
+    */
+    private static void pointToPoint(String inputPath, int queries){
+        TaxiSimulator simulator = new TaxiSimulator(inputPath);
+        simulator.getPathCache().setCapacity(0);
+        CompactGraph graph = simulator.compact();
+        Random random = new Random(SEED);
+        int[] starts = new int[queries];
+        int[] targets = new int[queries];
+        for (int i = 0; i < queries; i++){
+            starts[i] = random.nextInt(graph.size());
+            targets[i] = random.nextInt(graph.size());
+        }
+        long fullSettled = 0;
+        long earlySettled = 0;
+        long bidirectionalSettled = 0;
+        long fullNanos = 0;
+        long earlyNanos = 0;
+        long bidirectionalNanos = 0;
+        Mismatches mismatches = new Mismatches("point-to-point");
+        for (int i = 0; i < queries; i++){
+            String start = graph.name(starts[i]);
+            String target = graph.name(targets[i]);
+            long begin = System.nanoTime();
+            SearchContext full = (SearchContext) simulator.search(start);
+            fullNanos += System.nanoTime() - begin;
+            begin = System.nanoTime();
+            SearchContext early = (SearchContext) simulator.search(start, target);
+            earlyNanos += System.nanoTime() - begin;
+            begin = System.nanoTime();
+            BidirectionalSearch bidirectional = simulator.searchBidirectional(start, target);
+            bidirectionalNanos += System.nanoTime() - begin;
+            fullSettled += full.settledCount();
+            earlySettled += early.settledCount();
+            bidirectionalSettled += bidirectional.settledCount();
+            // The early exit search must agree with the full search on the target.
+            boolean same = full.dist(targets[i]) == early.dist(targets[i])
+                && full.hasDuplicatePaths(targets[i]) == early.hasDuplicatePaths(targets[i]);
+            for (int v = targets[i]; same && v != -1; v = full.prev(v)){
+                same = full.prev(v) == early.prev(v);
+            }
+            // The bidirectional path must run along edges of the graph and add up to the same cost.
+            same = same && bidirectional.cost() == full.dist(targets[i]);
+            int[] path = bidirectional.path();
+            if (same && path != null){
+                double cost = 0;
+                same = path[0] == starts[i] && path[path.length - 1] == targets[i];
+                for (int j = 1; same && j < path.length; j++){
+                    double edge = Graph.INFINITY;
+                    for (int e = graph.firstEdge(path[j - 1]); e < graph.edgeEnd(path[j - 1]); e++){
+                        if (graph.target(e) == path[j]){
+                            edge = Math.min(edge, graph.cost(e));
+                        }
+                    }
+                    same = edge != Graph.INFINITY;
+                    cost += edge;
+                }
+                same = same && cost == bidirectional.cost();
+            }
+            mismatches.check(same, "%s to %s", start, target);
+            full.close();
+            early.close();
+        }
+        System.out.printf("%s: %,d vertices, %,d edges, %,d queries\n", inputPath, graph.size(), graph.edgeCount(), queries);
+        mismatches.report();
+        System.out.printf("                 settled/query      ms/query\n");
+        System.out.printf("full search      %,13.0f  %12.3f\n", (double) fullSettled / queries, fullNanos / 1e6 / queries);
+        System.out.printf("early exit       %,13.0f  %12.3f\n", (double) earlySettled / queries, earlyNanos / 1e6 / queries);
+        System.out.printf("bidirectional    %,13.0f  %12.3f\n", (double) bidirectionalSettled / queries, bidirectionalNanos / 1e6 / queries);
+    }
+
+    /**
+     * Build landmark tables for an input file and compare A* point-to-point searches with Dijkstra's algorithm.
+     * Every A* result is checked against a full search for the cost and tie flag of the target.
+     * Reports the preprocessing time and memory, and the settled vertices and time per query.
+     * @param inputPath The path of the input file.
+     * @param count The number of landmarks.
+     * @param queries The number of random pairs.
+    */
+    private static void landmarks(String inputPath, int count, int queries){
+        TaxiSimulator simulator = new TaxiSimulator(inputPath);
+        simulator.getPathCache().setCapacity(0);
+        CompactGraph graph = simulator.compact();
+        Landmarks landmarks = simulator.buildLandmarks(count);
+        Random random = new Random(SEED);
+        long[] settled = new long[3];
+        long[] nanos = new long[3];
+        Mismatches mismatches = new Mismatches("landmarks");
+        for (int i = 0; i < queries; i++){
+            int start = random.nextInt(graph.size());
+            int target = random.nextInt(graph.size());
+            // Full Dijkstra, early exit Dijkstra and A*, in that order.
+            SearchContext[] results = new SearchContext[3];
+            for (int j = 0; j < 3; j++){
+                results[j] = graph.acquireContext();
+                long begin = System.nanoTime();
+                if (j == 0){
+                    results[j].search(start);
+                } else {
+                    results[j].search(start, target, j == 2 ? landmarks : null);
+                }
+                nanos[j] += System.nanoTime() - begin;
+                settled[j] += results[j].settledCount();
+            }
+            for (int j = 1; j < 3; j++){
+                mismatches.check(results[j].dist(target) == results[0].dist(target) && results[j].hasDuplicatePaths(target) == results[0].hasDuplicatePaths(target),
+                                 "%s from %d to %d", j == 2 ? "A*" : "early exit", start, target);
+            }
+            for (SearchContext result : results){
+                result.close();
+            }
+        }
+        System.out.printf("%s: %,d vertices, %,d edges, %d landmarks, %,d queries\n", inputPath, graph.size(), graph.edgeCount(), count, queries);
+        mismatches.report();
+        System.out.printf("preprocessing    %,10.1f ms, %,d bytes (%.1f bytes per vertex, graph %,d bytes)\n", landmarks.buildNanos() / 1e6,
+                          landmarks.estimatedBytes(), (double) landmarks.estimatedBytes() / graph.size(), graph.estimatedBytes());
+        System.out.printf("                 settled/query      ms/query   speedup\n");
+        String[] names = {"dijkstra", "early exit", "A* (ALT)"};
+        for (int j = 0; j < 3; j++){
+            System.out.printf("%-16s %,13.0f  %12.3f  %7.1fx\n", names[j], (double) settled[j] / queries, nanos[j] / 1e6 / queries, (double) nanos[0] / nanos[j]);
+        }
+    }
+
+    /**
+     * Build a contraction hierarchy for an input file, save it and read it back, and compare its queries with Dijkstra's algorithm.
+     * Every query is checked against a full search for its cost, and for an unpacked path of that cost along edges of the graph.
+     * The nearest shops of every call are checked against findNearestShop without the hierarchy.
+     * @param inputPath The path of the input file.
+     * @param hierarchyPath The path of the hierarchy file to write.
+     * @param queries The number of random pairs.
+    */
+    private static void hierarchy(String inputPath, String hierarchyPath, int queries) throws IOException {
+        TaxiSimulator simulator = new TaxiSimulator(inputPath);
+        simulator.getPathCache().setCapacity(0);
+        CompactGraph graph = simulator.compact();
+        ContractionHierarchy built = simulator.buildContractionHierarchy();
+        built.save(hierarchyPath);
+        ContractionHierarchy hierarchy = simulator.loadContractionHierarchy(hierarchyPath);
+        Random random = new Random(SEED);
+        long dijkstraNanos = 0;
+        long hierarchyNanos = 0;
+        Mismatches mismatches = new Mismatches("hierarchy");
+        for (int i = 0; i < queries; i++){
+            int start = random.nextInt(graph.size());
+            int target = random.nextInt(graph.size());
+            long begin = System.nanoTime();
+            double expected;
+            try (SearchContext context = graph.acquireContext()){
+                expected = context.search(start, target).dist(target);
+            }
+            dijkstraNanos += System.nanoTime() - begin;
+            begin = System.nanoTime();
+            double cost = hierarchy.distance(start, target);
+            hierarchyNanos += System.nanoTime() - begin;
+            // The unpacked path must run along edges of the graph and add up to the same cost.
+            int[] path = hierarchy.path(start, target);
+            boolean same = cost == expected && (path == null) == (expected == Graph.INFINITY);
+            if (same && path != null){
+                double total = 0;
+                same = path[0] == start && path[path.length - 1] == target;
+                for (int j = 1; same && j < path.length; j++){
+                    double edge = Graph.INFINITY;
+                    for (int e = graph.firstEdge(path[j - 1]); e < graph.edgeEnd(path[j - 1]); e++){
+                        if (graph.target(e) == path[j]){
+                            edge = Math.min(edge, graph.cost(e));
+                        }
+                    }
+                    same = edge != Graph.INFINITY;
+                    total += edge;
+                }
+                same = same && total == cost;
+            }
+            mismatches.check(same, "%d to %d: cost %s, expected %s", start, target, cost, expected);
+        }
+        // Compare the nearest shops of every call with and without the hierarchy.
+        StringTokenizer calls = new StringTokenizer(simulator.getCalls());
+        int callsChecked = 0;
+        while (calls.hasMoreTokens()){
+            String client = calls.nextToken();
+            String company = calls.nextToken();
+            java.util.List<Vertex> withHierarchy = simulator.findNearestShop(client, company);
+            simulator.clearContractionHierarchy();
+            mismatches.compare(simulator.findNearestShop(client, company), withHierarchy, "nearest shops of " + client + ' ' + company);
+            simulator.loadContractionHierarchy(hierarchyPath);
+            callsChecked++;
+        }
+        System.out.printf("%s: %,d vertices, %,d edges, %,d queries, %,d calls checked\n", inputPath, graph.size(), graph.edgeCount(), queries, callsChecked);
+        mismatches.report();
+        System.out.printf("build            %,10.1f ms, %,d shortcuts, %,d bytes\n", built.buildNanos() / 1e6, built.shortcutCount(), built.estimatedBytes());
+        System.out.printf("read from file   %,10.1f ms (%s, %,d bytes)\n", hierarchy.buildNanos() / 1e6, hierarchyPath, new java.io.File(hierarchyPath).length());
+        System.out.printf("early exit Dijkstra %,10.3f ms/query\n", dijkstraNanos / 1e6 / queries);
+        System.out.printf("hierarchy query     %,10.3f ms/query (%.0fx)\n", hierarchyNanos / 1e6 / queries, (double) dijkstraNanos / hierarchyNanos);
+    }
+
+    /**
+     * Build the shop distance oracle for an input file, and compare the calls answered from it with the calls answered by searching.
+     * The nearest taxis, the nearest shops and the costs of the fare of every call are checked. Random roads are then made
+     * cheaper, by adding a shorter road alongside, and one new shop is added. The refreshed tables are checked against tables
+     * built again from scratch.
+     * @param inputPath The path of the input file.
+     * @param roads The number of random roads to make cheaper.
+    */
+    private static void oracle(String inputPath, int roads){
+        TaxiSimulator simulator = new TaxiSimulator(inputPath);
+        simulator.getPathCache().setCapacity(0);
+        CompactGraph graph = simulator.compact();
+        ShopDistanceOracle oracle = simulator.buildShopDistanceOracle();
+        // Step 1 - Answer every call with and without the oracle, timing both.
+        java.util.ArrayList<String> clients = new java.util.ArrayList<>();
+        java.util.ArrayList<String> companies = new java.util.ArrayList<>();
+        StringTokenizer calls = new StringTokenizer(simulator.getCalls());
+        while (calls.hasMoreTokens()){
+            clients.add(calls.nextToken());
+            companies.add(calls.nextToken());
+        }
+        java.util.ArrayList<String> withOracle = new java.util.ArrayList<>();
+        java.util.ArrayList<String> withSearches = new java.util.ArrayList<>();
+        long begin = System.nanoTime();
+        answerCalls(simulator, clients, companies, withOracle);
+        long oracleNanos = System.nanoTime() - begin;
+        simulator.clearShopDistanceOracle();
+        begin = System.nanoTime();
+        answerCalls(simulator, clients, companies, withSearches);
+        long searchNanos = System.nanoTime() - begin;
+        Mismatches mismatches = new Mismatches("calls");
+        for (int i = 0; i < withOracle.size(); i++){
+            mismatches.compare(withSearches.get(i), withOracle.get(i), clients.get(i) + ' ' + companies.get(i));
+        }
+        // Step 2 - Add random roads and a shop, refreshing only the affected rows, and compare with a fresh build.
+        simulator.buildShopDistanceOracle();
+        Random random = new Random(SEED);
+        begin = System.nanoTime();
+        for (int i = 0; i < roads && graph.edgeCount() > 0; i++){
+            int v = random.nextInt(graph.size());
+            if (graph.firstEdge(v) == graph.edgeEnd(v)){
+                i--;
+                continue;
+            }
+            int e = graph.firstEdge(v) + random.nextInt(graph.edgeEnd(v) - graph.firstEdge(v));
+            simulator.addEdge(graph.name(v), graph.name(graph.target(e)), Math.max(1, graph.cost(e) - 1 - random.nextInt(3)));
+        }
+        String newShop = null;
+        for (int v = 0; newShop == null && v < graph.size(); v++){
+            if (simulator.getRoles().role(v) != VertexRoles.Role.SHOP){
+                newShop = graph.name(v);
+            }
+        }
+        if (newShop != null){
+            simulator.addShop(newShop, "QnQ");
+        }
+        long refreshNanos = System.nanoTime() - begin;
+        ShopDistanceOracle refreshed = simulator.getShopDistanceOracle();
+        ShopDistanceOracle fresh = new ShopDistanceOracle(simulator.compact(), simulator.vertexMap.values(), 1);
+        Mismatches tableMismatches = new Mismatches("tables");
+        tableMismatches.check(refreshed != null, "the oracle was dropped");
+        for (String company : fresh.companyNames()){
+            ShopDistanceOracle.Company expected = fresh.company(company);
+            ShopDistanceOracle.Company actual = refreshed == null ? null : refreshed.company(company);
+            if (!tableMismatches.check(actual != null && actual.size() == expected.size(), "shops of %s", company)){
+                continue;
+            }
+            for (int i = 0; i < expected.size(); i++){
+                for (int v = 0; v < graph.size(); v++){
+                    tableMismatches.check(actual.shop(i) == expected.shop(i) && actual.costFrom(i, v) == expected.costFrom(i, v)
+                                          && actual.costTo(v, i) == expected.costTo(v, i), "%s shop %d, vertex %d", company, i, v);
+                }
+            }
+        }
+        System.out.printf("%s: %,d vertices, %,d edges, %,d shops, %,d calls\n", inputPath, graph.size(), graph.edgeCount(), oracle.shopCount(), clients.size());
+        System.out.printf("build          %,10.1f ms on %d workers, %,d bytes\n", oracle.buildNanos() / 1e6,
+                          Runtime.getRuntime().availableProcessors(), oracle.estimatedBytes());
+        System.out.printf("searches       %,10.3f ms/call\n", searchNanos / 1e6 / Math.max(1, clients.size()));
+        System.out.printf("oracle         %,10.3f ms/call (%.0fx)\n", oracleNanos / 1e6 / Math.max(1, clients.size()), (double) searchNanos / oracleNanos);
+        System.out.printf("refresh        %,10.1f ms per change, %,d cheaper roads and 1 shop, %,d of %,d rows filled again\n",
+                          refreshNanos / 1e6 / (roads + 1), roads, refreshed == null ? 0 : refreshed.refreshedRows(), fresh.shopCount() * (roads + 1L));
+        System.out.printf("fresh build    %,10.1f ms on 1 worker\n", fresh.buildNanos() / 1e6);
+        mismatches.report();
+        tableMismatches.report();
+    }
+
+    /**
+     * Compare repairing the cached shortest path trees and the shop distance oracle after batches of traffic changes
+     * with computing them again from scratch. Each batch size stands for a rate of changes between two rounds of calls.
+     * Every repaired tree and table is checked against a fresh search.
+     * @param inputPath The path of the input file.
+     * @param numTrees The number of trees in the cache, half of them from and half towards random nodes.
+     * @param rounds The number of batches of each size.
+     * @param batchSizes The numbers of changes per batch.
+    */
+    private static void updates(String inputPath, int numTrees, int rounds, int[] batchSizes){
+        TaxiSimulator simulator = new TaxiSimulator(inputPath);
+        simulator.getPathCache().setCapacity(numTrees);
+        Random random = new Random(SEED);
+        int numVertices = simulator.compact().size();
+        int[] sources = new int[numTrees];
+        for (int i = 0; i < numTrees; i++){
+            sources[i] = random.nextInt(numVertices);
+        }
+        simulator.buildShopDistanceOracle();
+        System.out.printf("%s: %,d vertices, %,d edges, %d cached trees, %,d shops\n", inputPath, numVertices,
+                          simulator.compact().edgeCount(), numTrees, simulator.getShopDistanceOracle().shopCount());
+        System.out.println("changes/batch   repair ms/batch   recompute ms/batch   speedup   oracle rows repaired   mismatches");
+        Mismatches[] reports = new Mismatches[batchSizes.length];
+        for (int b = 0; b < batchSizes.length; b++){
+            int batchSize = batchSizes[b];
+            long repairNanos = 0;
+            long recomputeNanos = 0;
+            long rowsRepaired = 0;
+            Mismatches mismatches = reports[b] = new Mismatches("batches of " + batchSize);
+            for (int round = 0; round < rounds; round++){
+                // Step 1 - Fill the cache, then make a batch of random changes to the costs of existing roads.
+                for (int i = 0; i < numTrees; i++){
+                    String name = simulator.compact().name(sources[i]);
+                    (i % 2 == 0 ? simulator.search(name) : simulator.searchTo(name)).close();
+                }
+                CompactGraph graph = simulator.compact();
+                java.util.ArrayList<EdgeUpdate> batch = new java.util.ArrayList<>();
+                while (batch.size() < batchSize){
+                    int v = random.nextInt(numVertices);
+                    if (graph.firstEdge(v) == graph.edgeEnd(v)){
+                        continue;
+                    }
+                    int e = graph.firstEdge(v) + random.nextInt(graph.edgeEnd(v) - graph.firstEdge(v));
+                    double cost = Math.max(1, Math.round(graph.cost(e) * (0.5 + random.nextDouble())));
+                    batch.add(new EdgeUpdate(graph.name(v), graph.name(graph.target(e)), cost));
+                }
+                // Step 2 - Apply the batch, repairing the cache and the oracle.
+                long repairedBefore = simulator.getShopDistanceOracle().refreshedRows();
+                long begin = System.nanoTime();
+                simulator.updateEdges(batch);
+                repairNanos += System.nanoTime() - begin;
+                rowsRepaired += simulator.getShopDistanceOracle().refreshedRows() - repairedBefore;
+                // Step 3 - Compute the same trees and oracle from scratch, and compare.
+                CompactGraph changed = simulator.compact();
+                begin = System.nanoTime();
+                ShortestPathTree[] fresh = new ShortestPathTree[numTrees];
+                for (int i = 0; i < numTrees; i++){
+                    try (SearchContext context = changed.acquireContext()){
+                        fresh[i] = new ShortestPathTree(i % 2 == 0 ? context.search(sources[i]) : context.searchTo(sources[i]));
+                    }
+                }
+                ShopDistanceOracle freshOracle = new ShopDistanceOracle(changed, simulator.vertexMap.values(),
+                                                                        Runtime.getRuntime().availableProcessors());
+                recomputeNanos += System.nanoTime() - begin;
+                for (int i = 0; i < numTrees; i++){
+                    ShortestPathTree repaired = simulator.getPathCache().get(changed, sources[i], i % 2 != 0);
+                    for (int v = 0; repaired != null && v < numVertices; v++){
+                        mismatches.check(repaired.dist(v) == fresh[i].dist(v) && repaired.hasDuplicatePaths(v) == fresh[i].hasDuplicatePaths(v)
+                                         && repaired.prev(v) == fresh[i].prev(v), "tree %d, vertex %d", i, v);
+                    }
+                }
+                ShopDistanceOracle oracle = simulator.getShopDistanceOracle();
+                for (String company : freshOracle.companyNames()){
+                    ShopDistanceOracle.Company expected = freshOracle.company(company);
+                    ShopDistanceOracle.Company actual = oracle.company(company);
+                    for (int i = 0; i < expected.size(); i++){
+                        for (int v = 0; v < numVertices; v++){
+                            mismatches.check(actual.costFrom(i, v) == expected.costFrom(i, v) && actual.costTo(v, i) == expected.costTo(v, i),
+                                             "%s shop %d, vertex %d", company, i, v);
+                        }
+                    }
+                }
+            }
+            System.out.printf("%,13d   %,15.2f   %,18.2f   %6.1fx   %,20d   %,10d\n", batchSize, repairNanos / 1e6 / rounds,
+                              recomputeNanos / 1e6 / rounds, (double) recomputeNanos / repairNanos, rowsRepaired / rounds, mismatches.count());
+        }
+        for (Mismatches mismatches : reports){
+            mismatches.report();
+        }
+    }
+
+    /**
+     * Find the nearest taxis and shops and the trip costs of each call, and describe them in one line per call.
+    */
+    private static void answerCalls(TaxiSimulator simulator, java.util.List<String> clients, java.util.List<String> companies,
+                                    java.util.List<String> answers){
+        for (int i = 0; i < clients.size(); i++){
+            String client = clients.get(i);
+            String company = companies.get(i);
+            StringBuilder answer = new StringBuilder();
+            java.util.List<Vertex> taxis = simulator.findNearestTaxi(client, company);
+            java.util.List<Vertex> shops = simulator.findNearestShop(client, company);
+            answer.append(taxis).append(' ').append(shops);
+            for (Vertex taxi : taxis){
+                answer.append(' ').append(simulator.getCost(taxi.name, client));
+            }
+            for (Vertex shop : shops){
+                answer.append(' ').append(simulator.getCost(client, shop.name));
+            }
+            answers.add(answer.toString());
+        }
+    }
+
+    /**
+     * Run the requested measurement.
+     * @param args The name of the measurement followed by its parameters.
+    */
+    public static void main(String[] args) throws IOException {
+        String mode = args.length > 0 ? args[0] : "footprint";
+        if (mode.equalsIgnoreCase("footprint")){
+            int numVertices = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+            int degree = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+            footprint(numVertices, degree);
+        } else if (mode.equalsIgnoreCase("dispatch")){
+            int maxWorkers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            int copies = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+            dispatch(maxWorkers, copies);
+        } else if (mode.equalsIgnoreCase("parse")){
+            String inputPath = args.length > 1 ? args[1] : TaxiSimulator.DEFAULT_INPUT;
+            int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+            parse(inputPath, runs);
+        } else if (mode.equalsIgnoreCase("snapshot")){
+            String inputPath = args.length > 1 ? args[1] : TaxiSimulator.DEFAULT_INPUT;
+            String snapshotPath = args.length > 2 ? args[2] : inputPath + ".snapshot";
+            int maxCalls = args.length > 3 ? Integer.parseInt(args[3]) : Integer.MAX_VALUE;
+            snapshot(inputPath, snapshotPath, maxCalls);
+        } else if (mode.equalsIgnoreCase("mapped")){
+            String inputPath = args.length > 1 ? args[1] : TaxiSimulator.DEFAULT_INPUT;
+            String mappedPath = args.length > 2 ? args[2] : inputPath + ".mapped";
+            int maxCalls = args.length > 3 ? Integer.parseInt(args[3]) : Integer.MAX_VALUE;
+            mapped(inputPath, mappedPath, maxCalls);
+        } else if (mode.equalsIgnoreCase("pointtopoint")){
+            String inputPath = args.length > 1 ? args[1] : TaxiSimulator.DEFAULT_INPUT;
+            int queries = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+            pointToPoint(inputPath, queries);
+        } else if (mode.equalsIgnoreCase("landmarks")){
+            String inputPath = args.length > 1 ? args[1] : TaxiSimulator.DEFAULT_INPUT;
+            int count = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+            int queries = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+            landmarks(inputPath, count, queries);
+        } else if (mode.equalsIgnoreCase("hierarchy")){
+            String inputPath = args.length > 1 ? args[1] : TaxiSimulator.DEFAULT_INPUT;
+            String hierarchyPath = args.length > 2 ? args[2] : inputPath + ".hierarchy";
+            int queries = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+            hierarchy(inputPath, hierarchyPath, queries);
+        } else if (mode.equalsIgnoreCase("oracle")){
+            String inputPath = args.length > 1 ? args[1] : TaxiSimulator.DEFAULT_INPUT;
+            int roads = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+            oracle(inputPath, roads);
+        } else if (mode.equalsIgnoreCase("updates")){
+            String inputPath = args.length > 1 ? args[1] : TaxiSimulator.DEFAULT_INPUT;
+            int numTrees = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+            int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+            int[] batchSizes = args.length > 4 ? new int[args.length - 4] : new int[]{1, 10, 100, 1000};
+            for (int i = 4; i < args.length; i++){
+                batchSizes[i - 4] = Integer.parseInt(args[i]);
+            }
+            updates(inputPath, numTrees, rounds, batchSizes);
+        } else if (mode.equalsIgnoreCase("metrics")){
+            String inputPath = args.length > 1 ? args[1] : TaxiSimulator.DEFAULT_INPUT;
+            int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+            metrics(inputPath, rounds);
+        } else if (mode.equalsIgnoreCase("fleet")){
+            String inputPath = args.length > 1 ? args[1] : TaxiSimulator.DEFAULT_INPUT;
+            int numCalls = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+            int perShop = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+            double hours = args.length > 4 ? Double.parseDouble(args[4]) : 24;
+            double minutesPerCost = args.length > 5 ? Double.parseDouble(args[5]) : 1;
+            fleet(inputPath, numCalls, perShop, hours, minutesPerCost);
+        } else if (mode.equalsIgnoreCase("nearest")){
+            String inputPath = args.length > 1 ? args[1] : TaxiSimulator.DEFAULT_INPUT;
+            int k = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+            double maxCost = args.length > 3 ? Double.parseDouble(args[3]) : Double.POSITIVE_INFINITY;
+            int queries = args.length > 4 ? Integer.parseInt(args[4]) : 1000;
+            nearest(inputPath, k, maxCost, queries);
+        } else if (mode.equalsIgnoreCase("delta")){
+            String inputPath = args.length > 1 ? args[1] : TaxiSimulator.DEFAULT_INPUT;
+            double delta = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+            int searches = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+            int maxWorkers = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+            delta(inputPath, delta, searches, maxWorkers);
+        } else if (mode.equalsIgnoreCase("ties")){
+            String inputPath = args.length > 1 ? args[1] : TaxiSimulator.DEFAULT_INPUT;
+            int checked = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+            ties(inputPath, checked);
+        } else if (mode.equalsIgnoreCase("sharded")){
+            String inputPath = args.length > 1 ? args[1] : TaxiSimulator.DEFAULT_INPUT;
+            int shards = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+            int queries = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+            sharded(inputPath, shards, queries);
+        } else if (mode.equalsIgnoreCase("server")){
+            String inputPath = args.length > 1 ? args[1] : TaxiSimulator.DEFAULT_INPUT;
+            int connections = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+            int perConnection = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+            int depth = args.length > 4 ? Integer.parseInt(args[4]) : 16;
+            long windowMicros = args.length > 5 ? Long.parseLong(args[5]) : 0;
+            server(inputPath, connections, perConnection, depth, windowMicros);
+        } else if (mode.equalsIgnoreCase("assign")){
+            String inputPath = args.length > 1 ? args[1] : TaxiSimulator.DEFAULT_INPUT;
+            int numCalls = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+            int perShop = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+            double hours = args.length > 4 ? Double.parseDouble(args[4]) : 24;
+            double minutesPerCost = args.length > 5 ? Double.parseDouble(args[5]) : 1;
+            double window = args.length > 6 ? Double.parseDouble(args[6]) : 1;
+            assign(inputPath, numCalls, perShop, hours, minutesPerCost, window);
+        } else {
+            System.out.println("Unknown measurement: " + mode);
+        }
+        if (Mismatches.anyFailed()){
+            System.exit(1);
+        }
+    }
+}
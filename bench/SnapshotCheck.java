@@ -0,0 +1,149 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.StringTokenizer;
+
+/**
+ * Round-trip check of GraphSnapshot, ending with exit status 1 if anything differs.
+ *
+ * Input.txt and two small generated cities are each written as a snapshot and read back. The reloaded simulation must
+ * have the same vertices in vertexMap order, with the same labels and edges, the same call list and the same text for
+ * every call with the driver both accepting and declining, and writing it again must give the same bytes. A snapshot
+ * cut short and one with an unknown version must fail to load with an IOException.
+ *
+ * Usage: java -cp bin:bench/bin SnapshotCheck [input file...]
+ */
+public class SnapshotCheck
+{
+    /** Seed of the generated cities.*/
+    private static final long SEED = 17062024L;
+
+    /**
+     * Compare a simulation loaded from a snapshot with the one the snapshot was written from.
+     * @param text The simulation the snapshot was written from.
+     * @param loaded The simulation read from the snapshot.
+     * @param maxCalls The largest number of calls whose text is compared.
+     * @param mismatches The count the comparisons are added to.
+     * @return The number of calls whose text was compared.
+    */
+    static int compare(TaxiSimulator text, TaxiSimulator loaded, int maxCalls, Mismatches mismatches){
+        // Compare the graphs vertex by vertex, in the order the simulation visits them.
+        CompactGraph expected = text.compact();
+        CompactGraph actual = loaded.compact();
+        Iterator<String> names = loaded.vertexMap.keySet().iterator();
+        for (String name : text.vertexMap.keySet()){
+            Vertex a = text.vertexMap.get(name);
+            Vertex b = loaded.vertexMap.get(name);
+            boolean same = names.hasNext() && names.next().equals(name) && b != null && a.index == b.index
+                && Objects.equals(a.type, b.type) && Objects.equals(a.companyName, b.companyName)
+                && expected.firstEdge(a.index) == actual.firstEdge(b.index) && expected.edgeEnd(a.index) == actual.edgeEnd(b.index);
+            for (int e = expected.firstEdge(a.index); same && e < expected.edgeEnd(a.index); e++){
+                same = expected.target(e) == actual.target(e) && expected.cost(e) == actual.cost(e);
+            }
+            mismatches.check(same, "vertex %s", name);
+        }
+        mismatches.check(!names.hasNext(), "the snapshot has more vertices than the text");
+        // Compare the text of every call.
+        mismatches.compare(text.getCalls(), loaded.getCalls(), "call list");
+        StringTokenizer calls = new StringTokenizer(text.getCalls());
+        int callsChecked = 0;
+        while (calls.hasMoreTokens() && callsChecked < maxCalls){
+            String client = calls.nextToken();
+            String company = calls.nextToken();
+            for (boolean accepts : new boolean[]{true, false}){
+                mismatches.compare(text.dispatch(client, company, accepts), loaded.dispatch(client, company, accepts), client + ' ' + company);
+            }
+            callsChecked++;
+        }
+        return callsChecked;
+    }
+
+    /**
+     * Write a snapshot of an input file, read it back and compare, then write the reloaded simulation again and
+     * compare the bytes of the two files.
+    */
+    private static void roundTrip(String inputPath, Path directory, Mismatches mismatches) throws IOException {
+        File first = directory.resolve("first.snapshot").toFile();
+        File second = directory.resolve("second.snapshot").toFile();
+        TaxiSimulator text = new TaxiSimulator(inputPath);
+        text.saveSnapshot(first.getPath());
+        TaxiSimulator loaded = new TaxiSimulator(first.getPath());
+        int callsChecked = compare(text, loaded, Integer.MAX_VALUE, mismatches);
+        loaded.saveSnapshot(second.getPath());
+        mismatches.check(Arrays.equals(Files.readAllBytes(first.toPath()), Files.readAllBytes(second.toPath())),
+                         "%s: writing the reloaded snapshot gave different bytes", inputPath);
+        System.out.printf("%-12s %,8d vertices, %,8d edges, %,6d calls, %,10d bytes\n", new File(inputPath).getName(),
+                          text.compact().size(), text.compact().edgeCount(), callsChecked, first.length());
+    }
+
+    /**
+     * Check that damaged snapshots of an input file fail to load with an IOException.
+    */
+    private static void damaged(String inputPath, Path directory, Mismatches mismatches) throws IOException {
+        Path snapshot = directory.resolve("damaged.snapshot");
+        new TaxiSimulator(inputPath).saveSnapshot(snapshot.toString());
+        byte[] bytes = Files.readAllBytes(snapshot);
+        // Cut the file short at several places, from inside the header to just before the end.
+        for (int length : new int[]{12, 24, bytes.length / 2, bytes.length - 1}){
+            Files.write(snapshot, Arrays.copyOf(bytes, length));
+            mismatches.check(failsToLoad(snapshot.toString()), "%s: a snapshot cut to %d of %d bytes loaded", inputPath, length, bytes.length);
+        }
+        // Change the version that follows the magic bytes.
+        byte[] changed = bytes.clone();
+        ByteBuffer.wrap(changed).order(ByteOrder.LITTLE_ENDIAN).putInt(8, GraphSnapshot.VERSION + 1);
+        Files.write(snapshot, changed);
+        mismatches.check(failsToLoad(snapshot.toString()), "%s: a snapshot of version %d loaded", inputPath, GraphSnapshot.VERSION + 1);
+    }
+
+    /**
+     * Determine if loading the given snapshot fails because the file cannot be read as a snapshot.
+    */
+    private static boolean failsToLoad(String path){
+        try {
+            GraphSnapshot.read(path);
+            return false;
+        } catch (IOException e){
+            return true;
+        }
+    }
+
+    /**
+     * Run the check on the given input files, or on Input.txt and two generated cities.
+     * @param args The paths of the input files to check.
+    */
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("taxi-snapshots");
+        try {
+            String[] inputs = args;
+            if (inputs.length == 0){
+                String grid = directory.resolve("grid.txt").toString();
+                String geometric = directory.resolve("geometric.txt").toString();
+                new CityGraphGenerator(CityGraphGenerator.Topology.GRID, 900, 0.05, 200, SEED).write(grid);
+                new CityGraphGenerator(CityGraphGenerator.Topology.GEOMETRIC, 900, 0.05, 200, SEED).write(geometric);
+                inputs = new String[]{TaxiSimulator.DEFAULT_INPUT, grid, geometric};
+            }
+            Mismatches roundTrips = new Mismatches("round trip");
+            Mismatches failures = new Mismatches("damaged snapshot");
+            for (String input : inputs){
+                roundTrip(input, directory, roundTrips);
+                damaged(input, directory, failures);
+            }
+            roundTrips.report();
+            failures.report();
+        } finally {
+            for (File file : directory.toFile().listFiles()){
+                file.delete();
+            }
+            directory.toFile().delete();
+        }
+        if (Mismatches.anyFailed()){
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.Arrays;
+
+/**
+ * Minimum cost assignment of rows to columns of a cost matrix with the Hungarian algorithm.
+ * Each row is matched to at most one column and each column to at most one row, matching as many rows as the
+ * matrix allows, and among those matchings the one with the least total cost.
+ *
+ * The algorithm adds one row at a time along a shortest augmenting path, keeping a potential for every row and
+ * column, so it takes O(n * n * m) time for n rows and m columns with n no more than m. A wider matrix is solved
+ * as it is, and a taller one is solved turned around. Pairs that may not be matched have an infinite cost.
+ */
+public final class AssignmentSolver
+{
+    private AssignmentSolver(){
+    }
+
+    /**
+     * Find the minimum cost assignment.
+     * @param cost The cost of matching each row with each column, Double.POSITIVE_INFINITY where they may not be matched.
+     *             Every row has the same number of columns.
+     * @return The column matched to each row, or -1 for rows left unmatched.
+    */
+    public static int[] solve(double[][] cost){
+        int rows = cost.length;
+        int columns = rows == 0 ? 0 : cost[0].length;
+        if (rows <= columns){
+            return solve(cost, rows, columns, false);
+        }
+        int[] columnRows = solve(cost, columns, rows, true);
+        int[] rowColumns = new int[rows];
+        Arrays.fill(rowColumns, -1);
+        for (int c = 0; c < columns; c++){
+            if (columnRows[c] >= 0){
+                rowColumns[columnRows[c]] = c;
+            }
+        }
+        return rowColumns;
+    }
+
+    /**
+     * Solve a matrix with no more rows than columns, possibly reading the given matrix turned around.
+     * Forbidden pairs are given a cost larger than any matching without them, so the fewest forbidden pairs are used,
+     * and then left unmatched.
+    */
+    private static int[] solve(double[][] cost, int n, int m, boolean transposed){
+        int[] match = new int[n];
+        Arrays.fill(match, -1);
+        if (n == 0){
+            return match;
+        }
+        double forbidden = 1;
+        for (double[] row : cost){
+            for (double c : row){
+                if (c != Double.POSITIVE_INFINITY){
+                    forbidden += Math.abs(c);
+                }
+            }
+        }
+        // Rows and columns are numbered from 1, and column 0 holds the row being added.
+        double[] u = new double[n + 1];
+        double[] v = new double[m + 1];
+        int[] rowOf = new int[m + 1];
+        int[] way = new int[m + 1];
+        double[] minimum = new double[m + 1];
+        boolean[] used = new boolean[m + 1];
+        for (int i = 1; i <= n; i++){
+            rowOf[0] = i;
+            int j0 = 0;
+            Arrays.fill(minimum, Double.POSITIVE_INFINITY);
+            Arrays.fill(used, false);
+            // Grow the tree of tight edges from the new row until it reaches a free column.
+            do {
+                used[j0] = true;
+                int i0 = rowOf[j0];
+                double delta = Double.POSITIVE_INFINITY;
+                int j1 = 0;
+                for (int j = 1; j <= m; j++){
+                    if (!used[j]){
+                        double c = transposed ? cost[j - 1][i0 - 1] : cost[i0 - 1][j - 1];
+                        double reduced = (c == Double.POSITIVE_INFINITY ? forbidden : c) - u[i0] - v[j];
+                        if (reduced < minimum[j]){
+                            minimum[j] = reduced;
+                            way[j] = j0;
+                        }
+                        if (minimum[j] < delta){
+                            delta = minimum[j];
+                            j1 = j;
+                        }
+                    }
+                }
+                for (int j = 0; j <= m; j++){
+                    if (used[j]){
+                        u[rowOf[j]] += delta;
+                        v[j] -= delta;
+                    } else {
+                        minimum[j] -= delta;
+                    }
+                }
+                j0 = j1;
+            } while (rowOf[j0] != 0);
+            // Flip the augmenting path back to the new row.
+            do {
+                int j1 = way[j0];
+                rowOf[j0] = rowOf[j1];
+                j0 = j1;
+            } while (j0 != 0);
+        }
+        for (int j = 1; j <= m; j++){
+            int i = rowOf[j];
+            if (i != 0){
+                double c = transposed ? cost[j - 1][i - 1] : cost[i - 1][j - 1];
+                if (c != Double.POSITIVE_INFINITY){
+                    match[i - 1] = j - 1;
+                }
+            }
+        }
+        return match;
+    }
+}
@@ -0,0 +1,254 @@
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.StringTokenizer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Dispatches a stream of client calls over a fork-join pool.
+ * Every call is handled by the dispatch of a TaxiSimulator or MappedSimulator on one of the workers, and the text
+ * of the calls is displayed in the order the calls arrived, so the output matches handling the calls one by one.
+ *
+ * The decisions of the drivers are drawn on the calling thread in call order before the calls are handed out,
+ * so the workers never share the random number generator.
+ */
+public class BatchDispatcher
+{
+    /** Number of calls held in memory at once - output is displayed after each block of this many calls.*/
+    private static final int BLOCK_SIZE = 4096;
+    /** Number of calls below which a task handles its calls directly instead of splitting further.*/
+    private static final int SPLIT_THRESHOLD = 8;
+
+    /** The simulation that handles the calls.*/
+    private final CallDispatcher simulator;
+    /** The pool of workers.*/
+    private final ForkJoinPool pool;
+
+    /**
+     * Create a new BatchDispatcher for the given simulation.
+     * @param simulator The simulation that handles the calls.
+     * @param workers The number of worker threads.
+    */
+    public BatchDispatcher(CallDispatcher simulator, int workers){
+        this.simulator = simulator;
+        this.pool = new ForkJoinPool(workers);
+    }
+
+    /**
+     * Dispatch the given calls and display the text of every call in order.
+     * The text is appended to the output as each block completes, and the output is flushed once per block,
+     * so a buffered writer issues few writes however many calls there are.
+     * @param calls Pairs of client and company names, separated by whitespace.
+     * @param out The stream or writer that receives the text.
+     * @throws UncheckedIOException If the text cannot be written.
+     * @return The number of calls dispatched.
+    */
+    public int dispatch(String calls, Appendable out){
+        StringTokenizer tokenizer = new StringTokenizer(calls);
+        ArrayList<String> clients = new ArrayList<>();
+        ArrayList<String> companies = new ArrayList<>();
+        int dispatched = 0;
+        while (tokenizer.hasMoreTokens()){
+            clients.add(tokenizer.nextToken());
+            companies.add(tokenizer.nextToken());
+            // Dispatch a full block, or whatever is left once the calls run out.
+            if (clients.size() == BLOCK_SIZE || !tokenizer.hasMoreTokens()){
+                String[] results = dispatch(clients.toArray(new String[0]), companies.toArray(new String[0]));
+                for (String result : results){
+                    append(out, result);
+                }
+                flush(out);
+                dispatched += results.length;
+                clients.clear();
+                companies.clear();
+            }
+        }
+        return dispatched;
+    }
+
+    /**
+     * Append the text of one call to the output.
+    */
+    private static void append(Appendable out, String text){
+        try {
+            out.append(text);
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Flush the output, if it can be flushed, so the calls of a block are displayed.
+    */
+    private static void flush(Appendable out){
+        if (out instanceof Flushable){
+            try {
+                ((Flushable) out).flush();
+            } catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Dispatch the given calls in parallel.
+     * @param clients The names of the clients, in call order.
+     * @param companies The company chosen by each client.
+     * @return The text of each call, in call order.
+    */
+    public String[] dispatch(String[] clients, String[] companies){
+        boolean[] accepts = new boolean[clients.length];
+        for (int i = 0; i < accepts.length; i++){
+            accepts[i] = TaxiSimulator.driverAcceptsCall();
+        }
+        return dispatch(clients, companies, accepts);
+    }
+
+    /**
+     * Dispatch the given calls in parallel, with the decisions of the drivers already drawn.
+     * @param clients The names of the clients, in call order.
+     * @param companies The company chosen by each client.
+     * @param accepts If the driver of the nearest taxi accepts each call.
+     * @return The text of each call, in call order.
+    */
+    public String[] dispatch(String[] clients, String[] companies, boolean[] accepts){
+        String[] results = new String[clients.length];
+        pool.invoke(new DispatchTask(clients, companies, accepts, results, 0, clients.length));
+        return results;
+    }
+
+    /**
+     * Dispatch the given calls in parallel, handing the calls of each client to the simulation together so that they
+     * can share their searches, with the decisions of the drivers already drawn.
+     * @param clients The names of the clients, in call order.
+     * @param companies The company chosen by each client.
+     * @param accepts If the driver of the nearest taxi accepts each call.
+     * @return The text of each call, in call order.
+    */
+    public String[] dispatchByClient(String[] clients, String[] companies, boolean[] accepts){
+        // Step 1 - Gather the positions of the calls of each client, in call order.
+        HashMap<String,Integer> groupOf = new HashMap<>();
+        ArrayList<String> groupClients = new ArrayList<>();
+        int[] group = new int[clients.length];
+        int[] groupSizes = new int[clients.length];
+        for (int i = 0; i < clients.length; i++){
+            Integer g = groupOf.get(clients[i]);
+            if (g == null){
+                g = groupClients.size();
+                groupOf.put(clients[i], g);
+                groupClients.add(clients[i]);
+            }
+            group[i] = g;
+            groupSizes[g]++;
+        }
+        int[][] members = new int[groupClients.size()][];
+        for (int g = 0; g < members.length; g++){
+            members[g] = new int[groupSizes[g]];
+            groupSizes[g] = 0;
+        }
+        for (int i = 0; i < clients.length; i++){
+            members[group[i]][groupSizes[group[i]]++] = i;
+        }
+        // Step 2 - Dispatch the clients in parallel.
+        String[] results = new String[clients.length];
+        pool.invoke(new ClientTask(groupClients.toArray(new String[0]), members, companies, accepts, results, 0, members.length));
+        return results;
+    }
+
+    /**
+     * Stop the worker threads of this dispatcher.
+    */
+    public void shutdown(){
+        pool.shutdown();
+    }
+
+    /**
+     * Task which dispatches a range of calls, splitting the range in half until it is small enough.
+    */
+    private class DispatchTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] clients;
+        private final String[] companies;
+        private final boolean[] accepts;
+        private final String[] results;
+        private final int from;
+        private final int to;
+
+        DispatchTask(String[] clients, String[] companies, boolean[] accepts, String[] results, int from, int to){
+            this.clients = clients;
+            this.companies = companies;
+            this.accepts = accepts;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute(){
+            if (to - from <= SPLIT_THRESHOLD){
+                for (int i = from; i < to; i++){
+                    results[i] = simulator.dispatch(clients[i], companies[i], accepts[i]);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new DispatchTask(clients, companies, accepts, results, from, middle),
+                          new DispatchTask(clients, companies, accepts, results, middle, to));
+            }
+        }
+    }
+
+    /**
+     * Task which dispatches the calls of a range of clients, splitting the range in half until it is small enough.
+    */
+    private class ClientTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] clients;
+        /** The positions of the calls of each client.*/
+        private final int[][] members;
+        private final String[] companies;
+        private final boolean[] accepts;
+        private final String[] results;
+        private final int from;
+        private final int to;
+
+        ClientTask(String[] clients, int[][] members, String[] companies, boolean[] accepts, String[] results, int from, int to){
+            this.clients = clients;
+            this.members = members;
+            this.companies = companies;
+            this.accepts = accepts;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute(){
+            if (to - from <= SPLIT_THRESHOLD){
+                for (int g = from; g < to; g++){
+                    int[] calls = members[g];
+                    String[] groupCompanies = new String[calls.length];
+                    boolean[] groupAccepts = new boolean[calls.length];
+                    for (int k = 0; k < calls.length; k++){
+                        groupCompanies[k] = companies[calls[k]];
+                        groupAccepts[k] = accepts[calls[k]];
+                    }
+                    String[] texts = simulator.dispatch(clients[g], groupCompanies, groupAccepts);
+                    for (int k = 0; k < calls.length; k++){
+                        results[calls[k]] = texts[k];
+                    }
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ClientTask(clients, members, companies, accepts, results, from, middle),
+                          new ClientTask(clients, members, companies, accepts, results, middle, to));
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Bidirectional Dijkstra search for the shortest path between one start and one target vertex.
+ * One search runs forward from the start over the edges of the graph and another runs backward from the target
+ * over the reversed edges. The side whose next vertex is closer is advanced one vertex at a time, and every edge
+ * scanned between the two searched regions gives a candidate path. The search stops once the two frontiers are
+ * together at least as far apart as the best candidate, which then is a shortest path.
+ *
+ * Both searches grow to about half the distance, which on road networks settles far fewer vertices than one search
+ * growing to the full distance. The result gives the cost and one shortest path, but does not tell if the path
+ * is the only one - use Graph.search(start, target) when ties matter.
+ */
+public class BidirectionalSearch
+{
+    /** The graph that was searched.*/
+    private final CompactGraph graph;
+    /** The cost of the shortest path, or Graph.INFINITY if the target cannot be reached.*/
+    private final double cost;
+    /** The vertices of the shortest path from start to target, or null if the target cannot be reached.*/
+    private final int[] path;
+    /** The number of vertices settled by the forward search.*/
+    private final int forwardSettled;
+    /** The number of vertices settled by the backward search.*/
+    private final int backwardSettled;
+
+    /**
+     * Run a bidirectional search between the given vertices.
+     * @param graph The graph to search.
+     * @param start The index of the start vertex.
+     * @param target The index of the target vertex.
+     * @param indexedHeap True to order both searches with the IndexedHeap, false for the PriorityQueue of Paths.
+    */
+    public BidirectionalSearch(CompactGraph graph, int start, int target, boolean indexedHeap){
+        this.graph = graph;
+        try (SearchContext forward = graph.acquireContext(); SearchContext backward = graph.acquireContext()){
+            forward.setIndexedHeap(indexedHeap);
+            backward.setIndexedHeap(indexedHeap);
+            forward.begin(graph, start);
+            backward.begin(graph.reverse(), target);
+            // The best path found so far runs from the start to meetFrom on the forward side, then over one edge
+            // to meetTo, and from meetTo to the target on the backward side.
+            double best = start == target ? 0 : Graph.INFINITY;
+            int meetFrom = start == target ? start : -1;
+            int meetTo = meetFrom;
+            while (true){
+                double forwardKey = forward.nextKey();
+                double backwardKey = backward.nextKey();
+                if (forwardKey + backwardKey >= best){
+                    break;
+                }
+                // Advance the side with the closer frontier, then look for paths through the edges of the settled vertex.
+                boolean forwards = forwardKey <= backwardKey;
+                SearchContext side = forwards ? forward : backward;
+                SearchContext other = forwards ? backward : forward;
+                int v = side.settleNext();
+                CompactGraph searched = side.graph();
+                for (int e = searched.firstEdge(v); e < searched.edgeEnd(v); e++){
+                    int w = searched.target(e);
+                    double otherDist = other.dist(w);
+                    if (otherDist != Graph.INFINITY && side.dist(v) + searched.cost(e) + otherDist < best){
+                        best = side.dist(v) + searched.cost(e) + otherDist;
+                        meetFrom = forwards ? v : w;
+                        meetTo = forwards ? w : v;
+                    }
+                }
+            }
+            forward.finish();
+            backward.finish();
+            this.cost = best;
+            this.path = meetFrom < 0 ? null : path(forward, backward, meetFrom, meetTo);
+            this.forwardSettled = forward.settledCount();
+            this.backwardSettled = backward.settledCount();
+        }
+    }
+
+    /**
+     * Join the forward path to meetFrom and the backward path from meetTo into one path.
+    */
+    private static int[] path(SearchContext forward, SearchContext backward, int meetFrom, int meetTo){
+        int length = 0;
+        for (int v = meetFrom; v != -1; v = forward.prev(v)){
+            length++;
+        }
+        if (meetTo != meetFrom){
+            for (int v = meetTo; v != -1; v = backward.prev(v)){
+                length++;
+            }
+        }
+        int[] path = new int[length];
+        int i = 0;
+        for (int v = meetFrom; v != -1; v = forward.prev(v)){
+            path[i++] = v;
+        }
+        // The forward part was collected from meetFrom back to the start, so turn it around.
+        for (int a = 0, b = i - 1; a < b; a++, b--){
+            int swap = path[a];
+            path[a] = path[b];
+            path[b] = swap;
+        }
+        if (meetTo != meetFrom){
+            // On the backward side, prev leads from each vertex to the next vertex towards the target.
+            for (int v = meetTo; v != -1; v = backward.prev(v)){
+                path[i++] = v;
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Obtain the cost of the shortest path.
+     * @return The cost of the path, or Graph.INFINITY if the target cannot be reached from the start.
+    */
+    public double cost(){
+        return cost;
+    }
+
+    /**
+     * Obtain the vertices of the shortest path, from the start to the target.
+     * @return The indices of the vertices on the path, or null if the target cannot be reached from the start.
+    */
+    public int[] path(){
+        return path == null ? null : path.clone();
+    }
+
+    /**
+     * Obtain the names of the vertices of the shortest path, separated by spaces.
+     * @return The path, or null if the target cannot be reached from the start.
+    */
+    public String pathNames(){
+        if (path == null){
+            return null;
+        }
+        StringBuilder names = new StringBuilder();
+        for (int v : path){
+            if (names.length() > 0){
+                names.append(' ');
+            }
+            names.append(graph.name(v));
+        }
+        return names.toString();
+    }
+
+    /**
+     * Obtain the number of vertices settled by both searches together.
+     * @return The number of settled vertices.
+    */
+    public int settledCount(){
+        return forwardSettled + backwardSettled;
+    }
+
+    /**
+     * Obtain the number of vertices settled by the forward search from the start.
+     * @return The number of settled vertices.
+    */
+    public int forwardSettledCount(){
+        return forwardSettled;
+    }
+
+    /**
+     * Obtain the number of vertices settled by the backward search from the target.
+     * @return The number of settled vertices.
+    */
+    public int backwardSettledCount(){
+        return backwardSettled;
+    }
+}
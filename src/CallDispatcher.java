@@ -0,0 +1,34 @@
+/**
+ * Handles one client call at a time and gives the text displayed for it.
+ * Implemented by TaxiSimulator over a graph held on the heap, and by MappedSimulator over a MappedGraph, so that
+ * BatchDispatcher can hand out calls to either.
+ */
+public interface CallDispatcher
+{
+    /**
+     * Handle one client call and obtain the text displayed for it.
+     * May be called from many threads at the same time.
+     * @param client The name assosiated with the client.
+     * @param company The name of the company chosen by the client.
+     * @param driverAcceptsCall If the driver of the nearest taxi accepts the call.
+     * @return The lines displayed for this call.
+    */
+    String dispatch(String client, String company, boolean driverAcceptsCall);
+
+    /**
+     * Handle several calls of one client and obtain the text displayed for each, which is the same as handling them
+     * one by one. As every call starts and ends at the client, a simulation may share its searches between them.
+     * May be called from many threads at the same time.
+     * @param client The name assosiated with the client.
+     * @param companies The name of the company chosen for each call.
+     * @param driverAcceptsCalls If the driver of the nearest taxi accepts each call.
+     * @return The lines displayed for each call, in order.
+    */
+    default String[] dispatch(String client, String[] companies, boolean[] driverAcceptsCalls){
+        String[] texts = new String[companies.length];
+        for (int i = 0; i < texts.length; i++){
+            texts[i] = dispatch(client, companies[i], driverAcceptsCalls[i]);
+        }
+        return texts;
+    }
+}
@@ -0,0 +1,115 @@
+import java.util.function.IntFunction;
+
+/**
+ * The text displayed for one call, built line by line.
+ * Every way of handling a call - TaxiSimulator searching again for each taxi and fare, TaxiSimulator in one pass,
+ * and MappedSimulator over a mapped graph - writes its lines through this class, so their text cannot drift apart.
+ *
+ * A call is displayed as:
+ *   client NAME
+ *   company NAME (in lower case)
+ *   cannot be helped, or for each nearest taxi: taxi NAME, then its path, multiple solutions or a declined call,
+ *   then for each nearest shop: shop NAME, then its path or multiple solutions,
+ *   amount due for this client is R0.00
+ */
+public class CallText
+{
+    /** The text built so far.*/
+    private final StringBuilder out = new StringBuilder();
+
+    /**
+     * Start the text of a call with the client and company lines.
+     * @param client The name assosiated with the client.
+     * @param company The name of the company chosen by the client.
+    */
+    public CallText(String client, String company){
+        out.append("client ").append(client).append('\n');
+        out.append("company ").append(company.toLowerCase()).append('\n');
+    }
+
+    /**
+     * Display that no taxi or shop of the company can serve the client, which ends the call.
+     * @return The text of the call.
+    */
+    public String cannotBeHelped(){
+        out.append("cannot be helped\n");
+        return out.toString();
+    }
+
+    /**
+     * Display the name of one of the nearest taxis.
+     * @param name The name of the node the taxi waits at.
+    */
+    public void taxi(String name){
+        out.append("taxi ").append(name).append('\n');
+    }
+
+    /**
+     * Display the name of one of the nearest shops.
+     * @param name The name of the shop.
+    */
+    public void shop(String name){
+        out.append("shop ").append(name).append('\n');
+    }
+
+    /**
+     * Display that there is more than one shortest path, with their cost.
+     * @param cost The cost of the shortest paths.
+    */
+    public void multipleSolutions(double cost){
+        out.append(String.format("multiple solutions cost %.0f\n", cost));
+    }
+
+    /**
+     * Display that the driver of the taxi declined the call, which ends the call.
+     * @param multipleSolutions True if the taxi has more than one shortest path to the client.
+     * @return The text of the call.
+    */
+    public String declined(boolean multipleSolutions){
+        out.append(multipleSolutions ? "taxi driver declined the call0\n" : "taxi driver declined the call :(\n");
+        return out.toString();
+    }
+
+    /**
+     * Display a path as the names of its nodes.
+     * @param route The path.
+    */
+    public void path(Route route){
+        route.appendTo(out, " ");
+        out.append('\n');
+    }
+
+    /**
+     * Display a path as the names of its nodes.
+     * @param vertices The indices of the nodes on the path, in order.
+     * @param names Gives the name of the node with each index.
+    */
+    public void path(int[] vertices, IntFunction<String> names){
+        for (int i = 0; i < vertices.length; i++){
+            if (i > 0){
+                out.append(' ');
+            }
+            out.append(names.apply(vertices[i]));
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Display the fare of the call, which ends the call.
+     * @param fare The amount due by the client.
+     * @return The text of the call.
+    */
+    public String amountDue(double fare){
+        out.append(String.format("amount due for this client is R%.2f\n", fare));
+        return out.toString();
+    }
+
+    /**
+     * Obtain the text built so far.
+     * @return The text of the call.
+    */
+    @Override
+    public String toString(){
+        return out.toString();
+    }
+}
@@ -0,0 +1,257 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Seeded generator of synthetic city road graphs, written in the Input.txt format.
+ * The same parameters and seed always give the same file, so generated cities can serve as a stable benchmark baseline.
+ *
+ * Two layouts are available:
+ * - GRID: nodes on a square street grid, with a two-way road between each pair of neighbouring nodes.
+ * - GEOMETRIC: nodes scattered over a square, with a two-way road between every pair of nodes closer than a radius
+ *   chosen to give about six roads per node. The cost of a road is proportional to its length.
+ *
+ * A fraction of the nodes, given by the shop density, become shops - alternately QnQ and Shopify.
+ * Calls are made from random nodes that are not shops, each choosing QnQ or Shopify at random.
+ *
+ * Usage: java -cp bin CityGraphGenerator (grid|geometric) [nodes] [shop density] [calls] [seed] [output file]
+ */
+public class CityGraphGenerator
+{
+    /** The available city layouts.*/
+    public enum Topology { GRID, GEOMETRIC }
+
+    /** The average number of roads per node in a GEOMETRIC city.*/
+    private static final double GEOMETRIC_DEGREE = 6.0;
+    /** The largest cost of a road.*/
+    private static final int MAX_COST = 20;
+
+    private final Topology topology;
+    private final int numNodes;
+    private final double shopDensity;
+    private final int numCalls;
+    private final long seed;
+
+    /**
+     * Create a new CityGraphGenerator.
+     * @param topology The layout of the city.
+     * @param numNodes The number of nodes, at least 3.
+     * @param shopDensity The fraction of the nodes that are shops, between 0 and 1.
+     * @param numCalls The number of calls.
+     * @param seed The seed of the random number generator.
+    */
+    public CityGraphGenerator(Topology topology, int numNodes, double shopDensity, int numCalls, long seed){
+        if (numNodes < 3){
+            throw new IllegalArgumentException("A simulation needs at least 3 nodes");
+        }
+        this.topology = topology;
+        this.numNodes = numNodes;
+        this.shopDensity = shopDensity;
+        this.numCalls = numCalls;
+        this.seed = seed;
+    }
+
+    /**
+     * Write the generated city to the given file.
+     * @param path The path of the file, which is replaced if it exists.
+     * @throws IOException If the file cannot be written.
+    */
+    public void write(String path) throws IOException {
+        try (Writer out = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)){
+            write(out);
+        }
+    }
+
+    /**
+     * Write the generated city in the Input.txt format.
+     * @param out The writer that receives the text.
+     * @throws IOException If the text cannot be written.
+    */
+    public void write(Writer out) throws IOException {
+        Random random = new Random(seed);
+        // Step 1 - The roads, one line per node.
+        out.write(numNodes + "\n");
+        if (topology == Topology.GRID){
+            writeGrid(out);
+        } else {
+            writeGeometric(out, random);
+        }
+        // Step 2 - The shops, alternately QnQ and Shopify, with at least one of each.
+        int numShops = Math.max(2, (int) Math.round(shopDensity * numNodes));
+        numShops = Math.min(numShops, numNodes - 1);
+        int[] order = shuffledNodes(random);
+        ArrayList<Integer> qnqShops = new ArrayList<>();
+        ArrayList<Integer> shopifyShops = new ArrayList<>();
+        for (int i = 0; i < numShops; i++){
+            (i % 2 == 0 ? qnqShops : shopifyShops).add(order[i]);
+        }
+        writeList(out, qnqShops);
+        writeList(out, shopifyShops);
+        // Step 3 - The calls, made from nodes that are not shops.
+        out.write(numCalls + "\n");
+        StringBuilder calls = new StringBuilder();
+        for (int i = 0; i < numCalls; i++){
+            int client = order[numShops + random.nextInt(numNodes - numShops)];
+            if (i > 0){
+                calls.append(' ');
+            }
+            calls.append(client).append(random.nextBoolean() ? " QnQ" : " Shopify");
+        }
+        out.write(calls.append('\n').toString());
+    }
+
+    /**
+     * Write the roads of a square grid, numbering the nodes row by row.
+    */
+    private void writeGrid(Writer out) throws IOException {
+        int side = (int) Math.ceil(Math.sqrt(numNodes));
+        StringBuilder line = new StringBuilder();
+        for (int v = 0; v < numNodes; v++){
+            line.setLength(0);
+            line.append(v);
+            int row = v / side;
+            int column = v % side;
+            int[] neighbours = {
+                row > 0 ? v - side : -1,
+                column > 0 ? v - 1 : -1,
+                column < side - 1 ? v + 1 : -1,
+                v + side
+            };
+            for (int w : neighbours){
+                if (w >= 0 && w < numNodes){
+                    line.append(' ').append(w).append(' ').append(roadCost(v, w));
+                }
+            }
+            // The last node of a short final row may only connect upwards, which always exists for 3 or more nodes.
+            out.write(line.append('\n').toString());
+        }
+    }
+
+    /**
+     * Write the roads of a random geometric city, finding close pairs of nodes through a grid of cells one radius wide.
+    */
+    private void writeGeometric(Writer out, Random random) throws IOException {
+        double[] x = new double[numNodes];
+        double[] y = new double[numNodes];
+        for (int v = 0; v < numNodes; v++){
+            x[v] = random.nextDouble();
+            y[v] = random.nextDouble();
+        }
+        double radius = Math.sqrt(GEOMETRIC_DEGREE / (Math.PI * numNodes));
+        int cells = Math.max(1, (int) (1 / radius));
+        // Bucket the nodes by cell, as a linked list threaded through the next array.
+        int[] head = new int[cells * cells];
+        int[] next = new int[numNodes];
+        java.util.Arrays.fill(head, -1);
+        for (int v = 0; v < numNodes; v++){
+            int cell = cell(x[v], cells) * cells + cell(y[v], cells);
+            next[v] = head[cell];
+            head[cell] = v;
+        }
+        StringBuilder line = new StringBuilder();
+        for (int v = 0; v < numNodes; v++){
+            line.setLength(0);
+            line.append(v);
+            int edges = 0;
+            int cx = cell(x[v], cells);
+            int cy = cell(y[v], cells);
+            for (int i = Math.max(0, cx - 1); i <= Math.min(cells - 1, cx + 1); i++){
+                for (int j = Math.max(0, cy - 1); j <= Math.min(cells - 1, cy + 1); j++){
+                    for (int w = head[i * cells + j]; w >= 0; w = next[w]){
+                        double length = Math.hypot(x[v] - x[w], y[v] - y[w]);
+                        if (w != v && length <= radius){
+                            int cost = 1 + (int) ((MAX_COST - 1) * length / radius);
+                            line.append(' ').append(w).append(' ').append(cost);
+                            edges++;
+                        }
+                    }
+                }
+            }
+            // Every node needs a road, or it would not be part of the graph.
+            if (edges == 0){
+                line.append(' ').append((v + 1) % numNodes).append(' ').append(MAX_COST);
+            }
+            out.write(line.append('\n').toString());
+        }
+    }
+
+    /**
+     * Obtain the cost of the road between two grid nodes, the same in both directions.
+    */
+    private int roadCost(int v, int w){
+        long h = seed ^ ((long) Math.min(v, w) * 0x9E3779B97F4A7C15L) ^ ((long) Math.max(v, w) * 0xC2B2AE3D27D4EB4FL);
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return 1 + (int) Math.floorMod(h, (long) MAX_COST);
+    }
+
+    /**
+     * Obtain the cell of a coordinate between 0 and 1.
+    */
+    private static int cell(double coordinate, int cells){
+        return Math.min(cells - 1, (int) (coordinate * cells));
+    }
+
+    /**
+     * Obtain all of the nodes in a random order.
+    */
+    private int[] shuffledNodes(Random random){
+        int[] order = new int[numNodes];
+        for (int v = 0; v < numNodes; v++){
+            order[v] = v;
+        }
+        for (int i = numNodes - 1; i > 0; i--){
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        return order;
+    }
+
+    /**
+     * Write a count line followed by a line of node numbers.
+    */
+    private static void writeList(Writer out, ArrayList<Integer> nodes) throws IOException {
+        StringBuilder line = new StringBuilder();
+        line.append(nodes.size()).append('\n');
+        for (int i = 0; i < nodes.size(); i++){
+            if (i > 0){
+                line.append(' ');
+            }
+            line.append(nodes.get(i));
+        }
+        out.write(line.append('\n').toString());
+    }
+
+    /**
+     * Generate a city and write it to a file or to the standard output.
+     * @param args The layout, then optionally the number of nodes, shop density, number of calls, seed and output file.
+    */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0){
+            System.err.println("Usage: java -cp bin CityGraphGenerator (grid|geometric) [nodes] [shop density] [calls] [seed] [output file]");
+            System.exit(1);
+        }
+        Topology topology = Topology.valueOf(args[0].toUpperCase());
+        int numNodes = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        double shopDensity = args.length > 2 ? Double.parseDouble(args[2]) : 0.01;
+        int numCalls = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 17062024L;
+        CityGraphGenerator generator = new CityGraphGenerator(topology, numNodes, shopDensity, numCalls, seed);
+        if (args.length > 5){
+            generator.write(args[5]);
+        } else {
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            generator.write(out);
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Frozen, primitive-backed form of a Graph used by the shortest path algorithms.
+ * Vertices are identified by their int index and the edges are stored in compressed sparse row form:
+ * the outgoing edges of vertex v occupy positions offsets[v] to offsets[v + 1] - 1 of the targets and costs arrays.
+ *
+ * A CompactGraph is never modified once built - Graph.addEdge feeds the builder arrays in Graph,
+ * and a new CompactGraph is laid out the next time the graph is queried. Searches keep their state
+ * in SearchContexts taken from the pool of the graph, so one CompactGraph can serve many threads at once.
+ */
+public class CompactGraph
+{
+    /** Estimated size of an object header on a 64-bit JVM with compressed oops.*/
+    private static final int OBJECT_HEADER_BYTES = 12;
+    /** Estimated size of an array header on a 64-bit JVM with compressed oops.*/
+    private static final int ARRAY_HEADER_BYTES = 16;
+    /** Estimated size of an object reference on a 64-bit JVM with compressed oops.*/
+    private static final int REFERENCE_BYTES = 4;
+
+    /** Array which maps each vertex index to the associated Vertex.*/
+    private final Vertex[] vertices;
+    /** Array which stores the position of the first outgoing edge of each vertex, plus one final end marker.*/
+    private final int[] offsets;
+    /** Array which stores the destination vertex index of each edge.*/
+    private final int[] targets;
+    /** Array which stores the cost of each edge.*/
+    private final double[] costs;
+    /** The same graph with every edge reversed, built on first use by searches that run towards a target.*/
+    private volatile CompactGraph reverse;
+    /** Pool of search contexts sized for this graph.*/
+    private final ConcurrentLinkedQueue<SearchContext> contexts = new ConcurrentLinkedQueue<SearchContext>();
+
+    /**
+     * Lay out the given edge list as a new CompactGraph.
+     * The edges of each vertex keep the order in which they were added to the Graph.
+     * @param vertices The vertices of the graph, in order of their index.
+     * @param sources The source vertex index of each edge.
+     * @param dests The destination vertex index of each edge.
+     * @param edgeCosts The cost of each edge.
+     * @param numEdges The number of edges stored in the given arrays.
+    */
+    public CompactGraph(Vertex[] vertices, int[] sources, int[] dests, double[] edgeCosts, int numEdges){
+        this.vertices = vertices;
+        this.offsets = new int[vertices.length + 1];
+        this.targets = new int[numEdges];
+        this.costs = new double[numEdges];
+        // Step 1 - Count the outgoing edges of every vertex.
+        for (int e = 0; e < numEdges; e++){
+            offsets[sources[e] + 1]++;
+        }
+        // Step 2 - Turn the counts into the starting position of every vertex.
+        for (int v = 0; v < vertices.length; v++){
+            offsets[v + 1] += offsets[v];
+        }
+        // Step 3 - Place every edge in the next free slot of its source, which keeps the edges in insertion order.
+        int[] next = new int[vertices.length];
+        System.arraycopy(offsets, 0, next, 0, vertices.length);
+        for (int e = 0; e < numEdges; e++){
+            int slot = next[sources[e]]++;
+            targets[slot] = dests[e];
+            costs[slot] = edgeCosts[e];
+        }
+    }
+
+    /**
+     * Create a CompactGraph from edges that are already laid out in compressed sparse row form.
+     * The arrays are used as they are, and must not be changed afterwards.
+     * @param vertices The vertices of the graph, in order of their index.
+     * @param offsets The position of the first outgoing edge of each vertex, plus one final end marker.
+     * @param targets The destination vertex index of each edge.
+     * @param costs The cost of each edge.
+    */
+    CompactGraph(Vertex[] vertices, int[] offsets, int[] targets, double[] costs){
+        this.vertices = vertices;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.costs = costs;
+    }
+
+    /**
+     * Obtain the number of vertices in this graph.
+     * @return The number of vertices.
+    */
+    public int size(){
+        return vertices.length;
+    }
+
+    /**
+     * Obtain the number of edges in this graph.
+     * @return The number of edges.
+    */
+    public int edgeCount(){
+        return targets.length;
+    }
+
+    /**
+     * Obtain the position of the first outgoing edge of the given vertex.
+     * @param v The index of the vertex.
+     * @return The position of the first edge.
+    */
+    public int firstEdge(int v){
+        return offsets[v];
+    }
+
+    /**
+     * Obtain the position directly after the last outgoing edge of the given vertex.
+     * @param v The index of the vertex.
+     * @return The end position of the edges of v.
+    */
+    public int edgeEnd(int v){
+        return offsets[v + 1];
+    }
+
+    /**
+     * Obtain the destination of the given edge.
+     * @param e The position of the edge.
+     * @return The index of the destination vertex.
+    */
+    public int target(int e){
+        return targets[e];
+    }
+
+    /**
+     * Obtain the cost of the given edge.
+     * @param e The position of the edge.
+     * @return The cost of the edge.
+    */
+    public double cost(int e){
+        return costs[e];
+    }
+
+    /**
+     * Obtain the reverse of this graph, which has an edge from w to v of the same cost for every edge from v to w.
+     * A search from a vertex over the reverse graph gives the cost of the shortest path from every vertex to that vertex.
+     * The reverse graph is built on first use and shares the Vertex objects of this graph.
+     * @return The reversed CompactGraph.
+    */
+    public CompactGraph reverse(){
+        if (reverse == null){
+            buildReverse();
+        }
+        return reverse;
+    }
+
+    /**
+     * Build the reverse graph, unless another thread has already done so.
+    */
+    private synchronized void buildReverse(){
+        if (reverse == null){
+            // Recover the source of every edge from the offsets, then lay the edges out again with source and destination swapped.
+            int[] sources = new int[targets.length];
+            for (int v = 0; v < vertices.length; v++){
+                for (int e = offsets[v]; e < offsets[v + 1]; e++){
+                    sources[e] = v;
+                }
+            }
+            CompactGraph transposed = new CompactGraph(vertices, targets, sources, costs, targets.length);
+            transposed.reverse = this;
+            reverse = transposed;
+        }
+    }
+
+    /**
+     * Obtain a SearchContext for this graph from the pool, creating one if the pool is empty.
+     * The context must be closed when its result is no longer needed.
+     * @return A SearchContext sized for this graph.
+    */
+    public SearchContext acquireContext(){
+        SearchContext context = contexts.poll();
+        return context != null ? context : new SearchContext(this);
+    }
+
+    /**
+     * Return a SearchContext to the pool of this graph.
+     * @param context The context to return.
+    */
+    void releaseContext(SearchContext context){
+        contexts.offer(context);
+    }
+
+    /**
+     * Obtain the Vertex with the given index.
+     * @param v The index of the vertex.
+     * @return The Vertex stored at that index.
+    */
+    public Vertex vertex(int v){
+        return vertices[v];
+    }
+
+    /**
+     * Obtain the name of the Vertex with the given index.
+     * @param v The index of the vertex.
+     * @return The name of the vertex.
+    */
+    public String name(int v){
+        return vertices[v].name;
+    }
+
+    /**
+     * Estimate the heap space taken by the adjacency of this graph: the offsets, targets, costs and vertex arrays.
+     * The Vertex objects themselves and their names are shared with the Graph and are not included.
+     * @return The estimated number of bytes.
+    */
+    public long estimatedBytes(){
+        return estimatedBytes(size(), edgeCount());
+    }
+
+    /**
+     * Estimate the heap space taken by the adjacency of a CompactGraph of the given size.
+     * @param numVertices The number of vertices.
+     * @param numEdges The number of edges.
+     * @return The estimated number of bytes.
+    */
+    public static long estimatedBytes(long numVertices, long numEdges){
+        long offsetBytes = align(ARRAY_HEADER_BYTES + 4 * (numVertices + 1));
+        long vertexBytes = align(ARRAY_HEADER_BYTES + REFERENCE_BYTES * numVertices);
+        long targetBytes = align(ARRAY_HEADER_BYTES + 4 * numEdges);
+        long costBytes = align(ARRAY_HEADER_BYTES + 8 * numEdges);
+        return offsetBytes + vertexBytes + targetBytes + costBytes;
+    }
+
+    /**
+     * Estimate the heap space that the same adjacency took with one LinkedList of Edge objects per Vertex.
+     * Each edge needed an Edge (header, dest reference, double cost) and a LinkedList node (header, item, next and prev references),
+     * and each vertex needed its LinkedList object (header, size, first, last and modCount).
+     * @param numVertices The number of vertices.
+     * @param numEdges The number of edges.
+     * @return The estimated number of bytes.
+    */
+    public static long estimatedLinkedListBytes(long numVertices, long numEdges){
+        long edgeBytes = align(OBJECT_HEADER_BYTES + REFERENCE_BYTES + 8);
+        long nodeBytes = align(OBJECT_HEADER_BYTES + 3 * REFERENCE_BYTES);
+        long listBytes = align(OBJECT_HEADER_BYTES + 4 + 2 * REFERENCE_BYTES + 4);
+        long adjFieldBytes = REFERENCE_BYTES;
+        return numEdges * (edgeBytes + nodeBytes) + numVertices * (listBytes + adjFieldBytes);
+    }
+
+    /**
+     * Round the given size up to the 8 byte object alignment of the JVM.
+     * @param bytes The unaligned size.
+     * @return The aligned size.
+    */
+    private static long align(long bytes){
+        return (bytes + 7) & ~7L;
+    }
+}
@@ -0,0 +1,847 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Contraction hierarchy over a CompactGraph, for fast point-to-point shortest path queries on a graph that rarely changes.
+ *
+ * Preprocessing contracts the vertices one at a time, least important first. Contracting a vertex v removes it from the
+ * remaining graph, and adds a shortcut u -> w for each pair of remaining neighbours whose shortest path runs through v,
+ * unless a witness search finds another path that is no longer. The order in which a vertex is contracted is its rank.
+ *
+ * A query runs Dijkstra's algorithm forward from the start and backward from the target, but only along edges that
+ * lead to vertices of higher rank. Both searches stay small, and the shortest path is found through the vertex of
+ * highest rank on it, where the two searches meet. Each shortcut records the two edges it replaces, so the path
+ * found can be unpacked into edges of the original graph.
+ *
+ * The hierarchy can be saved to a file and read back for the same graph, so it does not need rebuilding on every start.
+ * Queries give the cost and one shortest path, but do not tell if other paths are equally short.
+ */
+public class ContractionHierarchy
+{
+    /** The bytes at the start of every hierarchy file.*/
+    private static final byte[] MAGIC = "TAXIHIER".getBytes(StandardCharsets.US_ASCII);
+    /** The version of the file layout written by this class.*/
+    public static final int VERSION = 1;
+    /** The number of vertices a witness search may settle before giving up and keeping the shortcut.*/
+    private static final int WITNESS_SETTLE_LIMIT = 100;
+
+    /** The graph the hierarchy was built for.*/
+    private final CompactGraph graph;
+    /** The order in which each vertex was contracted.*/
+    private final int[] rank;
+    /** The source vertex of each edge of the hierarchy, original edges and shortcuts alike.*/
+    private final int[] edgeFrom;
+    /** The destination vertex of each edge of the hierarchy.*/
+    private final int[] edgeTo;
+    /** The cost of each edge of the hierarchy.*/
+    private final double[] edgeCost;
+    /** The first of the two edges replaced by each shortcut, or -1 for an original edge.*/
+    private final int[] edgeFirst;
+    /** The second of the two edges replaced by each shortcut, or -1 for an original edge.*/
+    private final int[] edgeSecond;
+    /** The edges leading up from each vertex to a vertex of higher rank, at upOffsets[v] to upOffsets[v + 1] - 1 of upEdges.*/
+    private final int[] upOffsets;
+    private final int[] upEdges;
+    /** The edges leading into each vertex from a vertex of higher rank, at downOffsets[v] to downOffsets[v + 1] - 1 of downEdges.*/
+    private final int[] downOffsets;
+    private final int[] downEdges;
+    /** The time taken to build the hierarchy, or to read it from a file, in nanoseconds.*/
+    private final long buildNanos;
+    /** Pool of query states sized for this hierarchy.*/
+    private final ConcurrentLinkedQueue<Query> queries = new ConcurrentLinkedQueue<Query>();
+
+    /**
+     * Build a contraction hierarchy for the given graph.
+     * @param graph The graph to preprocess.
+    */
+    public ContractionHierarchy(CompactGraph graph){
+        long start = System.nanoTime();
+        Builder builder = new Builder(graph);
+        builder.contractAll();
+        this.graph = graph;
+        this.rank = builder.rank;
+        this.edgeFrom = Arrays.copyOf(builder.from, builder.numEdges);
+        this.edgeTo = Arrays.copyOf(builder.to, builder.numEdges);
+        this.edgeCost = Arrays.copyOf(builder.cost, builder.numEdges);
+        this.edgeFirst = Arrays.copyOf(builder.first, builder.numEdges);
+        this.edgeSecond = Arrays.copyOf(builder.second, builder.numEdges);
+        this.upOffsets = new int[graph.size() + 1];
+        this.downOffsets = new int[graph.size() + 1];
+        this.upEdges = new int[countUp()];
+        this.downEdges = new int[edgeFrom.length - upEdges.length];
+        layOut();
+        this.buildNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Create a hierarchy from the ranks and edges read from a file.
+    */
+    private ContractionHierarchy(CompactGraph graph, int[] rank, int[] edgeFrom, int[] edgeTo, double[] edgeCost,
+                                 int[] edgeFirst, int[] edgeSecond, long start){
+        this.graph = graph;
+        this.rank = rank;
+        this.edgeFrom = edgeFrom;
+        this.edgeTo = edgeTo;
+        this.edgeCost = edgeCost;
+        this.edgeFirst = edgeFirst;
+        this.edgeSecond = edgeSecond;
+        this.upOffsets = new int[graph.size() + 1];
+        this.downOffsets = new int[graph.size() + 1];
+        this.upEdges = new int[countUp()];
+        this.downEdges = new int[edgeFrom.length - upEdges.length];
+        layOut();
+        this.buildNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Count the edges that lead from a vertex to a vertex of higher rank.
+    */
+    private int countUp(){
+        int count = 0;
+        for (int e = 0; e < edgeFrom.length; e++){
+            if (rank[edgeFrom[e]] < rank[edgeTo[e]]){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sort the edges into the upward edges of their source and the downward edges of their destination.
+    */
+    private void layOut(){
+        for (int e = 0; e < edgeFrom.length; e++){
+            if (rank[edgeFrom[e]] < rank[edgeTo[e]]){
+                upOffsets[edgeFrom[e] + 1]++;
+            } else {
+                downOffsets[edgeTo[e] + 1]++;
+            }
+        }
+        for (int v = 0; v < graph.size(); v++){
+            upOffsets[v + 1] += upOffsets[v];
+            downOffsets[v + 1] += downOffsets[v];
+        }
+        int[] nextUp = Arrays.copyOf(upOffsets, graph.size());
+        int[] nextDown = Arrays.copyOf(downOffsets, graph.size());
+        for (int e = 0; e < edgeFrom.length; e++){
+            if (rank[edgeFrom[e]] < rank[edgeTo[e]]){
+                upEdges[nextUp[edgeFrom[e]]++] = e;
+            } else {
+                downEdges[nextDown[edgeTo[e]]++] = e;
+            }
+        }
+    }
+
+    /**
+     * Obtain the cost of the shortest path between two vertices.
+     * @param start The index of the start vertex.
+     * @param target The index of the target vertex.
+     * @return The cost of the path, or Graph.INFINITY if the target cannot be reached.
+    */
+    public double distance(int start, int target){
+        Query query = acquireQuery();
+        try {
+            query.run(start, target);
+            return query.best;
+        } finally {
+            queries.offer(query);
+        }
+    }
+
+    /**
+     * Obtain the vertices of a shortest path between two vertices, with every shortcut unpacked.
+     * @param start The index of the start vertex.
+     * @param target The index of the target vertex.
+     * @return The indices of the vertices on the path from start to target, or null if the target cannot be reached.
+    */
+    public int[] path(int start, int target){
+        Query query = acquireQuery();
+        try {
+            query.run(start, target);
+            if (query.meet < 0){
+                return null;
+            }
+            // Step 1 - Collect the hierarchy edges from the start up to the meeting vertex, and from there down to the target.
+            int[] edges = new int[16];
+            int numEdges = 0;
+            for (int v = query.meet; v != start; v = edgeFrom[query.forwardPrev[v]]){
+                edges = grow(edges, numEdges);
+                edges[numEdges++] = query.forwardPrev[v];
+            }
+            // The forward edges were collected from the meeting vertex back to the start, so turn them around.
+            for (int a = 0, b = numEdges - 1; a < b; a++, b--){
+                int swap = edges[a];
+                edges[a] = edges[b];
+                edges[b] = swap;
+            }
+            for (int v = query.meet; v != target; v = edgeTo[query.backwardPrev[v]]){
+                edges = grow(edges, numEdges);
+                edges[numEdges++] = query.backwardPrev[v];
+            }
+            // Step 2 - Unpack every shortcut into the original edges it stands for, keeping the edges in order.
+            int[] path = new int[16];
+            int length = 0;
+            path[length++] = start;
+            int[] stack = new int[16];
+            for (int i = 0; i < numEdges; i++){
+                int depth = 0;
+                stack[depth++] = edges[i];
+                while (depth > 0){
+                    int e = stack[--depth];
+                    if (edgeFirst[e] < 0){
+                        path = grow(path, length);
+                        path[length++] = edgeTo[e];
+                    } else {
+                        stack = grow(stack, depth + 1);
+                        stack[depth++] = edgeSecond[e];
+                        stack[depth++] = edgeFirst[e];
+                    }
+                }
+            }
+            return Arrays.copyOf(path, length);
+        } finally {
+            queries.offer(query);
+        }
+    }
+
+    /**
+     * Prepare many-to-one queries towards the given targets.
+     * The backward search of every target is run once here, and its result is left in buckets at the vertices it reaches.
+     * @param targets The indices of the target vertices.
+     * @return The prepared targets.
+    */
+    public Targets targets(int[] targets){
+        return new Targets(targets.clone());
+    }
+
+    /**
+     * Obtain a query state from the pool, creating one if the pool is empty.
+    */
+    private Query acquireQuery(){
+        Query query = queries.poll();
+        return query != null ? query : new Query();
+    }
+
+    /**
+     * Obtain an array with room for at least one more element after the given length.
+    */
+    private static int[] grow(int[] array, int length){
+        return length < array.length ? array : Arrays.copyOf(array, array.length * 2);
+    }
+
+    /**
+     * Obtain the graph the hierarchy was built for.
+     * @return The CompactGraph.
+    */
+    public CompactGraph graph(){
+        return graph;
+    }
+
+    /**
+     * Obtain the number of shortcuts added by the contraction.
+     * @return The number of shortcut edges.
+    */
+    public int shortcutCount(){
+        int count = 0;
+        for (int e = 0; e < edgeFirst.length; e++){
+            if (edgeFirst[e] >= 0){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Obtain the time taken to build the hierarchy, or to read it from a file.
+     * @return The time in nanoseconds.
+    */
+    public long buildNanos(){
+        return buildNanos;
+    }
+
+    /**
+     * Obtain the memory used by the hierarchy, not counting the graph itself.
+     * @return The size of the arrays in bytes.
+    */
+    public long estimatedBytes(){
+        return 4L * (rank.length + upOffsets.length + downOffsets.length + upEdges.length + downEdges.length)
+            + (4L * 4 + 8) * edgeFrom.length;
+    }
+
+    /**
+     * Write the hierarchy to a file.
+     * Layout (version 1, little-endian): "TAXIHIER", int version, long fingerprint of the graph, int vertex count V,
+     * int edge count M, int[V] ranks, int[M] sources, int[M] destinations, double[M] costs, int[M] first and int[M] second replaced edges.
+     * @param path The path of the file, which is replaced if it exists.
+     * @throws IOException If the file cannot be written.
+    */
+    public void save(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+            GraphSnapshot.Writer out = new GraphSnapshot.Writer(channel);
+            out.bytes(MAGIC);
+            out.putInt(VERSION);
+            out.putLong(fingerprint(graph));
+            out.putInt(rank.length);
+            out.putInt(edgeFrom.length);
+            for (int[] column : new int[][]{rank, edgeFrom, edgeTo}){
+                for (int value : column){
+                    out.putInt(value);
+                }
+            }
+            for (double value : edgeCost){
+                out.putDouble(value);
+            }
+            for (int[] column : new int[][]{edgeFirst, edgeSecond}){
+                for (int value : column){
+                    out.putInt(value);
+                }
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Read a hierarchy written by save for the given graph.
+     * @param path The path of the file.
+     * @param graph The graph the hierarchy was built for.
+     * @return The hierarchy read.
+     * @throws IOException If the file cannot be read, is not a hierarchy file, or was built for a different graph.
+    */
+    public static ContractionHierarchy read(String path, CompactGraph graph) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)){
+            GraphSnapshot.Reader in = new GraphSnapshot.Reader(channel);
+            if (!ByteBuffer.wrap(MAGIC).equals(ByteBuffer.wrap(in.bytes(MAGIC.length)))){
+                throw new IOException(path + " is not a contraction hierarchy");
+            }
+            int version = in.getInt();
+            if (version != VERSION){
+                throw new IOException(path + " has hierarchy version " + version + ", but only version " + VERSION + " can be read");
+            }
+            if (in.getLong() != fingerprint(graph) || in.getInt() != graph.size()){
+                throw new IOException(path + " was built for a different graph");
+            }
+            int numEdges = in.getInt();
+            int[] rank = in.ints(graph.size());
+            int[] edgeFrom = in.ints(numEdges);
+            int[] edgeTo = in.ints(numEdges);
+            double[] edgeCost = in.doubles(numEdges);
+            int[] edgeFirst = in.ints(numEdges);
+            int[] edgeSecond = in.ints(numEdges);
+            return new ContractionHierarchy(graph, rank, edgeFrom, edgeTo, edgeCost, edgeFirst, edgeSecond, start);
+        }
+    }
+
+    /**
+     * Obtain a hash of the vertices and edges of the given graph, so a saved hierarchy is only used for the graph it was built for.
+    */
+    private static long fingerprint(CompactGraph graph){
+        long hash = 1125899906842597L;
+        for (int v = 0; v < graph.size(); v++){
+            hash = 31 * hash + graph.name(v).hashCode();
+            hash = 31 * hash + graph.edgeEnd(v);
+        }
+        for (int e = 0; e < graph.edgeCount(); e++){
+            hash = 31 * hash + graph.target(e);
+            hash = 31 * hash + Double.hashCode(graph.cost(e));
+        }
+        return hash;
+    }
+
+    /**
+     * The state of one query: an upward search from the start and one from the target, each with its own generation-stamped arrays.
+    */
+    private class Query
+    {
+        final double[] forwardDist = new double[graph.size()];
+        final double[] backwardDist = new double[graph.size()];
+        /** The hierarchy edge by which each vertex was reached, on each side.*/
+        final int[] forwardPrev = new int[graph.size()];
+        final int[] backwardPrev = new int[graph.size()];
+        final int[] forwardStamp = new int[graph.size()];
+        final int[] backwardStamp = new int[graph.size()];
+        final IndexedHeap forwardHeap = new IndexedHeap(graph.size());
+        final IndexedHeap backwardHeap = new IndexedHeap(graph.size());
+        /** The vertices settled by the last full upward search, in the order they were settled.*/
+        final int[] settled = new int[graph.size()];
+        int generation;
+        /** The cost of the best path found, and the vertex where its two halves meet, or -1.*/
+        double best;
+        int meet;
+
+        /**
+         * Run the bidirectional upward search between the given vertices.
+        */
+        void run(int start, int target){
+            nextGeneration();
+            best = Graph.INFINITY;
+            meet = -1;
+            forwardHeap.clear();
+            backwardHeap.clear();
+            reach(true, start, 0, -1);
+            reach(false, target, 0, -1);
+            while (true){
+                double forwardKey = forwardHeap.minKey();
+                double backwardKey = backwardHeap.minKey();
+                // A side stops once its closest vertex is no closer than the best path found.
+                boolean forwardDone = forwardKey >= best;
+                boolean backwardDone = backwardKey >= best;
+                if (forwardDone && backwardDone){
+                    break;
+                }
+                boolean forwards = !forwardDone && (backwardDone || forwardKey <= backwardKey);
+                int v = (forwards ? forwardHeap : backwardHeap).removeMin();
+                double distV = forwards ? forwardDist[v] : backwardDist[v];
+                // Check for a path through v, using the distance found so far on the other side.
+                if ((forwards ? backwardStamp[v] : forwardStamp[v]) == generation){
+                    double through = forwardDist[v] + backwardDist[v];
+                    if (through < best){
+                        best = through;
+                        meet = v;
+                    }
+                }
+                relaxUp(forwards, v, distV);
+            }
+        }
+
+        /**
+         * Run the full upward search from the given vertex on one side, leaving every reached vertex with its distance.
+         * @return The number of vertices settled, which are left at the start of the settled array.
+        */
+        int runUp(boolean forwards, int start){
+            nextGeneration();
+            IndexedHeap heap = forwards ? forwardHeap : backwardHeap;
+            heap.clear();
+            reach(forwards, start, 0, -1);
+            int count = 0;
+            while (!heap.isEmpty()){
+                int v = heap.removeMin();
+                settled[count++] = v;
+                relaxUp(forwards, v, forwards ? forwardDist[v] : backwardDist[v]);
+            }
+            return count;
+        }
+
+        /**
+         * Relax the edges leading up from v, forward along upward edges or backward along downward edges.
+        */
+        private void relaxUp(boolean forwards, int v, double distV){
+            if (stalled(forwards, v, distV)){
+                return;
+            }
+            int end = forwards ? upOffsets[v + 1] : downOffsets[v + 1];
+            for (int i = forwards ? upOffsets[v] : downOffsets[v]; i < end; i++){
+                int e = forwards ? upEdges[i] : downEdges[i];
+                int w = forwards ? edgeTo[e] : edgeFrom[e];
+                double distW = distV + edgeCost[e];
+                int[] stamp = forwards ? forwardStamp : backwardStamp;
+                double[] dist = forwards ? forwardDist : backwardDist;
+                if (stamp[w] != generation || distW < dist[w]){
+                    reach(forwards, w, distW, e);
+                }
+            }
+        }
+
+        /**
+         * Determine if v is reached more cheaply through a higher vertex already reached on the same side, along an
+         * edge leading down into v. A shortest path never climbs through such a vertex, so its edges need not be relaxed.
+        */
+        private boolean stalled(boolean forwards, int v, double distV){
+            int[] stamp = forwards ? forwardStamp : backwardStamp;
+            double[] dist = forwards ? forwardDist : backwardDist;
+            int end = forwards ? downOffsets[v + 1] : upOffsets[v + 1];
+            for (int i = forwards ? downOffsets[v] : upOffsets[v]; i < end; i++){
+                int e = forwards ? downEdges[i] : upEdges[i];
+                int u = forwards ? edgeFrom[e] : edgeTo[e];
+                if (stamp[u] == generation && dist[u] + edgeCost[e] < distV){
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Record a new shortest path to v on one side.
+        */
+        private void reach(boolean forwards, int v, double cost, int edge){
+            if (forwards){
+                forwardStamp[v] = generation;
+                forwardDist[v] = cost;
+                forwardPrev[v] = edge;
+                forwardHeap.insertOrDecrease(v, cost);
+            } else {
+                backwardStamp[v] = generation;
+                backwardDist[v] = cost;
+                backwardPrev[v] = edge;
+                backwardHeap.insertOrDecrease(v, cost);
+            }
+        }
+
+        /**
+         * Move on to the next generation, clearing the stamps only when the counter wraps around.
+        */
+        private void nextGeneration(){
+            generation++;
+            if (generation == Integer.MAX_VALUE){
+                Arrays.fill(forwardStamp, 0);
+                Arrays.fill(backwardStamp, 0);
+                generation = 1;
+            }
+        }
+    }
+
+    /**
+     * A set of target vertices prepared for many-to-one queries.
+     * The upward search backward from every target is stored as buckets at the vertices it reaches, so a query only
+     * needs the upward search forward from its start, reading the buckets of the vertices that search settles.
+    */
+    public class Targets
+    {
+        /** The target vertices, in the order given.*/
+        private final int[] targets;
+        /** The bucket entries at each vertex, at bucketOffsets[v] to bucketOffsets[v + 1] - 1 of bucketTargets and bucketDists.*/
+        private final int[] bucketOffsets;
+        /** The position in targets of each bucket entry.*/
+        private final int[] bucketTargets;
+        /** The cost from the vertex of each bucket entry up to its target.*/
+        private final double[] bucketDists;
+
+        private Targets(int[] targets){
+            this.targets = targets;
+            this.bucketOffsets = new int[graph.size() + 1];
+            int[] entryVertex = new int[16];
+            int[] entryTarget = new int[16];
+            double[] entryDist = new double[16];
+            int numEntries = 0;
+            Query query = acquireQuery();
+            try {
+                int[] settled = query.settled;
+                for (int i = 0; i < targets.length; i++){
+                    int count = query.runUp(false, targets[i]);
+                    for (int j = 0; j < count; j++){
+                        if (numEntries == entryVertex.length){
+                            entryVertex = Arrays.copyOf(entryVertex, numEntries * 2);
+                            entryTarget = Arrays.copyOf(entryTarget, numEntries * 2);
+                            entryDist = Arrays.copyOf(entryDist, numEntries * 2);
+                        }
+                        entryVertex[numEntries] = settled[j];
+                        entryTarget[numEntries] = i;
+                        entryDist[numEntries] = query.backwardDist[settled[j]];
+                        numEntries++;
+                    }
+                }
+            } finally {
+                queries.offer(query);
+            }
+            // Sort the entries into buckets by vertex.
+            this.bucketTargets = new int[numEntries];
+            this.bucketDists = new double[numEntries];
+            for (int i = 0; i < numEntries; i++){
+                bucketOffsets[entryVertex[i] + 1]++;
+            }
+            for (int v = 0; v < graph.size(); v++){
+                bucketOffsets[v + 1] += bucketOffsets[v];
+            }
+            int[] next = Arrays.copyOf(bucketOffsets, graph.size());
+            for (int i = 0; i < numEntries; i++){
+                int slot = next[entryVertex[i]]++;
+                bucketTargets[slot] = entryTarget[i];
+                bucketDists[slot] = entryDist[i];
+            }
+        }
+
+        /**
+         * Obtain the cost of the shortest path from the given vertex to every target.
+         * @param start The index of the start vertex.
+         * @return The cost to each target, in the order the targets were given, with Graph.INFINITY for unreachable targets.
+        */
+        public double[] distancesFrom(int start){
+            double[] result = new double[targets.length];
+            Arrays.fill(result, Graph.INFINITY);
+            Query query = acquireQuery();
+            try {
+                int[] settled = query.settled;
+                int count = query.runUp(true, start);
+                for (int j = 0; j < count; j++){
+                    int v = settled[j];
+                    for (int i = bucketOffsets[v]; i < bucketOffsets[v + 1]; i++){
+                        double cost = query.forwardDist[v] + bucketDists[i];
+                        if (cost < result[bucketTargets[i]]){
+                            result[bucketTargets[i]] = cost;
+                        }
+                    }
+                }
+            } finally {
+                queries.offer(query);
+            }
+            return result;
+        }
+
+        /**
+         * Obtain the hierarchy these targets were prepared for.
+         * @return The ContractionHierarchy.
+        */
+        public ContractionHierarchy hierarchy(){
+            return ContractionHierarchy.this;
+        }
+    }
+
+    /**
+     * Contracts the vertices of a graph one at a time, keeping the remaining graph in growable adjacency arrays.
+    */
+    private static class Builder
+    {
+        private final int numVertices;
+        /** The edges of the hierarchy built so far.*/
+        int[] from = new int[16];
+        int[] to = new int[16];
+        double[] cost = new double[16];
+        int[] first = new int[16];
+        int[] second = new int[16];
+        int numEdges;
+        /** The outgoing and incoming edges of each vertex, including edges to contracted vertices, which are skipped.*/
+        private final int[][] out;
+        private final int[] outCount;
+        private final int[][] in;
+        private final int[] inCount;
+        private final boolean[] contracted;
+        /** The number of neighbours of each vertex contracted so far, which makes a vertex less urgent to contract.*/
+        private final int[] contractedNeighbours;
+        /** The length of the longest chain of contracted vertices below each vertex.*/
+        private final int[] depth;
+        final int[] rank;
+        /** State of the witness searches.*/
+        private final double[] witnessDist;
+        private final int[] witnessStamp;
+        private final IndexedHeap witnessHeap;
+        private int witnessGeneration;
+
+        Builder(CompactGraph graph){
+            this.numVertices = graph.size();
+            this.out = new int[numVertices][];
+            this.outCount = new int[numVertices];
+            this.in = new int[numVertices][];
+            this.inCount = new int[numVertices];
+            this.contracted = new boolean[numVertices];
+            this.contractedNeighbours = new int[numVertices];
+            this.depth = new int[numVertices];
+            this.rank = new int[numVertices];
+            this.witnessDist = new double[numVertices];
+            this.witnessStamp = new int[numVertices];
+            this.witnessHeap = new IndexedHeap(numVertices);
+            for (int v = 0; v < numVertices; v++){
+                out[v] = new int[Math.max(2, graph.edgeEnd(v) - graph.firstEdge(v))];
+                in[v] = new int[2];
+            }
+            // Self loops never lie on a shortest path, and of parallel edges only the cheapest is kept.
+            for (int v = 0; v < numVertices; v++){
+                for (int e = graph.firstEdge(v); e < graph.edgeEnd(v); e++){
+                    if (graph.cost(e) < 0){
+                        throw new GraphException("Graph has negative edges");
+                    }
+                    if (graph.target(e) != v){
+                        addOrImprove(v, graph.target(e), graph.cost(e), -1, -1);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Contract every vertex, taking the one with the lowest priority each time.
+         * Priorities are only brought up to date when a vertex comes to the front of the queue.
+        */
+        void contractAll(){
+            IndexedHeap queue = new IndexedHeap(numVertices);
+            for (int v = 0; v < numVertices; v++){
+                queue.insertOrDecrease(v, priority(v));
+            }
+            int order = 0;
+            int[] neighbours = new int[16];
+            while (!queue.isEmpty()){
+                int v = queue.removeMin();
+                double priority = priority(v);
+                if (!queue.isEmpty() && priority > queue.minKey()){
+                    queue.insertOrDecrease(v, priority);
+                    continue;
+                }
+                // Step 1 - Add the shortcuts, then take v and its edges out of the remaining graph.
+                shortcuts(v, true);
+                contracted[v] = true;
+                rank[v] = order++;
+                int numNeighbours = 0;
+                for (int i = 0; i < outCount[v]; i++){
+                    int w = to[out[v][i]];
+                    remove(in, inCount, w, out[v][i]);
+                    neighbours = grow(neighbours, numNeighbours);
+                    neighbours[numNeighbours++] = w;
+                }
+                for (int i = 0; i < inCount[v]; i++){
+                    int u = from[in[v][i]];
+                    remove(out, outCount, u, in[v][i]);
+                    neighbours = grow(neighbours, numNeighbours);
+                    neighbours[numNeighbours++] = u;
+                }
+                // Step 2 - Bring the priorities of the neighbours up to date.
+                for (int i = 0; i < numNeighbours; i++){
+                    int w = neighbours[i];
+                    contractedNeighbours[w]++;
+                    depth[w] = Math.max(depth[w], depth[v] + 1);
+                }
+                for (int i = 0; i < numNeighbours; i++){
+                    int w = neighbours[i];
+                    if (!contracted[w]){
+                        queue.update(w, priority(w));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Remove the given edge from the adjacency of vertex x, by moving the last edge into its place.
+        */
+        private static void remove(int[][] adjacency, int[] count, int x, int e){
+            for (int i = 0; i < count[x]; i++){
+                if (adjacency[x][i] == e){
+                    adjacency[x][i] = adjacency[x][--count[x]];
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Obtain the priority of contracting v: the shortcuts it would add less the edges it would remove,
+         * plus the number of its neighbours already contracted and the depth of the hierarchy below it,
+         * which spread the contraction evenly over the graph and keep the hierarchy shallow.
+        */
+        private double priority(int v){
+            int removed = 0;
+            for (int i = 0; i < outCount[v]; i++){
+                removed += contracted[to[out[v][i]]] ? 0 : 1;
+            }
+            for (int i = 0; i < inCount[v]; i++){
+                removed += contracted[from[in[v][i]]] ? 0 : 1;
+            }
+            return 2 * (shortcuts(v, false) - removed) + contractedNeighbours[v] + depth[v];
+        }
+
+        /**
+         * Find the shortcuts needed to contract v, adding them if asked to.
+         * @param v The vertex to contract.
+         * @param add True to add the shortcuts, false to only count them.
+         * @return The number of shortcuts needed.
+        */
+        private int shortcuts(int v, boolean add){
+            int count = 0;
+            for (int i = 0; i < inCount[v]; i++){
+                int into = in[v][i];
+                int u = from[into];
+                if (contracted[u]){
+                    continue;
+                }
+                // Find the longest path through v from u, which bounds the witness search.
+                double maxCost = -1;
+                for (int j = 0; j < outCount[v]; j++){
+                    int w = to[out[v][j]];
+                    if (!contracted[w] && w != u){
+                        maxCost = Math.max(maxCost, cost[into] + cost[out[v][j]]);
+                    }
+                }
+                if (maxCost < 0){
+                    continue;
+                }
+                witnessSearch(u, v, maxCost);
+                for (int j = 0; j < outCount[v]; j++){
+                    int outOf = out[v][j];
+                    int w = to[outOf];
+                    if (contracted[w] || w == u){
+                        continue;
+                    }
+                    double via = cost[into] + cost[outOf];
+                    boolean witnessed = witnessStamp[w] == witnessGeneration && witnessDist[w] <= via;
+                    if (!witnessed){
+                        count++;
+                        if (add){
+                            addOrImprove(u, w, via, into, outOf);
+                        }
+                    }
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Run Dijkstra's algorithm from u over the remaining graph without v, up to the given cost and settle limit.
+        */
+        private void witnessSearch(int u, int v, double maxCost){
+            witnessGeneration++;
+            witnessHeap.clear();
+            witnessStamp[u] = witnessGeneration;
+            witnessDist[u] = 0;
+            witnessHeap.insertOrDecrease(u, 0);
+            int settled = 0;
+            while (!witnessHeap.isEmpty() && witnessHeap.minKey() <= maxCost && settled < WITNESS_SETTLE_LIMIT){
+                int x = witnessHeap.removeMin();
+                settled++;
+                for (int i = 0; i < outCount[x]; i++){
+                    int e = out[x][i];
+                    int y = to[e];
+                    if (contracted[y] || y == v){
+                        continue;
+                    }
+                    double distY = witnessDist[x] + cost[e];
+                    if (witnessStamp[y] != witnessGeneration || distY < witnessDist[y]){
+                        witnessStamp[y] = witnessGeneration;
+                        witnessDist[y] = distY;
+                        witnessHeap.insertOrDecrease(y, distY);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Add an edge from u to w, or lower the cost of the existing edge if the new one is cheaper.
+        */
+        private void addOrImprove(int u, int w, double edgeCost, int firstEdge, int secondEdge){
+            for (int i = 0; i < outCount[u]; i++){
+                int e = out[u][i];
+                if (to[e] == w){
+                    if (edgeCost < cost[e]){
+                        cost[e] = edgeCost;
+                        first[e] = firstEdge;
+                        second[e] = secondEdge;
+                    }
+                    return;
+                }
+            }
+            if (numEdges == from.length){
+                int capacity = numEdges * 2;
+                from = Arrays.copyOf(from, capacity);
+                to = Arrays.copyOf(to, capacity);
+                cost = Arrays.copyOf(cost, capacity);
+                first = Arrays.copyOf(first, capacity);
+                second = Arrays.copyOf(second, capacity);
+            }
+            int e = numEdges++;
+            from[e] = u;
+            to[e] = w;
+            cost[e] = edgeCost;
+            first[e] = firstEdge;
+            second[e] = secondEdge;
+            if (outCount[u] == out[u].length){
+                out[u] = Arrays.copyOf(out[u], outCount[u] * 2);
+            }
+            out[u][outCount[u]++] = e;
+            if (inCount[w] == in[w].length){
+                in[w] = Arrays.copyOf(in[w], inCount[w] * 2);
+            }
+            in[w][inCount[w]++] = e;
+        }
+    }
+}
@@ -0,0 +1,372 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Single-source shortest paths by delta-stepping, with the edges of each step relaxed in parallel on a fork-join pool.
+ *
+ * The vertices waiting to be settled are kept in buckets of width delta by their tentative distance. The lowest
+ * bucket is emptied in phases: every vertex taken from it relaxes its light edges, those no longer than delta, which
+ * may put vertices back into the same bucket for the next phase. Once the bucket stays empty, its vertices relax their
+ * heavy edges, which can only reach later buckets. All of the vertices of a phase are relaxed at the same time, and the
+ * distances are lowered with compare-and-set, so the result does not depend on the order of the relaxations.
+ * A smaller delta does less wasted work and a larger one gives more vertices to each phase.
+ *
+ * Distances are stored as the bits of non-negative doubles, which order the same way as the doubles. Once the distances
+ * are final, the previous vertex and the number of edges reaching each vertex at its shortest distance are worked out
+ * from them, so the distances and hasDuplicatePaths of the result are the same as those of Dijkstra's algorithm.
+ * The previous vertex is the same whenever a vertex has only one shortest path. When it has several, it is one of
+ * their last edges.
+ */
+public class DeltaStepping
+{
+    /** Number of vertices below which a task relaxes its vertices directly instead of splitting further.*/
+    private static final int SPLIT_THRESHOLD = 256;
+    /** The largest number of buckets, which limits how small delta may be compared with the longest edge.*/
+    private static final int MAX_BUCKETS = 1 << 22;
+
+    /** The graph searched by search, whose reverse is searched by searchTo.*/
+    private final CompactGraph graph;
+    /** The width of each bucket.*/
+    private final double delta;
+    /** The pool that relaxes the edges.*/
+    private final ForkJoinPool pool;
+    /** The number of buckets kept, in a ring, which is more than the longest edge spans.*/
+    private final int numBuckets;
+
+    /**
+     * Create a delta-stepping search over the given graph.
+     * @param graph The graph to search.
+     * @param delta The width of each bucket, greater than 0.
+     * @param pool The pool that relaxes the edges.
+     * @throws IllegalArgumentException If delta is not positive, or too small for the longest edge.
+     * @throws GraphException If the graph has negative edges.
+    */
+    public DeltaStepping(CompactGraph graph, double delta, ForkJoinPool pool){
+        if (!(delta > 0)){
+            throw new IllegalArgumentException("Bucket width must be positive: " + delta);
+        }
+        double longest = 0;
+        for (int e = 0; e < graph.edgeCount(); e++){
+            if (graph.cost(e) < 0){
+                throw new GraphException("Graph has negative edges");
+            }
+            longest = Math.max(longest, graph.cost(e));
+        }
+        double buckets = Math.floor(longest / delta) + 2;
+        if (buckets > MAX_BUCKETS){
+            throw new IllegalArgumentException("Bucket width " + delta + " is too small for edges of cost " + longest);
+        }
+        this.graph = graph;
+        this.delta = delta;
+        this.pool = pool;
+        this.numBuckets = (int) buckets;
+    }
+
+    /**
+     * Suggest a bucket width for the given graph: the average edge cost, which puts the neighbours of a vertex in the
+     * next few buckets.
+     * @param graph The graph to search.
+     * @return The suggested width, or 1 if the graph has no edges of positive cost.
+    */
+    public static double suggestDelta(CompactGraph graph){
+        double total = 0;
+        for (int e = 0; e < graph.edgeCount(); e++){
+            total += graph.cost(e);
+        }
+        return total > 0 ? total / graph.edgeCount() : 1;
+    }
+
+    /**
+     * Obtain the width of each bucket.
+     * @return The bucket width.
+    */
+    public double getDelta(){
+        return delta;
+    }
+
+    /**
+     * Find the shortest paths from the given vertex.
+     * @param start The index of the start vertex.
+     * @return The shortest path tree.
+    */
+    public ShortestPathTree search(int start){
+        return pool.invoke(ForkJoinTask.adapt(() -> new Search(graph, start).run()));
+    }
+
+    /**
+     * Find the shortest paths from every vertex to the given vertex, over the reversed edges.
+     * @param target The index of the target vertex.
+     * @return The shortest path tree of the reverse graph.
+    */
+    public ShortestPathTree searchTo(int target){
+        return pool.invoke(ForkJoinTask.adapt(() -> new Search(graph.reverse(), target).run()));
+    }
+
+    /**
+     * The state of one search, which runs as a task of the pool so that its phases fork their relaxations from
+     * a worker of the pool.
+    */
+    private final class Search
+    {
+        private final CompactGraph searched;
+        private final int source;
+        /** The bits of the tentative distance of each vertex.*/
+        private final AtomicLongArray dist;
+        /** The vertices put in each bucket of the ring, some of which have since moved to a lower bucket.*/
+        private final IntList[] buckets = new IntList[numBuckets];
+        /** The phase in which each vertex was last taken from a bucket, so that it is taken once per phase.*/
+        private final int[] takenIn;
+        /** The bucket in which each vertex last relaxed its heavy edges, counted from 1.*/
+        private final int[] heavyIn;
+
+        Search(CompactGraph searched, int source){
+            this.searched = searched;
+            this.source = source;
+            int n = searched.size();
+            this.dist = new AtomicLongArray(n);
+            long unreached = Double.doubleToRawLongBits(Graph.INFINITY);
+            for (int v = 0; v < n; v++){
+                dist.set(v, unreached);
+            }
+            this.takenIn = new int[n];
+            this.heavyIn = new int[n];
+            for (int i = 0; i < numBuckets; i++){
+                buckets[i] = new IntList();
+            }
+        }
+
+        ShortestPathTree run(){
+            dist.set(source, Double.doubleToRawLongBits(0));
+            buckets[0].add(source);
+            int pending = 1;
+            long bucket = 0;
+            int phase = 0;
+            int settledBuckets = 0;
+            IntList settled = new IntList();
+            while (pending > 0){
+                // Step 1 - Move on to the next bucket holding vertices.
+                IntList current = buckets[(int) (bucket % numBuckets)];
+                if (current.size == 0){
+                    bucket++;
+                    continue;
+                }
+                // Step 2 - Empty the bucket in phases, relaxing the light edges of the vertices still in it.
+                settledBuckets++;
+                settled.size = 0;
+                while (current.size > 0){
+                    phase++;
+                    pending -= current.size;
+                    IntList frontier = new IntList();
+                    for (int i = 0; i < current.size; i++){
+                        int v = current.items[i];
+                        // Skip the entries of vertices that have moved to a lower bucket, or are already taken.
+                        if (takenIn[v] != phase && bucketOf(v) == bucket){
+                            takenIn[v] = phase;
+                            frontier.add(v);
+                            if (heavyIn[v] != settledBuckets){
+                                heavyIn[v] = settledBuckets;
+                                settled.add(v);
+                            }
+                        }
+                    }
+                    current.size = 0;
+                    pending += place(relax(frontier, true));
+                }
+                // Step 3 - Relax the heavy edges of every vertex settled in the bucket.
+                pending += place(relax(settled, false));
+                bucket++;
+            }
+            return tree();
+        }
+
+        /**
+         * Obtain the bucket of the tentative distance of a vertex.
+        */
+        private long bucketOf(int v){
+            return (long) (distance(v) / delta);
+        }
+
+        private double distance(int v){
+            return Double.longBitsToDouble(dist.get(v));
+        }
+
+        /**
+         * Relax the light or heavy edges of the given vertices, in parallel when there are enough of them.
+         * @return The vertices whose distance was lowered.
+        */
+        private IntList relax(IntList vertices, boolean light){
+            Relax task = new Relax(vertices, 0, vertices.size, light);
+            return vertices.size <= SPLIT_THRESHOLD ? task.compute() : task.invoke();
+        }
+
+        /**
+         * Put the vertices whose distance was lowered in the bucket of their new distance.
+         * @return The number of entries added to the buckets.
+        */
+        private int place(IntList lowered){
+            for (int i = 0; i < lowered.size; i++){
+                int v = lowered.items[i];
+                buckets[(int) (bucketOf(v) % numBuckets)].add(v);
+            }
+            return lowered.size;
+        }
+
+        /**
+         * Lower the distance of a vertex if the given distance is shorter.
+         * @return True if the distance was lowered.
+        */
+        private boolean lower(int w, double distance){
+            long bits = Double.doubleToRawLongBits(distance);
+            long current;
+            do {
+                current = dist.get(w);
+                if (bits >= current){
+                    return false;
+                }
+            } while (!dist.compareAndSet(w, current, bits));
+            return true;
+        }
+
+        /**
+         * Task which relaxes the edges of a range of vertices, splitting the range in half until it is small enough.
+        */
+        private final class Relax extends RecursiveTask<IntList>
+        {
+            private static final long serialVersionUID = 1L;
+
+            private final IntList vertices;
+            private final int from;
+            private final int to;
+            private final boolean light;
+
+            Relax(IntList vertices, int from, int to, boolean light){
+                this.vertices = vertices;
+                this.from = from;
+                this.to = to;
+                this.light = light;
+            }
+
+            @Override
+            protected IntList compute(){
+                if (to - from > SPLIT_THRESHOLD){
+                    int middle = (from + to) >>> 1;
+                    Relax left = new Relax(vertices, from, middle, light);
+                    left.fork();
+                    IntList lowered = new Relax(vertices, middle, to, light).compute();
+                    lowered.addAll(left.join());
+                    return lowered;
+                }
+                IntList lowered = new IntList();
+                for (int i = from; i < to; i++){
+                    int v = vertices.items[i];
+                    double distV = distance(v);
+                    for (int e = searched.firstEdge(v); e < searched.edgeEnd(v); e++){
+                        double cvw = searched.cost(e);
+                        if ((cvw <= delta) == light && lower(searched.target(e), distV + cvw)){
+                            lowered.add(searched.target(e));
+                        }
+                    }
+                }
+                return lowered;
+            }
+        }
+
+        /**
+         * Copy the final distances into a tree, and work out the previous vertex and the duplicate paths of each vertex
+         * from its incoming edges, in parallel.
+        */
+        private ShortestPathTree tree(){
+            int n = searched.size();
+            double[] distances = new double[n];
+            int[] prev = new int[n];
+            boolean[] duplicatePaths = new boolean[n];
+            for (int v = 0; v < n; v++){
+                distances[v] = distance(v);
+            }
+            CompactGraph incoming = searched.reverse();
+            new Predecessors(distances, prev, duplicatePaths, incoming, 0, n).invoke();
+            return new ShortestPathTree(searched, source, distances, prev, duplicatePaths);
+        }
+
+        /**
+         * Task which finds the previous vertex and counts the shortest paths of a range of vertices.
+         * Like Dijkstra's algorithm, the start vertex counts as one path, and every edge that reaches a vertex at its
+         * shortest distance counts as another.
+        */
+        private final class Predecessors extends RecursiveAction
+        {
+            private static final long serialVersionUID = 1L;
+
+            private final double[] distances;
+            private final int[] prev;
+            private final boolean[] duplicatePaths;
+            private final CompactGraph incoming;
+            private final int from;
+            private final int to;
+
+            Predecessors(double[] distances, int[] prev, boolean[] duplicatePaths, CompactGraph incoming, int from, int to){
+                this.distances = distances;
+                this.prev = prev;
+                this.duplicatePaths = duplicatePaths;
+                this.incoming = incoming;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute(){
+                if (to - from > SPLIT_THRESHOLD * 16){
+                    int middle = (from + to) >>> 1;
+                    invokeAll(new Predecessors(distances, prev, duplicatePaths, incoming, from, middle),
+                              new Predecessors(distances, prev, duplicatePaths, incoming, middle, to));
+                    return;
+                }
+                for (int w = from; w < to; w++){
+                    prev[w] = -1;
+                    if (distances[w] == Graph.INFINITY){
+                        continue;
+                    }
+                    int paths = w == source ? 1 : 0;
+                    for (int e = incoming.firstEdge(w); e < incoming.edgeEnd(w); e++){
+                        int v = incoming.target(e);
+                        if (distances[v] != Graph.INFINITY && distances[v] + incoming.cost(e) == distances[w]){
+                            paths++;
+                            if (w != source){
+                                prev[w] = v;
+                            }
+                        }
+                    }
+                    duplicatePaths[w] = paths > 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * A growable list of ints.
+    */
+    private static final class IntList
+    {
+        private int[] items = new int[16];
+        private int size;
+
+        void add(int item){
+            if (size == items.length){
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = item;
+        }
+
+        void addAll(IntList other){
+            if (size + other.size > items.length){
+                items = Arrays.copyOf(items, Math.max(size + other.size, items.length * 2));
+            }
+            System.arraycopy(other.items, 0, items, size, other.size);
+            size += other.size;
+        }
+    }
+}
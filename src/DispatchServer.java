@@ -0,0 +1,543 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.StringTokenizer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Long-running dispatch service which keeps one loaded simulation warm and answers calls over a line protocol,
+ * either on a local socket or on standard input and output.
+ *
+ * Protocol: every request is one line, and every response is the lines of text TaxiSimulator.dispatch gives,
+ * followed by an empty line, so a client knows where each response ends.
+ *   client company   Dispatch a call, for example "3 QnQ".
+ *   stats            Obtain the request, batch and latency counters of the server.
+ *   quit             Close the connection once the responses to the earlier requests are written.
+ * Requests may be pipelined: a client can send many lines without waiting, and the responses on each connection
+ * come back in the order of its requests.
+ *
+ * Requests from every connection go into one bounded queue. A single batching thread takes everything waiting in
+ * the queue, waiting up to the batch window for more, draws the decisions of the drivers in arrival order and sends
+ * each distinct call of the batch through a BatchDispatcher once, grouped by client, so identical calls arriving
+ * together share one dispatch, the calls of one client share one search to and one search from the client, and
+ * the clients run in parallel. The responses are then written in arrival order and each connection is flushed once
+ * per batch. Under load the next batch gathers while the current one is dispatched, so batches grow with the load
+ * even with no window. When the queue is full, the connections reading requests wait for room, so a client sending
+ * faster than the calls are answered is slowed down instead of growing the queue without limit.
+ *
+ * The server only listens on the loopback address.
+ */
+public class DispatchServer implements AutoCloseable
+{
+    /** The port listened on when none is given.*/
+    public static final int DEFAULT_PORT = 7070;
+    /** The largest number of requests in a batch when none is given.*/
+    public static final int DEFAULT_MAX_BATCH = 256;
+    /** The largest number of requests waiting to be batched when none is given.*/
+    public static final int DEFAULT_MAX_QUEUE = 4096;
+
+    /** The simulation that handles the calls.*/
+    private final CallDispatcher simulator;
+    private final BatchDispatcher dispatcher;
+    /** The time to wait for more requests once a batch has started, in nanoseconds.*/
+    private final long windowNanos;
+    private final int maxBatch;
+    /** The requests waiting to be batched, from every connection, which the readers wait to add to when full.*/
+    private final LinkedBlockingQueue<Request> queue;
+    private final Thread batcher;
+    /** The threads reading requests, one per connection.*/
+    private final ExecutorService readers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "dispatch-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ServerSocket serverSocket;
+    private volatile boolean running = true;
+
+    /** The time from reading each request to writing its response.*/
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder distinctCalls = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * Create a new server for the given simulation and start its batching thread.
+     * @param simulator The simulation that handles the calls.
+     * @param workers The number of worker threads dispatching the calls of a batch.
+     * @param windowMicros The time to wait for more requests once a batch has started, in microseconds, or 0 to
+     *                     take only the requests already waiting.
+     * @param maxBatch The largest number of requests in a batch, at least 1.
+    */
+    public DispatchServer(CallDispatcher simulator, int workers, long windowMicros, int maxBatch){
+        this(simulator, workers, windowMicros, maxBatch, DEFAULT_MAX_QUEUE);
+    }
+
+    /**
+     * Create a new server for the given simulation with a bounded request queue and start its batching thread.
+     * @param simulator The simulation that handles the calls.
+     * @param workers The number of worker threads dispatching the calls of a batch.
+     * @param windowMicros The time to wait for more requests once a batch has started, in microseconds, or 0 to
+     *                     take only the requests already waiting.
+     * @param maxBatch The largest number of requests in a batch, at least 1.
+     * @param maxQueue The largest number of requests waiting to be batched, at least 1.
+    */
+    public DispatchServer(CallDispatcher simulator, int workers, long windowMicros, int maxBatch, int maxQueue){
+        if (maxBatch < 1){
+            throw new IllegalArgumentException("Batches must hold at least one request: " + maxBatch);
+        }
+        if (maxQueue < 1){
+            throw new IllegalArgumentException("The queue must hold at least one request: " + maxQueue);
+        }
+        this.queue = new LinkedBlockingQueue<>(maxQueue);
+        this.simulator = simulator;
+        this.dispatcher = new BatchDispatcher(simulator, workers);
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxBatch = maxBatch;
+        this.batcher = new Thread(this::batchLoop, "dispatch-batcher");
+        batcher.setDaemon(true);
+        batcher.start();
+    }
+
+    /**
+     * Listen for connections on the given local port, accepting them on a background thread.
+     * @param port The local port, or 0 for any free port.
+     * @throws IOException If the port cannot be opened.
+     * @return The port listened on.
+    */
+    public int listen(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> {
+            while (running){
+                try {
+                    Socket socket = serverSocket.accept();
+                    socket.setTcpNoDelay(true);
+                    Connection connection = new Connection(socket.getOutputStream(), socket);
+                    readers.execute(() -> read(socket, connection));
+                } catch (IOException e){
+                    // The socket is closed when the server stops.
+                }
+            }
+        }, "dispatch-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Answer the requests read from the given stream on the calling thread, until the stream ends or a quit request,
+     * and wait until every response has been written.
+     * @param in The stream the requests are read from.
+     * @param out The stream the responses are written to, which is flushed but not closed.
+    */
+    public void serve(InputStream in, OutputStream out){
+        Connection connection = new Connection(out, null);
+        read(in, connection);
+        try {
+            connection.closed.await();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Read the requests of a socket until it ends.
+    */
+    private void read(Socket socket, Connection connection){
+        try {
+            read(socket.getInputStream(), connection);
+        } catch (IOException e){
+            enqueue(new Request(connection, Request.CLOSE, null, null));
+        }
+    }
+
+    /**
+     * Add a request to the queue, waiting for room while it is full.
+     * @return False if the server was stopped while waiting.
+    */
+    private boolean enqueue(Request request){
+        try {
+            queue.put(request);
+            return true;
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Queue every request read from the given stream, followed by a request to close the connection.
+    */
+    private void read(InputStream in, Connection connection){
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null){
+                StringTokenizer tokenizer = new StringTokenizer(line);
+                int tokens = tokenizer.countTokens();
+                if (tokens == 0){
+                    continue;
+                }
+                String first = tokenizer.nextToken();
+                if (tokens == 1 && first.equals("quit")){
+                    break;
+                }
+                Request request;
+                if (tokens == 1 && first.equals("stats")){
+                    request = new Request(connection, Request.STATS, null, null);
+                } else if (tokens == 2){
+                    request = new Request(connection, Request.CALL, first, tokenizer.nextToken());
+                } else {
+                    request = new Request(connection, Request.ERROR, null, null);
+                    request.response = "error expected \"client company\", \"stats\" or \"quit\"\n";
+                }
+                if (!enqueue(request)){
+                    return;
+                }
+            }
+        } catch (IOException e){
+            // A connection that fails is closed like one that ends.
+        }
+        enqueue(new Request(connection, Request.CLOSE, null, null));
+    }
+
+    /**
+     * Take batches of requests from the queue and answer them until the server stops.
+    */
+    private void batchLoop(){
+        ArrayList<Request> batch = new ArrayList<>();
+        while (running){
+            try {
+                // Step 1 - Wait for a request, then take every request already waiting and any arriving within the window.
+                batch.add(queue.take());
+                queue.drainTo(batch, maxBatch - batch.size());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch && windowNanos > 0){
+                    Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null){
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatch - batch.size());
+                }
+            } catch (InterruptedException e){
+                break;
+            }
+            answer(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Dispatch the distinct calls of a batch once each, grouped by client, and write every response in arrival order.
+    */
+    private void answer(ArrayList<Request> batch){
+        // Step 1 - Draw the decisions of the drivers in arrival order, and give identical calls one dispatch.
+        HashMap<String,Integer> distinct = new HashMap<>();
+        ArrayList<String> clients = new ArrayList<>();
+        ArrayList<String> companies = new ArrayList<>();
+        ArrayList<Boolean> accepts = new ArrayList<>();
+        int[] slots = new int[batch.size()];
+        for (int i = 0; i < batch.size(); i++){
+            Request request = batch.get(i);
+            if (request.kind != Request.CALL){
+                continue;
+            }
+            boolean accept = TaxiSimulator.driverAcceptsCall();
+            String key = request.client + ' ' + request.company + ' ' + accept;
+            Integer slot = distinct.get(key);
+            if (slot == null){
+                slot = clients.size();
+                distinct.put(key, slot);
+                clients.add(request.client);
+                companies.add(request.company);
+                accepts.add(accept);
+            }
+            slots[i] = slot;
+        }
+        // Step 2 - Dispatch the distinct calls in parallel, with the calls of each client together.
+        String[] results = new String[0];
+        if (!clients.isEmpty()){
+            boolean[] decisions = new boolean[accepts.size()];
+            for (int i = 0; i < decisions.length; i++){
+                decisions[i] = accepts.get(i);
+            }
+            try {
+                results = dispatcher.dispatchByClient(clients.toArray(new String[0]), companies.toArray(new String[0]), decisions);
+            } catch (RuntimeException e){
+                // Answer each call on its own, so one failing call does not fail the rest of the batch.
+                results = new String[clients.size()];
+                for (int i = 0; i < results.length; i++){
+                    try {
+                        results[i] = simulator.dispatch(clients.get(i), companies.get(i), decisions[i]);
+                    } catch (RuntimeException callError){
+                        results[i] = "error " + callError.getMessage() + "\n";
+                    }
+                }
+            }
+        }
+        batches.increment();
+        distinctCalls.add(clients.size());
+        requests.add(batch.size());
+        // Step 3 - Write the responses in arrival order, and flush each connection once.
+        IdentityHashMap<Connection,Boolean> written = new IdentityHashMap<>();
+        for (int i = 0; i < batch.size(); i++){
+            Request request = batch.get(i);
+            Connection connection = request.connection;
+            if (request.kind == Request.CLOSE){
+                written.remove(connection);
+                connection.close();
+                continue;
+            }
+            if (request.kind == Request.CALL){
+                request.response = results[slots[i]];
+                calls.increment();
+            } else if (request.kind == Request.STATS){
+                request.response = stats();
+            }
+            connection.write(request.response);
+            written.put(connection, Boolean.TRUE);
+        }
+        for (Connection connection : written.keySet()){
+            connection.flush();
+        }
+        long now = System.nanoTime();
+        for (Request request : batch){
+            if (request.kind != Request.CLOSE){
+                latency.record(now - request.arrivalNanos);
+            }
+        }
+    }
+
+    /**
+     * Obtain the server-side latency of the requests, from reading each request to writing its response.
+     * @return The latency histogram.
+    */
+    public LatencyHistogram latency(){
+        return latency;
+    }
+
+    /**
+     * Obtain the number of calls answered.
+     * @return The number of calls.
+    */
+    public long calls(){
+        return calls.sum();
+    }
+
+    /**
+     * Obtain the number of batches answered.
+     * @return The number of batches.
+    */
+    public long batches(){
+        return batches.sum();
+    }
+
+    /**
+     * Obtain a text summary of the server, one "name value" pair per line, with latencies in microseconds.
+     * @return The summary.
+    */
+    public String stats(){
+        long answered = calls.sum();
+        long batchCount = batches.sum();
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        StringBuilder out = new StringBuilder();
+        out.append("calls ").append(answered).append('\n');
+        out.append("distinct_calls ").append(distinctCalls.sum()).append('\n');
+        out.append("batches ").append(batchCount).append('\n');
+        out.append(String.format("mean_batch %.1f\n", batchCount == 0 ? 0.0 : (double) requests.sum() / batchCount));
+        out.append(String.format("calls_per_sec %.0f\n", answered / seconds));
+        out.append(String.format("latency_p50_us %.1f\n", latency.quantileNanos(0.50) / 1e3));
+        out.append(String.format("latency_p99_us %.1f\n", latency.quantileNanos(0.99) / 1e3));
+        out.append(String.format("latency_max_us %.1f\n", latency.maxNanos() / 1e3));
+        return out.toString();
+    }
+
+    /**
+     * Stop listening, stop the batching thread and the workers. Requests still queued are not answered.
+    */
+    @Override
+    public void close(){
+        running = false;
+        batcher.interrupt();
+        if (serverSocket != null){
+            try {
+                serverSocket.close();
+            } catch (IOException e){
+                // Closing is best effort.
+            }
+        }
+        readers.shutdownNow();
+        dispatcher.shutdown();
+    }
+
+    /**
+     * One request read from a connection, and its response once answered.
+    */
+    private static final class Request
+    {
+        static final int CALL = 0;
+        static final int STATS = 1;
+        static final int ERROR = 2;
+        static final int CLOSE = 3;
+
+        final Connection connection;
+        final int kind;
+        final String client;
+        final String company;
+        final long arrivalNanos = System.nanoTime();
+        String response;
+
+        Request(Connection connection, int kind, String client, String company){
+            this.connection = connection;
+            this.kind = kind;
+            this.client = client;
+            this.company = company;
+        }
+    }
+
+    /**
+     * The output of one connection, written only by the batching thread. A connection whose client has gone
+     * away is written to no more.
+    */
+    private static final class Connection
+    {
+        private final Writer out;
+        /** The socket of the connection, or null for standard input and output, which are flushed but not closed.*/
+        private final Socket socket;
+        private boolean failed;
+        /** Released once the responses to every request of the connection have been written.*/
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        Connection(OutputStream out, Socket socket){
+            this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+            this.socket = socket;
+        }
+
+        void write(String response){
+            if (failed){
+                return;
+            }
+            try {
+                out.write(response);
+                out.write('\n');
+            } catch (IOException e){
+                failed = true;
+            }
+        }
+
+        void flush(){
+            if (failed){
+                return;
+            }
+            try {
+                out.flush();
+            } catch (IOException e){
+                failed = true;
+            }
+        }
+
+        void close(){
+            flush();
+            if (socket != null){
+                try {
+                    socket.close();
+                } catch (IOException e){
+                    // The client has already gone.
+                }
+            }
+            closed.countDown();
+        }
+    }
+
+    /**
+     * Load a simulation and answer calls until stopped, on a local port or on standard input and output.
+     * The server statistics are printed to standard error when it stops. As for TaxiSimulator, the search and call
+     * metrics are served on a local port when started with -Dtaxi.metrics.port=PORT, and printed periodically to
+     * standard error with -Dtaxi.metrics.interval=MILLIS.
+     * @param args Optionally, the path of the input file, which may be a snapshot or a mapped graph, the port or "-"
+     *             for standard input and output, the batch window in microseconds, the largest batch and the
+     *             largest number of requests waiting to be batched.
+    */
+    public static void main(String[] args){
+        String inputPath = args.length > 0 ? args[0] : TaxiSimulator.DEFAULT_INPUT;
+        String port = args.length > 1 ? args[1] : Integer.toString(DEFAULT_PORT);
+        long windowMicros = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        int maxBatch = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_MAX_BATCH;
+        int maxQueue = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_MAX_QUEUE;
+        CallDispatcher simulator;
+        try {
+            simulator = MappedSimulator.isMapped(inputPath) ? new MappedSimulator(MappedGraph.open(inputPath)) : new TaxiSimulator(inputPath);
+        } catch (IOException e){
+            System.err.println("Could not read mapped graph " + inputPath + ": " + e.getMessage());
+            System.exit(1);
+            return;
+        } catch (UncheckedIOException e){
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        // Record metrics when asked to print them periodically or serve them on a local port.
+        Long interval = Long.getLong(SimulatorMetrics.INTERVAL_PROPERTY);
+        Integer metricsPort = Integer.getInteger(SimulatorMetrics.PORT_PROPERTY);
+        ScheduledExecutorService reporter = interval == null ? null : SimulatorMetrics.report(System.err, interval);
+        HttpServer metricsServer = null;
+        if (metricsPort != null){
+            try {
+                metricsServer = SimulatorMetrics.serve(metricsPort);
+                System.err.println("Serving metrics on http://127.0.0.1:" + metricsServer.getAddress().getPort() + "/metrics");
+            } catch (IOException e){
+                System.err.println("Cannot serve metrics on port " + metricsPort + ": " + e.getMessage());
+            }
+        }
+        DispatchServer server = new DispatchServer(simulator, Runtime.getRuntime().availableProcessors(), windowMicros, maxBatch, maxQueue);
+        if (port.equals("-")){
+            server.serve(System.in, System.out);
+            System.err.print(server.stats());
+            server.close();
+            if (reporter != null){
+                reporter.shutdown();
+            }
+            if (metricsServer != null){
+                metricsServer.stop(0);
+            }
+            return;
+        }
+        try {
+            int listening = server.listen(Integer.parseInt(port));
+            System.err.println("Dispatching calls on 127.0.0.1:" + listening);
+        } catch (IOException e){
+            System.err.println("Cannot listen on port " + port + ": " + e.getMessage());
+            System.exit(1);
+        }
+        // Serve until the process is stopped, then print the statistics.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.print(server.stats())));
+        try {
+            new CountDownLatch(1).await();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+import java.util.StringTokenizer;
+
+/**
+ * A change to the cost of the road from one node to another, as applied by Graph.updateEdges.
+ * A road that does not exist yet is added, and a road given an infinite cost is removed.
+ *
+ * In text, an update is written as the two node names followed by the new cost, or by the word remove.
+ */
+public class EdgeUpdate
+{
+    /** The name of the node the road starts at.*/
+    private final String source;
+    /** The name of the node the road ends at.*/
+    private final String dest;
+    /** The new cost of the road, or Graph.INFINITY to remove it.*/
+    private final double cost;
+
+    /**
+     * Create an update which gives a road a new cost.
+     * @param source The name of the node the road starts at.
+     * @param dest The name of the node the road ends at.
+     * @param cost The new cost, or Graph.INFINITY or Double.POSITIVE_INFINITY to remove the road.
+    */
+    public EdgeUpdate(String source, String dest, double cost){
+        this.source = source;
+        this.dest = dest;
+        this.cost = cost == Double.POSITIVE_INFINITY ? Graph.INFINITY : cost;
+    }
+
+    /**
+     * Create an update which removes a road.
+     * @param source The name of the node the road starts at.
+     * @param dest The name of the node the road ends at.
+     * @return The update.
+    */
+    public static EdgeUpdate remove(String source, String dest){
+        return new EdgeUpdate(source, dest, Graph.INFINITY);
+    }
+
+    /**
+     * Read an update from one line of text.
+     * @param line The two node names and the new cost or the word remove, separated by whitespace.
+     * @throws IllegalArgumentException If the line is not an update.
+     * @return The update.
+    */
+    public static EdgeUpdate parse(String line){
+        StringTokenizer tokenizer = new StringTokenizer(line);
+        if (tokenizer.countTokens() != 3){
+            throw new IllegalArgumentException("Expected a source, a destination and a cost: " + line);
+        }
+        String source = tokenizer.nextToken();
+        String dest = tokenizer.nextToken();
+        String cost = tokenizer.nextToken();
+        if (cost.equalsIgnoreCase("remove")){
+            return remove(source, dest);
+        }
+        try {
+            return new EdgeUpdate(source, dest, Double.parseDouble(cost));
+        } catch (NumberFormatException e){
+            throw new IllegalArgumentException("Invalid cost: " + line, e);
+        }
+    }
+
+    /**
+     * Obtain the name of the node the road starts at.
+     * @return The name of the source node.
+    */
+    public String source(){
+        return source;
+    }
+
+    /**
+     * Obtain the name of the node the road ends at.
+     * @return The name of the destination node.
+    */
+    public String dest(){
+        return dest;
+    }
+
+    /**
+     * Obtain the new cost of the road.
+     * @return The cost, or Graph.INFINITY if the road is removed.
+    */
+    public double cost(){
+        return cost;
+    }
+
+    /**
+     * Determine if this update removes the road.
+     * @return True if the road is removed.
+    */
+    public boolean isRemoval(){
+        return cost == Graph.INFINITY;
+    }
+
+    /**
+     * Return the update as a line of text that parse reads back.
+    */
+    @Override
+    public String toString(){
+        return source + " " + dest + " " + (isRemoval() ? "remove" : Double.toString(cost));
+    }
+}
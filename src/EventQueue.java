@@ -0,0 +1,160 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Min-heap of timestamped events for a discrete-event simulation.
+ * Each event is a type and a subject, such as a call or a taxi, both ints, so queueing an event allocates nothing
+ * once the arrays have grown. Events at the same time leave the queue in the order they were added, so a run is
+ * the same every time.
+ */
+public class EventQueue
+{
+    /** The time of each entry, in heap order.*/
+    private double[] times = new double[64];
+    /** The order in which each entry was added, breaking ties between equal times.*/
+    private long[] sequence = new long[64];
+    private int[] types = new int[64];
+    private int[] subjects = new int[64];
+    private int size;
+    private long added;
+
+    /** The time, type and subject of the last removed event.*/
+    private double lastTime;
+    private int lastType;
+    private int lastSubject;
+
+    /**
+     * Determine if the queue is empty.
+     * @return True if no events are waiting.
+    */
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    /**
+     * Obtain the number of waiting events.
+     * @return The number of events.
+    */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Obtain the time of the next event.
+     * @return The smallest time in the queue, or positive infinity if the queue is empty.
+    */
+    public double nextTime(){
+        return size == 0 ? Double.POSITIVE_INFINITY : times[0];
+    }
+
+    /**
+     * Add an event.
+     * @param time The time the event happens.
+     * @param type The kind of event.
+     * @param subject The call, taxi or other subject of the event.
+    */
+    public void add(double time, int type, int subject){
+        if (size == times.length){
+            times = Arrays.copyOf(times, size * 2);
+            sequence = Arrays.copyOf(sequence, size * 2);
+            types = Arrays.copyOf(types, size * 2);
+            subjects = Arrays.copyOf(subjects, size * 2);
+        }
+        // Move the hole up from the end until the new event can be placed in it.
+        int slot = size++;
+        long order = added++;
+        while (slot > 0){
+            int parent = (slot - 1) >>> 1;
+            if (!before(time, order, parent)){
+                break;
+            }
+            move(parent, slot);
+            slot = parent;
+        }
+        place(slot, time, order, type, subject);
+    }
+
+    /**
+     * Remove the next event, which can then be read with lastTime, lastType and lastSubject.
+     * @throws NoSuchElementException If the queue is empty.
+    */
+    public void remove(){
+        if (size == 0){
+            throw new NoSuchElementException("No events are waiting");
+        }
+        lastTime = times[0];
+        lastType = types[0];
+        lastSubject = subjects[0];
+        size--;
+        if (size == 0){
+            return;
+        }
+        // Move the hole down from the top until the last entry can be placed in it.
+        double time = times[size];
+        long order = sequence[size];
+        int type = types[size];
+        int subject = subjects[size];
+        int slot = 0;
+        while (true){
+            int child = 2 * slot + 1;
+            if (child >= size){
+                break;
+            }
+            if (child + 1 < size && before(times[child + 1], sequence[child + 1], child)){
+                child++;
+            }
+            if (!before(times[child], sequence[child], time, order)){
+                break;
+            }
+            move(child, slot);
+            slot = child;
+        }
+        place(slot, time, order, type, subject);
+    }
+
+    /**
+     * Obtain the time of the last removed event.
+     * @return The time.
+    */
+    public double lastTime(){
+        return lastTime;
+    }
+
+    /**
+     * Obtain the type of the last removed event.
+     * @return The type.
+    */
+    public int lastType(){
+        return lastType;
+    }
+
+    /**
+     * Obtain the subject of the last removed event.
+     * @return The subject.
+    */
+    public int lastSubject(){
+        return lastSubject;
+    }
+
+    /**
+     * Determine if an event with the given time and order comes before the entry in the given slot.
+    */
+    private boolean before(double time, long order, int slot){
+        return before(time, order, times[slot], sequence[slot]);
+    }
+
+    private static boolean before(double time, long order, double otherTime, long otherOrder){
+        return time < otherTime || (time == otherTime && order < otherOrder);
+    }
+
+    private void move(int from, int to){
+        place(to, times[from], sequence[from], types[from], subjects[from]);
+    }
+
+    private void place(int slot, double time, long order, int type, int subject){
+        times[slot] = time;
+        sequence[slot] = order;
+        types[slot] = type;
+        subjects[slot] = subject;
+    }
+}
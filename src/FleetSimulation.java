@@ -0,0 +1,852 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.StringTokenizer;
+
+/**
+ * Discrete-event simulation of a fleet of taxis serving timestamped calls over the roads of a TaxiSimulator.
+ * Road costs are read as travel times, in minutes unless setMinutesPerCost chooses another scale.
+ *
+ * Every taxi belongs to a company and is idle at a node, en route to a client, or occupied taking the client to the
+ * nearest Shop of its company. Calls, pick-ups and drop-offs are events in an EventQueue, processed in time order.
+ * A call is given the nearest idle taxi of its company: a search from the client over the reversed roads stops at
+ * the first node holding one, found in the idle index of the company, which keeps the idle taxis at each node in a
+ * linked list. When no idle taxi can reach the client, the call waits, and every taxi that becomes idle serves the
+ * oldest waiting call of its company that it can reach. Calls that wait longer than the maximum wait are abandoned.
+ *
+ * With a batch window, calls are instead gathered and matched together once the window has passed: the waiting calls
+ * of each company and its idle taxis form a cost matrix of pick-up costs, and the AssignmentSolver gives the matching
+ * with the least total pick-up cost. Each row of the matrix is filled by one search from the client over the
+ * reversed roads, which stops once it has found the nearest BATCH_CANDIDATES idle taxis, so the matrix stays narrow
+ * however large the fleet is. When fewer taxis are idle than calls wait, the searches start from the taxis instead
+ * and find their nearest waiting clients. Calls that are not matched wait for the next window.
+ *
+ * While a taxi is en route or occupied it follows the shortest path of its leg, so its position at any time is
+ * the last node of the leg it has passed. The drop-off leg of each client is found once and shared by its calls.
+ * The simulation is run on one thread.
+ */
+public class FleetSimulation
+{
+    /**
+     * The state of a taxi.
+    */
+    public enum TaxiState
+    {
+        IDLE, EN_ROUTE, OCCUPIED
+    }
+
+    /** Event types.*/
+    private static final int CALL = 0;
+    private static final int PICK_UP = 1;
+    private static final int DROP_OFF = 2;
+    private static final int ASSIGN = 3;
+
+    /** Call outcomes.*/
+    private static final int PENDING = 0;
+    private static final int WAITING = 1;
+    private static final int ASSIGNED = 2;
+    private static final int SERVED = 3;
+    private static final int ABANDONED = 4;
+    private static final int UNSERVED = 5;
+
+    /** The number of waiting calls a newly idle taxi checks before it waits for a new call.*/
+    private static final int WAIT_CHECKS = 8;
+    /** The number of nearest idle taxis each call of a batch may be matched with.*/
+    private static final int BATCH_CANDIDATES = 8;
+
+    private final TaxiSimulator simulator;
+    private final CompactGraph graph;
+    private final VertexRoles roles;
+    private final EventQueue events = new EventQueue();
+    /** The search used by the current run, or null between runs.*/
+    private SearchContext context;
+    /** The current time of the simulation.*/
+    private double now;
+    /** The longest a call waits for a taxi before it is abandoned.*/
+    private double maxWait = 60;
+    /** The travel time in minutes of one unit of road cost.*/
+    private double minutesPerCost = 1;
+    /** The time calls are gathered for before they are matched together, or 0 to send each call the nearest taxi.*/
+    private double batchWindow;
+    /** True if a batch is due to be matched.*/
+    private boolean batchDue;
+
+    // Taxis, by id.
+    private int numTaxis;
+    private VertexRoles.Company[] taxiCompany = new VertexRoles.Company[16];
+    private TaxiState[] taxiState = new TaxiState[16];
+    /** The node an idle taxi is at, or the node a busy taxi is heading to.*/
+    private int[] taxiVertex = new int[16];
+    /** The leg a busy taxi is following and the time it started it.*/
+    private Leg[] taxiLeg = new Leg[16];
+    private double[] legStart = new double[16];
+    /** The call a busy taxi is serving.*/
+    private int[] taxiCall = new int[16];
+    /** The next idle taxi of the same company at the same node, or -1.*/
+    private int[] nextIdle = new int[16];
+    /** The first idle taxi of each company at each node, or -1.*/
+    private final int[][] idleHead;
+    private final int[] idleCount;
+    private final int[] fleetSize;
+    /** The total time taxis spent en route or occupied.*/
+    private double busyTime;
+
+    // Calls, by id.
+    private int numCalls;
+    private double[] callTime = new double[16];
+    private int[] callClient = new int[16];
+    private VertexRoles.Company[] callCompany = new VertexRoles.Company[16];
+    private int[] callStatus = new int[16];
+    private double[] pickUpCost = new double[16];
+    private double[] waitTime = new double[16];
+    /** The calls waiting for a taxi of each company, oldest first.*/
+    private final ArrayList<ArrayDeque<Integer>> waiting = new ArrayList<>();
+    /** The drop-off leg from each client to the nearest Shop of each company, found on first use.*/
+    private final Leg[][] dropOffLegs;
+    /** The first waiting call of a batch at each node, or -1, used while a batch is matched.*/
+    private final int[] waitingHead;
+    /** A leg that marks a client with no reachable Shop.*/
+    private static final Leg NO_LEG = new Leg(new int[0], new double[0]);
+
+    // Results.
+    private long processed;
+    private int served;
+    private int abandoned;
+    private int unserved;
+    private double fares;
+    private double pickUpTotal;
+    private int batches;
+    private long batchNanos;
+
+    /**
+     * Create an empty simulation over the roads and Shops of the given TaxiSimulator.
+     * @param simulator The simulator whose graph, Shops and fares are used.
+    */
+    public FleetSimulation(TaxiSimulator simulator){
+        this.simulator = simulator;
+        this.graph = simulator.compact();
+        this.roles = simulator.getRoles();
+        int companies = VertexRoles.Company.values().length;
+        this.idleHead = new int[companies][graph.size()];
+        for (int[] heads : idleHead){
+            Arrays.fill(heads, -1);
+        }
+        this.idleCount = new int[companies];
+        this.fleetSize = new int[companies];
+        this.dropOffLegs = new Leg[companies][];
+        this.waitingHead = new int[graph.size()];
+        Arrays.fill(waitingHead, -1);
+        for (int c = 0; c < companies; c++){
+            waiting.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Choose how long a call waits for a taxi before it is abandoned.
+     * @param minutes The longest wait.
+    */
+    public void setMaxWait(double minutes){
+        this.maxWait = minutes;
+    }
+
+    /**
+     * Choose the travel time of one unit of road cost. Fares are still worked out from the costs.
+     * @param minutes The minutes taken to travel one unit of cost.
+    */
+    public void setMinutesPerCost(double minutes){
+        this.minutesPerCost = minutes;
+    }
+
+    /**
+     * Choose how long calls are gathered for before they are matched with idle taxis together.
+     * @param minutes The length of the window, or 0 to send every call the nearest idle taxi when it arrives.
+    */
+    public void setBatchWindow(double minutes){
+        this.batchWindow = minutes;
+    }
+
+    /**
+     * Add an idle taxi at the given node.
+     * @param vertex The name of the node.
+     * @param company The name of the company of the taxi.
+     * @throws NoSuchElementException If the node is not found.
+     * @throws IllegalArgumentException If there is no company with the given name.
+     * @return The id of the taxi.
+    */
+    public int addTaxi(String vertex, String company){
+        VertexRoles.Company taxiCompany = VertexRoles.Company.of(company);
+        if (taxiCompany == null){
+            throw new IllegalArgumentException("Unknown company: " + company);
+        }
+        return addTaxi(index(vertex), taxiCompany);
+    }
+
+    /**
+     * Add the given number of idle taxis at every Shop, each of the company of its Shop.
+     * @param perShop The number of taxis at each Shop.
+     * @return The number of taxis added.
+    */
+    public int addTaxisAtShops(int perShop){
+        int added = 0;
+        for (VertexRoles.Company company : VertexRoles.Company.values()){
+            for (int i = 0; i < roles.shopCount(company); i++){
+                for (int j = 0; j < perShop; j++){
+                    addTaxi(roles.shop(company, i), company);
+                    added++;
+                }
+            }
+        }
+        return added;
+    }
+
+    private int addTaxi(int vertex, VertexRoles.Company company){
+        if (numTaxis == taxiState.length){
+            int capacity = numTaxis * 2;
+            taxiCompany = Arrays.copyOf(taxiCompany, capacity);
+            taxiState = Arrays.copyOf(taxiState, capacity);
+            taxiVertex = Arrays.copyOf(taxiVertex, capacity);
+            taxiLeg = Arrays.copyOf(taxiLeg, capacity);
+            legStart = Arrays.copyOf(legStart, capacity);
+            taxiCall = Arrays.copyOf(taxiCall, capacity);
+            nextIdle = Arrays.copyOf(nextIdle, capacity);
+        }
+        int taxi = numTaxis++;
+        taxiCompany[taxi] = company;
+        fleetSize[company.ordinal()]++;
+        makeIdle(taxi, vertex);
+        return taxi;
+    }
+
+    /**
+     * Add a call arriving at the given time.
+     * @param time The time of the call in minutes.
+     * @param client The name of the client's node.
+     * @param company The name of the company chosen by the client.
+     * @throws NoSuchElementException If the node is not found.
+     * @return The id of the call.
+    */
+    public int addCall(double time, String client, String company){
+        return addCall(time, index(client), VertexRoles.Company.of(company));
+    }
+
+    /**
+     * Add calls arriving at random over the given length of time, as a Poisson process.
+     * Each call is one of the calls read from the input, chosen at random.
+     * @param count The number of calls.
+     * @param duration The length of time the calls arrive over, in minutes.
+     * @param seed The seed of the arrival times and choice of calls.
+     * @throws IllegalStateException If the input has no calls to choose from.
+    */
+    public void addRandomCalls(int count, double duration, long seed){
+        ArrayList<Integer> clients = new ArrayList<>();
+        ArrayList<VertexRoles.Company> companies = new ArrayList<>();
+        StringTokenizer tokenizer = new StringTokenizer(simulator.getCalls() == null ? "" : simulator.getCalls());
+        while (tokenizer.countTokens() >= 2){
+            Vertex client = simulator.vertexMap.get(tokenizer.nextToken());
+            VertexRoles.Company company = VertexRoles.Company.of(tokenizer.nextToken());
+            if (client != null){
+                clients.add(client.index);
+                companies.add(company);
+            }
+        }
+        if (clients.isEmpty()){
+            throw new IllegalStateException("The input has no calls to choose from");
+        }
+        Random random = new Random(seed);
+        double time = now;
+        for (int i = 0; i < count; i++){
+            time += -Math.log(1 - random.nextDouble()) * duration / count;
+            int chosen = random.nextInt(clients.size());
+            addCall(time, clients.get(chosen), companies.get(chosen));
+        }
+    }
+
+    private int addCall(double time, int client, VertexRoles.Company company){
+        if (numCalls == callTime.length){
+            int capacity = numCalls * 2;
+            callTime = Arrays.copyOf(callTime, capacity);
+            callClient = Arrays.copyOf(callClient, capacity);
+            callCompany = Arrays.copyOf(callCompany, capacity);
+            callStatus = Arrays.copyOf(callStatus, capacity);
+            pickUpCost = Arrays.copyOf(pickUpCost, capacity);
+            waitTime = Arrays.copyOf(waitTime, capacity);
+        }
+        int call = numCalls++;
+        callTime[call] = time;
+        callClient[call] = client;
+        callCompany[call] = company;
+        callStatus[call] = PENDING;
+        events.add(time, CALL, call);
+        return call;
+    }
+
+    /**
+     * Run the simulation until no events are left. Calls still waiting at the end are abandoned.
+    */
+    public void run(){
+        run(Double.POSITIVE_INFINITY);
+        for (ArrayDeque<Integer> queue : waiting){
+            while (!queue.isEmpty()){
+                abandon(queue.poll());
+            }
+        }
+    }
+
+    /**
+     * Run the simulation up to the given time, processing every event due by then.
+     * @param until The time to stop at, in minutes.
+    */
+    public void run(double until){
+        try (SearchContext search = graph.acquireContext()){
+            this.context = search;
+            while (!events.isEmpty() && events.nextTime() <= until){
+                events.remove();
+                now = events.lastTime();
+                processed++;
+                int subject = events.lastSubject();
+                switch (events.lastType()){
+                    case CALL: call(subject); break;
+                    case PICK_UP: pickUp(subject); break;
+                    case DROP_OFF: dropOff(subject); break;
+                    case ASSIGN: assignBatches(); break;
+                    default: throw new IllegalStateException("Unknown event type " + events.lastType());
+                }
+            }
+            if (until != Double.POSITIVE_INFINITY){
+                now = Math.max(now, until);
+            }
+        } finally {
+            this.context = null;
+        }
+    }
+
+    /**
+     * Handle a new call: find the drop-off leg and the nearest idle taxi, or make the call wait.
+    */
+    private void call(int call){
+        VertexRoles.Company company = callCompany[call];
+        if (company == null || fleetSize[company.ordinal()] == 0 || dropOffLeg(callClient[call], company) == null){
+            callStatus[call] = UNSERVED;
+            unserved++;
+            return;
+        }
+        if (batchWindow > 0){
+            callStatus[call] = WAITING;
+            waiting.get(company.ordinal()).add(call);
+            scheduleBatch();
+            return;
+        }
+        if (idleCount[company.ordinal()] > 0){
+            // Search from the client over the reversed roads until a node with an idle taxi of the company is settled.
+            int[] heads = idleHead[company.ordinal()];
+            context.begin(graph.reverse(), callClient[call]);
+            int v;
+            while ((v = context.settleNext()) >= 0 && heads[v] < 0){
+                // Settle the next closest node.
+            }
+            context.finish();
+            if (v >= 0){
+                assign(heads[v], call, Leg.towards(context, v));
+                return;
+            }
+        }
+        callStatus[call] = WAITING;
+        waiting.get(company.ordinal()).add(call);
+    }
+
+    /**
+     * Send a taxi to a client along the given leg.
+    */
+    private void assign(int taxi, int call, Leg leg){
+        removeIdle(taxi);
+        taxiState[taxi] = TaxiState.EN_ROUTE;
+        taxiCall[taxi] = call;
+        taxiLeg[taxi] = leg;
+        legStart[taxi] = now;
+        taxiVertex[taxi] = callClient[call];
+        callStatus[call] = ASSIGNED;
+        pickUpCost[call] = leg.cost();
+        waitTime[call] = now - callTime[call] + leg.cost() * minutesPerCost;
+        events.add(now + leg.cost() * minutesPerCost, PICK_UP, taxi);
+    }
+
+    /**
+     * The taxi has reached its client, so take the client to the nearest Shop of the company.
+    */
+    private void pickUp(int taxi){
+        int call = taxiCall[taxi];
+        Leg leg = dropOffLeg(callClient[call], callCompany[call]);
+        busyTime += now - legStart[taxi];
+        taxiState[taxi] = TaxiState.OCCUPIED;
+        taxiLeg[taxi] = leg;
+        legStart[taxi] = now;
+        taxiVertex[taxi] = leg.vertex(leg.length() - 1);
+        events.add(now + leg.cost() * minutesPerCost, DROP_OFF, taxi);
+    }
+
+    /**
+     * The taxi has reached the Shop, so the call is complete and the taxi serves a waiting call or becomes idle.
+    */
+    private void dropOff(int taxi){
+        int call = taxiCall[taxi];
+        VertexRoles.Company company = callCompany[call];
+        busyTime += now - legStart[taxi];
+        callStatus[call] = SERVED;
+        served++;
+        pickUpTotal += pickUpCost[call];
+        fares += simulator.getTaxiFare(pickUpCost[call], taxiLeg[taxi].cost(), company);
+        taxiLeg[taxi] = null;
+        makeIdle(taxi, taxiVertex[taxi]);
+        if (batchWindow > 0){
+            if (!waiting.get(company.ordinal()).isEmpty()){
+                scheduleBatch();
+            }
+            return;
+        }
+        // Serve the oldest waiting call of the company that this taxi can reach.
+        ArrayDeque<Integer> queue = waiting.get(company.ordinal());
+        Iterator<Integer> calls = queue.iterator();
+        for (int checked = 0; checked < WAIT_CHECKS && calls.hasNext(); ){
+            int next = calls.next();
+            if (now - callTime[next] > maxWait){
+                calls.remove();
+                abandon(next);
+                continue;
+            }
+            checked++;
+            context.search(taxiVertex[taxi], callClient[next]);
+            if (context.dist(callClient[next]) != Graph.INFINITY){
+                calls.remove();
+                assign(taxi, next, Leg.from(context, callClient[next]));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Match the waiting calls of every company with its idle taxis at the end of the current window.
+    */
+    private void scheduleBatch(){
+        if (!batchDue){
+            batchDue = true;
+            events.add(now + batchWindow, ASSIGN, 0);
+        }
+    }
+
+    /**
+     * Match the waiting calls of each company with its idle taxis, with the least total pick-up cost.
+    */
+    private void assignBatches(){
+        batchDue = false;
+        for (VertexRoles.Company company : VertexRoles.Company.values()){
+            ArrayDeque<Integer> queue = waiting.get(company.ordinal());
+            queue.removeIf(call -> {
+                if (now - callTime[call] > maxWait){
+                    abandon(call);
+                    return true;
+                }
+                return false;
+            });
+            if (!queue.isEmpty() && idleCount[company.ordinal()] > 0){
+                assignBatch(company, queue);
+            }
+        }
+    }
+
+    /**
+     * Match the waiting calls of one company with its idle taxis. Matched calls leave the queue.
+    */
+    private void assignBatch(VertexRoles.Company company, ArrayDeque<Integer> queue){
+        long begin = System.nanoTime();
+        int[] calls = new int[queue.size()];
+        int numWaiting = 0;
+        for (int call : queue){
+            calls[numWaiting++] = call;
+        }
+        // Step 1 - Pair each call with its nearest idle taxis, searching from whichever side is smaller.
+        int idle = idleCount[company.ordinal()];
+        int limit = Math.min(numWaiting, idle) * BATCH_CANDIDATES;
+        int[] pairCall = new int[limit];
+        int[] pairTaxi = new int[limit];
+        Leg[] pairLeg = new Leg[limit];
+        int pairs = 0;
+        if (numWaiting <= idle){
+            // Search from each client over the reversed roads until its nearest idle taxis are found.
+            int[] heads = idleHead[company.ordinal()];
+            int wanted = Math.min(BATCH_CANDIDATES, idle);
+            for (int i = 0; i < numWaiting; i++){
+                context.begin(graph.reverse(), callClient[calls[i]]);
+                int found = 0;
+                int v;
+                while (found < wanted && (v = context.settleNext()) >= 0){
+                    // The taxis at one node share the leg from it.
+                    Leg leg = heads[v] >= 0 ? Leg.towards(context, v) : null;
+                    for (int taxi = heads[v]; taxi >= 0 && found < wanted; taxi = nextIdle[taxi], found++){
+                        pairCall[pairs] = i;
+                        pairTaxi[pairs] = taxi;
+                        pairLeg[pairs++] = leg;
+                    }
+                }
+                context.finish();
+            }
+        } else {
+            // Fewer taxis than calls, so search from each idle taxi over the roads until its nearest clients are found.
+            int[] nextWaiting = new int[numWaiting];
+            for (int i = 0; i < numWaiting; i++){
+                nextWaiting[i] = waitingHead[callClient[calls[i]]];
+                waitingHead[callClient[calls[i]]] = i;
+            }
+            int wanted = Math.min(BATCH_CANDIDATES, numWaiting);
+            for (int taxi = 0; taxi < numTaxis; taxi++){
+                if (taxiState[taxi] != TaxiState.IDLE || taxiCompany[taxi] != company){
+                    continue;
+                }
+                context.begin(graph, taxiVertex[taxi]);
+                int found = 0;
+                int v;
+                while (found < wanted && (v = context.settleNext()) >= 0){
+                    Leg leg = waitingHead[v] >= 0 ? Leg.from(context, v) : null;
+                    for (int i = waitingHead[v]; i >= 0 && found < wanted; i = nextWaiting[i], found++){
+                        pairCall[pairs] = i;
+                        pairTaxi[pairs] = taxi;
+                        pairLeg[pairs++] = leg;
+                    }
+                }
+                context.finish();
+            }
+            for (int i = 0; i < numWaiting; i++){
+                waitingHead[callClient[calls[i]]] = -1;
+            }
+        }
+        // Step 2 - Number the calls and taxis that were paired as the rows and columns of the matrix of pick-up costs.
+        int[] callRow = new int[numWaiting];
+        Arrays.fill(callRow, -1);
+        int[] rowCall = new int[Math.min(numWaiting, pairs)];
+        int rows = 0;
+        int[] taxiColumn = new int[numTaxis];
+        Arrays.fill(taxiColumn, -1);
+        int[] columnTaxi = new int[Math.min(idle, pairs)];
+        int columns = 0;
+        for (int p = 0; p < pairs; p++){
+            if (callRow[pairCall[p]] < 0){
+                callRow[pairCall[p]] = rows;
+                rowCall[rows++] = pairCall[p];
+            }
+            if (taxiColumn[pairTaxi[p]] < 0){
+                taxiColumn[pairTaxi[p]] = columns;
+                columnTaxi[columns++] = pairTaxi[p];
+            }
+        }
+        double[][] matrix = new double[rows][columns];
+        Leg[][] legs = new Leg[rows][columns];
+        for (double[] row : matrix){
+            Arrays.fill(row, Double.POSITIVE_INFINITY);
+        }
+        for (int p = 0; p < pairs; p++){
+            int row = callRow[pairCall[p]];
+            int column = taxiColumn[pairTaxi[p]];
+            matrix[row][column] = pairLeg[p].cost();
+            legs[row][column] = pairLeg[p];
+        }
+        int[] match = AssignmentSolver.solve(matrix);
+        // Step 3 - Send each matched taxi along its leg to the client, and keep the rest waiting in order.
+        boolean[] matched = new boolean[numWaiting];
+        for (int row = 0; row < rows; row++){
+            if (match[row] >= 0){
+                int i = rowCall[row];
+                assign(columnTaxi[match[row]], calls[i], legs[row][match[row]]);
+                matched[i] = true;
+            }
+        }
+        queue.clear();
+        for (int i = 0; i < numWaiting; i++){
+            if (!matched[i]){
+                queue.add(calls[i]);
+            }
+        }
+        // Calls left out because their nearest taxis went to others may still reach the taxis left idle.
+        if (queue.size() < numWaiting && !queue.isEmpty() && idleCount[company.ordinal()] > 0){
+            scheduleBatch();
+        }
+        batches++;
+        batchNanos += System.nanoTime() - begin;
+    }
+
+    private void abandon(int call){
+        callStatus[call] = ABANDONED;
+        abandoned++;
+    }
+
+    /**
+     * Obtain the leg from a client to the nearest Shop of the given company, searching for it on first use.
+     * @return The leg, or null if no Shop of the company can be reached.
+    */
+    private Leg dropOffLeg(int client, VertexRoles.Company company){
+        Leg[] legs = dropOffLegs[company.ordinal()];
+        if (legs == null){
+            legs = new Leg[graph.size()];
+            dropOffLegs[company.ordinal()] = legs;
+        }
+        if (legs[client] == null){
+            context.begin(graph, client);
+            int v;
+            while ((v = context.settleNext()) >= 0 && roles.company(v) != company){
+                // Settle the next closest node.
+            }
+            context.finish();
+            legs[client] = v < 0 ? NO_LEG : Leg.from(context, v);
+        }
+        return legs[client] == NO_LEG ? null : legs[client];
+    }
+
+    private void makeIdle(int taxi, int vertex){
+        int company = taxiCompany[taxi].ordinal();
+        taxiState[taxi] = TaxiState.IDLE;
+        taxiVertex[taxi] = vertex;
+        nextIdle[taxi] = idleHead[company][vertex];
+        idleHead[company][vertex] = taxi;
+        idleCount[company]++;
+    }
+
+    /**
+     * Take an idle taxi out of the idle list of its node.
+    */
+    private void removeIdle(int taxi){
+        int company = taxiCompany[taxi].ordinal();
+        int[] heads = idleHead[company];
+        int vertex = taxiVertex[taxi];
+        if (heads[vertex] == taxi){
+            heads[vertex] = nextIdle[taxi];
+        } else {
+            int before = heads[vertex];
+            while (nextIdle[before] != taxi){
+                before = nextIdle[before];
+            }
+            nextIdle[before] = nextIdle[taxi];
+        }
+        idleCount[company]--;
+    }
+
+    private int index(String name){
+        Vertex vertex = simulator.vertexMap.get(name);
+        if (vertex == null){
+            throw new NoSuchElementException("Vertex not found: " + name);
+        }
+        return vertex.index;
+    }
+
+    /**
+     * Obtain the current time of the simulation.
+     * @return The time of the last processed event, in minutes.
+    */
+    public double time(){
+        return now;
+    }
+
+    /**
+     * Obtain the number of taxis.
+     * @return The number of taxis.
+    */
+    public int taxiCount(){
+        return numTaxis;
+    }
+
+    /**
+     * Obtain the state of a taxi.
+     * @param taxi The id of the taxi.
+     * @return The state of the taxi at the current time.
+    */
+    public TaxiState state(int taxi){
+        return taxiState[taxi];
+    }
+
+    /**
+     * Obtain the position of a taxi at the current time.
+     * @param taxi The id of the taxi.
+     * @return The name of the node the taxi is at, or the last node of its leg it has passed.
+    */
+    public String position(int taxi){
+        if (taxiState[taxi] == TaxiState.IDLE){
+            return graph.name(taxiVertex[taxi]);
+        }
+        Leg leg = taxiLeg[taxi];
+        return graph.name(leg.vertex(leg.positionAt((now - legStart[taxi]) / minutesPerCost)));
+    }
+
+    /**
+     * Obtain the number of events processed.
+     * @return The number of events.
+    */
+    public long eventsProcessed(){
+        return processed;
+    }
+
+    /**
+     * Obtain the number of calls taken to a Shop.
+     * @return The number of served calls.
+    */
+    public int served(){
+        return served;
+    }
+
+    /**
+     * Obtain the number of calls that waited too long for a taxi.
+     * @return The number of abandoned calls.
+    */
+    public int abandoned(){
+        return abandoned;
+    }
+
+    /**
+     * Obtain the number of calls that no taxi or Shop of their company could ever serve.
+     * @return The number of unserved calls.
+    */
+    public int unserved(){
+        return unserved;
+    }
+
+    /**
+     * Obtain the total fare paid for the served calls.
+     * @return The total fare.
+    */
+    public double totalFares(){
+        return fares;
+    }
+
+    /**
+     * Obtain the total pick-up cost of the served calls.
+     * @return The sum of the costs from each taxi to its client.
+    */
+    public double totalPickUpCost(){
+        return pickUpTotal;
+    }
+
+    /**
+     * Obtain the number of batches of calls matched with taxis.
+     * @return The number of batches, one per company and window with calls and idle taxis.
+    */
+    public int batches(){
+        return batches;
+    }
+
+    /**
+     * Obtain the time spent matching batches, from the searches for candidates to sending the taxis.
+     * @return The time in nanoseconds.
+    */
+    public long batchNanos(){
+        return batchNanos;
+    }
+
+    /**
+     * Obtain the fraction of taxi time spent en route or occupied, from time 0 to the current time.
+     * @return The utilization of the fleet, from 0 to 1.
+    */
+    public double utilization(){
+        return numTaxis == 0 || now == 0 ? 0 : busyTime / (numTaxis * now);
+    }
+
+    /**
+     * Obtain the time from a call to its pick-up below which the given fraction of the served calls lie.
+     * @param quantile The fraction, from 0 to 1.
+     * @return The wait in minutes, or 0 if no calls were served.
+    */
+    public double waitQuantile(double quantile){
+        double[] waits = new double[served];
+        int n = 0;
+        for (int call = 0; call < numCalls; call++){
+            if (callStatus[call] == SERVED){
+                waits[n++] = waitTime[call];
+            }
+        }
+        if (n == 0){
+            return 0;
+        }
+        Arrays.sort(waits, 0, n);
+        return waits[Math.min(n - 1, Math.max(0, (int) Math.ceil(quantile * n) - 1))];
+    }
+
+    /**
+     * Obtain a summary of the results.
+     * @return The counts of calls, the waits, the fares and the utilization.
+    */
+    public String summary(){
+        return String.format("%,d calls: %,d served, %,d abandoned, %,d unserved, %,d taxis, %,d events\n"
+                           + "wait p50 %.1f min, p99 %.1f min, pick-up cost %,.0f, fares R%,.2f, utilization %.1f%%, simulated %.1f hours\n",
+                             numCalls, served, abandoned, unserved, numTaxis, processed,
+                             waitQuantile(0.5), waitQuantile(0.99), pickUpTotal, fares, utilization() * 100, now / 60);
+    }
+
+    /**
+     * One leg of a trip: the nodes of a shortest path, with the time from the start of the leg to each node.
+    */
+    private static final class Leg
+    {
+        private final int[] vertices;
+        private final double[] offsets;
+
+        Leg(int[] vertices, double[] offsets){
+            this.vertices = vertices;
+            this.offsets = offsets;
+        }
+
+        /**
+         * Obtain the leg from the start of a forward search to the given node.
+        */
+        static Leg from(SearchContext search, int destination){
+            int count = 0;
+            for (int v = destination; v != -1; v = search.prev(v)){
+                count++;
+            }
+            int[] vertices = new int[count];
+            double[] offsets = new double[count];
+            for (int v = destination; v != -1; v = search.prev(v)){
+                vertices[--count] = v;
+                offsets[count] = search.dist(v);
+            }
+            return new Leg(vertices, offsets);
+        }
+
+        /**
+         * Obtain the leg from the given node to the start of a search over the reversed roads,
+         * whose previous vertices lead towards the start.
+        */
+        static Leg towards(SearchContext search, int start){
+            int count = 0;
+            for (int v = start; v != -1; v = search.prev(v)){
+                count++;
+            }
+            int[] vertices = new int[count];
+            double[] offsets = new double[count];
+            double total = search.dist(start);
+            int i = 0;
+            for (int v = start; v != -1; v = search.prev(v)){
+                vertices[i] = v;
+                offsets[i++] = total - search.dist(v);
+            }
+            return new Leg(vertices, offsets);
+        }
+
+        int length(){
+            return vertices.length;
+        }
+
+        int vertex(int i){
+            return vertices[i];
+        }
+
+        double cost(){
+            return offsets[offsets.length - 1];
+        }
+
+        /**
+         * Obtain the position of the last node passed after the given time on the leg.
+        */
+        int positionAt(double elapsed){
+            int at = Arrays.binarySearch(offsets, elapsed);
+            return at >= 0 ? at : Math.max(0, -at - 2);
+        }
+    }
+}
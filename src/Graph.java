@@ -1,248 +1,657 @@
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.LinkedList;
-import java.util.HashMap;
-import java.util.NoSuchElementException;
-import java.util.PriorityQueue;
-
-// Used to signal violations of preconditions for
-// various shortest path algorithms.
-class GraphException extends RuntimeException
-{
-    /**
-	 * 
-	 */
-	private static final long serialVersionUID = 1L;
-
-	public GraphException( String name )
-    {
-        super( name );
-    }
-}
-
-// Represents an edge in the graph.
-class Edge
-{
-    public Vertex     dest;   // Second vertex in Edge
-    public double     cost;   // Edge cost
-    
-    public Edge( Vertex d, double c )
-    {
-        dest = d;
-        cost = c;
-    }
-
-    public String toString(){
-        return this.dest +  " (Cost = " + this.cost + ")";
-    }
-}
-
-// Represents an entry in the priority queue for Dijkstra's algorithm.
-class Path implements Comparable<Path>
-{
-    public Vertex     dest;   // w
-    public double     cost;   // d(w)
-    ArrayList<Vertex> path;
-    
-    public Path( Vertex d, double c )
-    {
-        dest = d;
-        cost = c;
-    }
-    
-    public int compareTo( Path rhs )
-    {
-        double otherCost = rhs.cost;
-        
-        return cost < otherCost ? -1 : cost > otherCost ? 1 : 0;
-    }
-
-    public String toString(){
-        return this.dest + " : " + this.cost;
-    }
-}
-
-// Represents a vertex in the graph.
-class Vertex
-{
-    public String     name;   // Vertex name
-    public List<Edge> adj;    // Adjacent vertices
-    public double     dist;   // Cost
-    public Vertex     prev;   // Previous vertex on shortest path
-    public int        scratch;  // Extra variable used in algorithm
-    public String type;    // Variable which stores the type associated with this vertex
-    public String companyName; // Variable which stores the Company Name associated with this Vertex. 
-    public boolean duplicatePathsFound;  // Variable which stores if duplicate paths to this Vertex have been found.
-
-    public Vertex( String nm ){ 
-        this.name = nm; 
-        this.adj = new LinkedList<Edge>( ); 
-        reset(); 
-    }
-
-    public void reset( )
-    //  { dist = Graph.INFINITY; prev = null; pos = null; scratch = 0; }    
-    { dist = Graph.INFINITY; prev = null; scratch = 0;}
-      
-   // public PairingHeap.Position<Path> pos;  // Used for dijkstra2 (Chapter 23)
-
-    // Return a String representation of this Vertex.
-    @Override
-    public String toString() {
-        return name;
-    }
-
-    public int compareTo(Vertex other){
-        return Double.compare(dist, other.dist);
-    }
-}
-
-// Graph class: evaluate shortest paths.
-//
-// CONSTRUCTION: with no parameters.
-//
-// ******************PUBLIC OPERATIONS**********************
-// void addEdge( String v, String w, double cvw )
-//                              --> Add additional edge
-// void printPath( String w )   --> Print path after alg is run
-// void unweighted( String s )  --> Single-source unweighted
-// void dijkstra( String s )    --> Single-source weighted
-// void negative( String s )    --> Single-source negative weighted
-// void acyclic( String s )     --> Single-source acyclic
-// ******************ERRORS*********************************
-// Some error checking is performed to make sure graph is ok,
-// and to make sure graph satisfies properties needed by each
-// algorithm.  Exceptions are thrown if errors are detected.
-
-public class Graph
-{
-    public static final double INFINITY = Double.MAX_VALUE;
-    public Map<String,Vertex> vertexMap = new HashMap<String,Vertex>( );
-
-    /**
-     * Add a new edge to the graph.
-    */
-    public void addEdge( String sourceName, String destName, double cost )
-    {
-        Vertex v = getVertex( sourceName );
-        Vertex w = getVertex( destName );
-        v.adj.add( new Edge( w, cost ) );
-    }
-
-    /**
-     * Driver routine to handle unreachables and print total cost.
-     * It calls recursive routine to print shortest path to
-     * destNode after a shortest path algorithm has run.
-    */
-    public void printPath( String destName )
-    {
-        Vertex w = vertexMap.get( destName );
-        if( w == null )
-            throw new NoSuchElementException( "Destination vertex not found.");
-        else if( w.dist == INFINITY )
-            System.out.println( destName + " is unreachable.");
-        else
-        {
-            System.out.print( "(Cost is: " + w.dist + ") " );
-            printPath( w );
-            System.out.println( );
-        }
-    }
-
-    /**
-     * If vertexName is not present, add it to vertexMap.
-     * In either case, return the Vertex.
-     */
-    private Vertex getVertex( String vertexName )
-    {
-        Vertex v = vertexMap.get( vertexName );
-        if( v == null )
-        {
-            v = new Vertex( vertexName );
-            vertexMap.put( vertexName, v );
-        }
-        return v;
-    }
-
-    /**
-     * Recursive routine to print shortest path to dest
-     * after running shortest path algorithm. The path
-     * is known to exist.
-    */
-    private void printPath( Vertex dest )
-    {
-        if( dest.prev != null )
-        {
-            printPath( dest.prev );
-            System.out.print( " to " );
-        }
-        System.out.print( dest.name );
-    }
-    
-    /**
-     * Initializes the vertex output info prior to running
-     * any shortest path algorithm.
-    */
-    private void clearAll( )
-    {
-        for( Vertex v : vertexMap.values( ) )
-            v.reset( );
-    }
-
-    /**
-     * Single-source weighted shortest-path algorithm (Dijkstra's algorithm).
-     * This implementation uses priority queues based on the binary heap.
-     * @param startName The name associated with the starting vertex.
-     * @throws NoSuchElementException If the starting vertex is not found.
-     */
-    public void dijkstra( String startName ){
-        // Initialize priority queue and obtain the starting vertex.
-        PriorityQueue<Path> pq = new PriorityQueue<Path>();
-        Vertex start = vertexMap.get( startName );
-        // Check if the starting vertex exists.
-        if(start == null){
-            throw new NoSuchElementException( "Start vertex not found" );
-        }
-        clearAll();  // Clear all previous information about the vertices in the graph.
-        pq.add(new Path(start, 0)); 
-        start.dist = 0;
-        int nodesSeen = 0;
-        // Process the vertices until the priority queue is empty or all vertices have been vistited.
-        while(!pq.isEmpty() && nodesSeen < vertexMap.size()){
-            // Get the vertex with the shortest distance from the priority queue.
-            Path vrec = pq.remove( );
-            Vertex v = vrec.dest;
-            // Check if the vertex has already been processed.
-            if( v.scratch != 0 ){
-                continue;   // already processed v
-            }   
-            // Mark the vertex as processed.    
-            v.scratch = 1;
-            // Increment the number of nodes seen.
-            nodesSeen++;
-            // Iterate over the adjacent edges of the current vertex.
-            for(Edge e : v.adj){
-                Vertex w = e.dest;
-                double cvw = e.cost;
-                // Check for negative edges.
-                if(cvw < 0){
-                    throw new GraphException( "Graph has negative edges" );
-                }    
-                // Relax the edge if the shorter path is found
-                if(w.dist > v.dist + cvw){
-                    w.dist = v.dist +cvw;
-                    w.prev = v;
-                    // Add the vertex to the priority queue with the updates distance.
-                    pq.add( new Path( w, w.dist ) );
-                    // Reset the duplicatePathsFound variable.
-                    w.duplicatePathsFound = false;
-                }
-                // If a duplicate path with the same distance is found, mark this node as having duplicate paths.
-                else if (w.dist == v.dist + cvw){
-                    w.duplicatePathsFound = true;
-                }
-            }
-        }
-    }
-}
\ No newline at end of file
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+
+// Used to signal violations of preconditions for
+// various shortest path algorithms.
+class GraphException extends RuntimeException
+{
+    /**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	public GraphException( String name )
+    {
+        super( name );
+    }
+}
+
+// Represents an entry in the priority queue for Dijkstra's algorithm.
+class Path implements Comparable<Path>
+{
+    public Vertex     dest;   // w
+    public double     cost;   // d(w)
+    ArrayList<Vertex> path;
+    
+    public Path( Vertex d, double c )
+    {
+        dest = d;
+        cost = c;
+    }
+    
+    public int compareTo( Path rhs )
+    {
+        double otherCost = rhs.cost;
+        
+        return cost < otherCost ? -1 : cost > otherCost ? 1 : 0;
+    }
+
+    public String toString(){
+        return this.dest + " : " + this.cost;
+    }
+}
+
+// Represents a vertex in the graph.
+class Vertex
+{
+    public String     name;   // Vertex name
+    public int        index;  // Position of this vertex in the CompactGraph arrays
+    public double     dist;   // Cost
+    public Vertex     prev;   // Previous vertex on shortest path
+    public int        scratch;  // Extra variable used in algorithm
+    public String type;    // Variable which stores the type associated with this vertex
+    public String companyName; // Variable which stores the Company Name associated with this Vertex. 
+    public boolean duplicatePathsFound;  // Variable which stores if duplicate paths to this Vertex have been found.
+
+    public Vertex( String nm, int idx ){ 
+        this.name = nm; 
+        this.index = idx; 
+        reset(); 
+    }
+
+    public void reset( )
+    //  { dist = Graph.INFINITY; prev = null; pos = null; scratch = 0; }    
+    { dist = Graph.INFINITY; prev = null; scratch = 0;}
+      
+   // public PairingHeap.Position<Path> pos;  // Used for dijkstra2 (Chapter 23)
+
+    // Return a String representation of this Vertex.
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    public int compareTo(Vertex other){
+        return Double.compare(dist, other.dist);
+    }
+}
+
+// Graph class: evaluate shortest paths.
+//
+// CONSTRUCTION: with no parameters.
+//
+// ******************PUBLIC OPERATIONS**********************
+// void addEdge( String v, String w, double cvw )
+//                              --> Add additional edge
+// void setEdgeCost( String v, String w, double c ) --> Change the cost of an edge
+// void removeEdge( String v, String w ) --> Remove an edge
+// int updateEdges( Iterable<EdgeUpdate> u ) --> Apply a batch of edge changes
+// int updateEdges( BufferedReader in, int n ) --> Apply a stream of edge changes in batches of n
+// CompactGraph compact( )      --> Frozen array form of the graph
+// void printPath( String w )   --> Print path after alg is run
+// void dijkstra( String s )    --> Single-source weighted
+// ShortestPaths search( String s ) --> Single-source weighted, thread-safe, cached
+// ShortestPaths searchTo( String t ) --> Single-target weighted, thread-safe, cached
+// ShortestPaths search( String s, String t ) --> Point-to-point, stops at t
+// ShortestPaths searchParallel( String s, double d ) --> Single-source weighted, delta-stepping on all cores
+// BidirectionalSearch searchBidirectional( String s, String t ) --> Point-to-point from both ends
+// Landmarks buildLandmarks( int k ) --> A* preprocessing for point-to-point
+// ContractionHierarchy buildContractionHierarchy( ) --> Preprocessing for fast point-to-point
+// double[] distancesTo( String t ) --> Weighted cost from every vertex to t
+// void setIndexedHeap( boolean b ) --> Choose the queue of the searches
+// ******************ERRORS*********************************
+// Some error checking is performed to make sure graph is ok,
+// and to make sure graph satisfies properties needed by each
+// algorithm.  Exceptions are thrown if errors are detected.
+
+public class Graph
+{
+    public static final double INFINITY = Double.MAX_VALUE;
+    public static final int DEFAULT_CACHE_CAPACITY = 0;   // Shortest path trees kept by the path cache: off unless sized.
+    public Map<String,Vertex> vertexMap = new HashMap<String,Vertex>( );
+
+    private List<Vertex> vertices = new ArrayList<Vertex>( );  // Vertices in order of their index.
+    private int[] edgeSources = new int[ 16 ];       // Builder: source index of every added edge.
+    private int[] edgeTargets = new int[ 16 ];       // Builder: destination index of every added edge.
+    private double[] edgeCosts = new double[ 16 ];   // Builder: cost of every added edge.
+    private int numEdges;
+    private volatile CompactGraph compactGraph;      // Frozen form, rebuilt after the graph changes.
+    private final ShortestPathCache pathCache = new ShortestPathCache( DEFAULT_CACHE_CAPACITY );
+    private volatile boolean indexedHeap = true;     // Queue used by searches: IndexedHeap, or PriorityQueue<Path>.
+    private volatile Landmarks landmarks;            // ALT tables for point-to-point searches, or null.
+    private volatile ContractionHierarchy hierarchy; // Contraction hierarchy for point-to-point queries, or null.
+    private ShortestPathRepair repair;               // Scratch space to repair the cached trees after edge changes.
+
+    /**
+     * Add a new edge to the graph.
+     * Edges are recorded in the builder arrays and only laid out as a
+     * CompactGraph the next time the graph is queried.
+    */
+    public void addEdge( String sourceName, String destName, double cost )
+    {
+        addEdge( getVertex( sourceName ), getVertex( destName ), cost );
+    }
+
+    /**
+     * Add a new edge between two vertices of this graph.
+     */
+    void addEdge( Vertex v, Vertex w, double cost )
+    {
+        if( numEdges == edgeSources.length )
+        {
+            int capacity = Math.max( 16, numEdges * 2 );
+            edgeSources = Arrays.copyOf( edgeSources, capacity );
+            edgeTargets = Arrays.copyOf( edgeTargets, capacity );
+            edgeCosts = Arrays.copyOf( edgeCosts, capacity );
+        }
+        edgeSources[ numEdges ] = v.index;
+        edgeTargets[ numEdges ] = w.index;
+        edgeCosts[ numEdges ] = cost;
+        numEdges++;
+        compactGraph = null;
+        landmarks = null;
+        hierarchy = null;
+        pathCache.clear( );
+    }
+
+    /**
+     * Change the cost of the edge from one vertex to another, or add the edge if there is none.
+     * Parallel edges between the two vertices all get the new cost.
+     * @param sourceName The name associated with the source vertex.
+     * @param destName The name associated with the destination vertex.
+     * @param cost The new cost.
+     * @throws NoSuchElementException If either vertex is not found.
+     */
+    public void setEdgeCost( String sourceName, String destName, double cost )
+    {
+        updateEdges( List.of( new EdgeUpdate( sourceName, destName, cost ) ) );
+    }
+
+    /**
+     * Remove every edge from one vertex to another.
+     * @param sourceName The name associated with the source vertex.
+     * @param destName The name associated with the destination vertex.
+     * @throws NoSuchElementException If either vertex is not found.
+     */
+    public void removeEdge( String sourceName, String destName )
+    {
+        updateEdges( List.of( EdgeUpdate.remove( sourceName, destName ) ) );
+    }
+
+    /**
+     * Apply a batch of edge changes at once.
+     * The graph is laid out again once for the whole batch, and the cached shortest path trees are repaired
+     * around the changed edges instead of being dropped, unless the batch changes a large part of the graph.
+     * Landmarks and the contraction hierarchy are dropped.
+     * When the same edge is changed more than once in a batch, the last change wins.
+     * Must not be called while searches are running.
+     * @param updates The changes, each of which changes, adds or removes the edges between two existing vertices.
+     * @throws NoSuchElementException If a vertex of an update is not found.
+     * @throws GraphException If an update gives an edge a negative cost.
+     * @return The number of edges whose cost changed, including added and removed edges.
+     */
+    public int updateEdges( Iterable<EdgeUpdate> updates )
+    {
+        // Step 1 - Resolve the updates to vertex indices, keeping the last cost given for each edge.
+        Map<Long,Double> costs = new LinkedHashMap<Long,Double>( );
+        for( EdgeUpdate update : updates )
+        {
+            Vertex v = vertexMap.get( update.source( ) );
+            Vertex w = vertexMap.get( update.dest( ) );
+            if( v == null || w == null )
+                throw new NoSuchElementException( "Start or destination vertex not found" );
+            if( update.cost( ) < 0 )
+                throw new GraphException( "Graph has negative edges" );
+            costs.put( edgeKey( v.index, w.index ), update.cost( ) );
+        }
+        // Step 2 - Copy the edges into new builder arrays with the new costs, leaving out removed edges.
+        CompactGraph before = compact( );
+        ShortestPathRepair.Changes changes = new ShortestPathRepair.Changes( );
+        int[] sources = new int[ numEdges + costs.size( ) ];
+        int[] targets = new int[ sources.length ];
+        double[] newCosts = new double[ sources.length ];
+        Set<Long> found = new HashSet<Long>( );
+        int kept = 0;
+        for( int e = 0; e < numEdges; e++ )
+        {
+            long key = edgeKey( edgeSources[ e ], edgeTargets[ e ] );
+            Double cost = costs.get( key );
+            double newCost = cost == null ? edgeCosts[ e ] : cost;
+            if( cost != null )
+            {
+                found.add( key );
+                if( newCost != edgeCosts[ e ] )
+                    changes.add( edgeSources[ e ], edgeTargets[ e ], edgeCosts[ e ], newCost );
+            }
+            if( newCost != INFINITY )
+            {
+                sources[ kept ] = edgeSources[ e ];
+                targets[ kept ] = edgeTargets[ e ];
+                newCosts[ kept ] = newCost;
+                kept++;
+            }
+        }
+        // Step 3 - Add the edges that did not exist yet.
+        for( Map.Entry<Long,Double> entry : costs.entrySet( ) )
+        {
+            if( !found.contains( entry.getKey( ) ) && entry.getValue( ) != INFINITY )
+            {
+                sources[ kept ] = (int) ( entry.getKey( ) >>> 32 );
+                targets[ kept ] = (int) ( long ) entry.getKey( );
+                newCosts[ kept ] = entry.getValue( );
+                changes.add( sources[ kept ], targets[ kept ], INFINITY, newCosts[ kept ] );
+                kept++;
+            }
+        }
+        if( changes.size( ) == 0 )
+            return 0;
+        // Step 4 - Lay out the changed graph and repair what was computed on the old one.
+        edgeSources = sources;
+        edgeTargets = targets;
+        edgeCosts = newCosts;
+        numEdges = kept;
+        CompactGraph after = new CompactGraph( vertices.toArray( new Vertex[ 0 ] ), edgeSources, edgeTargets, edgeCosts, numEdges );
+        compactGraph = after;
+        landmarks = null;
+        hierarchy = null;
+        edgesChanged( before, after, changes );
+        return changes.size( );
+    }
+
+    /**
+     * Read edge changes from a stream, one per line as written by EdgeUpdate, and apply them in batches.
+     * Blank lines are skipped.
+     * @param in The stream of changes.
+     * @param batchSize The number of changes applied together.
+     * @throws IOException If the stream cannot be read.
+     * @throws IllegalArgumentException If a line is not an edge change.
+     * @return The number of changes read.
+     */
+    public int updateEdges( BufferedReader in, int batchSize ) throws IOException
+    {
+        List<EdgeUpdate> batch = new ArrayList<EdgeUpdate>( );
+        int read = 0;
+        for( String line = in.readLine( ); line != null; line = in.readLine( ) )
+        {
+            if( line.isBlank( ) )
+                continue;
+            batch.add( EdgeUpdate.parse( line ) );
+            read++;
+            if( batch.size( ) >= batchSize )
+            {
+                updateEdges( batch );
+                batch.clear( );
+            }
+        }
+        if( !batch.isEmpty( ) )
+            updateEdges( batch );
+        return read;
+    }
+
+    /**
+     * Called after updateEdges has changed the graph, to bring anything computed on the old graph up to date.
+     * The cached shortest path trees are repaired, or dropped when the batch is too large for a repair to pay off.
+     * They are also dropped when the searches use the PriorityQueue of Paths, whose order among paths of equal cost
+     * cannot be worked out from the distances, so that a cached tree always keeps the paths of a new search.
+     * Subclasses repair their own results and call this method too.
+     * @param before The graph before the changes.
+     * @param after The graph with the changes made.
+     * @param changes The changed edges.
+     */
+    protected void edgesChanged( CompactGraph before, CompactGraph after, ShortestPathRepair.Changes changes )
+    {
+        if( pathCache.size( ) == 0 )
+            return;
+        if( !indexedHeap || !ShortestPathRepair.worthRepairing( after, changes ) )
+        {
+            pathCache.clear( );
+            return;
+        }
+        if( repair == null || repair.size( ) != after.size( ) )
+            repair = new ShortestPathRepair( after.size( ) );
+        pathCache.repair( before, after, changes, repair );
+    }
+
+    /**
+     * Combine the indices of the two ends of an edge into one key.
+     */
+    private static long edgeKey( int source, int dest )
+    {
+        return ( (long) source << 32 ) | ( dest & 0xffffffffL );
+    }
+
+    /**
+     * Replace the contents of this graph with the given vertices and edges, as read from a snapshot.
+     * The edges are given in compressed sparse row form and become the CompactGraph without being laid out again.
+     * @param loaded The vertices, in order of their index.
+     * @param offsets The position of the first outgoing edge of each vertex, plus one final end marker.
+     * @param targets The destination vertex index of each edge.
+     * @param costs The cost of each edge.
+     */
+    void load( Vertex[] loaded, int[] offsets, int[] targets, double[] costs )
+    {
+        vertexMap.clear( );
+        vertices.clear( );
+        for( Vertex v : loaded )
+        {
+            vertexMap.put( v.name, v );
+            vertices.add( v );
+        }
+        // The builder arrays share the loaded arrays, which are copied before the first added edge is written.
+        numEdges = targets.length;
+        edgeSources = new int[ numEdges ];
+        for( int v = 0; v < loaded.length; v++ )
+            for( int e = offsets[ v ]; e < offsets[ v + 1 ]; e++ )
+                edgeSources[ e ] = v;
+        edgeTargets = targets;
+        edgeCosts = costs;
+        compactGraph = new CompactGraph( loaded, offsets, targets, costs );
+        landmarks = null;
+        hierarchy = null;
+        pathCache.clear( );
+    }
+
+    /**
+     * Obtain the frozen, array-based form of this graph.
+     * The CompactGraph is built on first use and cached until addEdge is called again.
+     * @return The CompactGraph holding the current vertices and edges.
+     */
+    public CompactGraph compact( )
+    {
+        CompactGraph graph = compactGraph;
+        if( graph == null )
+        {
+            synchronized( this )
+            {
+                if( compactGraph == null )
+                    compactGraph = new CompactGraph( vertices.toArray( new Vertex[ 0 ] ),
+                                                     edgeSources, edgeTargets, edgeCosts, numEdges );
+                graph = compactGraph;
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Driver routine to handle unreachables and print total cost.
+     * It follows the prev links back from destNode in a loop after a shortest path algorithm has run,
+     * and prints the whole line with one write.
+    */
+    public void printPath( String destName )
+    {
+        Vertex w = vertexMap.get( destName );
+        if( w == null )
+            throw new NoSuchElementException( "Destination vertex not found.");
+        else if( w.dist == INFINITY )
+            System.out.println( destName + " is unreachable.");
+        else
+        {
+            StringBuilder out = new StringBuilder( );
+            out.append( "(Cost is: " ).append( w.dist ).append( ") " );
+            new Route( ).fill( w, compact( ) ).appendTo( out, " to " );
+            System.out.println( out );
+        }
+    }
+
+    /**
+     * If vertexName is not present, add it to vertexMap.
+     * In either case, return the Vertex.
+     */
+    Vertex getVertex( String vertexName )
+    {
+        Vertex v = vertexMap.get( vertexName );
+        if( v == null )
+        {
+            v = new Vertex( vertexName, vertices.size( ) );
+            vertexMap.put( vertexName, v );
+            vertices.add( v );
+        }
+        return v;
+    }
+
+    /**
+     * Single-source weighted shortest-path algorithm (Dijkstra's algorithm).
+     * Runs a search over the CompactGraph and copies the results back into the vertices.
+     * The vertices are shared, so concurrent callers should use search instead.
+     * @param startName The name associated with the starting vertex.
+     * @throws NoSuchElementException If the starting vertex is not found.
+     */
+    public void dijkstra( String startName ){
+        try (ShortestPaths result = search( startName )){
+            CompactGraph graph = result.graph();
+            // Copy the results back into the vertices so that callers can keep reading dist, prev and duplicatePathsFound.
+            for(int v = 0; v < graph.size(); v++){
+                Vertex vertex = graph.vertex(v);
+                vertex.dist = result.dist(v);
+                vertex.prev = result.prev(v) == -1 ? null : graph.vertex(result.prev(v));
+                vertex.scratch = result.dist(v) == INFINITY ? 0 : 1;
+                // Unreached vertices keep their previous flag, as they did when the flag lived only on the Vertex.
+                if(result.hasDuplicatePaths(v)){
+                    vertex.duplicatePathsFound = true;
+                } else if (result.dist(v) != INFINITY && v != result.source()){
+                    vertex.duplicatePathsFound = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Single-source weighted shortest-path search which leaves the vertices untouched.
+     * Once the path cache is given a capacity, the result comes from it when the same search has been run since the graph last changed.
+     * Any number of searches may run at the same time once the graph is no longer being changed.
+     * @param startName The name associated with the starting vertex.
+     * @throws NoSuchElementException If the starting vertex is not found.
+     * @return The shortest paths from the start vertex, which the caller must close.
+     */
+    public ShortestPaths search( String startName ){
+        Vertex start = vertexMap.get( startName );
+        if(start == null){
+            throw new NoSuchElementException( "Start vertex not found" );
+        }
+        return shortestPaths( start.index, false );
+    }
+
+    /**
+     * Single-target weighted shortest-path search over the reversed edges, which leaves the vertices untouched.
+     * Once the path cache is given a capacity, the result comes from it when the same search has been run since the graph last changed.
+     * @param targetName The name associated with the target vertex.
+     * @throws NoSuchElementException If the target vertex is not found.
+     * @return The shortest paths from every vertex to the target, which the caller must close.
+     */
+    public ShortestPaths searchTo( String targetName ){
+        Vertex target = vertexMap.get( targetName );
+        if(target == null){
+            throw new NoSuchElementException( "Target vertex not found" );
+        }
+        return shortestPaths( target.index, true );
+    }
+
+    /**
+     * Point-to-point weighted shortest-path search, which stops once the destination is settled.
+     * Runs A* with landmark lower bounds once buildLandmarks has been called, and Dijkstra's algorithm otherwise.
+     * Only the destination and the vertices on its shortest path hold final results.
+     * A full tree from the start is used instead when the path cache already holds one.
+     * @param startName The name associated with the starting vertex.
+     * @param destName The name associated with the destination vertex.
+     * @throws NoSuchElementException If either vertex is not found.
+     * @return The shortest path to the destination, which the caller must close.
+     */
+    public ShortestPaths search( String startName, String destName ){
+        Vertex start = vertexMap.get( startName );
+        Vertex dest = vertexMap.get( destName );
+        if(start == null || dest == null){
+            throw new NoSuchElementException( "Start or destination vertex not found" );
+        }
+        CompactGraph graph = compact();
+        if( pathCache.getCapacity() > 0 ){
+            ShortestPathTree tree = pathCache.get( graph, start.index, false );
+            if( tree != null )
+                return tree;
+        }
+        Landmarks alt = landmarks;
+        SearchContext context = graph.acquireContext();
+        context.setIndexedHeap( indexedHeap );
+        return context.search( start.index, dest.index, alt != null && alt.graph() == graph ? alt : null );
+    }
+
+    /**
+     * Single-source weighted shortest-path search by delta-stepping, relaxing edges on the common fork-join pool.
+     * Gives the same costs and duplicate paths as search, and is meant for single searches over very large graphs.
+     * The result is not cached.
+     * @param startName The name associated with the starting vertex.
+     * @param delta The bucket width, such as DeltaStepping.suggestDelta( compact( ) ).
+     * @throws NoSuchElementException If the starting vertex is not found.
+     * @return The shortest paths from the start vertex.
+     */
+    public ShortestPaths searchParallel( String startName, double delta ){
+        Vertex start = vertexMap.get( startName );
+        if(start == null){
+            throw new NoSuchElementException( "Start vertex not found" );
+        }
+        return new DeltaStepping( compact( ), delta, ForkJoinPool.commonPool( ) ).search( start.index );
+    }
+
+    /**
+     * Preprocess the graph for point-to-point searches by building landmark distance tables.
+     * The tables are dropped when the graph changes, and must be built again to be used.
+     * @param count The number of landmarks.
+     * @return The landmark tables, which report their build time and memory.
+     */
+    public Landmarks buildLandmarks( int count ){
+        Landmarks built = new Landmarks( compact(), count );
+        landmarks = built;
+        return built;
+    }
+
+    /**
+     * Stop using landmark tables for point-to-point searches.
+     */
+    public void clearLandmarks( ){
+        landmarks = null;
+    }
+
+    /**
+     * Preprocess the graph into a contraction hierarchy for fast point-to-point queries.
+     * The hierarchy is dropped when the graph changes.
+     * @return The hierarchy, which can be saved with ContractionHierarchy.save.
+     */
+    public ContractionHierarchy buildContractionHierarchy( ){
+        ContractionHierarchy built = new ContractionHierarchy( compact() );
+        hierarchy = built;
+        return built;
+    }
+
+    /**
+     * Use a contraction hierarchy saved for this graph, instead of building it again.
+     * @param path The path of the file written by ContractionHierarchy.save.
+     * @throws IOException If the file cannot be read or was saved for a different graph.
+     * @return The hierarchy read.
+     */
+    public ContractionHierarchy loadContractionHierarchy( String path ) throws IOException {
+        ContractionHierarchy loaded = ContractionHierarchy.read( path, compact() );
+        hierarchy = loaded;
+        return loaded;
+    }
+
+    /**
+     * Obtain the contraction hierarchy of the current graph.
+     * @return The hierarchy, or null if none has been built or loaded since the graph last changed.
+     */
+    public ContractionHierarchy getContractionHierarchy( ){
+        return hierarchy;
+    }
+
+    /**
+     * Stop using the contraction hierarchy.
+     */
+    public void clearContractionHierarchy( ){
+        hierarchy = null;
+    }
+
+    /**
+     * Point-to-point weighted shortest-path search from both ends at once.
+     * Gives the cost and one shortest path, but not whether other paths are equally short.
+     * @param startName The name associated with the starting vertex.
+     * @param destName The name associated with the destination vertex.
+     * @throws NoSuchElementException If either vertex is not found.
+     * @return The result of the search.
+     */
+    public BidirectionalSearch searchBidirectional( String startName, String destName ){
+        Vertex start = vertexMap.get( startName );
+        Vertex dest = vertexMap.get( destName );
+        if(start == null || dest == null){
+            throw new NoSuchElementException( "Start or destination vertex not found" );
+        }
+        return new BidirectionalSearch( compact(), start.index, dest.index, indexedHeap );
+    }
+
+    /**
+     * Obtain the cache of shortest path trees used by search and searchTo, which is off until given a capacity.
+     * @return The path cache, which holds the hit and miss counters.
+     */
+    public ShortestPathCache getPathCache( ){
+        return pathCache;
+    }
+
+    /**
+     * Choose the queue used by the shortest path searches, so the two can be compared.
+     * The cached trees are cleared, as the queues may record different paths when several are equally short.
+     * @param indexedHeap True for the IndexedHeap with decrease-key, false for the PriorityQueue of Paths.
+     */
+    public void setIndexedHeap( boolean indexedHeap ){
+        this.indexedHeap = indexedHeap;
+        pathCache.clear( );
+    }
+
+    /**
+     * Look the given search up in the path cache, running it and caching the tree on a miss.
+     * When the cache is disabled the search runs in a pooled SearchContext, which is returned directly.
+     * @param source The index of the start vertex, or of the target vertex for a reverse search.
+     * @param reverse True to search over the reversed edges.
+     * @return The result of the search.
+     */
+    private ShortestPaths shortestPaths( int source, boolean reverse ){
+        CompactGraph graph = compact();
+        if( pathCache.getCapacity() == 0 ){
+            SearchContext context = graph.acquireContext();
+            context.setIndexedHeap( indexedHeap );
+            return reverse ? context.searchTo( source ) : context.search( source );
+        }
+        ShortestPathTree tree = pathCache.get( graph, source, reverse );
+        if( tree == null ){
+            try (SearchContext context = graph.acquireContext()){
+                context.setIndexedHeap( indexedHeap );
+                tree = new ShortestPathTree( reverse ? context.searchTo( source ) : context.search( source ) );
+            }
+            pathCache.put( tree, reverse );
+        }
+        return tree;
+    }
+
+    /**
+     * Obtain the cost of the shortest path from every vertex to the given target vertex.
+     * Runs Dijkstra's algorithm once from the target over the reversed edges, instead of once from every possible start.
+     * @param targetName The name associated with the target vertex.
+     * @throws NoSuchElementException If the target vertex is not found.
+     * @return The cost from each vertex to the target, indexed by vertex index. Unreachable vertices have a cost of INFINITY.
+     */
+    public double[] distancesTo( String targetName ){
+        try (ShortestPaths result = searchTo( targetName )){
+            double[] dist = new double[result.graph().size()];
+            for(int v = 0; v < dist.length; v++){
+                dist[v] = result.dist(v);
+            }
+            return dist;
+        }
+    }
+}
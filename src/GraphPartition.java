@@ -0,0 +1,664 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+
+/**
+ * A split of the vertices of a graph into parts, each served by its own shard, for graphs too big for one process.
+ *
+ * The parts are grown by breadth-first search over the roads taken in both directions. The seeds are spread out
+ * by picking each one as far as possible, in roads, from the seeds already picked, and the parts then take turns
+ * growing by one vertex until each holds its share, so the parts are compact and few roads cross between them.
+ * A vertex with a road to or from another part is a boundary vertex. Every path that leaves a part does so through
+ * its boundary vertices, so the shortest paths between parts are found over an overlay of the boundary vertices:
+ * the roads that cross between parts, and the costs between the boundary vertices of each part within the part.
+ *
+ * The partition keeps only the part of each vertex, the names, the boundary, the crossing roads and the Shops of
+ * each company. The roads inside each part are written to a shard file by writeShard, and read back as a Subgraph
+ * by the ShardWorker serving that part.
+ */
+public class GraphPartition
+{
+    /** The bytes at the start of every shard file.*/
+    private static final byte[] MAGIC = "TAXISHRD".getBytes(StandardCharsets.US_ASCII);
+    /** The version of the shard layout written by this class.*/
+    public static final int VERSION = 1;
+
+    /** The part of each vertex.*/
+    private final int[] part;
+    /** The vertices of each part, in order of their index.*/
+    private final int[][] members;
+    /** The boundary vertices of each part, in order of their index.*/
+    private final int[][] boundary;
+    /** The name of each vertex.*/
+    private final String[] names;
+    /** The roads whose ends are in different parts.*/
+    private final int[] cutSources;
+    private final int[] cutTargets;
+    private final double[] cutCosts;
+    /** The Shops of each company, in the order of VertexRoles.*/
+    private final EnumMap<VertexRoles.Company,int[]> shops = new EnumMap<>(VertexRoles.Company.class);
+
+    private GraphPartition(CompactGraph graph, VertexRoles roles, int[] part, int parts){
+        int numVertices = graph.size();
+        this.part = part;
+        this.names = new String[numVertices];
+        // Step 1 - Find the roads crossing between parts, and mark both of their ends as boundary vertices.
+        BitSet onBoundary = new BitSet(numVertices);
+        int cut = 0;
+        for (int v = 0; v < numVertices; v++){
+            names[v] = graph.name(v);
+            for (int e = graph.firstEdge(v); e < graph.edgeEnd(v); e++){
+                if (part[graph.target(e)] != part[v]){
+                    cut++;
+                }
+            }
+        }
+        this.cutSources = new int[cut];
+        this.cutTargets = new int[cut];
+        this.cutCosts = new double[cut];
+        cut = 0;
+        for (int v = 0; v < numVertices; v++){
+            for (int e = graph.firstEdge(v); e < graph.edgeEnd(v); e++){
+                int w = graph.target(e);
+                if (part[w] != part[v]){
+                    cutSources[cut] = v;
+                    cutTargets[cut] = w;
+                    cutCosts[cut++] = graph.cost(e);
+                    onBoundary.set(v);
+                    onBoundary.set(w);
+                }
+            }
+        }
+        // Step 2 - List the vertices and the boundary vertices of each part.
+        int[] sizes = new int[parts];
+        int[] boundarySizes = new int[parts];
+        for (int v = 0; v < numVertices; v++){
+            sizes[part[v]]++;
+            if (onBoundary.get(v)){
+                boundarySizes[part[v]]++;
+            }
+        }
+        this.members = new int[parts][];
+        this.boundary = new int[parts][];
+        for (int p = 0; p < parts; p++){
+            members[p] = new int[sizes[p]];
+            boundary[p] = new int[boundarySizes[p]];
+        }
+        Arrays.fill(sizes, 0);
+        Arrays.fill(boundarySizes, 0);
+        for (int v = 0; v < numVertices; v++){
+            members[part[v]][sizes[part[v]]++] = v;
+            if (onBoundary.get(v)){
+                boundary[part[v]][boundarySizes[part[v]]++] = v;
+            }
+        }
+        for (VertexRoles.Company company : VertexRoles.Company.values()){
+            shops.put(company, roles.shops(company));
+        }
+    }
+
+    /**
+     * Split a graph into the given number of parts of about the same size, grown by breadth-first search.
+     * A part walled in by the others before it reaches its share stays smaller, and the others grow past theirs.
+     * Each piece of the graph that no seed reaches is grown into the smallest part.
+     * @param graph The graph to split.
+     * @param roles The roles of the vertices of the graph.
+     * @param parts The number of parts, at least 1.
+     * @return The partition.
+    */
+    public static GraphPartition grow(CompactGraph graph, VertexRoles roles, int parts){
+        int numVertices = graph.size();
+        if (parts < 1 || parts > Math.max(1, numVertices)){
+            throw new IllegalArgumentException("Cannot split " + numVertices + " vertices into " + parts + " parts");
+        }
+        CompactGraph reverse = graph.reverse();
+        // Step 1 - Spread the seeds out over the largest piece of the graph, each one the vertex furthest in roads
+        // from the seeds picked before it, starting from a vertex of that piece.
+        int[] seeds = new int[parts];
+        int[] hops = new int[numVertices];
+        Arrays.fill(hops, Integer.MAX_VALUE);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        int first = largestPiece(graph, reverse);
+        for (int p = 0; p < parts; p++){
+            int seed = first;
+            for (int v = 0; v < numVertices && p > 0; v++){
+                if (hops[v] != Integer.MAX_VALUE && hops[v] > hops[seed]){
+                    seed = v;
+                }
+            }
+            if (hops[seed] == 0 && p > 0){
+                // Every vertex of the piece is a seed already, so start the part in another piece.
+                seed = 0;
+                while (hops[seed] == 0){
+                    seed++;
+                }
+            }
+            seeds[p] = seed;
+            hops[seed] = 0;
+            queue.add(seed);
+            while (!queue.isEmpty()){
+                int v = queue.remove();
+                for (CompactGraph roads : new CompactGraph[]{graph, reverse}){
+                    for (int e = roads.firstEdge(v); e < roads.edgeEnd(v); e++){
+                        int w = roads.target(e);
+                        if (hops[w] > hops[v] + 1){
+                            hops[w] = hops[v] + 1;
+                            queue.add(w);
+                        }
+                    }
+                }
+            }
+        }
+        // Step 2 - Grow the parts in turn by one vertex each, until each holds its share or cannot grow.
+        int[] part = new int[numVertices];
+        Arrays.fill(part, -1);
+        int share = (numVertices + parts - 1) / parts;
+        int[] sizes = new int[parts];
+        ArrayList<ArrayDeque<Integer>> frontiers = new ArrayList<>();
+        for (int p = 0; p < parts; p++){
+            frontiers.add(new ArrayDeque<>());
+            part[seeds[p]] = p;
+            sizes[p] = 1;
+            frontiers.get(p).add(seeds[p]);
+        }
+        growParts(graph, reverse, part, sizes, frontiers, share);
+        // Step 3 - Let the parts walled in by their neighbours' shares grow past their own share into what is left.
+        growParts(graph, reverse, part, sizes, frontiers, Integer.MAX_VALUE);
+        // Step 4 - Grow the smallest part into each piece of the graph that no part reached.
+        for (int v = 0; v < numVertices; v++){
+            if (part[v] < 0){
+                int smallest = 0;
+                for (int p = 1; p < parts; p++){
+                    if (sizes[p] < sizes[smallest]){
+                        smallest = p;
+                    }
+                }
+                part[v] = smallest;
+                sizes[smallest]++;
+                frontiers.get(smallest).add(v);
+                growParts(graph, reverse, part, sizes, frontiers, Integer.MAX_VALUE);
+            }
+        }
+        return new GraphPartition(graph, roles, part, parts);
+    }
+
+    /**
+     * Find a vertex of the largest piece of the graph, whose vertices are joined by roads taken in either direction.
+    */
+    private static int largestPiece(CompactGraph graph, CompactGraph reverse){
+        BitSet seen = new BitSet(graph.size());
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        int largest = 0;
+        int largestSize = 0;
+        for (int start = seen.nextClearBit(0); start < graph.size(); start = seen.nextClearBit(start + 1)){
+            int size = 0;
+            seen.set(start);
+            queue.add(start);
+            while (!queue.isEmpty()){
+                int v = queue.remove();
+                size++;
+                for (CompactGraph roads : new CompactGraph[]{graph, reverse}){
+                    for (int e = roads.firstEdge(v); e < roads.edgeEnd(v); e++){
+                        int w = roads.target(e);
+                        if (!seen.get(w)){
+                            seen.set(w);
+                            queue.add(w);
+                        }
+                    }
+                }
+            }
+            if (size > largestSize){
+                largest = start;
+                largestSize = size;
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * Grow the parts in turn by one unassigned neighbour of their frontier each, until none can grow or every part
+     * holds the given number of vertices. Frontier vertices with no unassigned neighbours are dropped.
+    */
+    private static void growParts(CompactGraph graph, CompactGraph reverse, int[] part, int[] sizes,
+                                  ArrayList<ArrayDeque<Integer>> frontiers, int limit){
+        boolean grew = true;
+        while (grew){
+            grew = false;
+            for (int p = 0; p < sizes.length; p++){
+                ArrayDeque<Integer> frontier = frontiers.get(p);
+                int added = -1;
+                while (added < 0 && sizes[p] < limit && !frontier.isEmpty()){
+                    int v = frontier.peek();
+                    for (CompactGraph roads : new CompactGraph[]{graph, reverse}){
+                        for (int e = roads.firstEdge(v); e < roads.edgeEnd(v) && added < 0; e++){
+                            int w = roads.target(e);
+                            if (part[w] < 0){
+                                added = w;
+                            }
+                        }
+                    }
+                    if (added < 0){
+                        frontier.remove();  // Every neighbour is taken.
+                    }
+                }
+                if (added >= 0){
+                    part[added] = p;
+                    sizes[p]++;
+                    frontier.add(added);
+                    grew = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Obtain the number of parts.
+     * @return The number of parts.
+    */
+    public int parts(){
+        return members.length;
+    }
+
+    /**
+     * Obtain the number of vertices of the whole graph.
+     * @return The number of vertices.
+    */
+    public int size(){
+        return part.length;
+    }
+
+    /**
+     * Obtain the part holding the given vertex.
+     * @param v The index of the vertex.
+     * @return The part of the vertex.
+    */
+    public int part(int v){
+        return part[v];
+    }
+
+    /**
+     * Obtain the vertices of a part.
+     * @param p The part.
+     * @return The indices of its vertices, in order, which must not be changed.
+    */
+    public int[] members(int p){
+        return members[p];
+    }
+
+    /**
+     * Obtain the boundary vertices of a part, which have a road to or from another part.
+     * @param p The part.
+     * @return The indices of its boundary vertices, in order, which must not be changed.
+    */
+    public int[] boundary(int p){
+        return boundary[p];
+    }
+
+    /**
+     * Obtain the number of boundary vertices of every part.
+     * @return The number of boundary vertices.
+    */
+    public int boundarySize(){
+        int count = 0;
+        for (int[] vertices : boundary){
+            count += vertices.length;
+        }
+        return count;
+    }
+
+    /**
+     * Obtain the number of roads crossing between parts.
+     * @return The number of crossing roads.
+    */
+    public int cutSize(){
+        return cutSources.length;
+    }
+
+    /**
+     * Obtain one road crossing between parts.
+     * @param i The position of the road, from 0 to cutSize() - 1.
+     * @return The index of the vertex the road leaves.
+    */
+    public int cutSource(int i){
+        return cutSources[i];
+    }
+
+    /**
+     * Obtain the vertex entered by one road crossing between parts.
+     * @param i The position of the road, from 0 to cutSize() - 1.
+     * @return The index of the vertex the road enters.
+    */
+    public int cutTarget(int i){
+        return cutTargets[i];
+    }
+
+    /**
+     * Obtain the cost of one road crossing between parts.
+     * @param i The position of the road, from 0 to cutSize() - 1.
+     * @return The cost of the road.
+    */
+    public double cutCost(int i){
+        return cutCosts[i];
+    }
+
+    /**
+     * Obtain the name of a vertex.
+     * @param v The index of the vertex.
+     * @return The name of the vertex.
+    */
+    public String name(int v){
+        return names[v];
+    }
+
+    /**
+     * Obtain the Shops of a company, in the order VertexRoles gives them.
+     * @param company The company, or null for an unknown company.
+     * @return The indices of the Shops, which must not be changed.
+    */
+    public int[] shops(VertexRoles.Company company){
+        return company == null ? new int[0] : shops.get(company);
+    }
+
+    /**
+     * Write the roads inside a part to a shard file, which a ShardWorker reads back as a Subgraph.
+     * Layout: "TAXISHRD", int version, int part, int vertex count V, int edge count E, int boundary count B,
+     * int[V] vertex indices, int[V + 1] offsets, int[E] local targets, double[E] costs, int[B] local boundary vertices.
+     * @param graph The graph that was split.
+     * @param p The part to write.
+     * @param path The path of the shard file, which is replaced if it exists.
+     * @throws IOException If the file cannot be written.
+    */
+    public void writeShard(CompactGraph graph, int p, String path) throws IOException {
+        int[] vertices = members[p];
+        int[] offsets = new int[vertices.length + 1];
+        for (int i = 0; i < vertices.length; i++){
+            int v = vertices[i];
+            offsets[i + 1] = offsets[i];
+            for (int e = graph.firstEdge(v); e < graph.edgeEnd(v); e++){
+                if (part[graph.target(e)] == p){
+                    offsets[i + 1]++;
+                }
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16))){
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(p);
+            out.writeInt(vertices.length);
+            out.writeInt(offsets[vertices.length]);
+            out.writeInt(boundary[p].length);
+            for (int v : vertices){
+                out.writeInt(v);
+            }
+            for (int offset : offsets){
+                out.writeInt(offset);
+            }
+            for (int v : vertices){
+                for (int e = graph.firstEdge(v); e < graph.edgeEnd(v); e++){
+                    if (part[graph.target(e)] == p){
+                        out.writeInt(Arrays.binarySearch(vertices, graph.target(e)));
+                    }
+                }
+            }
+            for (int v : vertices){
+                for (int e = graph.firstEdge(v); e < graph.edgeEnd(v); e++){
+                    if (part[graph.target(e)] == p){
+                        out.writeDouble(graph.cost(e));
+                    }
+                }
+            }
+            for (int v : boundary[p]){
+                out.writeInt(Arrays.binarySearch(vertices, v));
+            }
+        }
+    }
+
+    /**
+     * Read a shard file written by writeShard.
+     * @param path The path of the shard file.
+     * @throws IOException If the file cannot be read or is not a shard file of this version.
+     * @return The roads inside the part.
+    */
+    public static Subgraph readShard(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16))){
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)){
+                throw new IOException(path + " is not a shard file");
+            }
+            int version = in.readInt();
+            if (version != VERSION){
+                throw new IOException(path + " is shard version " + version + ", expected " + VERSION);
+            }
+            in.readInt();  // The part, which the worker is told on the command line as well.
+            int numVertices = in.readInt();
+            int numEdges = in.readInt();
+            int numBoundary = in.readInt();
+            int[] vertices = new int[numVertices];
+            int[] offsets = new int[numVertices + 1];
+            int[] targets = new int[numEdges];
+            double[] costs = new double[numEdges];
+            int[] boundary = new int[numBoundary];
+            for (int i = 0; i < numVertices; i++){
+                vertices[i] = in.readInt();
+            }
+            for (int i = 0; i <= numVertices; i++){
+                offsets[i] = in.readInt();
+            }
+            for (int e = 0; e < numEdges; e++){
+                targets[e] = in.readInt();
+            }
+            for (int e = 0; e < numEdges; e++){
+                costs[e] = in.readDouble();
+            }
+            for (int i = 0; i < numBoundary; i++){
+                boundary[i] = in.readInt();
+            }
+            return new Subgraph(vertices, offsets, targets, costs, boundary);
+        }
+    }
+
+    /**
+     * Describe the sizes of the parts, their boundaries and the roads crossing between them.
+    */
+    @Override
+    public String toString(){
+        int largest = 0;
+        int smallest = Integer.MAX_VALUE;
+        for (int[] vertices : members){
+            largest = Math.max(largest, vertices.length);
+            smallest = Math.min(smallest, vertices.length);
+        }
+        return String.format("%d parts of %,d to %,d vertices, %,d boundary vertices, %,d crossing roads",
+                             parts(), smallest, largest, boundarySize(), cutSize());
+    }
+
+    /**
+     * The roads among some of the vertices of a graph in compressed sparse row form, with local indices from 0 to
+     * size() - 1 that follow the order of the vertex indices. A Subgraph holds the roads inside one part for a
+     * ShardWorker, or the overlay of the boundary vertices for the ShardCoordinator.
+     *
+     * Its searches start from any number of seed vertices, each at its own cost, which carries a search on from
+     * the costs found in other parts. A Subgraph is only read once built, so any number of searches can run at once.
+    */
+    public static final class Subgraph
+    {
+        /** The index in the whole graph of each local vertex, in increasing order.*/
+        private final int[] vertices;
+        private final int[] offsets;
+        private final int[] targets;
+        private final double[] costs;
+        /** The same roads, reversed.*/
+        private final int[] reverseOffsets;
+        private final int[] reverseTargets;
+        private final double[] reverseCosts;
+        /** The local boundary vertices.*/
+        private final int[] boundary;
+
+        /**
+         * Create a Subgraph from roads already laid out by their local source vertex.
+         * @param vertices The index in the whole graph of each local vertex, in increasing order.
+         * @param offsets The position of the first road of each local vertex, plus one final end marker.
+         * @param targets The local destination of each road.
+         * @param costs The cost of each road.
+         * @param boundary The local boundary vertices.
+        */
+        Subgraph(int[] vertices, int[] offsets, int[] targets, double[] costs, int[] boundary){
+            this.vertices = vertices;
+            this.offsets = offsets;
+            this.targets = targets;
+            this.costs = costs;
+            this.boundary = boundary;
+            // Count the roads into each vertex, then lay them out again with source and destination swapped.
+            int numVertices = vertices.length;
+            this.reverseOffsets = new int[numVertices + 1];
+            this.reverseTargets = new int[targets.length];
+            this.reverseCosts = new double[targets.length];
+            for (int target : targets){
+                reverseOffsets[target + 1]++;
+            }
+            for (int v = 0; v < numVertices; v++){
+                reverseOffsets[v + 1] += reverseOffsets[v];
+            }
+            int[] next = Arrays.copyOf(reverseOffsets, numVertices);
+            for (int v = 0; v < numVertices; v++){
+                for (int e = offsets[v]; e < offsets[v + 1]; e++){
+                    int slot = next[targets[e]]++;
+                    reverseTargets[slot] = v;
+                    reverseCosts[slot] = costs[e];
+                }
+            }
+        }
+
+        /**
+         * Create a Subgraph from a list of roads between the given vertices.
+         * @param vertices The index in the whole graph of each local vertex, in increasing order.
+         * @param sources The local source of each road.
+         * @param dests The local destination of each road.
+         * @param edgeCosts The cost of each road.
+         * @param numEdges The number of roads in the lists.
+         * @return The Subgraph, whose vertices are all boundary vertices.
+        */
+        static Subgraph of(int[] vertices, int[] sources, int[] dests, double[] edgeCosts, int numEdges){
+            int[] offsets = new int[vertices.length + 1];
+            for (int e = 0; e < numEdges; e++){
+                offsets[sources[e] + 1]++;
+            }
+            for (int v = 0; v < vertices.length; v++){
+                offsets[v + 1] += offsets[v];
+            }
+            int[] next = Arrays.copyOf(offsets, vertices.length);
+            int[] targets = new int[numEdges];
+            double[] costs = new double[numEdges];
+            for (int e = 0; e < numEdges; e++){
+                int slot = next[sources[e]]++;
+                targets[slot] = dests[e];
+                costs[slot] = edgeCosts[e];
+            }
+            int[] boundary = new int[vertices.length];
+            for (int v = 0; v < boundary.length; v++){
+                boundary[v] = v;
+            }
+            return new Subgraph(vertices, offsets, targets, costs, boundary);
+        }
+
+        /**
+         * Obtain the number of vertices.
+         * @return The number of local vertices.
+        */
+        public int size(){
+            return vertices.length;
+        }
+
+        /**
+         * Obtain the number of roads.
+         * @return The number of roads.
+        */
+        public int edgeCount(){
+            return targets.length;
+        }
+
+        /**
+         * Obtain the local boundary vertices.
+         * @return The local indices of the boundary vertices, in order, which must not be changed.
+        */
+        public int[] boundary(){
+            return boundary;
+        }
+
+        /**
+         * Obtain the index in the whole graph of a local vertex.
+         * @param local The local index.
+         * @return The index in the whole graph.
+        */
+        public int global(int local){
+            return vertices[local];
+        }
+
+        /**
+         * Obtain the local index of a vertex of the whole graph.
+         * @param v The index in the whole graph.
+         * @return The local index, or a negative number if the vertex is not in this Subgraph.
+        */
+        public int local(int v){
+            return Arrays.binarySearch(vertices, v);
+        }
+
+        /**
+         * Run Dijkstra's algorithm from the given seed vertices, each starting at its own cost.
+         * @param seeds The local indices of the seed vertices.
+         * @param seedCosts The starting cost of each seed.
+         * @param numSeeds The number of seeds in the lists.
+         * @param reverse True to search over the reversed roads, giving the cost from every vertex to the nearest seed.
+         * @return The cost of each local vertex, or Graph.INFINITY for vertices not reached.
+        */
+        public double[] search(int[] seeds, double[] seedCosts, int numSeeds, boolean reverse){
+            int[] first = reverse ? reverseOffsets : offsets;
+            int[] to = reverse ? reverseTargets : targets;
+            double[] cost = reverse ? reverseCosts : costs;
+            double[] dist = new double[vertices.length];
+            Arrays.fill(dist, Graph.INFINITY);
+            IndexedHeap heap = new IndexedHeap(vertices.length);
+            for (int i = 0; i < numSeeds; i++){
+                if (seedCosts[i] < dist[seeds[i]]){
+                    dist[seeds[i]] = seedCosts[i];
+                    heap.insertOrDecrease(seeds[i], seedCosts[i]);
+                }
+            }
+            while (!heap.isEmpty()){
+                int v = heap.removeMin();
+                double distV = dist[v];
+                for (int e = first[v]; e < first[v + 1]; e++){
+                    if (cost[e] < 0){
+                        throw new GraphException("Graph has negative edges");
+                    }
+                    int w = to[e];
+                    if (distV + cost[e] < dist[w]){
+                        dist[w] = distV + cost[e];
+                        heap.insertOrDecrease(w, dist[w]);
+                    }
+                }
+            }
+            return dist;
+        }
+
+        /**
+         * Estimate the memory used by the arrays of this Subgraph.
+         * @return The estimated number of bytes.
+        */
+        public long estimatedBytes(){
+            return 4L * (vertices.length + offsets.length + targets.length + reverseOffsets.length + reverseTargets.length + boundary.length)
+                   + 8L * (costs.length + reverseCosts.length);
+        }
+    }
+}
@@ -0,0 +1,340 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Versioned binary snapshot of a loaded simulation: the compressed sparse row adjacency, the edge costs,
+ * the vertex names, types and company labels, and the call list.
+ * A snapshot is written once from a TaxiSimulator and read back through memory-mapped bulk copies,
+ * so loading takes time in proportion to the size of the file instead of the number of tokens in it.
+ *
+ * Layout (version 1, little-endian):
+ *   "TAXISNAP", int version, int number of nodes, int vertex count V, int edge count E,
+ *   int label count, labels as (int byte length, UTF-8 bytes),
+ *   int[V] type label, int[V] company label (-1 for none),
+ *   int[V + 1] offsets, int[E] targets, double[E] costs,
+ *   int[V + 1] name offsets, name bytes (UTF-8), int calls length, calls bytes (UTF-8).
+ */
+public class GraphSnapshot
+{
+    /** The bytes at the start of every snapshot file.*/
+    private static final byte[] MAGIC = "TAXISNAP".getBytes(StandardCharsets.US_ASCII);
+    /** The version of the layout written by this class.*/
+    public static final int VERSION = 1;
+    /** Largest part of the file mapped at once while reading.*/
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    /** The number of nodes given in the input.*/
+    final int numNodes;
+    /** The vertices, in order of their index, with their type and company labels.*/
+    final Vertex[] vertices;
+    /** The position of the first outgoing edge of each vertex, plus one final end marker.*/
+    final int[] offsets;
+    /** The destination vertex index of each edge.*/
+    final int[] targets;
+    /** The cost of each edge.*/
+    final double[] costs;
+    /** The chronological order of calls.*/
+    final String calls;
+
+    private GraphSnapshot(int numNodes, Vertex[] vertices, int[] offsets, int[] targets, double[] costs, String calls){
+        this.numNodes = numNodes;
+        this.vertices = vertices;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.costs = costs;
+        this.calls = calls;
+    }
+
+    /**
+     * Determine if the given file starts with the snapshot magic bytes.
+     * @param path The path of the file.
+     * @return True if the file is a snapshot.
+     * @throws IOException If the file cannot be read.
+    */
+    public static boolean isSnapshot(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)){
+            ByteBuffer start = ByteBuffer.allocate(MAGIC.length);
+            while (start.hasRemaining() && channel.read(start) >= 0){
+                // Keep reading until the magic bytes are in or the file ends.
+            }
+            return !start.hasRemaining() && ByteBuffer.wrap(MAGIC).equals(start.flip());
+        }
+    }
+
+    /**
+     * Write a snapshot of the given graph.
+     * @param graph The CompactGraph holding the vertices and edges.
+     * @param numNodes The number of nodes given in the input.
+     * @param calls The chronological order of calls.
+     * @param path The path of the snapshot file, which is replaced if it exists.
+     * @throws IOException If the file cannot be written.
+    */
+    public static void write(CompactGraph graph, int numNodes, String calls, String path) throws IOException {
+        int numVertices = graph.size();
+        // Collect the distinct type and company labels.
+        ArrayList<String> labels = new ArrayList<>();
+        int[] types = new int[numVertices];
+        int[] companies = new int[numVertices];
+        for (int v = 0; v < numVertices; v++){
+            types[v] = label(labels, graph.vertex(v).type);
+            companies[v] = label(labels, graph.vertex(v).companyName);
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+            Writer out = new Writer(channel);
+            out.bytes(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(numNodes);
+            out.putInt(numVertices);
+            out.putInt(graph.edgeCount());
+            out.putInt(labels.size());
+            for (String label : labels){
+                out.string(label);
+            }
+            for (int v = 0; v < numVertices; v++){
+                out.putInt(types[v]);
+            }
+            for (int v = 0; v < numVertices; v++){
+                out.putInt(companies[v]);
+            }
+            for (int v = 0; v <= numVertices; v++){
+                out.putInt(v < numVertices ? graph.firstEdge(v) : graph.edgeCount());
+            }
+            for (int e = 0; e < graph.edgeCount(); e++){
+                out.putInt(graph.target(e));
+            }
+            for (int e = 0; e < graph.edgeCount(); e++){
+                out.putDouble(graph.cost(e));
+            }
+            // Names are written as one block of bytes with an offset table, so they can be read with one bulk copy.
+            byte[][] names = new byte[numVertices][];
+            int nameOffset = 0;
+            for (int v = 0; v < numVertices; v++){
+                names[v] = graph.name(v).getBytes(StandardCharsets.UTF_8);
+                out.putInt(nameOffset);
+                nameOffset += names[v].length;
+            }
+            out.putInt(nameOffset);
+            for (byte[] name : names){
+                out.bytes(name);
+            }
+            out.string(calls == null ? "" : calls);
+            out.flush();
+        }
+    }
+
+    /**
+     * Read a snapshot through memory-mapped views of the file.
+     * @param path The path of the snapshot file.
+     * @return The snapshot read.
+     * @throws IOException If the file cannot be read, is not a snapshot or has an unsupported version.
+    */
+    public static GraphSnapshot read(String path) throws IOException {
+        Path file = Paths.get(path);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            Reader in = new Reader(channel);
+            byte[] magic = in.bytes(MAGIC.length);
+            if (!ByteBuffer.wrap(MAGIC).equals(ByteBuffer.wrap(magic))){
+                throw new IOException(path + " is not a graph snapshot");
+            }
+            int version = in.getInt();
+            if (version != VERSION){
+                throw new IOException(path + " has snapshot version " + version + ", but only version " + VERSION + " can be read");
+            }
+            int numNodes = in.getInt();
+            int numVertices = in.getInt();
+            int numEdges = in.getInt();
+            String[] labels = new String[in.getInt()];
+            for (int i = 0; i < labels.length; i++){
+                labels[i] = in.string();
+            }
+            int[] types = in.ints(numVertices);
+            int[] companies = in.ints(numVertices);
+            int[] offsets = in.ints(numVertices + 1);
+            int[] targets = in.ints(numEdges);
+            double[] costs = in.doubles(numEdges);
+            int[] nameOffsets = in.ints(numVertices + 1);
+            byte[] names = in.bytes(nameOffsets[numVertices]);
+            String calls = in.string();
+            // Rebuild the vertices with their labels.
+            Vertex[] vertices = new Vertex[numVertices];
+            for (int v = 0; v < numVertices; v++){
+                String name = new String(names, nameOffsets[v], nameOffsets[v + 1] - nameOffsets[v], StandardCharsets.UTF_8);
+                vertices[v] = new Vertex(name, v);
+                vertices[v].type = types[v] < 0 ? null : labels[types[v]];
+                vertices[v].companyName = companies[v] < 0 ? null : labels[companies[v]];
+            }
+            return new GraphSnapshot(numNodes, vertices, offsets, targets, costs, calls);
+        }
+    }
+
+    /**
+     * Obtain the position of the given label in the label table, adding it if needed.
+     * @return The position of the label, or -1 for no label.
+    */
+    private static int label(ArrayList<String> labels, String label){
+        if (label == null){
+            return -1;
+        }
+        int i = labels.indexOf(label);
+        if (i < 0){
+            labels.add(label);
+            i = labels.size() - 1;
+        }
+        return i;
+    }
+
+    /**
+     * Buffered little-endian writer for the snapshot file, also used for other binary files of the simulator.
+    */
+    static class Writer
+    {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+        Writer(FileChannel channel){
+            this.channel = channel;
+        }
+
+        void putByte(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putDouble(double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void bytes(byte[] bytes) throws IOException {
+            for (int i = 0; i < bytes.length; i += buffer.capacity()){
+                int length = Math.min(buffer.capacity(), bytes.length - i);
+                ensure(length);
+                buffer.put(bytes, i, length);
+            }
+        }
+
+        void string(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            bytes(bytes);
+        }
+
+        private void ensure(int length) throws IOException {
+            if (buffer.remaining() < length){
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Little-endian reader which copies each section of the snapshot out of a memory-mapped window of the file.
+    */
+    static class Reader
+    {
+        private final FileChannel channel;
+        private final long fileSize;
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        Reader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.fileSize = channel.size();
+            map(0);
+        }
+
+        int getInt() throws IOException {
+            ensure(4);
+            return window.getInt();
+        }
+
+        long getLong() throws IOException {
+            ensure(8);
+            return window.getLong();
+        }
+
+        String string() throws IOException {
+            return new String(bytes(getInt()), StandardCharsets.UTF_8);
+        }
+
+        int[] ints(int count) throws IOException {
+            int[] values = new int[count];
+            for (int i = 0; i < count; ){
+                ensure(4);
+                int length = Math.min(count - i, window.remaining() / 4);
+                window.asIntBuffer().get(values, i, length);
+                window.position(window.position() + 4 * length);
+                i += length;
+            }
+            return values;
+        }
+
+        double[] doubles(int count) throws IOException {
+            double[] values = new double[count];
+            for (int i = 0; i < count; ){
+                ensure(8);
+                int length = Math.min(count - i, window.remaining() / 8);
+                window.asDoubleBuffer().get(values, i, length);
+                window.position(window.position() + 8 * length);
+                i += length;
+            }
+            return values;
+        }
+
+        byte[] bytes(int count) throws IOException {
+            byte[] values = new byte[count];
+            for (int i = 0; i < count; ){
+                ensure(1);
+                int length = Math.min(count - i, window.remaining());
+                window.get(values, i, length);
+                i += length;
+            }
+            return values;
+        }
+
+        /**
+         * Make sure the window holds at least the given number of bytes, moving it forward if needed.
+        */
+        private void ensure(int length) throws IOException {
+            if (window.remaining() < length){
+                long position = windowStart + window.position();
+                if (position + length > fileSize){
+                    throw new IOException("Snapshot file is truncated");
+                }
+                map(position);
+            }
+        }
+
+        private void map(long start) throws IOException {
+            windowStart = start;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, fileSize - start));
+            window.order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Indexed 4-ary min-heap of vertex indices keyed by their tentative distance, with decrease-key.
+ * Each vertex is in the heap at most once, so the heap never holds more than V entries, and lowering the key of a
+ * vertex moves its existing entry instead of adding a new one. The heap is built from primitive arrays sized
+ * for the graph once, so inserting, decreasing and removing allocate nothing.
+ *
+ * A 4-ary heap is shallower than a binary heap, which makes the decrease-key sift up cheaper, and the four
+ * children of an entry lie next to each other in the arrays.
+ *
+ * Entries with equal keys are ordered by their vertex index, so the order in which a search settles vertices at the
+ * same distance, and so the path it keeps when there are several, depends only on the graph and not on the shape of
+ * the heap or the order the vertices were reached in.
+ *
+ * The entries need not be vertices of a whole graph: any numbers from 0 up will do, and ensureCapacity makes room
+ * for more of them, so a search that numbers the vertices it reaches as it goes can keep them in the same heap.
+ */
+public class IndexedHeap
+{
+    /** The number of children of every entry.*/
+    private static final int ARITY = 4;
+
+    /** The vertex held in each slot of the heap.*/
+    private int[] heap;
+    /** The key of the vertex held in each slot of the heap.*/
+    private double[] keys;
+    /** The slot holding each vertex, or -1 if the vertex is not in the heap.*/
+    private int[] position;
+    /** The number of entries in the heap.*/
+    private int size;
+
+    /**
+     * Create an empty heap for the vertices of a graph.
+     * @param numVertices The number of vertices of the graph.
+    */
+    public IndexedHeap(int numVertices){
+        this.heap = new int[numVertices];
+        this.keys = new double[numVertices];
+        this.position = new int[numVertices];
+        Arrays.fill(position, -1);
+    }
+
+    /**
+     * Make room for vertices numbered up to the given count, keeping the entries of the heap.
+     * @param numVertices The number of vertices the heap must be able to hold.
+    */
+    public void ensureCapacity(int numVertices){
+        int old = position.length;
+        if (numVertices > old){
+            heap = Arrays.copyOf(heap, numVertices);
+            keys = Arrays.copyOf(keys, numVertices);
+            position = Arrays.copyOf(position, numVertices);
+            Arrays.fill(position, old, numVertices, -1);
+        }
+    }
+
+    /**
+     * Determine if the heap is empty.
+     * @return True if the heap holds no entries.
+    */
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    /**
+     * Obtain the number of entries in the heap.
+     * @return The number of entries.
+    */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Remove every entry from the heap, in time proportional to the number of entries.
+    */
+    public void clear(){
+        for (int i = 0; i < size; i++){
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    /**
+     * Add the given vertex with the given key, or lower its key if it is already in the heap.
+     * A key that is not lower than the current key of the vertex is ignored.
+     * @param v The index of the vertex.
+     * @param key The new key of the vertex.
+    */
+    public void insertOrDecrease(int v, double key){
+        int slot = position[v];
+        if (slot < 0){
+            slot = size++;
+        } else if (key >= keys[slot]){
+            return;
+        }
+        siftUp(slot, v, key);
+    }
+
+    /**
+     * Add the given vertex with the given key, or change its key if it is already in the heap, whether up or down.
+     * @param v The index of the vertex.
+     * @param key The new key of the vertex.
+    */
+    public void update(int v, double key){
+        int slot = position[v];
+        if (slot >= 0 && key > keys[slot]){
+            siftDown(slot, v, key);
+        } else {
+            insertOrDecrease(v, key);
+        }
+    }
+
+    /**
+     * Obtain the smallest key in the heap.
+     * @return The smallest key, or Graph.INFINITY if the heap is empty.
+    */
+    public double minKey(){
+        return size == 0 ? Graph.INFINITY : keys[0];
+    }
+
+    /**
+     * Remove the vertex with the smallest key from the heap, or the one with the lowest index if several share it.
+     * @return The index of the removed vertex.
+     * @throws NoSuchElementException If the heap is empty.
+    */
+    public int removeMin(){
+        if (size == 0){
+            throw new NoSuchElementException("Heap is empty");
+        }
+        int min = heap[0];
+        position[min] = -1;
+        size--;
+        if (size > 0){
+            siftDown(0, heap[size], keys[size]);
+        }
+        return min;
+    }
+
+    /**
+     * Obtain the vertex index by which an entry is ordered among entries with the same key.
+     * A heap whose entries are not vertex indices overrides this to give the vertex each entry stands for.
+     * @param v The entry.
+     * @return The index of the vertex of the entry.
+    */
+    protected int order(int v){
+        return v;
+    }
+
+    /**
+     * Determine if the first entry comes out of the heap before the second, by key and then by vertex index.
+    */
+    private boolean before(double keyA, int a, double keyB, int b){
+        return keyA < keyB || (keyA == keyB && order(a) < order(b));
+    }
+
+    /**
+     * Move the hole at the given slot up until the given vertex and key can be placed in it.
+    */
+    private void siftUp(int slot, int v, double key){
+        while (slot > 0){
+            int parent = (slot - 1) / ARITY;
+            if (!before(key, v, keys[parent], heap[parent])){
+                break;
+            }
+            place(slot, heap[parent], keys[parent]);
+            slot = parent;
+        }
+        place(slot, v, key);
+    }
+
+    /**
+     * Move the hole at the given slot down until the given vertex and key can be placed in it.
+    */
+    private void siftDown(int slot, int v, double key){
+        while (true){
+            int first = slot * ARITY + 1;
+            if (first >= size){
+                break;
+            }
+            // Find the child that comes out first.
+            int smallest = first;
+            int last = Math.min(first + ARITY, size);
+            for (int child = first + 1; child < last; child++){
+                if (before(keys[child], heap[child], keys[smallest], heap[smallest])){
+                    smallest = child;
+                }
+            }
+            if (!before(keys[smallest], heap[smallest], key, v)){
+                break;
+            }
+            place(slot, heap[smallest], keys[smallest]);
+            slot = smallest;
+        }
+        place(slot, v, key);
+    }
+
+    /**
+     * Store the given vertex and key in the given slot.
+    */
+    private void place(int slot, int v, double key){
+        heap[slot] = v;
+        keys[slot] = key;
+        position[v] = slot;
+    }
+}
@@ -0,0 +1,293 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Streaming reader for the simulation input format, working directly on a memory-mapped view of the file.
+ * Edge costs are parsed in place from the mapped bytes, and vertex names that are plain numbers are looked up
+ * by their value, so reading the adjacency lines allocates nothing per token - only one String per new vertex.
+ *
+ * Files larger than the mapping window are read through a series of windows, remapped as the reader moves along.
+ */
+public class InputParser implements AutoCloseable
+{
+    /** Largest part of the file mapped at once.*/
+    private static final long WINDOW_SIZE = 1L << 30;
+    /** The window is moved forward once fewer than this many bytes are left in it, so no token is split between windows.*/
+    private static final int WINDOW_MARGIN = 1 << 16;
+
+    /** The file being read.*/
+    private final FileChannel channel;
+    /** The size of the file in bytes.*/
+    private final long fileSize;
+    /** The currently mapped window of the file.*/
+    private MappedByteBuffer buffer;
+    /** The position in the file of the first byte of the window.*/
+    private long windowStart;
+    /** Vertices with plain number names, indexed by that number.*/
+    private Vertex[] numbered = new Vertex[16];
+
+    /**
+     * Open the given input file for reading.
+     * @param inputPath The path of the input file.
+     * @throws java.nio.file.NoSuchFileException If the file does not exist.
+     * @throws IOException If the file cannot be opened.
+    */
+    public InputParser(String inputPath) throws IOException {
+        Path path = Paths.get(inputPath);
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        map(0);
+    }
+
+    /**
+     * Read the number of nodes and the adjacency lines that follow it, adding every edge to the given graph.
+     * Each adjacency line holds a source node followed by pairs of destination node and integer cost.
+     * @param graph The graph that receives the edges.
+     * @throws NoSuchElementException If a line or token is missing.
+     * @throws NumberFormatException If a number is malformed.
+     * @return The number of nodes given on the first line.
+    */
+    public int readAdjacency(Graph graph){
+        int numNodes = readInt(true);
+        readLine();  // The rest of the first line.
+        for (int i = 0; i < numNodes; i++){
+            if (!skipSpaces()){
+                throw new NoSuchElementException("Missing source node on adjacency line " + (i + 1));
+            }
+            // The source is only created once it has an edge, as Graph.addEdge would.
+            Vertex source = null;
+            int sourceStart = position();
+            skipToken();
+            int sourceNumber = plainNumber(sourceStart, position());
+            String sourceName = sourceNumber < 0 ? text(sourceStart, position()) : null;
+            while (skipSpaces()){
+                int destinationStart = position();
+                skipToken();
+                int destinationNumber = plainNumber(destinationStart, position());
+                String destinationName = destinationNumber < 0 ? text(destinationStart, position()) : null;
+                if (!skipSpaces()){
+                    throw new NoSuchElementException("Missing cost on adjacency line " + (i + 1));
+                }
+                int cost = readInt(false);
+                if (source == null){
+                    source = vertex(graph, sourceNumber, sourceName);
+                }
+                graph.addEdge(source, vertex(graph, destinationNumber, destinationName), cost);
+            }
+            endLine();
+        }
+        return numNodes;
+    }
+
+    /**
+     * Read the rest of the current line.
+     * @throws NoSuchElementException If the end of the file has been reached.
+     * @return The text up to the line separator.
+    */
+    public String readLine(){
+        ensureWindow();
+        if (peek() < 0){
+            throw new NoSuchElementException("No line found");
+        }
+        int start = position();
+        while (true){
+            while (peek() >= 0 && peek() != '\n' && peek() != '\r'){
+                buffer.get();
+            }
+            // A line that runs past the end of the window is read again from a window that starts with the line.
+            if (buffer.hasRemaining() || windowStart + buffer.limit() == fileSize || start == 0){
+                break;
+            }
+            map(windowStart + start);
+            start = 0;
+        }
+        String line = text(start, position());
+        endLine();
+        return line;
+    }
+
+    /**
+     * Close the input file.
+     * @throws IOException If the file cannot be closed.
+    */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Find or create the Vertex with the given name.
+     * Names made up of digits only, without a leading zero, are looked up by their value instead of by a String.
+     * @param graph The graph that holds the vertices.
+     * @param number The value of the name, or -1 if the name is not a plain number.
+     * @param name The name, which is only needed when it is not a plain number.
+    */
+    private Vertex vertex(Graph graph, int number, String name){
+        if (number < 0){
+            return graph.getVertex(name);
+        }
+        if (number >= numbered.length){
+            numbered = Arrays.copyOf(numbered, Math.max(number + 1, numbered.length * 2));
+        }
+        Vertex vertex = numbered[number];
+        if (vertex == null){
+            vertex = graph.getVertex(Integer.toString(number));
+            numbered[number] = vertex;
+        }
+        return vertex;
+    }
+
+    /**
+     * Obtain the value of a name made up of at most nine digits without a leading zero.
+     * @return The value, or -1 if the name is anything else.
+    */
+    private int plainNumber(int start, int end){
+        int length = end - start;
+        if (length == 0 || length > 9 || (length > 1 && buffer.get(start) == '0')){
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++){
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9){
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Parse an integer in place, with an optional sign, as Integer.parseInt would.
+     * @param acrossLines True to skip over line separators before the number, as Scanner.nextInt does.
+    */
+    private int readInt(boolean acrossLines){
+        if (acrossLines){
+            while (isWhitespace(peek())){
+                buffer.get();
+                ensureWindow();
+            }
+        }
+        ensureWindow();
+        int start = position();
+        boolean negative = false;
+        if (peek() == '-' || peek() == '+'){
+            negative = buffer.get() == '-';
+        }
+        long value = 0;
+        int digits = 0;
+        while (peek() >= '0' && peek() <= '9'){
+            value = value * 10 + (buffer.get() - '0');
+            digits++;
+            if (value > (long) Integer.MAX_VALUE + 1){
+                break;
+            }
+        }
+        if (peek() >= 0 && !isWhitespace(peek()) || digits == 0){
+            skipToken();
+            throw new NumberFormatException("For input string: \"" + text(start, position()) + "\"");
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE){
+            throw new NumberFormatException("For input string: \"" + text(start, position()) + "\"");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Skip spaces and tabs on the current line.
+     * @return True if a token follows on the current line.
+    */
+    private boolean skipSpaces(){
+        ensureWindow();
+        int b = peek();
+        while (b == ' ' || b == '\t' || b == '\f'){
+            buffer.get();
+            b = peek();
+        }
+        return b >= 0 && b != '\n' && b != '\r';
+    }
+
+    /**
+     * Skip the bytes of the current token.
+    */
+    private void skipToken(){
+        while (peek() >= 0 && !isWhitespace(peek())){
+            buffer.get();
+        }
+    }
+
+    /**
+     * Skip the line separator at the current position, if there is one.
+    */
+    private void endLine(){
+        if (peek() == '\r'){
+            buffer.get();
+        }
+        if (peek() == '\n'){
+            buffer.get();
+        }
+    }
+
+    /**
+     * Obtain the next byte without consuming it, read as unsigned so the bytes of non-ASCII names are not taken
+     * for the end of the file.
+     * @return The byte, from 0 to 255, or -1 at the end of the file.
+    */
+    private int peek(){
+        return buffer.hasRemaining() ? buffer.get(buffer.position()) & 0xFF : -1;
+    }
+
+    /**
+     * Obtain the current position within the window.
+    */
+    private int position(){
+        return buffer.position();
+    }
+
+    /**
+     * Decode the bytes between the given positions of the window.
+    */
+    private String text(int start, int end){
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++){
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Move the window forward when it is close to its end and more of the file remains.
+    */
+    private void ensureWindow(){
+        if (buffer.remaining() < WINDOW_MARGIN && windowStart + buffer.limit() < fileSize){
+            map(windowStart + buffer.position());
+        }
+    }
+
+    /**
+     * Map the window starting at the given position of the file.
+    */
+    private void map(long start){
+        try {
+            windowStart = start;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, fileSize - start));
+        } catch (IOException e){
+            throw new java.io.UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Determine if the given byte separates tokens, as it does for StringTokenizer.
+    */
+    private static boolean isWhitespace(int b){
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Landmark distance tables for A* search with the triangle inequality (ALT).
+ * For every landmark L, the cost of the shortest path from L to each vertex and from each vertex to L is stored.
+ * Since d(L, t) <= d(L, v) + d(v, t) and d(v, L) <= d(v, t) + d(t, L), the largest of d(L, t) - d(L, v) and
+ * d(v, L) - d(t, L) over all landmarks is a lower bound on d(v, t). The bound is consistent, so A* ordered by
+ * dist + bound settles every vertex at its shortest distance, and settles far fewer vertices than Dijkstra's algorithm.
+ *
+ * Landmarks are picked farthest-first: each new landmark is the vertex furthest from the landmarks chosen so far,
+ * which spreads them around the edge of the graph where the bounds are tightest. Vertices that no landmark reaches
+ * count as furthest, so every part of a disconnected graph gets a landmark.
+ *
+ * The tables hold the distances of each vertex to all landmarks next to each other, so a bound reads one block of each table.
+ */
+public class Landmarks
+{
+    /** The graph the tables were built for.*/
+    private final CompactGraph graph;
+    /** The landmark vertices, in the order they were picked.*/
+    private final int[] landmarks;
+    /** The cost from each landmark to each vertex, at v * landmarks.length + i for landmark i.*/
+    private final double[] from;
+    /** The cost from each vertex to each landmark, at v * landmarks.length + i for landmark i.*/
+    private final double[] to;
+    /** The time taken to build the tables, in nanoseconds.*/
+    private final long buildNanos;
+
+    /**
+     * Pick the given number of landmarks and build their distance tables.
+     * @param graph The graph to build the tables for.
+     * @param count The number of landmarks, which is capped at the number of vertices.
+    */
+    public Landmarks(CompactGraph graph, int count){
+        long start = System.nanoTime();
+        int numVertices = graph.size();
+        count = Math.max(0, Math.min(count, numVertices));
+        this.graph = graph;
+        this.landmarks = new int[count];
+        this.from = new double[numVertices * count];
+        this.to = new double[numVertices * count];
+        // The distance from each vertex to the nearest landmark so far, starting from vertex 0 as a stand-in.
+        double[] nearest = new double[numVertices];
+        if (count == 0){
+            this.buildNanos = System.nanoTime() - start;
+            return;
+        }
+        try (SearchContext context = graph.acquireContext()){
+            context.search(0);
+            for (int v = 0; v < numVertices; v++){
+                nearest[v] = context.dist(v);
+            }
+            for (int i = 0; i < count; i++){
+                // Step 1 - Pick the vertex furthest from the landmarks chosen so far.
+                int landmark = 0;
+                for (int v = 1; v < numVertices; v++){
+                    if (nearest[v] > nearest[landmark]){
+                        landmark = v;
+                    }
+                }
+                landmarks[i] = landmark;
+                // Step 2 - Fill in the costs from the landmark, and update the distance to the nearest landmark.
+                context.search(landmark);
+                for (int v = 0; v < numVertices; v++){
+                    from[v * count + i] = context.dist(v);
+                    nearest[v] = i == 0 ? context.dist(v) : Math.min(nearest[v], context.dist(v));
+                }
+                nearest[landmark] = -1;
+                // Step 3 - Fill in the costs to the landmark with a search over the reversed edges.
+                context.searchTo(landmark);
+                for (int v = 0; v < numVertices; v++){
+                    to[v * count + i] = context.dist(v);
+                }
+            }
+        }
+        this.buildNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Obtain a lower bound on the cost of the shortest path between two vertices.
+     * @param v The index of the start vertex.
+     * @param t The index of the target vertex.
+     * @return A lower bound on d(v, t), which is 0 when the landmarks give no bound.
+    */
+    public double lowerBound(int v, int t){
+        int count = landmarks.length;
+        int vi = v * count;
+        int ti = t * count;
+        double bound = 0;
+        for (int i = 0; i < count; i++){
+            // Landmarks that do not reach, or are not reached by, both vertices give no bound.
+            double lt = from[ti + i];
+            double lv = from[vi + i];
+            if (lt != Graph.INFINITY && lv != Graph.INFINITY && lt - lv > bound){
+                bound = lt - lv;
+            }
+            double vl = to[vi + i];
+            double tl = to[ti + i];
+            if (vl != Graph.INFINITY && tl != Graph.INFINITY && vl - tl > bound){
+                bound = vl - tl;
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Obtain the graph the tables were built for.
+     * @return The CompactGraph.
+    */
+    public CompactGraph graph(){
+        return graph;
+    }
+
+    /**
+     * Obtain the landmark vertices.
+     * @return The indices of the landmarks, in the order they were picked.
+    */
+    public int[] landmarks(){
+        return landmarks.clone();
+    }
+
+    /**
+     * Obtain the time taken to pick the landmarks and build the tables.
+     * @return The build time in nanoseconds.
+    */
+    public long buildNanos(){
+        return buildNanos;
+    }
+
+    /**
+     * Obtain the memory used by the distance tables.
+     * @return The size of the tables in bytes.
+    */
+    public long estimatedBytes(){
+        return 8L * (from.length + to.length) + 4L * landmarks.length;
+    }
+}
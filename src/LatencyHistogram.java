@@ -0,0 +1,126 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds which many threads may record into at once.
+ * Each power of two is split into eight buckets, so a latency is placed within an eighth of its value,
+ * and recording is a few shifts and one atomic increment, with no allocation and no lock.
+ * Quantiles are read as the upper end of the bucket holding them.
+ */
+public class LatencyHistogram
+{
+    /** The number of buckets each power of two is split into, as a power of two.*/
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /** Enough buckets for every positive long.*/
+    private static final int NUM_BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    /** The number of latencies in each bucket.*/
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Record one latency.
+     * @param nanos The latency in nanoseconds, where negative values count as 0.
+    */
+    public void record(long nanos){
+        long value = Math.max(0, nanos);
+        buckets.incrementAndGet(bucket(value));
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Obtain the number of recorded latencies.
+     * @return The number of latencies.
+    */
+    public long count(){
+        return count.sum();
+    }
+
+    /**
+     * Obtain the sum of the recorded latencies.
+     * @return The sum in nanoseconds.
+    */
+    public long totalNanos(){
+        return total.sum();
+    }
+
+    /**
+     * Obtain the largest recorded latency.
+     * @return The largest latency in nanoseconds, or 0 if none were recorded.
+    */
+    public long maxNanos(){
+        return max.get();
+    }
+
+    /**
+     * Obtain the latency below which the given fraction of the recorded latencies lie.
+     * The latencies recorded while the quantile is read may or may not be counted.
+     * @param quantile The fraction, from 0 to 1.
+     * @return The upper end of the bucket holding the quantile in nanoseconds, or 0 if none were recorded.
+    */
+    public long quantileNanos(double quantile){
+        long[] counts = new long[NUM_BUCKETS];
+        long seen = 0;
+        for (int b = 0; b < NUM_BUCKETS; b++){
+            counts[b] = buckets.get(b);
+            seen += counts[b];
+        }
+        if (seen == 0){
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * seen));
+        long below = 0;
+        for (int b = 0; b < NUM_BUCKETS; b++){
+            below += counts[b];
+            if (below >= rank){
+                return Math.min(upperBound(b), maxNanos());
+            }
+        }
+        return maxNanos();
+    }
+
+    /**
+     * Forget every recorded latency.
+    */
+    public void reset(){
+        for (int b = 0; b < NUM_BUCKETS; b++){
+            buckets.set(b, 0);
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+
+    /**
+     * Obtain the bucket of a latency: values below SUB_BUCKETS have a bucket each, and each larger power of two
+     * is split by the SUB_BITS bits after its leading bit.
+    */
+    private static int bucket(long value){
+        if (value < SUB_BUCKETS){
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Obtain the largest latency placed in the given bucket.
+    */
+    private static long upperBound(int bucket){
+        if (bucket < SUB_BUCKETS){
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long low = (1L << exponent) | (sub << (exponent - SUB_BITS));
+        long width = 1L << (exponent - SUB_BITS);
+        return exponent == 62 && sub == SUB_BUCKETS - 1 ? Long.MAX_VALUE : low + width - 1;
+    }
+}
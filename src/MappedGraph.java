@@ -0,0 +1,464 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Read-only road network kept in a memory-mapped file instead of on the heap.
+ * The adjacency and its reverse in compressed sparse row form, the edge costs, the names, roles and companies of the
+ * vertices, the Shops of each company and an index of the names sorted for lookup are all read in place from the
+ * file, so opening a graph takes the same small amount of heap whatever its size, and the operating system loads the
+ * pages of the file on first touch and drops them under memory pressure. Graphs larger than the heap are searched
+ * with MappedSearch, which keeps state only for the vertices a search reaches.
+ *
+ * Layout (version 1, little-endian, every section starting on a multiple of 8 bytes):
+ *   "TAXIMAPG", int version, int number of nodes, int vertex count V, int edge count E, long[16] section starts,
+ *   int[V + 1] offsets, int[E] targets, double[E] costs, int[V + 1] reverse offsets, int[E] reverse targets,
+ *   double[E] reverse costs, byte[V] roles, byte[V] companies (ordinal + 1, or 0 for none),
+ *   int[V] position of each Shop among the Shops of its company (-1 for other vertices), int[V] vertices in order
+ *   of their names, long[V + 1] name offsets, name bytes (UTF-8), int[companies + 1] shop offsets,
+ *   int[] Shops of each company in vertex map order, calls bytes (UTF-8).
+ */
+public class MappedGraph implements AutoCloseable
+{
+    /** The bytes at the start of every mapped graph file.*/
+    private static final byte[] MAGIC = "TAXIMAPG".getBytes(StandardCharsets.US_ASCII);
+    /** The version of the layout written by this class.*/
+    public static final int VERSION = 1;
+    /** Bits of the number of bytes in each mapped chunk of a section, which is a multiple of every element size.*/
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+    // Sections of the file, in order.
+    private static final int OFFSETS = 0;
+    private static final int TARGETS = 1;
+    private static final int COSTS = 2;
+    private static final int REVERSE_OFFSETS = 3;
+    private static final int REVERSE_TARGETS = 4;
+    private static final int REVERSE_COSTS = 5;
+    private static final int ROLES = 6;
+    private static final int COMPANIES = 7;
+    private static final int SHOP_RANKS = 8;
+    private static final int SORTED_NAMES = 9;
+    private static final int NAME_OFFSETS = 10;
+    private static final int NAMES = 11;
+    private static final int SHOP_OFFSETS = 12;
+    private static final int SHOPS = 13;
+    private static final int CALLS = 14;
+    private static final int SECTIONS = 15;
+    private static final int HEADER_BYTES = 8 + 4 * 4 + 8 * (SECTIONS + 1);
+
+    private final FileChannel channel;
+    private final int numNodes;
+    private final int numVertices;
+    private final int numEdges;
+    /** The length of each section in bytes.*/
+    private final long[] lengths = new long[SECTIONS];
+    /** The mapped chunks of each section.*/
+    private final MappedByteBuffer[][] sections = new MappedByteBuffer[SECTIONS][];
+    private static final VertexRoles.Role[] ROLE_VALUES = VertexRoles.Role.values();
+    private static final VertexRoles.Company[] COMPANY_VALUES = VertexRoles.Company.values();
+
+    private MappedGraph(FileChannel channel, int numNodes, int numVertices, int numEdges, long[] starts) throws IOException {
+        this.channel = channel;
+        this.numNodes = numNodes;
+        this.numVertices = numVertices;
+        this.numEdges = numEdges;
+        for (int s = 0; s < SECTIONS; s++){
+            lengths[s] = starts[s + 1] - starts[s];
+            int chunks = (int) (lengths[s] >>> CHUNK_BITS) + 1;
+            sections[s] = new MappedByteBuffer[chunks];
+            for (int c = 0; c < chunks; c++){
+                long start = starts[s] + ((long) c << CHUNK_BITS);
+                long size = Math.min(1L << CHUNK_BITS, starts[s] + lengths[s] - start);
+                sections[s][c] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+                sections[s][c].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+    }
+
+    /**
+     * Determine if the given file starts with the mapped graph magic bytes.
+     * @param path The path of the file.
+     * @return True if the file is a mapped graph.
+     * @throws IOException If the file cannot be read.
+    */
+    public static boolean isMappedGraph(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)){
+            ByteBuffer start = ByteBuffer.allocate(MAGIC.length);
+            while (start.hasRemaining() && channel.read(start) >= 0){
+                // Keep reading until the magic bytes are in or the file ends.
+            }
+            return !start.hasRemaining() && ByteBuffer.wrap(MAGIC).equals(start.flip());
+        }
+    }
+
+    /**
+     * Map the given file. Only the header is read, and the rest of the file is read in place as it is used.
+     * @param path The path of a file written by write.
+     * @return The mapped graph, which must be closed after use.
+     * @throws IOException If the file cannot be read, is not a mapped graph or has an unsupported version.
+    */
+    public static MappedGraph open(String path) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0){
+                // Keep reading until the header is in or the file ends.
+            }
+            header.flip();
+            byte[] magic = new byte[MAGIC.length];
+            if (header.remaining() < HEADER_BYTES || !Arrays.equals(MAGIC, read(header, magic))){
+                throw new IOException(path + " is not a mapped graph");
+            }
+            int version = header.getInt();
+            if (version != VERSION){
+                throw new IOException(path + " has mapped graph version " + version + ", but only version " + VERSION + " can be read");
+            }
+            int numNodes = header.getInt();
+            int numVertices = header.getInt();
+            int numEdges = header.getInt();
+            long[] starts = new long[SECTIONS + 1];
+            for (int s = 0; s <= SECTIONS; s++){
+                starts[s] = header.getLong();
+            }
+            if (starts[SECTIONS] > channel.size()){
+                throw new IOException("Mapped graph file is truncated");
+            }
+            return new MappedGraph(channel, numNodes, numVertices, numEdges, starts);
+        } catch (IOException | RuntimeException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static byte[] read(ByteBuffer buffer, byte[] bytes){
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Write the given graph as a mapped graph file.
+     * @param graph The CompactGraph holding the vertices and edges.
+     * @param roles The roles of the vertices of the graph.
+     * @param numNodes The number of nodes given in the input.
+     * @param calls The chronological order of calls.
+     * @param path The path of the file, which is replaced if it exists.
+     * @throws IOException If the file cannot be written.
+    */
+    public static void write(CompactGraph graph, VertexRoles roles, int numNodes, String calls, String path) throws IOException {
+        int v = graph.size();
+        int e = graph.edgeCount();
+        byte[][] names = new byte[v][];
+        long nameBytes = 0;
+        for (int i = 0; i < v; i++){
+            names[i] = graph.name(i).getBytes(StandardCharsets.UTF_8);
+            nameBytes += names[i].length;
+        }
+        Integer[] sorted = new Integer[v];
+        for (int i = 0; i < v; i++){
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, (a, b) -> Arrays.compareUnsigned(names[a], names[b]));
+        int[] ranks = new int[v];
+        Arrays.fill(ranks, -1);
+        for (VertexRoles.Company company : COMPANY_VALUES){
+            for (int i = 0; i < roles.shopCount(company); i++){
+                ranks[roles.shop(company, i)] = i;
+            }
+        }
+        byte[] callBytes = (calls == null ? "" : calls).getBytes(StandardCharsets.UTF_8);
+        // Step 1 - Work out where every section starts.
+        long[] lengths = {4L * (v + 1), 4L * e, 8L * e, 4L * (v + 1), 4L * e, 8L * e, v, v, 4L * v, 4L * v,
+                          8L * (v + 1), nameBytes, 4L * (COMPANY_VALUES.length + 1), 4L * roles.shopCount(), callBytes.length};
+        long[] starts = new long[SECTIONS + 1];
+        starts[0] = HEADER_BYTES;
+        for (int s = 0; s < SECTIONS; s++){
+            starts[s + 1] = (starts[s] + lengths[s] + 7) & ~7L;
+        }
+        // Step 2 - Write the header and the sections in order, padding each one to the start of the next.
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+            GraphSnapshot.Writer out = new GraphSnapshot.Writer(channel);
+            out.bytes(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(numNodes);
+            out.putInt(v);
+            out.putInt(e);
+            for (long start : starts){
+                out.putLong(start);
+            }
+            for (CompactGraph adjacency : new CompactGraph[]{graph, graph.reverse()}){
+                for (int i = 0; i <= v; i++){
+                    out.putInt(i < v ? adjacency.firstEdge(i) : e);
+                }
+                pad(out, lengths[OFFSETS]);
+                for (int j = 0; j < e; j++){
+                    out.putInt(adjacency.target(j));
+                }
+                pad(out, lengths[TARGETS]);
+                for (int j = 0; j < e; j++){
+                    out.putDouble(adjacency.cost(j));
+                }
+            }
+            for (int i = 0; i < v; i++){
+                out.putByte((byte) roles.role(i).ordinal());
+            }
+            pad(out, v);
+            for (int i = 0; i < v; i++){
+                out.putByte((byte) (roles.company(i) == null ? 0 : roles.company(i).ordinal() + 1));
+            }
+            pad(out, v);
+            for (int i = 0; i < v; i++){
+                out.putInt(ranks[i]);
+            }
+            pad(out, lengths[SHOP_RANKS]);
+            for (int i = 0; i < v; i++){
+                out.putInt(sorted[i]);
+            }
+            pad(out, lengths[SORTED_NAMES]);
+            long nameOffset = 0;
+            for (int i = 0; i <= v; i++){
+                out.putLong(nameOffset);
+                nameOffset += i < v ? names[i].length : 0;
+            }
+            for (byte[] name : names){
+                out.bytes(name);
+            }
+            pad(out, nameBytes);
+            int shopOffset = 0;
+            for (int c = 0; c <= COMPANY_VALUES.length; c++){
+                out.putInt(shopOffset);
+                shopOffset += c < COMPANY_VALUES.length ? roles.shopCount(COMPANY_VALUES[c]) : 0;
+            }
+            pad(out, lengths[SHOP_OFFSETS]);
+            for (VertexRoles.Company company : COMPANY_VALUES){
+                for (int i = 0; i < roles.shopCount(company); i++){
+                    out.putInt(roles.shop(company, i));
+                }
+            }
+            pad(out, lengths[SHOPS]);
+            out.bytes(callBytes);
+            pad(out, callBytes.length);
+            out.flush();
+        }
+    }
+
+    /**
+     * Write the zeros that follow a section of the given length up to the next multiple of 8 bytes.
+    */
+    private static void pad(GraphSnapshot.Writer out, long length) throws IOException {
+        for (long i = length; (i & 7) != 0; i++){
+            out.putByte((byte) 0);
+        }
+    }
+
+    /**
+     * Obtain the number of nodes given in the input.
+     * @return The number of nodes.
+    */
+    public int numNodes(){
+        return numNodes;
+    }
+
+    /**
+     * Obtain the number of vertices.
+     * @return The number of vertices.
+    */
+    public int size(){
+        return numVertices;
+    }
+
+    /**
+     * Obtain the number of edges.
+     * @return The number of edges.
+    */
+    public int edgeCount(){
+        return numEdges;
+    }
+
+    /**
+     * Obtain the position of the first outgoing edge of the given vertex.
+     * @param v The index of the vertex.
+     * @param reverse True for the edges of the reverse graph, which come into v in this graph.
+     * @return The position of the first edge.
+    */
+    public int firstEdge(int v, boolean reverse){
+        return getInt(reverse ? REVERSE_OFFSETS : OFFSETS, v);
+    }
+
+    /**
+     * Obtain the position directly after the last outgoing edge of the given vertex.
+     * @param v The index of the vertex.
+     * @param reverse True for the edges of the reverse graph.
+     * @return The end position of the edges of v.
+    */
+    public int edgeEnd(int v, boolean reverse){
+        return getInt(reverse ? REVERSE_OFFSETS : OFFSETS, v + 1);
+    }
+
+    /**
+     * Obtain the destination of the given edge.
+     * @param e The position of the edge.
+     * @param reverse True for the edges of the reverse graph.
+     * @return The index of the destination vertex.
+    */
+    public int target(int e, boolean reverse){
+        return getInt(reverse ? REVERSE_TARGETS : TARGETS, e);
+    }
+
+    /**
+     * Obtain the cost of the given edge.
+     * @param e The position of the edge.
+     * @param reverse True for the edges of the reverse graph.
+     * @return The cost of the edge.
+    */
+    public double cost(int e, boolean reverse){
+        long position = 8L * e;
+        return sections[reverse ? REVERSE_COSTS : COSTS][(int) (position >>> CHUNK_BITS)].getDouble((int) (position & CHUNK_MASK));
+    }
+
+    /**
+     * Obtain the role of a vertex.
+     * @param v The index of the vertex.
+     * @return The role.
+    */
+    public VertexRoles.Role role(int v){
+        return ROLE_VALUES[getByte(ROLES, v)];
+    }
+
+    /**
+     * Obtain the company of a Shop.
+     * @param v The index of the vertex.
+     * @return The company, or null if the vertex is not a Shop.
+    */
+    public VertexRoles.Company company(int v){
+        int company = getByte(COMPANIES, v);
+        return company == 0 ? null : COMPANY_VALUES[company - 1];
+    }
+
+    /**
+     * Obtain the position of a Shop among the Shops of its company, which is the order ties are reported in.
+     * @param v The index of the vertex.
+     * @return The position, or -1 if the vertex is not a Shop.
+    */
+    public int shopRank(int v){
+        return getInt(SHOP_RANKS, v);
+    }
+
+    /**
+     * Obtain the number of Shops of a company.
+     * @param company The company, which may be null.
+     * @return The number of Shops, or 0 for a null company.
+    */
+    public int shopCount(VertexRoles.Company company){
+        if (company == null){
+            return 0;
+        }
+        return getInt(SHOP_OFFSETS, company.ordinal() + 1) - getInt(SHOP_OFFSETS, company.ordinal());
+    }
+
+    /**
+     * Obtain one Shop of a company.
+     * @param company The company.
+     * @param i The position of the Shop, from 0 to shopCount(company) - 1.
+     * @return The index of the Shop.
+    */
+    public int shop(VertexRoles.Company company, int i){
+        return getInt(SHOPS, getInt(SHOP_OFFSETS, company.ordinal()) + i);
+    }
+
+    /**
+     * Obtain the name of a vertex.
+     * @param v The index of the vertex.
+     * @return The name, decoded from the file.
+    */
+    public String name(int v){
+        return new String(nameBytes(v), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Find a vertex by name with a binary search of the sorted name index.
+     * @param name The name of the vertex.
+     * @return The index of the vertex, or -1 if there is no vertex with the name.
+    */
+    public int index(String name){
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = numVertices - 1;
+        while (low <= high){
+            int middle = (low + high) >>> 1;
+            int v = getInt(SORTED_NAMES, middle);
+            int order = Arrays.compareUnsigned(nameBytes(v), key);
+            if (order < 0){
+                low = middle + 1;
+            } else if (order > 0){
+                high = middle - 1;
+            } else {
+                return v;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Obtain the chronological order of calls.
+     * @return The calls, decoded from the file.
+    */
+    public String getCalls(){
+        byte[] calls = new byte[(int) lengths[CALLS]];
+        for (int i = 0; i < calls.length; i++){
+            calls[i] = getByte(CALLS, i);
+        }
+        return new String(calls, StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Obtain the number of bytes of the file that hold the graph.
+     * @return The size of the mapped sections.
+    */
+    public long mappedBytes(){
+        long total = 0;
+        for (long length : lengths){
+            total += length;
+        }
+        return total;
+    }
+
+    /**
+     * Close the file. The mappings are released once they are no longer reachable, and must not be read after closing.
+     * @throws IOException If the file cannot be closed.
+    */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private byte[] nameBytes(int v){
+        long start = getLong(NAME_OFFSETS, v);
+        byte[] bytes = new byte[(int) (getLong(NAME_OFFSETS, v + 1) - start)];
+        for (int i = 0; i < bytes.length; i++){
+            bytes[i] = getByte(NAMES, start + i);
+        }
+        return bytes;
+    }
+
+    private byte getByte(int section, long i){
+        return sections[section][(int) (i >>> CHUNK_BITS)].get((int) (i & CHUNK_MASK));
+    }
+
+    private int getInt(int section, long i){
+        long position = 4 * i;
+        return sections[section][(int) (position >>> CHUNK_BITS)].getInt((int) (position & CHUNK_MASK));
+    }
+
+    private long getLong(int section, long i){
+        long position = 8 * i;
+        return sections[section][(int) (position >>> CHUNK_BITS)].getLong((int) (position & CHUNK_MASK));
+    }
+}
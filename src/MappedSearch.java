@@ -0,0 +1,296 @@
+import java.util.Arrays;
+
+/**
+ * Dijkstra's algorithm over a MappedGraph, with state kept only for the vertices the search reaches.
+ * A SearchContext holds five arrays sized for the whole graph, which for a graph larger than the heap is out of the
+ * question, so this search gives each vertex it reaches a slot of its own through an open-addressing table from
+ * vertex to slot, and keeps the distance, previous vertex, tight edge count and heap entry of the vertex in the
+ * arrays of the slot. The table and slot arrays grow with the search and are reused by the next search, so a
+ * search that stops early touches only memory proportional to the vertices it reached.
+ *
+ * The slots waiting to be settled are kept in an IndexedHeap, grown along with the slot arrays and ordering equal
+ * distances by vertex rather than by slot, so vertices at the same distance are settled in the same order as a
+ * SearchContext settles them, and the previous vertex and the duplicate paths found are the same as for a search
+ * of the CompactGraph the file was written from.
+ *
+ * A search is used by one thread at a time.
+ */
+public class MappedSearch
+{
+    /** Marks an empty entry of the table.*/
+    private static final int EMPTY = -1;
+
+    private final MappedGraph graph;
+    /** True if the current search runs over the reversed edges.*/
+    private boolean reverse;
+    private int source = -1;
+    private int settledCount;
+
+    /** The vertex held in each entry of the open-addressing table, or EMPTY, and the slot given to it.*/
+    private int[] tableVertices;
+    private int[] tableSlots;
+    private int mask;
+
+    /** The number of slots in use, one per vertex reached.*/
+    private int size;
+    private int[] vertices;
+    private double[] dist;
+    private int[] prev;
+    private int[] tightEdges;
+    private boolean[] settled;
+    /** The table entry of the vertex of each slot, so the table can be cleared slot by slot.*/
+    private int[] tableEntries;
+
+    /** The slots waiting to be settled, keyed by their distance and ordered by their vertex among equal distances.*/
+    private final IndexedHeap queue = new IndexedHeap(0){
+        @Override
+        protected int order(int slot){
+            return vertices[slot];
+        }
+    };
+
+    /**
+     * Create a new search over the given graph.
+     * @param graph The mapped graph to search.
+    */
+    public MappedSearch(MappedGraph graph){
+        this.graph = graph;
+        allocateTable(64);
+        allocateSlots(32);
+    }
+
+    /**
+     * Run Dijkstra's algorithm from the given vertex over every reachable vertex.
+     * @param start The index of the start vertex.
+     * @param reverse True to search the reversed edges, giving the cost from every vertex to start.
+     * @return This search, holding the result.
+    */
+    public MappedSearch search(int start, boolean reverse){
+        begin(start, reverse);
+        while (settleNext() >= 0){
+            // Each call settles one vertex.
+        }
+        return this;
+    }
+
+    /**
+     * Run Dijkstra's algorithm from the given vertex, stopping once the target is settled. The search carries on
+     * only through vertices at the same distance as the target, so hasDuplicatePaths is exact for the target.
+     * @param start The index of the start vertex.
+     * @param target The index of the target vertex.
+     * @return This search, holding the result.
+    */
+    public MappedSearch search(int start, int target){
+        begin(start, false);
+        while (nextKey() <= dist(target) && settleNext() >= 0){
+            // Settle vertices until the next one is further away than the target.
+        }
+        return this;
+    }
+
+    /**
+     * Start a new search from the given vertex, with only the start vertex in the queue.
+     * @param start The index of the start vertex.
+     * @param reverse True to search the reversed edges.
+    */
+    public void begin(int start, boolean reverse){
+        for (int s = 0; s < size; s++){
+            tableVertices[tableEntries[s]] = EMPTY;
+        }
+        size = 0;
+        queue.clear();
+        settledCount = 0;
+        this.reverse = reverse;
+        this.source = start;
+        int slot = reach(start, 0, -1);
+        queue.insertOrDecrease(slot, 0);
+    }
+
+    /**
+     * Obtain the distance of the next vertex to be settled.
+     * @return The smallest key in the queue, or Graph.INFINITY if the queue is empty.
+    */
+    public double nextKey(){
+        return queue.minKey();
+    }
+
+    /**
+     * Settle the closest vertex in the queue and relax its outgoing edges.
+     * @return The index of the settled vertex, or -1 if the queue is empty.
+    */
+    public int settleNext(){
+        if (queue.isEmpty()){
+            return -1;
+        }
+        int slot = queue.removeMin();
+        settled[slot] = true;
+        settledCount++;
+        int v = vertices[slot];
+        double distV = dist[slot];
+        int end = graph.edgeEnd(v, reverse);
+        for (int e = graph.firstEdge(v, reverse); e < end; e++){
+            int w = graph.target(e, reverse);
+            double cvw = graph.cost(e, reverse);
+            if (cvw < 0){
+                throw new GraphException("Graph has negative edges");
+            }
+            int slotW = slot(w);
+            double distW = slotW < 0 ? Graph.INFINITY : dist[slotW];
+            // Relax the edge if a shorter path is found, or count the edge if it reaches w at the same cost.
+            if (distW > distV + cvw){
+                if (slotW < 0){
+                    slotW = reach(w, distV + cvw, v);
+                } else {
+                    dist[slotW] = distV + cvw;
+                    prev[slotW] = v;
+                    tightEdges[slotW] = 1;
+                }
+                queue.insertOrDecrease(slotW, distV + cvw);
+            } else if (distW == distV + cvw){
+                tightEdges[slotW]++;
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Obtain the cost of the shortest path found to the given vertex.
+     * @param v The index of the vertex.
+     * @return The cost of the path, or Graph.INFINITY if the vertex was not reached.
+    */
+    public double dist(int v){
+        int slot = slot(v);
+        return slot < 0 ? Graph.INFINITY : dist[slot];
+    }
+
+    /**
+     * Obtain the previous vertex on the shortest path found to the given vertex.
+     * After a reverse search, this is the next vertex on the way to the start.
+     * @param v The index of the vertex.
+     * @return The index of the previous vertex, or -1 for the start vertex and unreached vertices.
+    */
+    public int prev(int v){
+        int slot = slot(v);
+        return slot < 0 ? -1 : prev[slot];
+    }
+
+    /**
+     * Determine if more than one shortest path was found to the given vertex.
+     * @param v The index of the vertex.
+     * @return True if the vertex is reached at its shortest distance by more than one edge.
+    */
+    public boolean hasDuplicatePaths(int v){
+        int slot = slot(v);
+        return slot >= 0 && tightEdges[slot] > 1;
+    }
+
+    /**
+     * Determine if the given vertex has been settled by the current search, so that its distance is final.
+     * @param v The index of the vertex.
+     * @return True if the vertex has been settled.
+    */
+    public boolean isSettled(int v){
+        int slot = slot(v);
+        return slot >= 0 && settled[slot];
+    }
+
+    /**
+     * Obtain the start vertex of the current search.
+     * @return The index of the start vertex, or -1 if no search has run.
+    */
+    public int source(){
+        return source;
+    }
+
+    /**
+     * Obtain the number of vertices settled by the current search.
+     * @return The number of settled vertices.
+    */
+    public int settledCount(){
+        return settledCount;
+    }
+
+    /**
+     * Obtain the number of vertices reached by the current search, which is the number of slots in use.
+     * @return The number of reached vertices.
+    */
+    public int reachedCount(){
+        return size;
+    }
+
+    /**
+     * Find the slot of a vertex.
+     * @return The slot, or -1 if the vertex has not been reached.
+    */
+    private int slot(int v){
+        for (int i = hash(v); ; i = (i + 1) & mask){
+            int vertex = tableVertices[i];
+            if (vertex == v){
+                return tableSlots[i];
+            }
+            if (vertex == EMPTY){
+                return -1;
+            }
+        }
+    }
+
+    private int hash(int v){
+        return (v * 0x9E3779B9) >>> 7 & mask;
+    }
+
+    /**
+     * Give a newly reached vertex a slot and record its first path.
+     * @return The slot of the vertex.
+    */
+    private int reach(int v, double cost, int from){
+        if (size == vertices.length){
+            allocateSlots(size * 2);
+        }
+        // Keep the table at most half full.
+        if (2 * (size + 1) > tableVertices.length){
+            growTable();
+        }
+        int slot = size++;
+        vertices[slot] = v;
+        dist[slot] = cost;
+        prev[slot] = from;
+        tightEdges[slot] = 1;
+        settled[slot] = false;
+        insert(v, slot);
+        return slot;
+    }
+
+    private void insert(int v, int slot){
+        int i = hash(v);
+        while (tableVertices[i] != EMPTY){
+            i = (i + 1) & mask;
+        }
+        tableVertices[i] = v;
+        tableSlots[i] = slot;
+        tableEntries[slot] = i;
+    }
+
+    private void allocateTable(int capacity){
+        tableVertices = new int[capacity];
+        tableSlots = new int[capacity];
+        Arrays.fill(tableVertices, EMPTY);
+        mask = capacity - 1;
+    }
+
+    private void growTable(){
+        allocateTable(tableVertices.length * 2);
+        for (int s = 0; s < size; s++){
+            insert(vertices[s], s);
+        }
+    }
+
+    private void allocateSlots(int capacity){
+        vertices = vertices == null ? new int[capacity] : Arrays.copyOf(vertices, capacity);
+        dist = dist == null ? new double[capacity] : Arrays.copyOf(dist, capacity);
+        prev = prev == null ? new int[capacity] : Arrays.copyOf(prev, capacity);
+        tightEdges = tightEdges == null ? new int[capacity] : Arrays.copyOf(tightEdges, capacity);
+        settled = settled == null ? new boolean[capacity] : Arrays.copyOf(settled, capacity);
+        tableEntries = tableEntries == null ? new int[capacity] : Arrays.copyOf(tableEntries, capacity);
+        queue.ensureCapacity(capacity);
+    }
+}
@@ -0,0 +1,187 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/**
+ * The taxi simulation run directly against a MappedGraph, for road networks too large to load onto the heap.
+ * Calls are handled the same way as TaxiSimulator.dispatch handles them, picking the nearest Taxis and Shops with
+ * VertexRoles.nearest and writing the text with CallText, so the text is the same, but nothing is loaded: names
+ * are looked up in the sorted name index of the file, edges are read from the mapped adjacency, and every search
+ * is a MappedSearch holding state only for the vertices it reaches.
+ *
+ * Instead of working out the cost of every Shop of the company, the nearest Taxis are found by one search from the
+ * Client over the reversed roads that stops once every vertex as close as the nearest Taxi is settled, and the
+ * nearest Shops by the same search over the roads. Each Taxi then searches only until it reaches the Client.
+ * Ties are given in the order of the Shops of the company, which is the order TaxiSimulator gives them in.
+ */
+public class MappedSimulator implements CallDispatcher
+{
+    private final MappedGraph graph;
+    /** Two searches for each thread: one for the nearest Shops and one for the other searches of a call.*/
+    private final ThreadLocal<MappedSearch[]> searches;
+
+    /**
+     * Create a new simulation over the given mapped graph.
+     * @param graph The mapped graph, which stays open while the simulation is used.
+    */
+    public MappedSimulator(MappedGraph graph){
+        this.graph = graph;
+        this.searches = ThreadLocal.withInitial(() -> new MappedSearch[]{new MappedSearch(graph), new MappedSearch(graph)});
+    }
+
+    /**
+     * Determine if the given file is a mapped graph.
+     * @param path The path of the file.
+     * @return True if the file is a mapped graph, false if it is not or cannot be read.
+    */
+    public static boolean isMapped(String path){
+        try {
+            return MappedGraph.isMappedGraph(path);
+        } catch (IOException e){
+            return false;
+        }
+    }
+
+    /**
+     * Obtain the mapped graph of this simulation.
+     * @return The mapped graph.
+    */
+    public MappedGraph getGraph(){
+        return graph;
+    }
+
+    /**
+     * Handle one client call and obtain the text displayed for it, which is the same as TaxiSimulator.dispatch gives.
+     * Only reads the graph, so calls may be dispatched from many threads at the same time.
+     * @param client The name assosiated with the client.
+     * @param company The name of the company chosen by the client.
+     * @param driverAcceptsCall If the driver of the nearest taxi accepts the call.
+     * @return The lines displayed for this call.
+    */
+    @Override
+    public String dispatch(String client, String company, boolean driverAcceptsCall){
+        CallText text = new CallText(client, company);
+
+        // Step 1 - Find the nearest Taxis and Shops, or display that the client cannot be helped.
+        int c = graph.index(client);
+        VertexRoles.Company shopCompany = VertexRoles.Company.of(company);
+        if (c < 0 || graph.shopCount(shopCompany) == 0){
+            return text.cannotBeHelped();
+        }
+        MappedSearch[] search = searches.get();
+        int[] nearestTaxi = nearest(search[1], c, shopCompany, true);
+        double pickUpCost = search[1].dist(nearestTaxi[0]);
+        MappedSearch fromClient = search[0];
+        int[] nearestShop = nearest(fromClient, c, shopCompany, false);
+        double dropOffCost = fromClient.dist(nearestShop[0]);
+        if (pickUpCost == Graph.INFINITY || dropOffCost == Graph.INFINITY){
+            return text.cannotBeHelped();
+        }
+
+        // Step 2 - Display the route of each nearest Taxi, searching from the Taxi only as far as the Client. Multiple
+        // solutions are found by searching as far as the Taxi from the Client, or from the last Taxi whose route was
+        // displayed, as TaxiSimulator finds them.
+        int last = c;
+        for (int taxi : nearestTaxi){
+            text.taxi(graph.name(taxi));
+            MappedSearch fromLast = search[1].search(last, taxi);
+            boolean multiple = fromLast.hasDuplicatePaths(taxi);
+            if (!driverAcceptsCall){
+                return text.declined(multiple);
+            }
+            if (multiple){
+                text.multipleSolutions(fromLast.dist(taxi));
+            } else {
+                text.path(path(search[1].search(taxi, c), c), graph::name);
+                last = taxi;
+            }
+        }
+
+        // Step 3 - Display the route to each nearest Shop from the search that found them.
+        for (int shop : nearestShop){
+            text.shop(graph.name(shop));
+            if (fromClient.hasDuplicatePaths(shop)){
+                text.multipleSolutions(fromClient.dist(shop));
+            } else {
+                text.path(path(fromClient, shop), graph::name);
+            }
+        }
+
+        // Step 4 - Add up the fare of every pair of nearest Taxi and Shop, in the order TaxiSimulator adds them.
+        double fare = 0;
+        for (int i = 0; i < nearestTaxi.length; i++){
+            for (int j = 0; j < nearestShop.length; j++){
+                fare += TaxiSimulator.fare(pickUpCost, dropOffCost, shopCompany);
+            }
+        }
+        return text.amountDue(fare);
+    }
+
+    /**
+     * Find the Shops of a company nearest to a Client, settling vertices until the next one is further than the
+     * nearest Shop, then picking them as VertexRoles.nearest picks them for TaxiSimulator. Every vertex at the cost of
+     * the Shops is settled, so their duplicate paths are exact, and any Shop not settled costs more.
+     * @param search The search to run, which holds the result afterwards.
+     * @param client The index of the Client.
+     * @param company The company of the Shops.
+     * @param taxis True to search over the reversed roads, for the cost from each Shop (Taxi) to the Client.
+     * @return The nearest Shops in the order of the Shops of the company, which is every Shop if none can be reached.
+    */
+    private int[] nearest(MappedSearch search, int client, VertexRoles.Company company, boolean taxis){
+        search.begin(client, taxis);
+        double best = Graph.INFINITY;
+        int v;
+        while (search.nextKey() <= best && (v = search.settleNext()) >= 0){
+            if (graph.company(v) == company){
+                best = search.dist(v);
+            }
+        }
+        return VertexRoles.nearest(graph.shopCount(company), i -> graph.shop(company, i),
+                                   i -> search.dist(graph.shop(company, i)), true);
+    }
+
+    /**
+     * Obtain the vertices on the shortest path found to the given vertex, from the start of the search.
+    */
+    private static int[] path(MappedSearch result, int destination){
+        int count = 0;
+        for (int v = destination; v != -1; v = result.prev(v)){
+            count++;
+        }
+        int[] path = new int[count];
+        for (int v = destination; v != -1; v = result.prev(v)){
+            path[--count] = v;
+        }
+        return path;
+    }
+
+    /**
+     * Run the Simulation over a mapped graph file.
+     * The calls are dispatched in parallel on all available processors and displayed in their original order.
+     * @param args Optionally, the path of the mapped graph file, which is Input.txt by default, and the path of a
+     *             file that receives the output instead of standard output.
+    */
+    public static void main(String[] args){
+        String path = args.length > 0 ? args[0] : TaxiSimulator.DEFAULT_INPUT;
+        try (MappedGraph graph = MappedGraph.open(path)){
+            MappedSimulator simulator = new MappedSimulator(graph);
+            PrintWriter output = new PrintWriter(new BufferedWriter(args.length > 1 ? new FileWriter(args[1]) : new OutputStreamWriter(System.out)));
+            BatchDispatcher dispatcher = new BatchDispatcher(simulator, Runtime.getRuntime().availableProcessors());
+            try {
+                dispatcher.dispatch(graph.getCalls(), output);
+            } finally {
+                dispatcher.shutdown();
+                if (args.length > 1){
+                    output.close();
+                } else {
+                    output.flush();
+                }
+            }
+        } catch (IOException e){
+            System.err.println("Could not read mapped graph " + path + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
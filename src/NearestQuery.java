@@ -0,0 +1,134 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * The Shops of one company in order of cost from a Client, found one at a time by a single search.
+ * For taxis the search runs from the Client over the reversed roads, so each cost is the trip from a Shop (Taxi)
+ * to the Client, and for Shops it runs over the roads, so each cost is the trip from the Client to the Shop.
+ *
+ * The search settles nodes only until the next Shop is found, and stops for good once the next node would cost
+ * more than the maximum cost, so asking for the nearest few Shops settles only the nodes closer than them.
+ * Asking again carries on from where the search stopped, which gives the next-best Taxi when a driver declines
+ * without searching again. Shops can be skipped before they are reached, such as Taxis known to have declined.
+ * Shops at the same cost are given in the order the search settles them.
+ *
+ * A query holds a SearchContext of the graph until it is closed, and is used by one thread at a time.
+ */
+public class NearestQuery implements AutoCloseable
+{
+    private final CompactGraph graph;
+    private final SearchContext context;
+    private final VertexRoles roles;
+    private final VertexRoles.Company company;
+    private final double maxCost;
+    /** The Shops that are not to be given.*/
+    private final BitSet skipped = new BitSet();
+    /** The last Shop given, or -1.*/
+    private int last = -1;
+    /** True once the search has run out of nodes or passed the maximum cost.*/
+    private boolean done;
+    /** False if the company has no Shops, so no search was started.*/
+    private final boolean searched;
+
+    /**
+     * Start a query for the Shops of a company nearest to a Client.
+     * @param graph The graph to search.
+     * @param roles The roles of the nodes of the graph.
+     * @param company The company of the Shops, or null for an unknown company, which has no Shops.
+     * @param client The index of the Client.
+     * @param taxis True to order the Shops by the cost from them to the Client, false by the cost from the Client to them.
+     * @param maxCost The largest cost of a Shop that is given, or Double.POSITIVE_INFINITY for no limit.
+    */
+    NearestQuery(CompactGraph graph, VertexRoles roles, VertexRoles.Company company, int client, boolean taxis, double maxCost){
+        this.graph = graph;
+        this.context = graph.acquireContext();
+        this.roles = roles;
+        this.company = company;
+        this.maxCost = maxCost;
+        this.searched = company != null && roles.shopCount(company) > 0;
+        this.done = !searched;
+        if (searched){
+            context.begin(taxis ? graph.reverse() : graph, client);
+        }
+    }
+
+    /**
+     * Leave the given Shop out of the Shops still to be given.
+     * @param shop The index of the Shop.
+    */
+    public void skip(int shop){
+        skipped.set(shop);
+    }
+
+    /**
+     * Find the next nearest Shop, carrying on the search until it is settled.
+     * @return The index of the Shop, or -1 if no more Shops can be reached within the maximum cost.
+    */
+    public int next(){
+        while (!done){
+            int v = context.nextKey() > maxCost ? -1 : context.settleNext();
+            if (v < 0){
+                done = true;
+                context.finish();
+                break;
+            }
+            if (roles.company(v) == company && !skipped.get(v)){
+                last = v;
+                return v;
+            }
+        }
+        last = -1;
+        return -1;
+    }
+
+    /**
+     * Find up to the given number of the next nearest Shops.
+     * @param k The largest number of Shops to find.
+     * @return The Shops found, in order of cost.
+    */
+    public ArrayList<Vertex> next(int k){
+        ArrayList<Vertex> nearest = new ArrayList<>();
+        int shop;
+        while (nearest.size() < k && (shop = next()) >= 0){
+            nearest.add(graph.vertex(shop));
+        }
+        return nearest;
+    }
+
+    /**
+     * Obtain the cost of the last Shop given by next.
+     * @return The cost of the trip, or Double.POSITIVE_INFINITY if no Shop was given.
+    */
+    public double cost(){
+        return last < 0 ? Double.POSITIVE_INFINITY : context.dist(last);
+    }
+
+    /**
+     * Obtain the paths found so far, which hold the route of every Shop given.
+     * For taxis the previous vertex of each node is the next one on its way to the Client.
+     * @return The state of the search, readable until the query is closed.
+    */
+    public ShortestPaths paths(){
+        return context;
+    }
+
+    /**
+     * Obtain the number of nodes settled by the search so far.
+     * @return The number of settled nodes.
+    */
+    public int settledCount(){
+        return searched ? context.settledCount() : 0;
+    }
+
+    /**
+     * Return the search to the pool of the graph. The query must not be used after closing.
+    */
+    @Override
+    public void close(){
+        if (!done){
+            done = true;
+            context.finish();
+        }
+        context.close();
+    }
+}
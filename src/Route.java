@@ -0,0 +1,135 @@
+import java.util.Arrays;
+
+/**
+ * A reusable buffer holding one route as the indices of its vertices, from the start to the destination.
+ * Routes are built by walking the previous vertex links from the destination in a loop, so long routes cannot
+ * overflow the stack, and refilling a buffer allocates nothing once it has grown to the longest route.
+ * A route is used by one thread at a time.
+ */
+public class Route
+{
+    /** The indices of the vertices on the route, in order.*/
+    private int[] vertices = new int[16];
+    /** The number of vertices on the route.*/
+    private int length;
+    /** The graph the indices refer to.*/
+    private CompactGraph graph;
+
+    /**
+     * Fill this buffer with the shortest path found by a search to the given vertex.
+     * @param result The result of a search from the start vertex.
+     * @param destination The index of the destination, which must have been reached.
+     * @return This route.
+    */
+    public Route fill(ShortestPaths result, int destination){
+        int count = 0;
+        for (int v = destination; v != -1; v = result.prev(v)){
+            count++;
+        }
+        reserve(count);
+        int i = count;
+        for (int v = destination; v != -1; v = result.prev(v)){
+            vertices[--i] = v;
+        }
+        this.length = count;
+        this.graph = result.graph();
+        return this;
+    }
+
+    /**
+     * Fill this buffer with the shortest path found by a search towards a target from the given vertex to the target.
+     * The previous vertex links of such a search already point towards the target, so they are followed in order.
+     * @param result The result of a search over the reversed edges towards the target.
+     * @param start The index of the start of the route, which must have been reached.
+     * @return This route.
+    */
+    public Route fillTowards(ShortestPaths result, int start){
+        int count = 0;
+        for (int v = start; v != -1; v = result.prev(v)){
+            count++;
+        }
+        reserve(count);
+        int i = 0;
+        for (int v = start; v != -1; v = result.prev(v)){
+            vertices[i++] = v;
+        }
+        this.length = count;
+        this.graph = result.graph();
+        return this;
+    }
+
+    /**
+     * Fill this buffer with the path left in the vertices by Graph.dijkstra to the given vertex.
+     * @param destination The destination, which must have been reached.
+     * @param graph The graph whose vertices were searched.
+     * @return This route.
+    */
+    public Route fill(Vertex destination, CompactGraph graph){
+        int count = 0;
+        for (Vertex v = destination; v != null; v = v.prev){
+            count++;
+        }
+        reserve(count);
+        int i = count;
+        for (Vertex v = destination; v != null; v = v.prev){
+            vertices[--i] = v.index;
+        }
+        this.length = count;
+        this.graph = graph;
+        return this;
+    }
+
+    /**
+     * Fill this buffer with the given vertices.
+     * @param path The indices of the vertices on the route, in order.
+     * @param graph The graph the indices refer to.
+     * @return This route.
+    */
+    public Route fill(int[] path, CompactGraph graph){
+        reserve(path.length);
+        System.arraycopy(path, 0, vertices, 0, path.length);
+        this.length = path.length;
+        this.graph = graph;
+        return this;
+    }
+
+    /**
+     * Obtain the number of vertices on the route.
+     * @return The number of vertices, counting the start and the destination.
+    */
+    public int length(){
+        return length;
+    }
+
+    /**
+     * Obtain one vertex of the route.
+     * @param i The position of the vertex, from 0 for the start to length() - 1 for the destination.
+     * @return The index of the vertex.
+    */
+    public int vertex(int i){
+        return vertices[i];
+    }
+
+    /**
+     * Append the names of the vertices on the route, with the given separator between them.
+     * @param out The text being built.
+     * @param separator The text placed between two names.
+    */
+    public void appendTo(StringBuilder out, String separator){
+        for (int i = 0; i < length; i++){
+            if (i > 0){
+                out.append(separator);
+            }
+            out.append(graph.name(vertices[i]));
+        }
+    }
+
+    /**
+     * Make room for the given number of vertices.
+    */
+    private void reserve(int count){
+        if (count > vertices.length){
+            vertices = Arrays.copyOf(vertices, Math.max(count, vertices.length * 2));
+        }
+    }
+}
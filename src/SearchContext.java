@@ -0,0 +1,402 @@
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * The state and result of one shortest path search over a CompactGraph.
+ * Each query works in its own SearchContext, so any number of searches can run at the same time on one graph
+ * without touching the shared Vertex objects.
+ *
+ * The arrays of a context are reused from one search to the next. Instead of clearing them before every search,
+ * each entry is stamped with the generation of the search that wrote it, and entries with an older stamp read as unreached.
+ *
+ * The vertices waiting to be processed are kept in an IndexedHeap, which holds each vertex once and lowers its key
+ * in place when a shorter path is found. The PriorityQueue of Path objects used before, which holds a new entry for
+ * every relaxed edge and skips the stale ones, can still be selected with setIndexedHeap(false) for comparison.
+ *
+ * Contexts are obtained from CompactGraph.acquireContext() and must be closed once the result has been read,
+ * which returns them to the pool of the graph.
+ */
+public class SearchContext implements ShortestPaths
+{
+    /** The graph whose pool this context belongs to.*/
+    private final CompactGraph owner;
+    /** The graph searched by the current search - either the owner or its reverse.*/
+    private CompactGraph graph;
+    /** Array which stores the cost of the shortest path found to each vertex.*/
+    private final double[] dist;
+    /** Array which stores the previous vertex on the shortest path to each vertex, or -1.*/
+    private final int[] prev;
+    /** Array which stores the number of edges found that reach each vertex at its shortest distance.*/
+    private final int[] tightEdges;
+    /** Array which stores the generation in which each vertex was last reached.*/
+    private final int[] reached;
+    /** Array which stores the generation in which each vertex was last processed.*/
+    private final int[] settled;
+    /** Indexed heap of the vertices still to be processed, created on first use and reused between searches.*/
+    private IndexedHeap heap;
+    /** Priority queue of the vertices still to be processed, used instead of the heap when it is switched off.*/
+    private PriorityQueue<Path> pq;
+    /** True to process the vertices in order through the IndexedHeap, false to use a PriorityQueue of Paths.*/
+    private boolean indexedHeap = true;
+    /** The generation of the current search.*/
+    private int generation;
+    /** The index of the start vertex of the current search.*/
+    private int source = -1;
+    /** The number of vertices settled by the current search.*/
+    private int settledCount;
+    /** The number of edges scanned from the settled vertices by the current search.*/
+    private long scannedCount;
+    /** The number of vertices added to the queue or moved up in it by the current search.*/
+    private int pushCount;
+    /** The number of entries removed from the queue by the current search.*/
+    private int popCount;
+    /** The time the current search began, or 0 if it is not timed because metrics are switched off.*/
+    private long beginNanos;
+    /** The landmarks giving the A* lower bounds of the current search, or null for Dijkstra's algorithm.*/
+    private Landmarks landmarks;
+    /** The target of the current A* search.*/
+    private int landmarkTarget;
+    /** Array which stores the lower bound worked out for each vertex by the current A* search, created on first use.*/
+    private double[] bounds;
+    /** Array which stores the generation in which the bound of each vertex was worked out.*/
+    private int[] boundStamps;
+
+    /**
+     * Create a new context for searches over the given graph.
+     * @param owner The graph to be searched.
+    */
+    SearchContext(CompactGraph owner){
+        int numVertices = owner.size();
+        this.owner = owner;
+        this.graph = owner;
+        this.dist = new double[numVertices];
+        this.prev = new int[numVertices];
+        this.tightEdges = new int[numVertices];
+        this.reached = new int[numVertices];
+        this.settled = new int[numVertices];
+    }
+
+    /**
+     * Run Dijkstra's algorithm from the given vertex over the edges of the graph.
+     * @param start The index of the starting vertex.
+     * @return This context, holding the result.
+    */
+    public SearchContext search(int start){
+        return search(owner, start);
+    }
+
+    /**
+     * Run Dijkstra's algorithm from the given vertex over the reversed edges of the graph.
+     * The result holds the cost of the shortest path from every vertex to the target, and prev(v) is the next vertex on that path.
+     * @param target The index of the target vertex.
+     * @return This context, holding the result.
+    */
+    public SearchContext searchTo(int target){
+        return search(owner.reverse(), target);
+    }
+
+    /**
+     * Run Dijkstra's algorithm from the given vertex over the edges of the graph, stopping once the target is settled.
+     * The search carries on past the target only through vertices at the same distance, so that every edge reaching
+     * the target at its shortest distance is counted and hasDuplicatePaths is exact for the target.
+     * Only the target and the vertices on its path hold final results, and settledCount() tells how far the search went.
+     * @param start The index of the starting vertex.
+     * @param target The index of the target vertex.
+     * @return This context, holding the result.
+    */
+    public SearchContext search(int start, int target){
+        return search(start, target, null);
+    }
+
+    /**
+     * Run A* search from the given vertex towards the target, ordering the vertices by their distance plus the
+     * landmark lower bound of their remaining distance to the target, and stopping once the target is settled.
+     * The bound is consistent, so the cost and hasDuplicatePaths of the target are the same as for Dijkstra's algorithm.
+     * @param start The index of the starting vertex.
+     * @param target The index of the target vertex.
+     * @param landmarks The landmark tables of the graph, or null for plain Dijkstra's algorithm.
+     * @return This context, holding the result.
+    */
+    public SearchContext search(int start, int target, Landmarks landmarks){
+        if (landmarks != null && landmarks.graph() != owner){
+            throw new IllegalArgumentException("Landmarks were built for another graph");
+        }
+        begin(owner, start);
+        this.landmarks = landmarks;
+        this.landmarkTarget = target;
+        while (nextKey() <= dist(target) && settleNext() >= 0){
+            // Settle vertices until the next one is further away than the target.
+        }
+        finish();
+        return this;
+    }
+
+    /**
+     * Run Dijkstra's algorithm from the given vertex over the given graph.
+     * @param searched The graph to search.
+     * @param start The index of the starting vertex.
+     * @return This context, holding the result.
+    */
+    private SearchContext search(CompactGraph searched, int start){
+        begin(searched, start);
+        int numVertices = searched.size();
+        // Process the vertices until the queue is empty or all vertices have been vistited.
+        while (settledCount < numVertices && settleNext() >= 0){
+            // Each call settles one vertex.
+        }
+        finish();
+        return this;
+    }
+
+    /**
+     * Start a new search from the given vertex over the given graph, with only the start vertex in the queue.
+     * The search is then carried out one vertex at a time by settleNext.
+     * @param searched The graph to search, which must be the owner of this context or its reverse.
+     * @param start The index of the starting vertex.
+    */
+    void begin(CompactGraph searched, int start){
+        nextGeneration();
+        this.graph = searched;
+        this.source = start;
+        this.settledCount = 0;
+        this.scannedCount = 0;
+        this.pushCount = 1;
+        this.popCount = 0;
+        this.beginNanos = SimulatorMetrics.isEnabled() ? System.nanoTime() : 0;
+        this.landmarks = null;
+        if (indexedHeap){
+            heap().clear();
+            heap.insertOrDecrease(start, 0);
+        } else {
+            pq().clear();
+            pq.add(new Path(searched.vertex(start), 0));
+        }
+        reach(start, 0, -1);
+    }
+
+    /**
+     * Record the counters and wall time of the current search in SimulatorMetrics, if it was timed.
+     * Searches carried out one vertex at a time with begin and settleNext are finished by their caller.
+    */
+    void finish(){
+        if (beginNanos != 0){
+            SimulatorMetrics.recordSearch(settledCount, scannedCount, pushCount, popCount, System.nanoTime() - beginNanos);
+            beginNanos = 0;
+        }
+    }
+
+    /**
+     * Obtain the distance of the next vertex to be settled, plus its lower bound during an A* search.
+     * @return The smallest key in the queue, or Graph.INFINITY if the queue is empty.
+    */
+    double nextKey(){
+        if (indexedHeap){
+            return heap.minKey();
+        }
+        // Drop the entries of vertices that have already been processed.
+        while (!pq.isEmpty() && settled[pq.peek().dest.index] == generation){
+            pq.remove();
+            popCount++;
+        }
+        return pq.isEmpty() ? Graph.INFINITY : pq.peek().cost;
+    }
+
+    /**
+     * Settle the closest vertex in the queue and relax its outgoing edges.
+     * @return The index of the settled vertex, or -1 if the queue is empty.
+    */
+    int settleNext(){
+        int v;
+        if (indexedHeap){
+            if (heap.isEmpty()){
+                return -1;
+            }
+            v = heap.removeMin();
+            popCount++;
+        } else {
+            // Skip the entries of vertices that have already been processed.
+            do {
+                if (pq.isEmpty()){
+                    return -1;
+                }
+                v = pq.remove().dest.index;
+                popCount++;
+            } while (settled[v] == generation);
+        }
+        settled[v] = generation;
+        settledCount++;
+        CompactGraph searched = graph;
+        double distV = dist[v];
+        scannedCount += searched.edgeEnd(v) - searched.firstEdge(v);
+        // Iterate over the adjacent edges of the current vertex.
+        for (int e = searched.firstEdge(v); e < searched.edgeEnd(v); e++){
+            int w = searched.target(e);
+            double cvw = searched.cost(e);
+            if (cvw < 0){
+                throw new GraphException("Graph has negative edges");
+            }
+            double distW = dist(w);
+            // Relax the edge if a shorter path is found, or count the edge if it reaches w at the same cost.
+            if (distW > distV + cvw){
+                reach(w, distV + cvw, v);
+                double key = landmarks == null ? distV + cvw : distV + cvw + bound(w);
+                pushCount++;
+                if (indexedHeap){
+                    heap.insertOrDecrease(w, key);
+                } else {
+                    pq.add(new Path(searched.vertex(w), key));
+                }
+            } else if (distW == distV + cvw){
+                tightEdges[w]++;
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Obtain the landmark lower bound from the given vertex to the target of the current A* search.
+     * The bound is worked out once per vertex and search, as a vertex may be reached several times.
+    */
+    private double bound(int v){
+        if (bounds == null){
+            bounds = new double[owner.size()];
+            boundStamps = new int[owner.size()];
+        }
+        if (boundStamps[v] != generation){
+            boundStamps[v] = generation;
+            bounds[v] = landmarks.lowerBound(v, landmarkTarget);
+        }
+        return bounds[v];
+    }
+
+    /**
+     * Determine if the given vertex has been settled by the current search, so that its distance is final.
+     * @param v The index of the vertex.
+     * @return True if the vertex has been settled.
+    */
+    boolean isSettled(int v){
+        return settled[v] == generation;
+    }
+
+    /**
+     * Obtain the number of vertices settled by the current search.
+     * @return The number of settled vertices.
+    */
+    public int settledCount(){
+        return settledCount;
+    }
+
+    /**
+     * Choose the queue used by the following searches of this context.
+     * Both queues give the same distances. When a vertex has several shortest paths, the path recorded through prev
+     * may differ, as the queues process vertices at the same distance in a different order.
+     * @param indexedHeap True for the IndexedHeap, false for a PriorityQueue of Paths.
+    */
+    public void setIndexedHeap(boolean indexedHeap){
+        this.indexedHeap = indexedHeap;
+    }
+
+    /**
+     * Obtain the indexed heap, creating it on first use.
+    */
+    private IndexedHeap heap(){
+        if (heap == null){
+            heap = new IndexedHeap(owner.size());
+        }
+        return heap;
+    }
+
+    /**
+     * Obtain the priority queue, creating it on first use.
+    */
+    private PriorityQueue<Path> pq(){
+        if (pq == null){
+            pq = new PriorityQueue<Path>();
+        }
+        return pq;
+    }
+
+    /**
+     * Record a new shortest path to the given vertex.
+     * @param v The index of the vertex.
+     * @param cost The cost of the new path.
+     * @param from The previous vertex on the new path, or -1.
+    */
+    private void reach(int v, double cost, int from){
+        reached[v] = generation;
+        dist[v] = cost;
+        prev[v] = from;
+        tightEdges[v] = 1;
+    }
+
+    /**
+     * Move on to the next generation, clearing the stamps only when the generation counter wraps around.
+    */
+    private void nextGeneration(){
+        generation++;
+        if (generation == Integer.MAX_VALUE){
+            Arrays.fill(reached, 0);
+            Arrays.fill(settled, 0);
+            if (boundStamps != null){
+                Arrays.fill(boundStamps, 0);
+            }
+            generation = 1;
+        }
+    }
+
+    /**
+     * Obtain the cost of the shortest path found to the given vertex.
+     * @param v The index of the vertex.
+     * @return The cost of the path, or Graph.INFINITY if the vertex was not reached.
+    */
+    @Override
+    public double dist(int v){
+        return reached[v] == generation ? dist[v] : Graph.INFINITY;
+    }
+
+    /**
+     * Obtain the previous vertex on the shortest path found to the given vertex.
+     * @param v The index of the vertex.
+     * @return The index of the previous vertex, or -1 for the start vertex and unreached vertices.
+    */
+    @Override
+    public int prev(int v){
+        return reached[v] == generation ? prev[v] : -1;
+    }
+
+    /**
+     * Determine if more than one shortest path was found to the given vertex.
+     * @param v The index of the vertex.
+     * @return True if the vertex is reached at its shortest distance by more than one edge.
+    */
+    @Override
+    public boolean hasDuplicatePaths(int v){
+        return reached[v] == generation && tightEdges[v] > 1;
+    }
+
+    /**
+     * Obtain the start vertex of the current search.
+     * @return The index of the start vertex, or -1 if no search has run.
+    */
+    @Override
+    public int source(){
+        return source;
+    }
+
+    /**
+     * Obtain the graph that the current search ran over.
+     * @return The searched graph, which is the reverse graph after searchTo.
+    */
+    @Override
+    public CompactGraph graph(){
+        return graph;
+    }
+
+    /**
+     * Return this context to the pool of its graph. The result must not be read after closing.
+    */
+    @Override
+    public void close(){
+        owner.releaseContext(this);
+    }
+}
@@ -0,0 +1,591 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers getCost, findNearestTaxi and findNearestShop over a partitioned graph whose parts are served by
+ * ShardWorker processes on the same machine, standing in for the nodes of a cluster.
+ *
+ * The coordinator holds only the GraphPartition and the overlay of the boundary vertices: the roads crossing
+ * between parts, and the costs between the boundary vertices of each part within the part, which each worker
+ * works out once when the coordinator starts. A query from a vertex then takes three steps:
+ *   1. The shard of the vertex searches from it within its part, giving the cost to each of its boundary vertices.
+ *   2. The coordinator searches the overlay from those boundary vertices, giving the cost to every boundary vertex.
+ *   3. Each shard holding a target searches within its part from its boundary vertices at those costs, and from
+ *      the vertex itself if it is in that part, giving the cost of each target.
+ * Every path between parts passes through boundary vertices, and the overlay holds the shortest paths between them,
+ * so the costs are those of a search over the whole graph. Queries to the vertex, such as the cost of the Taxis to
+ * a Client, run the same steps over the reversed roads. The shards of step 3 are asked at the same time.
+ *
+ * Any number of threads may query at once; the requests to each shard are sent one at a time.
+ */
+public class ShardCoordinator implements AutoCloseable
+{
+    private static final int[] NO_TARGETS = new int[0];
+
+    private final GraphPartition partition;
+    /** The index of each vertex by its name.*/
+    private final HashMap<String,Integer> indices = new HashMap<>();
+    /** The connection to the worker of each part.*/
+    private final Link[] links;
+    /** The roads crossing between parts and the costs between the boundary vertices of each part.*/
+    private final GraphPartition.Subgraph overlay;
+    /** The threads asking the shards of step 3 at the same time.*/
+    private final ExecutorService fanOut;
+    /** The time taken to answer each query.*/
+    private final LatencyHistogram queries = new LatencyHistogram();
+
+    private ShardCoordinator(GraphPartition partition, Link[] links) throws IOException {
+        this.partition = partition;
+        this.links = links;
+        this.fanOut = Executors.newFixedThreadPool(links.length, runnable -> {
+            Thread thread = new Thread(runnable, "shard-fan-out");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int v = 0; v < partition.size(); v++){
+            indices.put(partition.name(v), v);
+        }
+        try {
+            this.overlay = buildOverlay();
+        } catch (IOException | RuntimeException e){
+            // The caller closes the links, but only this constructor knows of the threads.
+            fanOut.shutdownNow();
+            throw e;
+        }
+    }
+
+    /**
+     * Write a shard file for every part of a partitioned graph, start a ShardWorker process for each one, and
+     * build the overlay from the costs the workers give between their boundary vertices.
+     * @param graph The graph that was split.
+     * @param partition The partition of the graph.
+     * @param directory The directory the shard files are written to.
+     * @param workerOptions Options given to the Java virtual machine of each worker, such as a heap limit.
+     * @throws IOException If a shard file cannot be written or a worker cannot be started.
+     * @return The coordinator, which must be closed to stop the workers.
+    */
+    public static ShardCoordinator start(CompactGraph graph, GraphPartition partition, File directory, String... workerOptions) throws IOException {
+        Link[] links = new Link[partition.parts()];
+        try {
+            for (int p = 0; p < links.length; p++){
+                String path = new File(directory, "part-" + p + ".shard").getPath();
+                partition.writeShard(graph, p, path);
+                links[p] = Link.launch(p, path, workerOptions);
+            }
+            return new ShardCoordinator(partition, links);
+        } catch (IOException | RuntimeException e){
+            for (Link link : links){
+                if (link != null){
+                    link.close();
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Ask every worker for the costs between its boundary vertices, and lay them out with the crossing roads.
+    */
+    private GraphPartition.Subgraph buildOverlay() throws IOException {
+        int[] vertices = new int[partition.boundarySize()];
+        int count = 0;
+        for (int p = 0; p < partition.parts(); p++){
+            int[] boundary = partition.boundary(p);
+            System.arraycopy(boundary, 0, vertices, count, boundary.length);
+            count += boundary.length;
+        }
+        Arrays.sort(vertices);
+        ArrayList<Future<double[]>> matrices = new ArrayList<>();
+        for (Link link : links){
+            matrices.add(fanOut.submit(link::overlay));
+        }
+        ArrayList<int[]> edges = new ArrayList<>();
+        ArrayList<Double> costs = new ArrayList<>();
+        for (int p = 0; p < partition.parts(); p++){
+            int[] boundary = partition.boundary(p);
+            double[] matrix = get(matrices.get(p));
+            for (int i = 0; i < boundary.length; i++){
+                for (int j = 0; j < boundary.length; j++){
+                    double cost = matrix[i * boundary.length + j];
+                    if (i != j && cost != Graph.INFINITY){
+                        edges.add(new int[]{Arrays.binarySearch(vertices, boundary[i]), Arrays.binarySearch(vertices, boundary[j])});
+                        costs.add(cost);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < partition.cutSize(); i++){
+            edges.add(new int[]{Arrays.binarySearch(vertices, partition.cutSource(i)), Arrays.binarySearch(vertices, partition.cutTarget(i))});
+            costs.add(partition.cutCost(i));
+        }
+        int[] sources = new int[edges.size()];
+        int[] dests = new int[edges.size()];
+        double[] edgeCosts = new double[edges.size()];
+        for (int e = 0; e < edges.size(); e++){
+            sources[e] = edges.get(e)[0];
+            dests[e] = edges.get(e)[1];
+            edgeCosts[e] = costs.get(e);
+        }
+        return GraphPartition.Subgraph.of(vertices, sources, dests, edgeCosts, edges.size());
+    }
+
+    /**
+     * Obtain the cost of the shortest path trip between the given start and end nodes.
+     * @param startName The name associated with the start node.
+     * @param destinationName The name associated with the destination node.
+     * @throws NoSuchElementException If either the start or destination vertex is not found.
+     * @throws UncheckedIOException If a shard cannot be reached.
+     * @return The cost of the shortest path, or Double.POSITIVE_INFINITY if the destination cannot be reached.
+    */
+    public double getCost(String startName, String destinationName) throws NoSuchElementException {
+        int start = index(startName, "Start or destination vertex not found.");
+        int destination = index(destinationName, "Start or destination vertex not found.");
+        long begin = System.nanoTime();
+        double cost = costs(start, false, new int[]{destination})[0];
+        queries.record(System.nanoTime() - begin);
+        return cost == Graph.INFINITY ? Double.POSITIVE_INFINITY : cost;
+    }
+
+    /**
+     * Find the nearest Taxis of the given company to the given Client, the same Taxis in the same order as
+     * TaxiSimulator.findNearestTaxi gives them.
+     * @param client The name assosiated with the client.
+     * @param company The name of the shop company.
+     * @throws NoSuchElementException If the client is not found.
+     * @throws UncheckedIOException If a shard cannot be reached.
+     * @return The names of the Taxis at the lowest cost to the Client, which is every Taxi when none can reach it.
+    */
+    public ArrayList<String> findNearestTaxi(String client, String company) throws NoSuchElementException {
+        return findNearest(client, company, true);
+    }
+
+    /**
+     * Find the nearest Shops of the given company from the given Client, the same Shops in the same order as
+     * TaxiSimulator.findNearestShop gives them.
+     * @param client The name assosiated with the client.
+     * @param company The name of the shop company.
+     * @throws NoSuchElementException If the client is not found.
+     * @throws UncheckedIOException If a shard cannot be reached.
+     * @return The names of the Shops at the lowest cost from the Client, which is every Shop when none can be reached.
+    */
+    public ArrayList<String> findNearestShop(String client, String company) throws NoSuchElementException {
+        return findNearest(client, company, false);
+    }
+
+    /**
+     * Find the Shops of a company at the lowest cost to or from a Client, keeping the ties in order.
+    */
+    private ArrayList<String> findNearest(String client, String company, boolean taxis){
+        int node = index(client, taxis ? "Target vertex not found" : "Start vertex not found");
+        ArrayList<String> nearest = new ArrayList<>();
+        int[] shops = partition.shops(VertexRoles.Company.of(company));
+        if (shops.length == 0){
+            return nearest;
+        }
+        long begin = System.nanoTime();
+        double[] costs = costs(node, taxis, shops);
+        double minimumCost = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < shops.length; i++){
+            double cost = costs[i] == Graph.INFINITY ? Double.POSITIVE_INFINITY : costs[i];
+            if (cost < minimumCost){
+                minimumCost = cost;
+                nearest.clear();
+                nearest.add(partition.name(shops[i]));
+            } else if (cost == minimumCost){
+                nearest.add(partition.name(shops[i]));
+            }
+        }
+        queries.record(System.nanoTime() - begin);
+        return nearest;
+    }
+
+    /**
+     * Obtain the costs from a vertex to the given targets, or from the targets to the vertex, over the shards.
+     * @param source The index of the vertex.
+     * @param reverse True for the costs from the targets to the vertex.
+     * @param targets The indices of the targets.
+     * @return The cost of each target, or Graph.INFINITY for targets not reached.
+    */
+    private double[] costs(int source, boolean reverse, int[] targets){
+        int p = partition.part(source);
+        int[] sourceBoundary = partition.boundary(p);
+        // Step 1 - Search from the vertex within its part to its boundary vertices, which the answer lists after no targets.
+        int[] seeds = new int[overlay.size()];
+        double[] seedCosts = new double[overlay.size()];
+        int numSeeds = 0;
+        if (sourceBoundary.length > 0){
+            double[] fromSource = links[p].search(reverse, new int[]{source}, new double[]{0}, 1, NO_TARGETS);
+            for (int i = 0; i < sourceBoundary.length; i++){
+                if (fromSource[i] != Graph.INFINITY){
+                    seeds[numSeeds] = overlay.local(sourceBoundary[i]);
+                    seedCosts[numSeeds++] = fromSource[i];
+                }
+            }
+        }
+        // Step 2 - Carry the search on over the overlay to the boundary vertices of every part.
+        double[] boundaryCosts = overlay.search(seeds, seedCosts, numSeeds, reverse);
+        // Step 3 - Ask the shards holding targets at the same time, each seeded at its boundary vertices.
+        ArrayList<ArrayList<Integer>> byPart = new ArrayList<>();
+        for (int q = 0; q < partition.parts(); q++){
+            byPart.add(new ArrayList<>());
+        }
+        for (int i = 0; i < targets.length; i++){
+            byPart.get(partition.part(targets[i])).add(i);
+        }
+        double[] costs = new double[targets.length];
+        Arrays.fill(costs, Graph.INFINITY);
+        ArrayList<Future<double[]>> answers = new ArrayList<>();
+        ArrayList<ArrayList<Integer>> asked = new ArrayList<>();
+        for (int q = 0; q < partition.parts(); q++){
+            ArrayList<Integer> positions = byPart.get(q);
+            if (positions.isEmpty()){
+                continue;
+            }
+            int[] boundary = partition.boundary(q);
+            int[] partSeeds = new int[boundary.length + 1];
+            double[] partCosts = new double[boundary.length + 1];
+            int numPartSeeds = 0;
+            if (q == p){
+                partSeeds[numPartSeeds] = source;
+                partCosts[numPartSeeds++] = 0;
+            }
+            for (int b : boundary){
+                double cost = boundaryCosts[overlay.local(b)];
+                if (cost != Graph.INFINITY){
+                    partSeeds[numPartSeeds] = b;
+                    partCosts[numPartSeeds++] = cost;
+                }
+            }
+            if (numPartSeeds == 0){
+                continue;  // Nothing in this part can be reached.
+            }
+            int[] partTargets = new int[positions.size()];
+            for (int i = 0; i < partTargets.length; i++){
+                partTargets[i] = targets[positions.get(i)];
+            }
+            Link link = links[q];
+            int count = numPartSeeds;
+            answers.add(fanOut.submit(() -> link.search(reverse, partSeeds, partCosts, count, partTargets)));
+            asked.add(positions);
+        }
+        for (int i = 0; i < answers.size(); i++){
+            double[] answer = get(answers.get(i));
+            ArrayList<Integer> positions = asked.get(i);
+            for (int j = 0; j < positions.size(); j++){
+                costs[positions.get(j)] = answer[j];
+            }
+        }
+        return costs;
+    }
+
+    /**
+     * Obtain the index of a named vertex.
+    */
+    private int index(String name, String missing){
+        Integer v = indices.get(name);
+        if (v == null){
+            throw new NoSuchElementException(missing);
+        }
+        return v;
+    }
+
+    /**
+     * Wait for the answer of a shard, passing on its failure.
+    */
+    private static double[] get(Future<double[]> answer){
+        try {
+            return answer.get();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a shard", e);
+        } catch (ExecutionException e){
+            if (e.getCause() instanceof UncheckedIOException){
+                throw (UncheckedIOException) e.getCause();
+            } else if (e.getCause() instanceof IOException){
+                throw new UncheckedIOException((IOException) e.getCause());
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Obtain the partition the shards serve.
+     * @return The partition.
+    */
+    public GraphPartition getPartition(){
+        return partition;
+    }
+
+    /**
+     * Obtain the time taken to answer each query.
+     * @return The latency histogram.
+    */
+    public LatencyHistogram latency(){
+        return queries;
+    }
+
+    /**
+     * Obtain a text summary of the shards and the overlay, one line per shard, with the memory each worker holds
+     * and the time it takes to answer, both as served by the worker and as seen by the coordinator.
+     * @throws UncheckedIOException If a shard cannot be reached.
+     * @return The summary.
+    */
+    public String stats(){
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%-6s %10s %10s %9s %13s %13s %10s %22s %22s\n", "shard", "vertices", "roads", "boundary",
+                                 "shard bytes", "heap bytes", "requests", "served p50/p99 us", "round trip p50/p99 us"));
+        for (Link link : links){
+            long[] stats = link.stats();
+            out.append(String.format("%-6d %,10d %,10d %,9d %,13d %,13d %,10d %10.1f / %9.1f %10.1f / %9.1f\n", link.part, stats[0], stats[1],
+                                     stats[2], stats[3], stats[4], stats[5], stats[6] / 1e3, stats[7] / 1e3,
+                                     link.roundTrip.quantileNanos(0.50) / 1e3, link.roundTrip.quantileNanos(0.99) / 1e3));
+        }
+        out.append(String.format("overlay %,d boundary vertices, %,d roads, %,d bytes\n", overlay.size(), overlay.edgeCount(), overlay.estimatedBytes()));
+        out.append(String.format("queries %,d, p50 %.1f us, p99 %.1f us\n", queries.count(), queries.quantileNanos(0.50) / 1e3,
+                                 queries.quantileNanos(0.99) / 1e3));
+        return out.toString();
+    }
+
+    /**
+     * Ask every worker to quit and wait for the processes to end.
+    */
+    @Override
+    public void close(){
+        fanOut.shutdownNow();
+        for (Link link : links){
+            link.close();
+        }
+    }
+
+    /**
+     * The connection to one ShardWorker process, which answers one request at a time.
+    */
+    private static final class Link
+    {
+        final int part;
+        private final Process process;
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        /** The number of boundary vertices of the part, known once the overlay has been asked for.*/
+        private int boundarySize;
+        /** The time from sending each request to reading its answer.*/
+        final LatencyHistogram roundTrip = new LatencyHistogram();
+
+        private Link(int part, Process process, Socket socket) throws IOException {
+            this.part = part;
+            this.process = process;
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        }
+
+        /**
+         * Start a worker process for a shard file and connect to the port it prints.
+        */
+        static Link launch(int part, String shardPath, String... options) throws IOException {
+            ArrayList<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            command.addAll(Arrays.asList(options));
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add("ShardWorker");
+            command.add(shardPath);
+            Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            String line = reader.readLine();
+            if (line == null || !line.startsWith("port ")){
+                process.destroyForcibly();
+                throw new IOException("Shard worker " + part + " did not start");
+            }
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(line.substring(5).trim()));
+            socket.setTcpNoDelay(true);
+            return new Link(part, process, socket);
+        }
+
+        /**
+         * Ask for the costs between the boundary vertices of the part, row by row.
+        */
+        synchronized double[] overlay() throws IOException {
+            long begin = System.nanoTime();
+            out.writeByte(ShardWorker.OVERLAY);
+            out.flush();
+            boundarySize = in.readInt();
+            double[] matrix = new double[boundarySize * boundarySize];
+            for (int i = 0; i < matrix.length; i++){
+                matrix[i] = in.readDouble();
+            }
+            roundTrip.record(System.nanoTime() - begin);
+            return matrix;
+        }
+
+        /**
+         * Ask for a seeded search within the part.
+         * @return The costs of the targets, followed by the costs of the boundary vertices of the part.
+        */
+        synchronized double[] search(boolean reverse, int[] seeds, double[] seedCosts, int numSeeds, int[] targets){
+            try {
+                long begin = System.nanoTime();
+                out.writeByte(ShardWorker.SEARCH);
+                out.writeBoolean(reverse);
+                out.writeInt(numSeeds);
+                for (int i = 0; i < numSeeds; i++){
+                    out.writeInt(seeds[i]);
+                    out.writeDouble(seedCosts[i]);
+                }
+                out.writeInt(targets.length);
+                for (int target : targets){
+                    out.writeInt(target);
+                }
+                out.flush();
+                double[] answer = new double[targets.length + boundarySize];
+                for (int i = 0; i < answer.length; i++){
+                    answer[i] = in.readDouble();
+                }
+                roundTrip.record(System.nanoTime() - begin);
+                return answer;
+            } catch (IOException e){
+                throw new UncheckedIOException("Shard " + part + " failed", e);
+            }
+        }
+
+        /**
+         * Ask for the size, memory and service times of the worker.
+        */
+        synchronized long[] stats(){
+            try {
+                out.writeByte(ShardWorker.STATS);
+                out.flush();
+                long[] stats = new long[9];
+                stats[0] = in.readInt();
+                stats[1] = in.readInt();
+                stats[2] = in.readInt();
+                for (int i = 3; i < stats.length; i++){
+                    stats[i] = in.readLong();
+                }
+                return stats;
+            } catch (IOException e){
+                throw new UncheckedIOException("Shard " + part + " failed", e);
+            }
+        }
+
+        /**
+         * Ask the worker to quit, and end its process if it does not.
+        */
+        synchronized void close(){
+            try {
+                out.writeByte(ShardWorker.QUIT);
+                out.flush();
+                socket.close();
+            } catch (IOException e){
+                // The worker has already gone.
+            }
+            try {
+                if (!process.waitFor(5, TimeUnit.SECONDS)){
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e){
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Split the graph of an input file, serve its parts from ShardWorker processes and answer the calls of the file,
+     * displaying the nearest Taxis and Shops of each call and their costs. The whole graph is read once to write the
+     * shards; every search after that runs in the workers and over the overlay. The statistics of the shards are
+     * printed to standard error at the end.
+     * @param args Optionally, the path of the input file, which may be a snapshot, and the number of shards.
+    */
+    public static void main(String[] args){
+        String inputPath = args.length > 0 ? args[0] : TaxiSimulator.DEFAULT_INPUT;
+        int shards = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        TaxiSimulator simulator;
+        try {
+            simulator = new TaxiSimulator(inputPath);
+        } catch (UncheckedIOException e){
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        CompactGraph graph = simulator.compact();
+        GraphPartition partition = GraphPartition.grow(graph, simulator.getRoles(), shards);
+        File directory = null;
+        try {
+            directory = Files.createTempDirectory("taxi-shards").toFile();
+            try (ShardCoordinator coordinator = start(graph, partition, directory)){
+                StringBuilder out = new StringBuilder();
+                String[] calls = simulator.getCalls() == null ? new String[0] : simulator.getCalls().trim().split("\\s+");
+                for (int i = 0; i + 1 < calls.length; i += 2){
+                    coordinator.answer(calls[i], calls[i + 1], out);
+                }
+                System.out.print(out);
+                System.out.flush();
+                System.err.print(coordinator.stats());
+            }
+        } catch (IOException e){
+            System.err.println("Cannot start the shards: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            if (directory != null){
+                File[] files = directory.listFiles();
+                if (files != null){
+                    for (File file : files){
+                        file.delete();
+                    }
+                }
+                directory.delete();
+            }
+        }
+    }
+
+    /**
+     * Append the nearest Taxis and Shops of one call, with the cost of each trip, or that the client cannot be helped.
+    */
+    private void answer(String client, String company, StringBuilder out){
+        out.append("client ").append(client).append('\n');
+        out.append("company ").append(company.toLowerCase()).append('\n');
+        ArrayList<String> taxis;
+        ArrayList<String> shops;
+        try {
+            taxis = findNearestTaxi(client, company);
+            shops = findNearestShop(client, company);
+        } catch (NoSuchElementException e){
+            out.append("cannot be helped\n");
+            return;
+        }
+        if (taxis.isEmpty() || shops.isEmpty() || getCost(taxis.get(0), client) == Double.POSITIVE_INFINITY
+                || getCost(client, shops.get(0)) == Double.POSITIVE_INFINITY){
+            out.append("cannot be helped\n");
+            return;
+        }
+        for (String taxi : taxis){
+            out.append(String.format("taxi %s cost %.0f\n", taxi, getCost(taxi, client)));
+        }
+        for (String shop : shops){
+            out.append(String.format("shop %s cost %.0f\n", shop, getCost(client, shop)));
+        }
+    }
+}
@@ -0,0 +1,187 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * A worker process serving the searches of one part of a partitioned graph to a ShardCoordinator.
+ *
+ * The worker reads the roads inside its part from a shard file written by GraphPartition.writeShard, listens on a
+ * free port of the loopback address and prints "port N" on standard output. It then answers the requests of one
+ * connection until it is asked to quit, the connection ends, or its standard input ends, which happens when the
+ * coordinator that started it has gone.
+ *
+ * Protocol, in the big-endian binary of DataOutputStream, with vertices given by their index in the whole graph:
+ *   OVERLAY                      The costs between every pair of boundary vertices of the part, within the part:
+ *                                int B, then double[B * B] row by row from each boundary vertex.
+ *   SEARCH reverse seeds targets A search within the part from the seeds, each starting at its own cost, given as
+ *                                boolean, int count, (int vertex, double cost) pairs, int count, int vertices.
+ *                                Answers double[targets], then double[B] for the boundary vertices.
+ *   STATS                        int vertices, int roads, int B, long subgraph bytes, long heap bytes,
+ *                                long requests, long p50, p99 and max service time in nanoseconds.
+ *   QUIT                         Close the connection and end the process.
+ * Costs of vertices that are not reached, or not in the part, are Graph.INFINITY.
+ */
+public class ShardWorker
+{
+    static final byte OVERLAY = 1;
+    static final byte SEARCH = 2;
+    static final byte STATS = 3;
+    static final byte QUIT = 4;
+
+    /** The roads inside the part.*/
+    private final GraphPartition.Subgraph shard;
+    /** The time taken to answer each request.*/
+    private final LatencyHistogram service = new LatencyHistogram();
+
+    /**
+     * Create a worker for the given part.
+     * @param shard The roads inside the part.
+    */
+    ShardWorker(GraphPartition.Subgraph shard){
+        this.shard = shard;
+    }
+
+    /**
+     * Answer the requests of one connection until it asks to quit or ends.
+     * @param in The stream the requests are read from.
+     * @param out The stream the answers are written to.
+     * @throws IOException If the connection fails.
+    */
+    void serve(DataInputStream in, DataOutputStream out) throws IOException {
+        while (true){
+            byte request;
+            try {
+                request = in.readByte();
+            } catch (EOFException e){
+                return;
+            }
+            long begin = System.nanoTime();
+            if (request == OVERLAY){
+                overlay(out);
+            } else if (request == SEARCH){
+                search(in, out);
+            } else if (request == STATS){
+                stats(out);
+            } else if (request == QUIT){
+                return;
+            } else {
+                throw new IOException("Unknown request " + request);
+            }
+            out.flush();
+            service.record(System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * Answer the costs between every pair of boundary vertices within the part, searching once from each.
+    */
+    private void overlay(DataOutputStream out) throws IOException {
+        int[] boundary = shard.boundary();
+        out.writeInt(boundary.length);
+        int[] seed = new int[1];
+        double[] zero = new double[1];
+        for (int b : boundary){
+            seed[0] = b;
+            double[] dist = shard.search(seed, zero, 1, false);
+            for (int to : boundary){
+                out.writeDouble(dist[to]);
+            }
+        }
+    }
+
+    /**
+     * Answer a seeded search with the costs of the targets and of the boundary vertices.
+    */
+    private void search(DataInputStream in, DataOutputStream out) throws IOException {
+        boolean reverse = in.readBoolean();
+        int numSeeds = in.readInt();
+        int[] seeds = new int[numSeeds];
+        double[] seedCosts = new double[numSeeds];
+        int found = 0;
+        for (int i = 0; i < numSeeds; i++){
+            int local = shard.local(in.readInt());
+            double cost = in.readDouble();
+            if (local >= 0){
+                seeds[found] = local;
+                seedCosts[found++] = cost;
+            }
+        }
+        double[] dist = shard.search(seeds, seedCosts, found, reverse);
+        int numTargets = in.readInt();
+        for (int i = 0; i < numTargets; i++){
+            int local = shard.local(in.readInt());
+            out.writeDouble(local >= 0 ? dist[local] : Graph.INFINITY);
+        }
+        for (int b : shard.boundary()){
+            out.writeDouble(dist[b]);
+        }
+    }
+
+    /**
+     * Answer the size, memory and service times of this worker.
+    */
+    private void stats(DataOutputStream out) throws IOException {
+        Runtime runtime = Runtime.getRuntime();
+        out.writeInt(shard.size());
+        out.writeInt(shard.edgeCount());
+        out.writeInt(shard.boundary().length);
+        out.writeLong(shard.estimatedBytes());
+        out.writeLong(runtime.totalMemory() - runtime.freeMemory());
+        out.writeLong(service.count());
+        out.writeLong(service.quantileNanos(0.50));
+        out.writeLong(service.quantileNanos(0.99));
+        out.writeLong(service.maxNanos());
+    }
+
+    /**
+     * Serve one part of a partitioned graph to the coordinator that started this process.
+     * @param args The path of the shard file.
+    */
+    public static void main(String[] args){
+        if (args.length < 1){
+            System.err.println("Usage: java ShardWorker <shard file>");
+            System.exit(2);
+        }
+        GraphPartition.Subgraph shard;
+        try {
+            shard = GraphPartition.readShard(args[0]);
+        } catch (IOException e){
+            System.err.println("Could not read shard " + args[0] + ": " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        // End the process once the coordinator that started it has gone, even if it could not say so.
+        Thread watcher = new Thread(() -> {
+            try {
+                while (System.in.read() >= 0){
+                    // Nothing is sent on standard input; it only ends.
+                }
+            } catch (IOException e){
+                // Standard input failing also means the coordinator has gone.
+            }
+            System.exit(0);
+        }, "shard-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())){
+            System.out.println("port " + server.getLocalPort());
+            System.out.flush();
+            try (Socket socket = server.accept()){
+                socket.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+                new ShardWorker(shard).serve(in, out);
+            }
+        } catch (IOException e){
+            System.err.println("Shard " + args[0] + " failed: " + e.getMessage());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,452 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Precomputed costs between the Shops of every company and all other vertices.
+ * Taxis only start at Shops and trips only end at Shops, so once the cost from every Shop to every vertex and from
+ * every vertex to every Shop is known, finding the nearest taxi or shop of a call reads one entry per Shop of the company.
+ *
+ * Each Shop gives one row: a search from the Shop fills the costs from it, and a search over the reversed edges fills
+ * the costs to it. The rows are independent, so they are filled in parallel. The tables hold the costs of each vertex
+ * to all Shops of a company next to each other, so one call reads one block of each table.
+ * When a Shop is added, only its row is filled. When edges change, only the rows they can affect are repaired,
+ * and each repair only visits the vertices around the changes.
+ *
+ * The tables take 16 bytes per vertex per Shop. Queries may run from many threads at once, but not while
+ * the oracle is being refreshed.
+ */
+public class ShopDistanceOracle
+{
+    /** The graph the tables were built for, replaced when an edge change is applied.*/
+    private volatile CompactGraph graph;
+    /** The tables of each company, by lower case company name.*/
+    private final Map<String,Company> companies = new HashMap<>();
+    /** The position of each vertex in the order of the vertex map, which orders the Shops of every company.*/
+    private final int[] order;
+    /** The table holding each vertex as a Shop, or null if the vertex is not a Shop.*/
+    private final Company[] shopTable;
+    /** The number of worker threads used to fill rows.*/
+    private final int workers;
+    /** The time taken to build the tables, in nanoseconds.*/
+    private final long buildNanos;
+    /** The number of rows filled again since the tables were built.*/
+    private long refreshedRows;
+    /** Scratch space for repairing rows, shared by the worker threads.*/
+    private final ConcurrentLinkedQueue<ShortestPathRepair> repairs = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Find the Shops of every company and fill their rows in parallel.
+     * @param graph The graph to build the tables for.
+     * @param vertices The vertices of the graph, in the order of the vertex map.
+     * @param workers The number of worker threads.
+    */
+    public ShopDistanceOracle(CompactGraph graph, Iterable<Vertex> vertices, int workers){
+        long start = System.nanoTime();
+        this.graph = graph;
+        this.order = new int[graph.size()];
+        this.shopTable = new Company[graph.size()];
+        this.workers = Math.max(1, workers);
+        // Step 1 - Collect the Shops of each company in the order of the vertex map.
+        Map<String,ArrayList<Integer>> shops = new HashMap<>();
+        Map<String,String> names = new HashMap<>();
+        int position = 0;
+        for (Vertex vertex : vertices){
+            order[vertex.index] = position++;
+            if ("Shop".equalsIgnoreCase(vertex.type) && vertex.companyName != null){
+                String key = vertex.companyName.toLowerCase();
+                shops.computeIfAbsent(key, k -> new ArrayList<>()).add(vertex.index);
+                names.putIfAbsent(key, vertex.companyName);
+            }
+        }
+        // Step 2 - Lay out the tables, then fill every row.
+        ArrayList<Callable<Void>> rows = new ArrayList<>();
+        for (Map.Entry<String,ArrayList<Integer>> entry : shops.entrySet()){
+            int[] indices = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+            Company company = new Company(names.get(entry.getKey()), indices);
+            companies.put(entry.getKey(), company);
+            for (int i = 0; i < indices.length; i++){
+                shopTable[indices[i]] = company;
+                rows.add(company.row(graph, i));
+            }
+        }
+        fill(rows);
+        this.buildNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Obtain the table of the given company.
+     * @param company The name of the company, in any case.
+     * @return The table, or null if the company has no Shops.
+    */
+    public Company company(String company){
+        return companies.get(company.toLowerCase());
+    }
+
+    /**
+     * Obtain the names of the companies with tables.
+     * @return The lower case company names.
+    */
+    public Set<String> companyNames(){
+        return companies.keySet();
+    }
+
+    /**
+     * Obtain the cost of the shortest path between two vertices, if either one is a Shop.
+     * @param start The index of the start vertex.
+     * @param dest The index of the destination vertex.
+     * @return The cost, which is Graph.INFINITY if dest cannot be reached, or NaN if neither vertex is a Shop.
+    */
+    public double cost(int start, int dest){
+        Company from = shopTable[start];
+        if (from != null){
+            return from.costFrom(from.column(start), dest);
+        }
+        Company to = shopTable[dest];
+        if (to != null){
+            return to.costTo(start, to.column(dest));
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Add a Shop to a company, filling only its own row.
+     * A vertex that is already a Shop of another company is moved.
+     * @param v The index of the vertex.
+     * @param company The name of the company.
+    */
+    public void addShop(int v, String company){
+        Company current = shopTable[v];
+        String key = company.toLowerCase();
+        if (current != null && current.name.equalsIgnoreCase(company)){
+            return;
+        }
+        if (current != null){
+            current.remove(current.column(v));
+            shopTable[v] = null;
+        }
+        Company table = companies.get(key);
+        if (table == null){
+            table = new Company(company, new int[0]);
+            companies.put(key, table);
+        }
+        int column = table.insert(v);
+        shopTable[v] = table;
+        ArrayList<Callable<Void>> rows = new ArrayList<>();
+        rows.add(table.row(graph, column));
+        fill(rows);
+        refreshedRows++;
+    }
+
+    /**
+     * Bring the tables up to date after the cost of one edge changed.
+     * An added edge is a change from Graph.INFINITY, and a removed edge a change to Graph.INFINITY.
+     * @param changed The graph with the edge changed, which must have the same vertices.
+     * @param source The index of the source of the edge.
+     * @param dest The index of the destination of the edge.
+     * @param oldCost The cost of the edge before the change.
+     * @param newCost The cost of the edge after the change.
+     * @throws IllegalArgumentException If the graph has a different number of vertices.
+     * @return The number of rows repaired.
+    */
+    public int refreshEdge(CompactGraph changed, int source, int dest, double oldCost, double newCost){
+        ShortestPathRepair.Changes changes = new ShortestPathRepair.Changes();
+        changes.add(source, dest, oldCost, newCost);
+        return refreshEdges(changed, changes);
+    }
+
+    /**
+     * Bring the tables up to date after a batch of edge changes, repairing only the rows the changes can affect.
+     * A row from a Shop changes if an edge now gives a shorter path, or if an edge was on a shortest path and got dearer.
+     * When the batch changes a large part of the graph, the affected rows are searched again instead.
+     * @param changed The graph with the edges changed, which must have the same vertices.
+     * @param changes The changed edges.
+     * @throws IllegalArgumentException If the graph has a different number of vertices.
+     * @return The number of rows repaired.
+    */
+    public int refreshEdges(CompactGraph changed, ShortestPathRepair.Changes changes){
+        if (changed.size() != order.length){
+            throw new IllegalArgumentException("The graph has different vertices to the oracle");
+        }
+        ArrayList<Callable<Void>> rows = new ArrayList<>();
+        boolean repair = ShortestPathRepair.worthRepairing(changed, changes);
+        for (Company company : companies.values()){
+            for (int i = 0; i < company.size(); i++){
+                boolean fromChanged = false;
+                boolean toChanged = false;
+                for (int c = 0; c < changes.size(); c++){
+                    int u = changes.source(c);
+                    int w = changes.dest(c);
+                    fromChanged |= affected(company.costFrom(i, u), company.costFrom(i, w), changes.oldCost(c), changes.newCost(c));
+                    toChanged |= affected(company.costTo(w, i), company.costTo(u, i), changes.oldCost(c), changes.newCost(c));
+                }
+                if (fromChanged || toChanged){
+                    rows.add(repair ? company.repairRow(changed, i, changes, fromChanged, toChanged) : company.row(changed, i));
+                }
+            }
+        }
+        graph = changed;
+        fill(rows);
+        refreshedRows += rows.size();
+        return rows.size();
+    }
+
+    /**
+     * Determine if an edge change can change the cost from one end of the edge, given the costs of both of its ends.
+     * @param near The cost at the end of the edge that is closer to the Shop.
+     * @param far The cost at the other end.
+    */
+    private static boolean affected(double near, double far, double oldCost, double newCost){
+        if (near == Graph.INFINITY){
+            return false;
+        }
+        boolean shorter = newCost < oldCost && near + newCost < far;
+        boolean wasTight = newCost > oldCost && oldCost != Graph.INFINITY && near + oldCost == far;
+        return shorter || wasTight;
+    }
+
+    /**
+     * Fill the given rows on the worker threads, or on this thread when there is only one.
+    */
+    private void fill(List<Callable<Void>> rows){
+        if (workers == 1 || rows.size() <= 1){
+            for (Callable<Void> task : rows){
+                try {
+                    task.call();
+                } catch (Exception e){
+                    throw new IllegalStateException(e);
+                }
+            }
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        try {
+            for (Future<Void> done : pool.invokeAll(rows)){
+                done.get();
+            }
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while filling the oracle", e);
+        } catch (ExecutionException e){
+            throw new IllegalStateException("Could not fill the oracle", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Obtain the graph the tables hold the costs of.
+     * @return The CompactGraph.
+    */
+    public CompactGraph graph(){
+        return graph;
+    }
+
+    /**
+     * Obtain the number of Shops of all companies.
+     * @return The number of rows.
+    */
+    public int shopCount(){
+        int count = 0;
+        for (Company company : companies.values()){
+            count += company.size();
+        }
+        return count;
+    }
+
+    /**
+     * Obtain the number of rows filled by addShop or repaired by refreshEdges since the tables were built.
+     * @return The number of rows.
+    */
+    public long refreshedRows(){
+        return refreshedRows;
+    }
+
+    /**
+     * Obtain the time taken to build the tables.
+     * @return The build time in nanoseconds.
+    */
+    public long buildNanos(){
+        return buildNanos;
+    }
+
+    /**
+     * Obtain the memory used by the tables.
+     * @return The size of the tables in bytes.
+    */
+    public long estimatedBytes(){
+        long bytes = 8L * order.length;
+        for (Company company : companies.values()){
+            bytes += 8L * (company.from.length + company.to.length) + 4L * company.size();
+        }
+        return bytes;
+    }
+
+    /**
+     * The cost tables of the Shops of one company.
+    */
+    public class Company
+    {
+        /** The name of the company, as given by its first Shop.*/
+        private final String name;
+        /** The Shops of the company, in the order of the vertex map.*/
+        private int[] shops;
+        /** The cost from Shop i to vertex v, at v * shops.length + i.*/
+        private double[] from;
+        /** The cost from vertex v to Shop i, at v * shops.length + i.*/
+        private double[] to;
+
+        private Company(String name, int[] shops){
+            this.name = name;
+            this.shops = shops;
+            this.from = new double[order.length * shops.length];
+            this.to = new double[order.length * shops.length];
+        }
+
+        /**
+         * Obtain the number of Shops of the company.
+         * @return The number of Shops.
+        */
+        public int size(){
+            return shops.length;
+        }
+
+        /**
+         * Obtain a Shop of the company.
+         * @param i The position of the Shop, from 0 to size() - 1 in the order of the vertex map.
+         * @return The index of the Shop vertex.
+        */
+        public int shop(int i){
+            return shops[i];
+        }
+
+        /**
+         * Obtain the cost of the shortest path from a Shop to a vertex.
+         * @param i The position of the Shop.
+         * @param v The index of the vertex.
+         * @return The cost, or Graph.INFINITY if v cannot be reached.
+        */
+        public double costFrom(int i, int v){
+            return from[v * shops.length + i];
+        }
+
+        /**
+         * Obtain the cost of the shortest path from a vertex to a Shop.
+         * @param v The index of the vertex.
+         * @param i The position of the Shop.
+         * @return The cost, or Graph.INFINITY if the Shop cannot be reached.
+        */
+        public double costTo(int v, int i){
+            return to[v * shops.length + i];
+        }
+
+        /**
+         * Obtain the position of a Shop vertex of this company.
+        */
+        private int column(int v){
+            for (int i = 0; i < shops.length; i++){
+                if (shops[i] == v){
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("Not a shop of " + name + ": " + v);
+        }
+
+        /**
+         * Obtain the task which searches from Shop i in both directions and stores its row.
+        */
+        private Callable<Void> row(CompactGraph searched, int i){
+            return () -> {
+                int count = shops.length;
+                try (SearchContext context = searched.acquireContext()){
+                    context.search(shops[i]);
+                    for (int v = 0; v < order.length; v++){
+                        from[v * count + i] = context.dist(v);
+                    }
+                    context.searchTo(shops[i]);
+                    for (int v = 0; v < order.length; v++){
+                        to[v * count + i] = context.dist(v);
+                    }
+                }
+                return null;
+            };
+        }
+
+        /**
+         * Obtain the task which repairs the row of Shop i in either direction after the given edge changes.
+        */
+        private Callable<Void> repairRow(CompactGraph changed, int i, ShortestPathRepair.Changes changes, boolean fromChanged, boolean toChanged){
+            return () -> {
+                ShortestPathRepair repair = repairs.poll();
+                if (repair == null){
+                    repair = new ShortestPathRepair(order.length);
+                }
+                if (fromChanged){
+                    repair.repair(changed, shops[i], from, i, shops.length, changes, false);
+                }
+                if (toChanged){
+                    repair.repair(changed.reverse(), shops[i], to, i, shops.length, changes, true);
+                }
+                repairs.offer(repair);
+                return null;
+            };
+        }
+
+        /**
+         * Add a column for a new Shop in vertex map order, copying the other columns into larger tables.
+         * @return The position of the new Shop, whose row is left to be filled.
+        */
+        private int insert(int v){
+            int column = 0;
+            while (column < shops.length && order[shops[column]] < order[v]){
+                column++;
+            }
+            int[] grown = new int[shops.length + 1];
+            System.arraycopy(shops, 0, grown, 0, column);
+            grown[column] = v;
+            System.arraycopy(shops, column, grown, column + 1, shops.length - column);
+            from = widen(from, shops.length, column);
+            to = widen(to, shops.length, column);
+            shops = grown;
+            return column;
+        }
+
+        /**
+         * Remove the column of a Shop, copying the other columns into smaller tables.
+        */
+        private void remove(int column){
+            int count = shops.length;
+            int[] shrunk = new int[count - 1];
+            System.arraycopy(shops, 0, shrunk, 0, column);
+            System.arraycopy(shops, column + 1, shrunk, column, count - column - 1);
+            from = narrow(from, count, column);
+            to = narrow(to, count, column);
+            shops = shrunk;
+        }
+
+        private double[] widen(double[] table, int count, int column){
+            double[] wider = new double[order.length * (count + 1)];
+            for (int v = 0; v < order.length; v++){
+                System.arraycopy(table, v * count, wider, v * (count + 1), column);
+                System.arraycopy(table, v * count + column, wider, v * (count + 1) + column + 1, count - column);
+            }
+            return wider;
+        }
+
+        private double[] narrow(double[] table, int count, int column){
+            double[] narrower = new double[order.length * (count - 1)];
+            for (int v = 0; v < order.length; v++){
+                System.arraycopy(table, v * count, narrower, v * (count - 1), column);
+                System.arraycopy(table, v * count + column + 1, narrower, v * (count - 1) + column, count - column - 1);
+            }
+            return narrower;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of completed shortest path trees, keyed by start vertex and search direction.
+ * The cache is off until it is given a capacity, as each tree it keeps is a copy of the three vertex-sized arrays of
+ * a search, which only pays off when the same start is searched from again.
+ *
+ * The trees are spread over a fixed number of stripes by their key, each with its own lock and its own share of the
+ * capacity, so searches from different starts rarely wait on each other. When a stripe is full its least recently
+ * used tree is evicted.
+ *
+ * Each tree remembers the CompactGraph it was computed on, and a tree is only returned for that same graph,
+ * so trees computed before Graph.addEdge changed the graph are never served. Graph.addEdge also clears the cache.
+ * The hit and miss counters are kept across clears so the cache can be sized from a full run.
+ */
+public class ShortestPathCache
+{
+    /** The number of stripes, a power of two.*/
+    private static final int STRIPES = 8;
+
+    /** The stripes holding the trees.*/
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    /** The maximum number of trees held.*/
+    private volatile int capacity;
+    /** The number of lookups answered from the cache.*/
+    private final LongAdder hits = new LongAdder();
+    /** The number of lookups that needed a new search.*/
+    private final LongAdder misses = new LongAdder();
+    /** The number of trees evicted to make space.*/
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * The trees of one stripe, from least to most recently used, guarded by the stripe itself.
+    */
+    private final class Stripe extends LinkedHashMap<Long,ShortestPathTree>
+    {
+        private static final long serialVersionUID = 1L;
+
+        /** The maximum number of trees held by this stripe.*/
+        private int limit;
+
+        Stripe(int limit){
+            super(16, 0.75f, true);
+            this.limit = limit;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long,ShortestPathTree> eldest){
+            if (size() > limit){
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Create a new ShortestPathCache.
+     * @param capacity The maximum number of trees held. A capacity of 0 disables the cache.
+    */
+    public ShortestPathCache(int capacity){
+        this.capacity = capacity;
+        for (int i = 0; i < STRIPES; i++){
+            stripes[i] = new Stripe(share(capacity));
+        }
+    }
+
+    /**
+     * Obtain the cached tree for the given search, counting a hit or a miss.
+     * @param graph The graph being searched.
+     * @param source The index of the start vertex, or of the target vertex for a reverse search.
+     * @param reverse True for a search over the reversed edges.
+     * @return The cached tree, or null if the search has to be run.
+    */
+    public ShortestPathTree get(CompactGraph graph, int source, boolean reverse){
+        Long key = key(source, reverse);
+        Stripe stripe = stripe(key);
+        ShortestPathTree tree;
+        synchronized (stripe){
+            tree = stripe.get(key);
+        }
+        CompactGraph searched = reverse ? graph.reverse() : graph;
+        if (tree != null && tree.graph() == searched){
+            hits.increment();
+            return tree;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Add a completed tree to the cache, evicting the least recently used tree of its stripe if the stripe is full.
+     * @param tree The tree to add.
+     * @param reverse True if the tree is the result of a search over the reversed edges.
+    */
+    public void put(ShortestPathTree tree, boolean reverse){
+        Long key = key(tree.source(), reverse);
+        Stripe stripe = stripe(key);
+        synchronized (stripe){
+            if (stripe.limit > 0){
+                stripe.put(key, tree);
+            }
+        }
+    }
+
+    /**
+     * Repair every tree in the cache after some edges of the graph changed, instead of dropping the trees.
+     * The repaired trees belong to the changed graph, and keep their place in the order of use.
+     * Trees of any other graph than the one that was changed are dropped, and so are trees that cannot be repaired to
+     * keep the paths a new search would find.
+     * @param before The graph before the changes.
+     * @param changed The graph with the changes made.
+     * @param changes The changed edges.
+     * @param repair The scratch space of the repair.
+     * @return The number of trees repaired.
+    */
+    public int repair(CompactGraph before, CompactGraph changed, ShortestPathRepair.Changes changes, ShortestPathRepair repair){
+        int repaired = 0;
+        for (Stripe stripe : stripes){
+            synchronized (stripe){
+                Iterator<Map.Entry<Long,ShortestPathTree>> entries = stripe.entrySet().iterator();
+                while (entries.hasNext()){
+                    Map.Entry<Long,ShortestPathTree> entry = entries.next();
+                    boolean reverse = (entry.getKey() & 1L) != 0;
+                    if (entry.getValue().graph() != (reverse ? before.reverse() : before)){
+                        entries.remove();
+                        continue;
+                    }
+                    ShortestPathTree tree = entry.getValue().repair(reverse ? changed.reverse() : changed, changes, reverse, repair);
+                    if (tree == null){
+                        entries.remove();
+                    } else {
+                        entry.setValue(tree);
+                    }
+                }
+                repaired += stripe.size();
+            }
+        }
+        return repaired;
+    }
+
+    /**
+     * Remove every tree from the cache.
+    */
+    public void clear(){
+        for (Stripe stripe : stripes){
+            synchronized (stripe){
+                stripe.clear();
+            }
+        }
+    }
+
+    /**
+     * Change the maximum number of trees held, evicting the least recently used trees of each stripe if needed.
+     * The capacity is shared evenly between the stripes, rounding up.
+     * @param capacity The new capacity. A capacity of 0 disables the cache.
+    */
+    public void setCapacity(int capacity){
+        this.capacity = capacity;
+        for (Stripe stripe : stripes){
+            synchronized (stripe){
+                stripe.limit = share(capacity);
+                Iterator<Long> eldest = stripe.keySet().iterator();
+                while (stripe.size() > stripe.limit){
+                    eldest.next();
+                    eldest.remove();
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Obtain the maximum number of trees held.
+     * @return The capacity of the cache.
+    */
+    public int getCapacity(){
+        return capacity;
+    }
+
+    /**
+     * Obtain the number of trees currently held.
+     * @return The size of the cache.
+    */
+    public int size(){
+        int size = 0;
+        for (Stripe stripe : stripes){
+            synchronized (stripe){
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Obtain the number of lookups answered from the cache.
+     * @return The number of hits.
+    */
+    public long getHits(){
+        return hits.sum();
+    }
+
+    /**
+     * Obtain the number of lookups that needed a new search.
+     * @return The number of misses.
+    */
+    public long getMisses(){
+        return misses.sum();
+    }
+
+    /**
+     * Obtain the number of trees evicted to make space.
+     * @return The number of evictions.
+    */
+    public long getEvictions(){
+        return evictions.sum();
+    }
+
+    /**
+     * Return a String summary of the cache counters.
+    */
+    @Override
+    public String toString(){
+        long hits = getHits();
+        long misses = getMisses();
+        long lookups = hits + misses;
+        double hitRate = lookups == 0 ? 0 : 100.0 * hits / lookups;
+        return String.format("cache %d/%d trees, %d hits, %d misses (%.1f%% hit rate), %d evictions",
+                             size(), capacity, hits, misses, hitRate, getEvictions());
+    }
+
+    /**
+     * Obtain the number of trees each stripe may hold for the given capacity.
+    */
+    private static int share(int capacity){
+        return (capacity + STRIPES - 1) / STRIPES;
+    }
+
+    /**
+     * Obtain the stripe holding the given key, mixing the key so neighbouring vertices land on different stripes.
+    */
+    private Stripe stripe(Long key){
+        long k = key;
+        int h = (int) (k ^ (k >>> 32)) * 0x9E3779B9;
+        return stripes[h >>> (Integer.SIZE - Integer.numberOfTrailingZeros(STRIPES))];
+    }
+
+    /**
+     * Combine a vertex index and a search direction into one cache key.
+    */
+    private static Long key(int source, boolean reverse){
+        return ((long) source << 1) | (reverse ? 1L : 0L);
+    }
+}
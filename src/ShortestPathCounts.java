@@ -0,0 +1,195 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * The number of equal-cost shortest paths to the vertices of a completed search, and the shortest path DAG they follow.
+ * An edge from u to v lies on a shortest path when dist(u) plus its cost is dist(v), and the shortest paths to a vertex
+ * are the paths from the start over such edges.
+ *
+ * Nothing is added to the search itself: the counts are worked out from the distances of the result, walking back
+ * from each vertex asked about over the edges into it, so only the vertices on its shortest paths are visited, and a
+ * cached ShortestPathTree can be counted as well as a fresh search. The walk uses its own stack, so long paths cannot
+ * overflow the stack, and the counts found are remembered for the next vertex asked about.
+ *
+ * Counts too large for a long are given as Long.MAX_VALUE, as are the counts of vertices reached through a cycle of
+ * roads that cost nothing, which have endlessly many shortest paths.
+ * A ShortestPathCounts is used by one thread at a time and must not be read after its result is closed.
+ */
+public class ShortestPathCounts
+{
+    /** The result being counted.*/
+    private final ShortestPaths result;
+    /** The graph that the search ran over.*/
+    private final CompactGraph graph;
+    /** The reverse of the searched graph, whose edges out of a vertex are the searched edges into it.*/
+    private final CompactGraph incoming;
+    /** The number of shortest paths to each vertex counted so far.*/
+    private final HashMap<Integer,Long> counts = new HashMap<>();
+    /** The vertices on the stack of the current walk, which are reached again only through a cycle.*/
+    private final BitSet onStack = new BitSet();
+    /** The stack of the walk, holding each vertex and the next of its incoming edges to follow.*/
+    private int[] stack = new int[32];
+    private int[] nextEdge = new int[32];
+
+    /**
+     * Prepare to count the shortest paths of the given result.
+     * @param result The result of a completed search, or of a search towards a target over the reversed edges.
+    */
+    public ShortestPathCounts(ShortestPaths result){
+        this.result = result;
+        this.graph = result.graph();
+        this.incoming = graph.reverse();
+    }
+
+    /**
+     * Obtain the number of equal-cost shortest paths from the start of the search to the given vertex.
+     * After a search towards a target, this is the number of shortest paths from the given vertex to the target.
+     * @param v The index of the vertex.
+     * @return The number of shortest paths, 1 for the start, 0 if the vertex was not reached, or Long.MAX_VALUE if
+     *         there are too many to count.
+    */
+    public long count(int v){
+        if (result.dist(v) == Graph.INFINITY){
+            return 0;
+        }
+        Long known = counts.get(v);
+        if (known != null){
+            return known;
+        }
+        // Walk back from the vertex over the edges of the DAG, counting each vertex once all of its predecessors are counted.
+        int depth = push(0, v);
+        while (depth > 0){
+            int u = stack[depth - 1];
+            int e = nextEdge[depth - 1];
+            if (e < incoming.edgeEnd(u)){
+                nextEdge[depth - 1]++;
+                int w = incoming.target(e);
+                if (isTight(w, u, incoming.cost(e)) && !counts.containsKey(w) && !onStack.get(w)){
+                    depth = push(depth, w);
+                }
+                continue;
+            }
+            depth--;
+            onStack.clear(u);
+            counts.put(u, sum(u));
+        }
+        return counts.get(v);
+    }
+
+    /**
+     * Obtain the vertices just before the given vertex on its shortest paths, which are the edges of the shortest path
+     * DAG into it. A vertex joined to it by several roads of the same cost appears once for each road.
+     * After a search towards a target, these are the vertices just after the given vertex on its way to the target.
+     * @param v The index of the vertex.
+     * @return The indices of the previous vertices, which is empty for the start and for unreached vertices.
+    */
+    public int[] predecessors(int v){
+        int[] found = new int[0];
+        if (result.dist(v) == Graph.INFINITY){
+            return found;
+        }
+        int count = 0;
+        for (int e = incoming.firstEdge(v); e < incoming.edgeEnd(v); e++){
+            int w = incoming.target(e);
+            if (isTight(w, v, incoming.cost(e))){
+                if (count == found.length){
+                    found = Arrays.copyOf(found, Math.max(4, count * 2));
+                }
+                found[count++] = w;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Obtain the vertices on the shortest paths from the start of the search to the given vertex, which are the part
+     * of the shortest path DAG that leads to it.
+     * @param v The index of the vertex.
+     * @return The vertices on its shortest paths, including the start and the vertex itself, or none if it was not reached.
+    */
+    public BitSet onShortestPaths(int v){
+        BitSet on = new BitSet();
+        if (result.dist(v) == Graph.INFINITY){
+            return on;
+        }
+        on.set(v);
+        int depth = push(0, v);
+        while (depth > 0){
+            int u = stack[--depth];
+            onStack.clear(u);
+            for (int e = incoming.firstEdge(u); e < incoming.edgeEnd(u); e++){
+                int w = incoming.target(e);
+                if (!on.get(w) && isTight(w, u, incoming.cost(e))){
+                    on.set(w);
+                    depth = push(depth, w);
+                }
+            }
+        }
+        return on;
+    }
+
+    /**
+     * Obtain the number of edges leaving the start of the search on the shortest paths to the given vertex.
+     * A search run the other way, from the given vertex over the reversed edges, reaches the start of this search by
+     * that many edges at its shortest distance, so more than one is what hasDuplicatePaths of that search reports for
+     * the start. After a search towards a Client, this tells if the Taxi at the given vertex has more than one shortest
+     * way into the Client without searching from the Taxi.
+     * @param v The index of the vertex.
+     * @return The number of first edges, 0 for the start itself and for unreached vertices.
+    */
+    public int firstEdgeCount(int v){
+        BitSet on = onShortestPaths(v);
+        int source = result.source();
+        int count = 0;
+        for (int e = graph.firstEdge(source); e < graph.edgeEnd(source); e++){
+            int w = graph.target(e);
+            if (on.get(w) && isTight(source, w, graph.cost(e))){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Determine if the edge from u to v of the given cost lies on a shortest path to v.
+    */
+    private boolean isTight(int u, int v, double cost){
+        double distU = result.dist(u);
+        return distU != Graph.INFINITY && distU + cost == result.dist(v);
+    }
+
+    /**
+     * Add up the counts of the predecessors of a vertex whose predecessors have all been counted, or are on the stack
+     * because the vertex is reached through a cycle of roads that cost nothing.
+    */
+    private long sum(int v){
+        long total = v == result.source() ? 1 : 0;
+        for (int e = incoming.firstEdge(v); e < incoming.edgeEnd(v); e++){
+            int w = incoming.target(e);
+            if (isTight(w, v, incoming.cost(e))){
+                Long count = w == v || onStack.get(w) ? null : counts.get(w);
+                if (count == null || total > Long.MAX_VALUE - count){
+                    return Long.MAX_VALUE;
+                }
+                total += count;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Push a vertex onto the stack of the walk, growing it if needed.
+     * @return The new depth of the stack.
+    */
+    private int push(int depth, int v){
+        if (depth == stack.length){
+            stack = Arrays.copyOf(stack, depth * 2);
+            nextEdge = Arrays.copyOf(nextEdge, depth * 2);
+        }
+        stack[depth] = v;
+        nextEdge[depth] = incoming.firstEdge(v);
+        onStack.set(v);
+        return depth + 1;
+    }
+}
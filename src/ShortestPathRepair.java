@@ -0,0 +1,411 @@
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Incremental repair of shortest path distances after the costs of some edges change.
+ * Rather than searching again from the start, the repair only visits the vertices whose distance can change.
+ *
+ * The repair runs in two phases. First, the vertices that may get further away are found: the far end of every edge
+ * that got dearer while it was on a shortest path, and every vertex reached at its shortest distance only through such
+ * vertices. They are examined in order of their old distance, and a vertex that still has a shortest path edge from a
+ * vertex known to keep its distance keeps its own. Second, the vertices that lost their distance are given the best
+ * distance over their edges from unaffected vertices, the far end of every edge that got cheaper is given the shorter
+ * distance, and Dijkstra's algorithm runs from all of them, stopping where the distances no longer improve.
+ *
+ * The distances may be laid out with a stride, so one repair can work on a row of a table. A repair holds scratch
+ * arrays sized for the graph and is reused for many repairs, but is only used by one thread at a time.
+ */
+public class ShortestPathRepair
+{
+    /** The largest fraction of the edges that may change at once for a repair to beat searching again.*/
+    private static final double MAX_CHANGED_FRACTION = 0.01;
+
+    /** The vertex is waiting in the first phase to be examined.*/
+    private static final int CANDIDATE = 1;
+    /** The vertex was examined and keeps its distance.*/
+    private static final int KEPT = 2;
+    /** The vertex was examined and lost its distance.*/
+    private static final int AFFECTED = 3;
+
+    /** The state of each vertex in the first phase, valid when its stamp is the current generation.*/
+    private final int[] state;
+    private final int[] stateStamp;
+    /** Marks the vertices recorded as touched in the current generation.*/
+    private final int[] touchedStamp;
+    /** Marks the vertices whose previous vertex and duplicate flag were checked in the current generation.*/
+    private final int[] checkedStamp;
+    private int generation;
+    /** The queue of both phases.*/
+    private final IndexedHeap heap;
+    /** The vertices that lost their distance in the first phase.*/
+    private final int[] affected;
+    private int numAffected;
+    /** The vertices whose distance was written, with their distance before the repair.*/
+    private final int[] touched;
+    private final double[] touchedDist;
+    private int numTouched;
+
+    /**
+     * Create the scratch space to repair searches on graphs with the given number of vertices.
+     * @param numVertices The number of vertices.
+    */
+    public ShortestPathRepair(int numVertices){
+        this.state = new int[numVertices];
+        this.stateStamp = new int[numVertices];
+        this.touchedStamp = new int[numVertices];
+        this.checkedStamp = new int[numVertices];
+        this.heap = new IndexedHeap(numVertices);
+        this.affected = new int[numVertices];
+        this.touched = new int[numVertices];
+        this.touchedDist = new double[numVertices];
+    }
+
+    /**
+     * Determine if repairing is expected to be faster than searching again after the given changes.
+     * A large batch of changes affects most vertices of a search, and the repair then does more work than a new search.
+     * @param graph The changed graph.
+     * @param changes The changed edges.
+     * @return True if at most about one edge in a hundred changed.
+    */
+    public static boolean worthRepairing(CompactGraph graph, Changes changes){
+        return changes.size() <= MAX_CHANGED_FRACTION * graph.edgeCount();
+    }
+
+    /**
+     * Obtain the number of vertices this repair has room for.
+     * @return The number of vertices.
+    */
+    public int size(){
+        return state.length;
+    }
+
+    /**
+     * Repair the distances of a search after the given edge changes.
+     * @param searched The graph the search runs over, with the changes already made.
+     * @param source The index of the start vertex of the search.
+     * @param dist The distances from the start before the changes, which are replaced by the distances after the changes.
+     * @param offset The position in dist of the distance of vertex 0.
+     * @param stride The distance between the positions of consecutive vertices in dist.
+     * @param changes The changed edges.
+     * @param reversed True if the search runs over the reversed edges, so every change is turned around.
+     * @return The number of vertices whose distance changed.
+    */
+    public int repair(CompactGraph searched, int source, double[] dist, int offset, int stride, Changes changes, boolean reversed){
+        nextGeneration();
+        numAffected = 0;
+        numTouched = 0;
+        heap.clear();
+        CompactGraph incoming = searched.reverse();
+        // Step 1 - Queue the far end of every edge that got dearer while on a shortest path, by its old distance.
+        // Edges that got cheaper while on a shortest path are remembered, as their far end depends on their near end.
+        Set<Long> cheaperTight = null;
+        for (int c = 0; c < changes.size(); c++){
+            int u = reversed ? changes.dest(c) : changes.source(c);
+            int w = reversed ? changes.source(c) : changes.dest(c);
+            double distU = dist[offset + u * stride];
+            double oldCost = changes.oldCost(c);
+            boolean wasTight = oldCost != Graph.INFINITY && distU != Graph.INFINITY && distU + oldCost == dist[offset + w * stride];
+            if (wasTight && changes.newCost(c) > oldCost && w != source){
+                queue(w, dist[offset + w * stride]);
+            } else if (wasTight && changes.newCost(c) < oldCost){
+                if (cheaperTight == null){
+                    cheaperTight = new HashSet<>();
+                }
+                cheaperTight.add(((long) u << 32) | w);
+            }
+        }
+        // Step 2 - Examine the queued vertices in order of their old distance.
+        while (!heap.isEmpty()){
+            int x = heap.removeMin();
+            double distX = dist[offset + x * stride];
+            boolean kept = x == source;
+            for (int e = incoming.firstEdge(x); !kept && e < incoming.edgeEnd(x); e++){
+                int y = incoming.target(e);
+                double distY = dist[offset + y * stride];
+                if (y == x || distY == Graph.INFINITY || distY + incoming.cost(e) != distX){
+                    continue;
+                }
+                // Only trust a vertex that was examined and kept, or that can no longer be queued because it is closer.
+                boolean settled = stateStamp[y] == generation ? state[y] == KEPT : distY < distX;
+                kept = settled;
+            }
+            setState(x, kept ? KEPT : AFFECTED);
+            if (kept){
+                continue;
+            }
+            affected[numAffected++] = x;
+            for (int e = searched.firstEdge(x); e < searched.edgeEnd(x); e++){
+                int z = searched.target(e);
+                double distZ = dist[offset + z * stride];
+                boolean tight = distX + searched.cost(e) == distZ || (cheaperTight != null && cheaperTight.contains(((long) x << 32) | z));
+                if (stateStamp[z] != generation && distZ != Graph.INFINITY && tight && z != source){
+                    queue(z, distZ);
+                }
+            }
+        }
+        // Step 3 - Give each affected vertex its best distance over edges from unaffected vertices.
+        for (int i = 0; i < numAffected; i++){
+            int x = affected[i];
+            touch(x, dist[offset + x * stride]);
+            dist[offset + x * stride] = Graph.INFINITY;
+        }
+        for (int i = 0; i < numAffected; i++){
+            int x = affected[i];
+            double best = Graph.INFINITY;
+            for (int e = incoming.firstEdge(x); e < incoming.edgeEnd(x); e++){
+                int y = incoming.target(e);
+                double distY = dist[offset + y * stride];
+                if (distY != Graph.INFINITY && distY + incoming.cost(e) < best){
+                    best = distY + incoming.cost(e);
+                }
+            }
+            if (best != Graph.INFINITY){
+                dist[offset + x * stride] = best;
+                heap.insertOrDecrease(x, best);
+            }
+        }
+        // Step 4 - Give the far end of every edge that got cheaper the shorter distance through it.
+        for (int c = 0; c < changes.size(); c++){
+            int u = reversed ? changes.dest(c) : changes.source(c);
+            int w = reversed ? changes.source(c) : changes.dest(c);
+            double distU = dist[offset + u * stride];
+            double newCost = changes.newCost(c);
+            if (newCost < changes.oldCost(c) && distU != Graph.INFINITY && distU + newCost < dist[offset + w * stride]){
+                touch(w, dist[offset + w * stride]);
+                dist[offset + w * stride] = distU + newCost;
+                heap.insertOrDecrease(w, distU + newCost);
+            }
+        }
+        // Step 5 - Run Dijkstra's algorithm from the vertices given new distances, as far as the distances improve.
+        while (!heap.isEmpty()){
+            int x = heap.removeMin();
+            double distX = dist[offset + x * stride];
+            for (int e = searched.firstEdge(x); e < searched.edgeEnd(x); e++){
+                int z = searched.target(e);
+                double distZ = distX + searched.cost(e);
+                if (distZ < dist[offset + z * stride]){
+                    touch(z, dist[offset + z * stride]);
+                    dist[offset + z * stride] = distZ;
+                    heap.insertOrDecrease(z, distZ);
+                }
+            }
+        }
+        int changed = 0;
+        for (int i = 0; i < numTouched; i++){
+            if (dist[offset + touched[i] * stride] != touchedDist[i]){
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Repair a whole shortest path tree found with the IndexedHeap after the given edge changes: the distances, and then
+     * the previous vertex and duplicate flag of every vertex whose distance was touched, of their neighbours, and of the
+     * ends of the changed edges.
+     * Each of them is given the previous vertex a new search would give it, so the repaired tree keeps the same paths
+     * as searching again. That is the vertex the IndexedHeap settles first of those with a shortest path edge to it:
+     * the closest, and the one with the lowest index among the closest. Only when several of them are as far as the
+     * vertex itself, over edges that cost nothing, does the order depend on more than the distances, and the repair
+     * then gives up.
+     * @param searched The graph the search runs over, with the changes already made.
+     * @param source The index of the start vertex of the search.
+     * @param dist The distances to repair.
+     * @param prev The previous vertex of each vertex to repair, or -1.
+     * @param duplicatePaths The duplicate flag of each vertex to repair.
+     * @param changes The changed edges.
+     * @param reversed True if the search runs over the reversed edges.
+     * @return True if the tree is repaired, false if it must be searched again to keep the same paths.
+    */
+    public boolean repairTree(CompactGraph searched, int source, double[] dist, int[] prev, boolean[] duplicatePaths,
+                              Changes changes, boolean reversed){
+        repair(searched, source, dist, 0, 1, changes, reversed);
+        CompactGraph incoming = searched.reverse();
+        boolean repaired = true;
+        for (int i = 0; i < numTouched; i++){
+            int x = touched[i];
+            repaired &= check(x, source, incoming, dist, prev, duplicatePaths);
+            for (int e = searched.firstEdge(x); e < searched.edgeEnd(x); e++){
+                repaired &= check(searched.target(e), source, incoming, dist, prev, duplicatePaths);
+            }
+        }
+        for (int c = 0; c < changes.size(); c++){
+            repaired &= check(reversed ? changes.source(c) : changes.dest(c), source, incoming, dist, prev, duplicatePaths);
+        }
+        return repaired;
+    }
+
+    /**
+     * Work out the previous vertex and duplicate flag of one vertex from the repaired distances, once per repair.
+     * As in SearchContext, a vertex has duplicate paths when more than one edge reaches it at its shortest distance,
+     * counting the start of the search itself as one.
+     * @return False if the previous vertex a new search gives is not known from the distances alone.
+    */
+    private boolean check(int x, int source, CompactGraph incoming, double[] dist, int[] prev, boolean[] duplicatePaths){
+        if (checkedStamp[x] == generation){
+            return true;
+        }
+        checkedStamp[x] = generation;
+        if (dist[x] == Graph.INFINITY){
+            prev[x] = -1;
+            duplicatePaths[x] = false;
+            return true;
+        }
+        int tight = x == source ? 1 : 0;
+        int first = -1;
+        int previous = 0;
+        for (int e = incoming.firstEdge(x); e < incoming.edgeEnd(x); e++){
+            int y = incoming.target(e);
+            if (dist[y] != Graph.INFINITY && dist[y] + incoming.cost(e) == dist[x]){
+                tight++;
+                if (y != x && y != first){
+                    previous++;
+                    if (first < 0 || dist[y] < dist[first] || (dist[y] == dist[first] && y < first)){
+                        first = y;
+                    }
+                }
+            }
+        }
+        prev[x] = x == source ? -1 : first;
+        duplicatePaths[x] = tight > 1;
+        return x == source || previous < 2 || dist[first] < dist[x];
+    }
+
+    /**
+     * Obtain the number of vertices whose distance was written by the last repair, whether or not it ended up different.
+     * @return The number of touched vertices.
+    */
+    public int touchedCount(){
+        return numTouched;
+    }
+
+    /**
+     * Obtain a vertex whose distance was written by the last repair.
+     * @param i The position of the vertex, from 0 to touchedCount() - 1.
+     * @return The index of the vertex.
+    */
+    public int touched(int i){
+        return touched[i];
+    }
+
+    /**
+     * Obtain the number of vertices found in the first phase of the last repair to lose their distance.
+     * @return The number of affected vertices.
+    */
+    public int affectedCount(){
+        return numAffected;
+    }
+
+    private void queue(int v, double key){
+        setState(v, CANDIDATE);
+        heap.insertOrDecrease(v, key);
+    }
+
+    private void setState(int v, int value){
+        stateStamp[v] = generation;
+        state[v] = value;
+    }
+
+    /**
+     * Record the distance of a vertex before the repair, the first time the repair writes it.
+    */
+    private void touch(int v, double oldDist){
+        if (touchedStamp[v] != generation){
+            touchedStamp[v] = generation;
+            touched[numTouched] = v;
+            touchedDist[numTouched++] = oldDist;
+        }
+    }
+
+    /**
+     * Move on to the next generation, clearing the stamps only when the counter wraps around.
+    */
+    private void nextGeneration(){
+        generation++;
+        if (generation == Integer.MAX_VALUE){
+            Arrays.fill(stateStamp, 0);
+            Arrays.fill(touchedStamp, 0);
+            Arrays.fill(checkedStamp, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * A batch of changed edges, each with its cost before and after the change.
+     * An added edge has an old cost of Graph.INFINITY and a removed edge a new cost of Graph.INFINITY.
+    */
+    public static class Changes
+    {
+        private int[] sources = new int[16];
+        private int[] dests = new int[16];
+        private double[] oldCosts = new double[16];
+        private double[] newCosts = new double[16];
+        private int size;
+
+        /**
+         * Record one changed edge.
+         * @param source The index of the source of the edge.
+         * @param dest The index of the destination of the edge.
+         * @param oldCost The cost before the change.
+         * @param newCost The cost after the change.
+        */
+        public void add(int source, int dest, double oldCost, double newCost){
+            if (size == sources.length){
+                sources = Arrays.copyOf(sources, size * 2);
+                dests = Arrays.copyOf(dests, size * 2);
+                oldCosts = Arrays.copyOf(oldCosts, size * 2);
+                newCosts = Arrays.copyOf(newCosts, size * 2);
+            }
+            sources[size] = source;
+            dests[size] = dest;
+            oldCosts[size] = oldCost;
+            newCosts[size] = newCost;
+            size++;
+        }
+
+        /**
+         * Obtain the number of changed edges.
+         * @return The number of changes.
+        */
+        public int size(){
+            return size;
+        }
+
+        /**
+         * Obtain the source of a changed edge.
+         * @param c The position of the change.
+         * @return The index of the source vertex.
+        */
+        public int source(int c){
+            return sources[c];
+        }
+
+        /**
+         * Obtain the destination of a changed edge.
+         * @param c The position of the change.
+         * @return The index of the destination vertex.
+        */
+        public int dest(int c){
+            return dests[c];
+        }
+
+        /**
+         * Obtain the cost of a changed edge before the change.
+         * @param c The position of the change.
+         * @return The old cost, or Graph.INFINITY for an added edge.
+        */
+        public double oldCost(int c){
+            return oldCosts[c];
+        }
+
+        /**
+         * Obtain the cost of a changed edge after the change.
+         * @param c The position of the change.
+         * @return The new cost, or Graph.INFINITY for a removed edge.
+        */
+        public double newCost(int c){
+            return newCosts[c];
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * A completed shortest path search copied out of its SearchContext, so that it can be kept and shared between threads.
+ * ShortestPathTrees are immutable and are the entries of the ShortestPathCache.
+ */
+public class ShortestPathTree implements ShortestPaths
+{
+    /** The graph whose edges, or reversed edges, were searched.*/
+    private final CompactGraph graph;
+    /** The index of the start vertex.*/
+    private final int source;
+    /** Array which stores the cost of the shortest path to each vertex.*/
+    private final double[] dist;
+    /** Array which stores the previous vertex on the shortest path to each vertex, or -1.*/
+    private final int[] prev;
+    /** Array which stores if more than one shortest path reaches each vertex.*/
+    private final boolean[] duplicatePaths;
+
+    /**
+     * Copy the result of the given search.
+     * @param result The result to copy.
+    */
+    public ShortestPathTree(ShortestPaths result){
+        int numVertices = result.graph().size();
+        this.graph = result.graph();
+        this.source = result.source();
+        this.dist = new double[numVertices];
+        this.prev = new int[numVertices];
+        this.duplicatePaths = new boolean[numVertices];
+        for (int v = 0; v < numVertices; v++){
+            dist[v] = result.dist(v);
+            prev[v] = result.prev(v);
+            duplicatePaths[v] = result.hasDuplicatePaths(v);
+        }
+    }
+
+    /**
+     * Create a tree from arrays that are already filled in, which become owned by the tree.
+    */
+    ShortestPathTree(CompactGraph graph, int source, double[] dist, int[] prev, boolean[] duplicatePaths){
+        this.graph = graph;
+        this.source = source;
+        this.dist = dist;
+        this.prev = prev;
+        this.duplicatePaths = duplicatePaths;
+    }
+
+    /**
+     * Obtain this tree repaired after some edges of the graph changed, leaving this tree as it is.
+     * The arrays are copied, and then only the vertices around the changes are visited. The tree must have been found
+     * with the IndexedHeap, so that the repaired tree keeps the paths a new search would find.
+     * @param searched The graph the tree now belongs to: the changed graph, or its reverse for a search towards a target.
+     * @param changes The changed edges, as edges of the changed graph.
+     * @param reversed True if the tree is the result of a search over the reversed edges.
+     * @param repair The scratch space of the repair.
+     * @return The repaired tree, or null if the tree must be searched again to keep the same paths.
+    */
+    public ShortestPathTree repair(CompactGraph searched, ShortestPathRepair.Changes changes, boolean reversed, ShortestPathRepair repair){
+        ShortestPathTree repaired = new ShortestPathTree(searched, source, dist.clone(), prev.clone(), duplicatePaths.clone());
+        if (!repair.repairTree(searched, source, repaired.dist, repaired.prev, repaired.duplicatePaths, changes, reversed)){
+            return null;
+        }
+        return repaired;
+    }
+
+    @Override
+    public double dist(int v){
+        return dist[v];
+    }
+
+    @Override
+    public int prev(int v){
+        return prev[v];
+    }
+
+    @Override
+    public boolean hasDuplicatePaths(int v){
+        return duplicatePaths[v];
+    }
+
+    @Override
+    public int source(){
+        return source;
+    }
+
+    @Override
+    public CompactGraph graph(){
+        return graph;
+    }
+
+    /**
+     * Nothing to release - the tree may still be held by the cache.
+    */
+    @Override
+    public void close(){
+    }
+}
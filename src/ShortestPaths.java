@@ -0,0 +1,48 @@
+/**
+ * The result of a shortest path search from one start vertex, or towards one target vertex over the reversed edges.
+ * Vertices are identified by their index in the searched CompactGraph.
+ *
+ * Results are closed once they have been read. Closing a pooled SearchContext returns it to its pool,
+ * while closing a cached ShortestPathTree has no effect.
+ */
+public interface ShortestPaths extends AutoCloseable
+{
+    /**
+     * Obtain the cost of the shortest path found to the given vertex.
+     * @param v The index of the vertex.
+     * @return The cost of the path, or Graph.INFINITY if the vertex was not reached.
+    */
+    double dist(int v);
+
+    /**
+     * Obtain the previous vertex on the shortest path found to the given vertex.
+     * @param v The index of the vertex.
+     * @return The index of the previous vertex, or -1 for the start vertex and unreached vertices.
+    */
+    int prev(int v);
+
+    /**
+     * Determine if more than one shortest path was found to the given vertex.
+     * @param v The index of the vertex.
+     * @return True if the vertex is reached at its shortest distance by more than one edge.
+    */
+    boolean hasDuplicatePaths(int v);
+
+    /**
+     * Obtain the start vertex of the search.
+     * @return The index of the start vertex.
+    */
+    int source();
+
+    /**
+     * Obtain the graph that the search ran over.
+     * @return The searched graph, which is the reverse graph for a search towards a target.
+    */
+    CompactGraph graph();
+
+    /**
+     * Release this result. The result must not be read after closing.
+    */
+    @Override
+    void close();
+}
@@ -0,0 +1,226 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Counters and latency histograms of the shortest path searches and of the dispatched calls.
+ *
+ * Metrics are switched off by default. While they are off, a search or call only reads the switch once, and nothing
+ * is timed or counted beyond the plain counters a search keeps in its own SearchContext. While they are on, every
+ * finished search adds its vertices settled, edges scanned, heap pushes and pops and wall time, and every call adds
+ * its number of searches, its nearest taxi and shop counts and its end-to-end latency. The counters are LongAdders,
+ * so the dispatch workers record into them without contending.
+ *
+ * The metrics can be read as text with snapshot(), printed periodically with report(), or served as text on a
+ * local port with serve(). TaxiSimulator and DispatchServer switch them on when started with
+ * -Dtaxi.metrics.interval=MILLIS or -Dtaxi.metrics.port=PORT.
+ */
+public final class SimulatorMetrics
+{
+    /** The system property giving the period of the printed snapshots in milliseconds.*/
+    public static final String INTERVAL_PROPERTY = "taxi.metrics.interval";
+    /** The system property giving the local port the snapshots are served on.*/
+    public static final String PORT_PROPERTY = "taxi.metrics.port";
+
+    /** True while the metrics are recorded.*/
+    private static volatile boolean enabled;
+
+    private static final LongAdder searches = new LongAdder();
+    private static final LongAdder settled = new LongAdder();
+    private static final LongAdder scanned = new LongAdder();
+    private static final LongAdder pushes = new LongAdder();
+    private static final LongAdder pops = new LongAdder();
+    private static final LatencyHistogram searchLatency = new LatencyHistogram();
+
+    private static final LongAdder calls = new LongAdder();
+    private static final LongAdder callSearches = new LongAdder();
+    private static final LongAdder taxiCandidates = new LongAdder();
+    private static final LongAdder shopCandidates = new LongAdder();
+    private static final LatencyHistogram callLatency = new LatencyHistogram();
+
+    /** The number of searches recorded on each thread, so a call can count its own searches.*/
+    private static final ThreadLocal<long[]> threadSearches = ThreadLocal.withInitial(() -> new long[1]);
+
+    private SimulatorMetrics(){
+    }
+
+    /**
+     * Determine if the metrics are being recorded.
+     * @return True if the metrics are switched on.
+    */
+    public static boolean isEnabled(){
+        return enabled;
+    }
+
+    /**
+     * Switch the recording of metrics on or off. The metrics recorded so far are kept.
+     * @param on True to record metrics.
+    */
+    public static void setEnabled(boolean on){
+        enabled = on;
+    }
+
+    /**
+     * Forget all metrics recorded so far.
+    */
+    public static void reset(){
+        for (LongAdder adder : new LongAdder[]{searches, settled, scanned, pushes, pops, calls, callSearches, taxiCandidates, shopCandidates}){
+            adder.reset();
+        }
+        searchLatency.reset();
+        callLatency.reset();
+    }
+
+    /**
+     * Record one finished search. Called only while the metrics are switched on.
+     * @param settledCount The number of vertices settled.
+     * @param scannedCount The number of edges scanned from the settled vertices.
+     * @param pushCount The number of vertices added to the queue or moved up in it.
+     * @param popCount The number of entries removed from the queue.
+     * @param nanos The wall time of the search in nanoseconds.
+    */
+    static void recordSearch(int settledCount, long scannedCount, int pushCount, int popCount, long nanos){
+        searches.increment();
+        settled.add(settledCount);
+        scanned.add(scannedCount);
+        pushes.add(pushCount);
+        pops.add(popCount);
+        searchLatency.record(nanos);
+        threadSearches.get()[0]++;
+    }
+
+    /**
+     * Obtain the number of searches recorded on the calling thread, to be compared before and after a call.
+     * @return The number of searches.
+    */
+    static long threadSearches(){
+        return threadSearches.get()[0];
+    }
+
+    /**
+     * Record one dispatched call. Called only while the metrics are switched on.
+     * @param searchCount The number of searches run for the call.
+     * @param taxis The number of nearest taxis found.
+     * @param shops The number of nearest shops found.
+     * @param nanos The end-to-end latency of the call in nanoseconds.
+    */
+    static void recordCall(long searchCount, int taxis, int shops, long nanos){
+        calls.increment();
+        callSearches.add(searchCount);
+        taxiCandidates.add(taxis);
+        shopCandidates.add(shops);
+        callLatency.record(nanos);
+    }
+
+    /**
+     * Obtain the number of searches recorded.
+     * @return The number of searches.
+    */
+    public static long searches(){
+        return searches.sum();
+    }
+
+    /**
+     * Obtain the number of calls recorded.
+     * @return The number of calls.
+    */
+    public static long calls(){
+        return calls.sum();
+    }
+
+    /**
+     * Obtain the latencies of the recorded searches.
+     * @return The search latency histogram.
+    */
+    public static LatencyHistogram searchLatency(){
+        return searchLatency;
+    }
+
+    /**
+     * Obtain the end-to-end latencies of the recorded calls.
+     * @return The call latency histogram.
+    */
+    public static LatencyHistogram callLatency(){
+        return callLatency;
+    }
+
+    /**
+     * Obtain a text snapshot of the metrics, one "name value" pair per line, with latencies in microseconds.
+     * @return The snapshot.
+    */
+    public static String snapshot(){
+        StringBuilder out = new StringBuilder();
+        line(out, "searches", searches.sum());
+        line(out, "search_vertices_settled", settled.sum());
+        line(out, "search_edges_scanned", scanned.sum());
+        line(out, "search_heap_pushes", pushes.sum());
+        line(out, "search_heap_pops", pops.sum());
+        latency(out, "search", searchLatency);
+        line(out, "calls", calls.sum());
+        line(out, "call_searches", callSearches.sum());
+        line(out, "call_nearest_taxis", taxiCandidates.sum());
+        line(out, "call_nearest_shops", shopCandidates.sum());
+        latency(out, "call", callLatency);
+        return out.toString();
+    }
+
+    private static void line(StringBuilder out, String name, long value){
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void latency(StringBuilder out, String name, LatencyHistogram histogram){
+        long count = histogram.count();
+        out.append(name).append("_latency_mean_us ").append(String.format("%.1f", count == 0 ? 0.0 : histogram.totalNanos() / 1e3 / count)).append('\n');
+        out.append(name).append("_latency_p50_us ").append(String.format("%.1f", histogram.quantileNanos(0.50) / 1e3)).append('\n');
+        out.append(name).append("_latency_p99_us ").append(String.format("%.1f", histogram.quantileNanos(0.99) / 1e3)).append('\n');
+        out.append(name).append("_latency_max_us ").append(String.format("%.1f", histogram.maxNanos() / 1e3)).append('\n');
+    }
+
+    /**
+     * Switch the metrics on and print a snapshot to the given stream at a fixed period, on a daemon thread.
+     * @param out The stream the snapshots are printed to.
+     * @param periodMillis The time between snapshots in milliseconds.
+     * @return The scheduler printing the snapshots, which stops printing when shut down.
+    */
+    public static ScheduledExecutorService report(PrintStream out, long periodMillis){
+        setEnabled(true);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-report");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> out.print(snapshot()), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        return scheduler;
+    }
+
+    /**
+     * Switch the metrics on and serve a text snapshot at http://127.0.0.1:PORT/metrics.
+     * The server only listens on the loopback address.
+     * @param port The local port, or 0 for any free port.
+     * @throws IOException If the port cannot be opened.
+     * @return The running server, whose address gives the port, and which stops serving when stopped.
+    */
+    public static HttpServer serve(int port) throws IOException {
+        setEnabled(true);
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = snapshot().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()){
+                out.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+}
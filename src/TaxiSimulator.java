@@ -1,9 +1,19 @@
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
-import java.util.Scanner;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.sun.net.httpserver.HttpServer;
 
 /**
  * Simulation of a taxi service offered by supermarket chains QnQ and Shopify using a Graph Data Structure.
@@ -17,49 +27,71 @@ import java.util.StringTokenizer;
  * @version 17/06/2024
  */
 
-public class TaxiSimulator extends Graph
+public class TaxiSimulator extends Graph implements CallDispatcher
 {
     /** Constant for the booking fare paid by clients for QnQ Taxis.*/
     public static final double QNQ_BOOKING_FARE = 14.50;
     /** Constant for the booking fare paid by clients for Shopify Taxis.*/
     public static final double SHOPIFY_BOOKING_FARE = 16.00;
+    /** The input file read when no other file is given.*/
+    public static final String DEFAULT_INPUT = "Input.txt";
     /** Variable which stores the number of vertices in this simulation.*/
     private int numNodes;
     /** Variable which stores the chronological order of calls.*/
     private String calls;
+    /** Variable which stores if taxis are found with one search from the client over the reversed roads, instead of one search per taxi.*/
+    private boolean reverseSearch = true;
+    /** Variable which stores if each call is worked out from one search to and one search from the client, counting the shortest paths of the tied taxis and shops.*/
+    private volatile boolean singlePass = true;
+    /** The Shops of each company, prepared as targets of the contraction hierarchy.*/
+    private final ConcurrentHashMap<VertexRoles.Company,ContractionHierarchy.Targets> shopTargets = new ConcurrentHashMap<>();
+    /** The roles of the nodes, with the Shops of each company indexed, read again when nodes are added.*/
+    private volatile VertexRoles roles;
+    /** The precomputed costs between the Shops and every other node, or null if they have not been built.*/
+    private volatile ShopDistanceOracle shopOracle;
+    /** The buffered writer all output of this simulation goes through, which is standard output unless setOutput chooses another.*/
+    private PrintWriter output = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+    /** The route buffer of each thread, reused for every path it displays.*/
+    private final ThreadLocal<Route> routes = ThreadLocal.withInitial(Route::new);
 
     /**
-     * Constructs a new SimulatorTwo object and initializes the simulation graph.
+     * Constructs a new TaxiSimulator object and initializes the simulation graph from Input.txt.
+     * @throws UncheckedIOException If Input.txt cannot be read.
     */
     public TaxiSimulator(){
-        createSimulationGraph();
+        this(DEFAULT_INPUT);
+    }
+
+    /**
+     * Constructs a new TaxiSimulator object and initializes the simulation graph from the given input file.
+     * The file may be either a text input file or a snapshot written by saveSnapshot.
+     * @param inputPath The path of the input file.
+     * @throws UncheckedIOException If the input file does not exist or cannot be read.
+    */
+    public TaxiSimulator(String inputPath){
+        try {
+            if (GraphSnapshot.isSnapshot(inputPath)){
+                loadSnapshot(GraphSnapshot.read(inputPath));
+            } else {
+                try (InputParser input = new InputParser(inputPath)){
+                    createSimulationGraph(input);
+                }
+            }
+        } catch (NoSuchFileException e){
+            throw new UncheckedIOException("Input file not found: " + inputPath, e);
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not read input file " + inputPath + ": " + e.getMessage(), e);
+        }
     }
     
     /**
      * Create a new Graph for this Simulation.
      * Extention of SimulationOne which restricts Taxis to operating between shops of their own company.
+     * @param input The parser reading the input file.
     */
-    private void createSimulationGraph(){
+    private void createSimulationGraph(InputParser input){
         // Step 1 - Reading the file input and adding nodes to the Simulation Graph.
-        Scanner input = null;
-        try {
-            input = new Scanner(new FileInputStream("Input.txt"));
-        } catch (FileNotFoundException e){
-            System.out.println("File not found.");
-        }
-        this.numNodes = input.nextInt();  
-        input.nextLine();
-        for (int i = 0; i < this.numNodes; i++){
-            String line = input.nextLine();
-            StringTokenizer tokenizer = new StringTokenizer(line);
-            String source = tokenizer.nextToken();  // Read the source node.
-            // Read the destination nodes and their associated costs from the input and add the edges to the graph.
-            while (tokenizer.hasMoreTokens()){
-                String destination = tokenizer.nextToken();
-                int cost = Integer.parseInt(tokenizer.nextToken());
-                addEdge(source, destination, cost);
-            }
-        }
+        this.numNodes = input.readAdjacency(this);
         // Step 2 - Labeling all of the Nodes as either a Client or Shop in this simulation.
         // Assuming all nodes are initially of type 'None' - Meaning it is neither a taxi or a client.
         for (String name : vertexMap.keySet()){
@@ -67,8 +99,8 @@ public class TaxiSimulator extends Graph
             node.type = "None";
         }
         // Part 1 - Label the all the QnQ Shop nodes.
-        input.nextLine();
-        String qnqShops = input.nextLine();
+        input.readLine();
+        String qnqShops = input.readLine();
         StringTokenizer tokenizer = new StringTokenizer(qnqShops);
         // Initially assume that all shops and taxis are 'QnQ Shops' - So that all shops have a type associated.
         while (tokenizer.hasMoreTokens()) {
@@ -81,8 +113,8 @@ public class TaxiSimulator extends Graph
             }
         }
         // Part 2 - Label the all the Shopify Shop nodes.
-        input.nextLine();
-        String shopifyShops = input.nextLine();
+        input.readLine();
+        String shopifyShops = input.readLine();
         tokenizer = new StringTokenizer(shopifyShops);
         while (tokenizer.hasMoreTokens()) {
             String startName = tokenizer.nextToken();
@@ -94,8 +126,8 @@ public class TaxiSimulator extends Graph
             }
         }
         // Part 3 - Label of the Clients in this Simulation.
-        input.nextLine();
-        this.calls = input.nextLine();
+        input.readLine();
+        this.calls = input.readLine();
         tokenizer = new StringTokenizer(calls);
         while (tokenizer.hasMoreTokens()) {
             String startName = tokenizer.nextToken();
@@ -105,6 +137,38 @@ public class TaxiSimulator extends Graph
                 node.type = "Client"; // Mark the node as a Client.
             }
         }
+        // Step 3 - Index the Shops of each company and the Clients, so calls do not need to look at every node.
+        this.roles = new VertexRoles(vertexMap.values());
+    }
+
+    /**
+     * Initialize the simulation graph, labels and calls from a snapshot.
+     * @param snapshot The snapshot read from file.
+    */
+    private void loadSnapshot(GraphSnapshot snapshot){
+        load(snapshot.vertices, snapshot.offsets, snapshot.targets, snapshot.costs);
+        this.numNodes = snapshot.numNodes;
+        this.calls = snapshot.calls;
+        this.roles = new VertexRoles(vertexMap.values());
+    }
+
+    /**
+     * Write a binary snapshot of this simulation, which can be loaded much faster than the text input.
+     * @param path The path of the snapshot file, which is replaced if it exists.
+     * @throws IOException If the file cannot be written.
+    */
+    public void saveSnapshot(String path) throws IOException {
+        GraphSnapshot.write(compact(), numNodes, calls, path);
+    }
+
+    /**
+     * Write this simulation as a mapped graph file, which MappedSimulator dispatches calls from without loading
+     * the graph onto the heap.
+     * @param path The path of the mapped graph file, which is replaced if it exists.
+     * @throws IOException If the file cannot be written.
+    */
+    public void saveMapped(String path) throws IOException {
+        MappedGraph.write(compact(), getRoles(), numNodes, calls, path);
     }
 
     /**
@@ -137,11 +201,85 @@ public class TaxiSimulator extends Graph
         if(start == null || destination == null){
             throw new NoSuchElementException("Start or destination vertex not found.");
         }
-        dijkstra(startName); // Calculate the shortest paths from the start node to all other nodes.
-        if (destination.dist == INFINITY){
+        ShopDistanceOracle oracle = currentShopOracle();
+        if (oracle != null){
+            double cost = oracle.cost(start.index, destination.index);
+            if (!Double.isNaN(cost)){
+                return cost == INFINITY ? Double.POSITIVE_INFINITY : cost;
+            }
+        }
+        ContractionHierarchy hierarchy = getContractionHierarchy();
+        if (hierarchy != null){
+            double cost = hierarchy.distance(start.index, destination.index);
+            return cost == INFINITY ? Double.POSITIVE_INFINITY : cost;
+        }
+        // Calculate the shortest path from the start node, stopping once the destination node is reached.
+        try (ShortestPaths fromStart = search(startName, destinationName)){
+            return getCost(fromStart, destinationName);
+        }
+    }
+
+    /**
+     * Obtain the cost of the shortest path trip to the given node in the result of a search.
+     * After searchTo, this is the cost of the trip from the given node to the target of the search.
+     * @param result The result of search or searchTo.
+     * @param name The name associated with the node.
+     * @throws NoSuchElementException If the vertex is not found.
+     * @return The cost associated with the node.
+    */
+    public double getCost(ShortestPaths result, String name) throws NoSuchElementException {
+        Vertex node = vertexMap.get(name);
+        if (node == null){
+            throw new NoSuchElementException("Destination vertex not found.");
+        }
+        double cost = result.dist(node.index);
+        if (cost == INFINITY){
             return Double.POSITIVE_INFINITY;
         }
-        return destination.dist;
+        return cost;
+    }
+
+    /**
+     * Obtain the cost of the shortest path trip to the given node in the result of a search, by index.
+     * @param result The result of search or searchTo.
+     * @param v The index of the node.
+     * @return The cost associated with the node.
+    */
+    private static double getCost(ShortestPaths result, int v){
+        double cost = result.dist(v);
+        return cost == INFINITY ? Double.POSITIVE_INFINITY : cost;
+    }
+
+    /**
+     * Obtain the roles of the nodes, with the Shops of each company and the Clients indexed.
+     * The roles are read again from the labels of the nodes if nodes were added since they were last read.
+     * @return The roles of the nodes.
+    */
+    public VertexRoles getRoles(){
+        VertexRoles current = roles;
+        if (current == null || current.size() != vertexMap.size()){
+            current = new VertexRoles(vertexMap.values());
+            roles = current;
+        }
+        return current;
+    }
+
+    /**
+     * Choose how taxis are found by findNearestTaxi.
+     * @param reverseSearch True to search once from the client over the reversed roads, false to search once from every taxi.
+    */
+    public void setReverseSearch(boolean reverseSearch){
+        this.reverseSearch = reverseSearch;
+    }
+
+    /**
+     * Choose how calls are worked out by dispatch. Both ways give the same text.
+     * @param singlePass True to search once to and once from the client and count the shortest paths of the tied
+     *                   taxis and shops, false to search again for the nearest taxis and shops, from every taxi
+     *                   and for every fare.
+    */
+    public void setSinglePass(boolean singlePass){
+        this.singlePass = singlePass;
     }
 
     /**
@@ -151,23 +289,7 @@ public class TaxiSimulator extends Graph
      * @return The name associated with the nearest Taxi to the given Client.
     */
     public ArrayList<Vertex> findNearestTaxi(String client, String company){
-        double minimumCost = Double.POSITIVE_INFINITY;
-        ArrayList<Vertex> nearestTaxi = new ArrayList<>();  // Stores a list of the nearest taxis.
-        // Loop through the Graph and identify all Taxis - Taxis are found at QnQ Shops.
-        for (String name : vertexMap.keySet()){
-            if (vertexMap.get(name).type.equalsIgnoreCase("Shop") && vertexMap.get(name).companyName.equalsIgnoreCase(company)){
-                dijkstra(name);  // Calculate the shortest path from this Shop (Taxi) to the Client.
-                // If the cost of this trip is less than the current minimum trip, change the minimum trip and add to the nearest taxi array.
-                if (getCost(client) < minimumCost){
-                    minimumCost = getCost(client);
-                    nearestTaxi.clear();    // Clear the nearest shop array if a shorter trip is found.
-                    nearestTaxi.add(vertexMap.get(name));
-                } else if (getCost(client) == minimumCost){
-                    nearestTaxi.add(vertexMap.get(name));  // Add this vertex to the array of nearest paths if the costs are the same.
-                }
-            }
-        }
-        return nearestTaxi;
+        return findNearest(client, company, true, true);
     }
 
     /**
@@ -176,23 +298,303 @@ public class TaxiSimulator extends Graph
      * @return The name associated with the nearest Taxi to the given Client.
     */
     public ArrayList<Vertex> findNearestShop(String client, String company){
-        double minimumCost = Double.POSITIVE_INFINITY;
-        ArrayList<Vertex> nearestShop = new ArrayList<>();  
-        // Loop through the graph and identify all QnQ Shops .
-        for (String name : vertexMap.keySet()){
-            if (vertexMap.get(name).type.equalsIgnoreCase("Shop") && vertexMap.get(name).companyName.equalsIgnoreCase(company)){
-                dijkstra(client);  // Calculate the shortest path from this Client all the Shops in the Graph.
-                // If the cost of this trip is less than the current minimum trip, change the minimum trip and add to the nearest shop array.
-                if (getCost(name) < minimumCost){
-                    minimumCost = getCost(name);
-                    nearestShop.clear();    // Clear the nearest shop array if a shorter trip is found.
-                    nearestShop.add(vertexMap.get(name));
-                } else if (getCost(name) == minimumCost){
-                    nearestShop.add(vertexMap.get(name));  // Add this vertex to the array of nearest paths if the costs are the same.
+        return findNearest(client, company, false, true);
+    }
+
+    /**
+     * Find the Taxis nearest to, or the Shops nearest from, the given Client. The costs are read from the precomputed
+     * costs if they are built, from the contraction hierarchy for Shops if one is used, and otherwise from one search
+     * from the Client - over the reversed roads for Taxis - or from one search from every Taxi if reverse search is off.
+     * The nearest are then picked from the costs by VertexRoles.nearest, the same way for every source of the costs.
+     * @param client The name assosiated with the client.
+     * @param company The name of the shop company.
+     * @param taxis True for the Taxis nearest to the Client, false for the Shops nearest from the Client.
+     * @param ties True to list every Shop at the minimum cost, which is all of them when none can be reached,
+     *             false to stop at the first reachable one.
+     * @throws NoSuchElementException If the client is not found.
+     * @return The nearest Taxis or Shops, in the order of the Shops of the company.
+    */
+    private ArrayList<Vertex> findNearest(String client, String company, boolean taxis, boolean ties){
+        VertexRoles roles = getRoles();
+        VertexRoles.Company shopCompany = VertexRoles.Company.of(company);
+        CompactGraph graph = compact();
+        ArrayList<Vertex> nearest = new ArrayList<>();
+        int numShops = roles.shopCount(shopCompany);
+        if (numShops == 0){
+            return nearest;
+        }
+        int[] picked;
+        ShopDistanceOracle oracle = currentShopOracle();
+        if (oracle != null){
+            // Read one precomputed cost per Shop.
+            ShopDistanceOracle.Company shops = oracle.company(company);
+            if (shops == null){
+                return nearest;
+            }
+            int node = clientIndex(client);
+            picked = VertexRoles.nearest(shops.size(), shops::shop,
+                                         i -> taxis ? shops.costFrom(i, node) : shops.costTo(node, i), ties);
+        } else if (!taxis && getContractionHierarchy() != null){
+            double[] costs = hierarchyCosts(shopCompany, clientIndex(client));
+            picked = VertexRoles.nearest(numShops, i -> roles.shop(shopCompany, i), i -> costs[i], ties);
+        } else if (taxis && !reverseSearch){
+            // Calculate the shortest path from every Shop (Taxi) to the Client with one search from each.
+            double[] costs = new double[numShops];
+            for (int i = 0; i < numShops; i++){
+                try (ShortestPaths fromTaxi = search(graph.name(roles.shop(shopCompany, i)))){
+                    costs[i] = getCost(fromTaxi, client);
                 }
             }
+            picked = VertexRoles.nearest(numShops, i -> roles.shop(shopCompany, i), i -> costs[i], ties);
+        } else {
+            // Calculate the shortest path between the Client and every Shop with one search from the Client.
+            try (ShortestPaths result = taxis ? searchTo(client) : search(client)){
+                picked = VertexRoles.nearest(numShops, i -> roles.shop(shopCompany, i),
+                                             i -> getCost(result, roles.shop(shopCompany, i)), ties);
+            }
+        }
+        for (int shop : picked){
+            nearest.add(graph.vertex(shop));
+        }
+        return nearest;
+    }
+
+    /**
+     * Start a query for the Taxis of the given company in order of their cost to the given Client.
+     * The query searches only as far as the Taxis taken from it, so the next-best Taxi can be taken when a driver
+     * declines, and Taxis can be skipped, without searching again. The query must be closed after use.
+     * @param client The name assosiated with the client.
+     * @param company The name of the shop company.
+     * @param maxCost The largest trip cost of a Taxi, or Double.POSITIVE_INFINITY for no limit.
+     * @throws NoSuchElementException If the client is not found.
+     * @return The query, which gives no Taxis for an unknown company.
+    */
+    public NearestQuery nearestTaxis(String client, String company, double maxCost) throws NoSuchElementException {
+        return new NearestQuery(compact(), getRoles(), VertexRoles.Company.of(company), clientIndex(client), true, maxCost);
+    }
+
+    /**
+     * Start a query for the Shops of the given company in order of the cost from the given Client to them.
+     * The query must be closed after use.
+     * @param client The name assosiated with the client.
+     * @param company The name of the shop company.
+     * @param maxCost The largest trip cost of a Shop, or Double.POSITIVE_INFINITY for no limit.
+     * @throws NoSuchElementException If the client is not found.
+     * @return The query, which gives no Shops for an unknown company.
+    */
+    public NearestQuery nearestShops(String client, String company, double maxCost) throws NoSuchElementException {
+        return new NearestQuery(compact(), getRoles(), VertexRoles.Company.of(company), clientIndex(client), false, maxCost);
+    }
+
+    /**
+     * Obtain the index of the given Client.
+     * @throws NoSuchElementException If the client is not found.
+    */
+    private int clientIndex(String client) throws NoSuchElementException {
+        Vertex node = vertexMap.get(client);
+        if (node == null){
+            throw new NoSuchElementException("Client vertex not found.");
+        }
+        return node.index;
+    }
+
+    /**
+     * Find the k nearest Taxis of the given company to the given Client, within the given cost.
+     * Unlike findNearestTaxi, the search stops once k Taxis are found or the next node costs more than maxCost.
+     * @param client The name assosiated with the client.
+     * @param company The name of the shop company.
+     * @param k The largest number of Taxis to find.
+     * @param maxCost The largest trip cost of a Taxi, or Double.POSITIVE_INFINITY for no limit.
+     * @throws NoSuchElementException If the client is not found.
+     * @return The Taxis found, in order of cost.
+    */
+    public ArrayList<Vertex> findNearestTaxis(String client, String company, int k, double maxCost) throws NoSuchElementException {
+        try (NearestQuery query = nearestTaxis(client, company, maxCost)){
+            return query.next(k);
+        }
+    }
+
+    /**
+     * Find the k nearest Shops of the given company from the given Client, within the given cost.
+     * @param client The name assosiated with the client.
+     * @param company The name of the shop company.
+     * @param k The largest number of Shops to find.
+     * @param maxCost The largest trip cost of a Shop, or Double.POSITIVE_INFINITY for no limit.
+     * @throws NoSuchElementException If the client is not found.
+     * @return The Shops found, in order of cost.
+    */
+    public ArrayList<Vertex> findNearestShops(String client, String company, int k, double maxCost) throws NoSuchElementException {
+        try (NearestQuery query = nearestShops(client, company, maxCost)){
+            return query.next(k);
+        }
+    }
+
+    /**
+     * Obtain the costs from the given Client to the Shops of the given company with the contraction hierarchy.
+     * The Shops of each company are prepared as many-to-one targets once, and reused until the hierarchy changes.
+     * @param company The shop company, which has at least one Shop.
+     * @param client The index of the client.
+     * @return The cost to each Shop, in the order of the Shops of the company.
+    */
+    private double[] hierarchyCosts(VertexRoles.Company company, int client){
+        ContractionHierarchy hierarchy = getContractionHierarchy();
+        ContractionHierarchy.Targets targets = shopTargets.get(company);
+        if (targets == null || targets.hierarchy() != hierarchy){
+            targets = hierarchy.targets(getRoles().shops(company));
+            shopTargets.put(company, targets);
+        }
+        return targets.distancesFrom(client);
+    }
+
+    /**
+     * Precompute the costs between the Shops of every company and every other node, searching from the Shops in parallel.
+     * Once built, finding the nearest Taxis and Shops and the costs of trips to and from Shops read the costs instead of searching.
+     * The costs are kept up to date by addEdge and addShop.
+     * @return The oracle holding the costs, which reports its build time and memory.
+    */
+    public ShopDistanceOracle buildShopDistanceOracle(){
+        ShopDistanceOracle built = new ShopDistanceOracle(compact(), vertexMap.values(), Runtime.getRuntime().availableProcessors());
+        shopOracle = built;
+        return built;
+    }
+
+    /**
+     * Obtain the precomputed costs between the Shops and every other node.
+     * @return The oracle, or null if it has not been built.
+    */
+    public ShopDistanceOracle getShopDistanceOracle(){
+        return shopOracle;
+    }
+
+    /**
+     * Stop using the precomputed costs between the Shops and every other node.
+    */
+    public void clearShopDistanceOracle(){
+        shopOracle = null;
+    }
+
+    /**
+     * Determine if precomputing the costs between the Shops and every node is worth it for the calls read from the input.
+     * Each Shop takes two searches to precompute and each call saves about two searches, so there must be at least
+     * twice as many calls as Shops, and the tables must fit comfortably in memory. Calls worked out in one pass read
+     * every cost from their own two searches and never the oracle, so it is never worth it with single pass on.
+     * @return True if the oracle should be built.
+    */
+    private boolean shopOracleWorthwhile(){
+        if (singlePass){
+            return false;
+        }
+        int numShops = getRoles().shopCount();
+        int numCalls = calls == null ? 0 : new StringTokenizer(calls).countTokens() / 2;
+        long bytes = 16L * numShops * vertexMap.size();
+        return numShops > 0 && 2L * numShops <= numCalls && bytes <= Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    /**
+     * Obtain the precomputed costs, if they hold the costs of the current graph.
+    */
+    private ShopDistanceOracle currentShopOracle(){
+        ShopDistanceOracle oracle = shopOracle;
+        return oracle != null && oracle.graph() == compact() ? oracle : null;
+    }
+
+    /**
+     * Add a new road to the simulation.
+     * The precomputed costs are brought up to date by repairing only the rows of the Shops whose costs the road can change.
+     * A road to or from a new node drops them instead, as they have no room for the node, and so does a road added
+     * after the graph was changed some other way.
+     * @param sourceName The name associated with the node the road starts at.
+     * @param destName The name associated with the node the road ends at.
+     * @param cost The cost of the road.
+    */
+    @Override
+    public void addEdge(String sourceName, String destName, double cost){
+        int numVertices = vertexMap.size();
+        ShopDistanceOracle oracle = currentShopOracle();
+        super.addEdge(sourceName, destName, cost);
+        if (shopOracle != null){
+            if (oracle == null || vertexMap.size() != numVertices){
+                shopOracle = null;
+            } else {
+                oracle.refreshEdge(compact(), vertexMap.get(sourceName).index, vertexMap.get(destName).index, INFINITY, cost);
+            }
+        }
+    }
+
+    /**
+     * Repair the precomputed costs after updateEdges changed the roads, as well as the cached shortest paths.
+     * Costs that were computed on another graph are dropped instead.
+     * @param before The graph before the changes.
+     * @param after The graph with the changes made.
+     * @param changes The changed roads.
+    */
+    @Override
+    protected void edgesChanged(CompactGraph before, CompactGraph after, ShortestPathRepair.Changes changes){
+        super.edgesChanged(before, after, changes);
+        ShopDistanceOracle oracle = shopOracle;
+        if (oracle != null){
+            if (oracle.graph() == before){
+                oracle.refreshEdges(after, changes);
+            } else {
+                shopOracle = null;
+            }
+        }
+    }
+
+    /**
+     * Open a new Shop, with its Taxi, at the given node.
+     * A node that was a Shop of the other company changes company, and a Client node becomes a Shop.
+     * @param name The name associated with the node.
+     * @param company The name of the company of the Shop.
+     * @throws NoSuchElementException If the node is not found.
+     * @throws IllegalArgumentException If there is no company with the given name.
+    */
+    public void addShop(String name, String company){
+        Vertex node = vertexMap.get(name);
+        if (node == null){
+            throw new NoSuchElementException("Shop vertex not found.");
+        }
+        VertexRoles.Company shopCompany = VertexRoles.Company.of(company);
+        if (shopCompany == null){
+            throw new IllegalArgumentException("Unknown company: " + company);
+        }
+        VertexRoles current = getRoles();
+        VertexRoles.Company previous = current.company(node.index);
+        node.type = "Shop";
+        node.companyName = shopCompany.label();
+        current.addShop(node.index, shopCompany);
+        shopTargets.remove(shopCompany);
+        if (previous != null){
+            shopTargets.remove(previous);
+        }
+        ShopDistanceOracle oracle = shopOracle;
+        if (oracle != null){
+            oracle.addShop(node.index, shopCompany.label());
+        }
+    }
+
+    /**
+     * Use a contraction hierarchy for getCost, displayPath and findNearestShop.
+     * The hierarchy is read from the given file when it was saved there for this graph, and otherwise it is built and saved there.
+     * @param path The path of the hierarchy file.
+     * @throws UncheckedIOException If the hierarchy cannot be saved.
+     * @return The hierarchy in use.
+    */
+    public ContractionHierarchy useContractionHierarchy(String path){
+        try {
+            if (new File(path).isFile()){
+                try {
+                    return loadContractionHierarchy(path);
+                } catch (IOException e){
+                    // The file is out of date or damaged, so build the hierarchy again and replace it.
+                }
+            }
+            ContractionHierarchy hierarchy = buildContractionHierarchy();
+            hierarchy.save(path);
+            return hierarchy;
+        } catch (IOException e){
+            throw new UncheckedIOException("Cannot save contraction hierarchy: " + path, e);
         }
-        return nearestShop;
     }
 
     /**
@@ -202,20 +604,8 @@ public class TaxiSimulator extends Graph
      * @return The name associated with the nearest Taxi to the given Client.
     */
     private Vertex findTaxi(String client, String company){
-        double minimumCost = Double.POSITIVE_INFINITY;
-        Vertex nearestTaxi = null;  // Stores a list of the nearest taxis.
-        // Loop through the Graph and identify all Taxis - Taxis are found at QnQ Shops.
-        for (String name : vertexMap.keySet()){
-            if (vertexMap.get(name).type.equalsIgnoreCase("Shop") && vertexMap.get(name).companyName.equalsIgnoreCase(company)){
-                dijkstra(name);  // Calculate the shortest path from this Shop (Taxi) to the Client.
-                // If the cost of this trip is less than the current minimum trip, change the minimum trip and add to the nearest taxi array.
-                if (getCost(client) < minimumCost){
-                    minimumCost = getCost(client);
-                    nearestTaxi = vertexMap.get(name);
-                }
-            }
-        }
-        return nearestTaxi;
+        ArrayList<Vertex> nearest = findNearest(client, company, true, false);
+        return nearest.isEmpty() ? null : nearest.get(0);
     }
 
     /**
@@ -224,19 +614,8 @@ public class TaxiSimulator extends Graph
      * @return The name associated with the nearest Taxi to the given Client.
     */
     private Vertex findShop(String client, String company){
-        double minimumCost = Double.POSITIVE_INFINITY;
-        Vertex nearestShop = null;  
-        // Loop through the graph and identify all QnQ Shops .
-        for (String name : vertexMap.keySet()){
-            if (vertexMap.get(name).type.equalsIgnoreCase("Shop") && vertexMap.get(name).companyName.equalsIgnoreCase(company)){
-                dijkstra(client);  // Calculate the shortest path from this Client all the Shops in the Graph.
-                if (getCost(name) < minimumCost){
-                    minimumCost = getCost(name);
-                    nearestShop = vertexMap.get(name);
-                }
-            }
-        }
-        return nearestShop;
+        ArrayList<Vertex> nearest = findNearest(client, company, false, false);
+        return nearest.isEmpty() ? null : nearest.get(0);
     }
 
     /**
@@ -250,15 +629,56 @@ public class TaxiSimulator extends Graph
      * @return The fare that the client is required to pay.
     */
     public double getTaxiFare(double pickUpCost, double dropOffCost, String company){
+        return getTaxiFare(pickUpCost, dropOffCost, VertexRoles.Company.of(company));
+    }
+
+    /**
+     * Obtain the Taxi Fare to be paid by the client upon completion, for a company that is already known.
+     * @param pickUpCost The cost of the trip taken by the taxi to pick up the client.
+     * @param dropOffCost The cost of the trip taken by the taxi to drop the client off.
+     * @param company The company chosen by the client, or null for an unknown company.
+     * @return The fare that the client is required to pay, which is 0 for an unknown company.
+    */
+    public double getTaxiFare(double pickUpCost, double dropOffCost, VertexRoles.Company company){
+        return fare(pickUpCost, dropOffCost, company);
+    }
+
+    /**
+     * Obtain the Taxi Fare to be paid by the client upon completion, without a simulation.
+     * @param pickUpCost The cost of the trip taken by the taxi to pick up the client.
+     * @param dropOffCost The cost of the trip taken by the taxi to drop the client off.
+     * @param company The company chosen by the client, or null for an unknown company.
+     * @return The fare that the client is required to pay, which is 0 for an unknown company.
+    */
+    public static double fare(double pickUpCost, double dropOffCost, VertexRoles.Company company){
         double taxiFare = 0;
-        if (company.equalsIgnoreCase("QnQ")){
+        if (company == VertexRoles.Company.QNQ){
             taxiFare = QNQ_BOOKING_FARE + (0.2 * pickUpCost) + dropOffCost;
-        } else if (company.equalsIgnoreCase("Shopify")){
+        } else if (company == VertexRoles.Company.SHOPIFY){
             taxiFare = SHOPIFY_BOOKING_FARE + (0.15 * pickUpCost) + dropOffCost;
         }
         return taxiFare;
     }
 
+    /**
+     * Obtain the Taxi Fare for a trip from the given Taxi to the Client, and from the Client to the given Shop.
+     * The cost of each leg is found with a bidirectional search between its two ends.
+     * @param taxi The name associated with the node where the taxi starts.
+     * @param client The name associated with the client.
+     * @param shop The name associated with the shop the client is taken to.
+     * @param company The company chosen by the client.
+     * @throws NoSuchElementException If any of the vertices is not found.
+     * @return The fare that the client is required to pay, which is infinite if either leg cannot be travelled.
+    */
+    public double getTaxiFare(String taxi, String client, String shop, String company){
+        double pickUpCost = searchBidirectional(taxi, client).cost();
+        double dropOffCost = searchBidirectional(client, shop).cost();
+        if (pickUpCost == INFINITY || dropOffCost == INFINITY){
+            return Double.POSITIVE_INFINITY;
+        }
+        return getTaxiFare(pickUpCost, dropOffCost, company);
+    }
+
     /**
      * Determine if the driver will accept or decline the client call.
      * There is a 30% chance of a driver declining the call.
@@ -280,25 +700,58 @@ public class TaxiSimulator extends Graph
         if(start == null || destination == null){
             throw new NoSuchElementException( "Client or Destination vertex not found.");
         }  
-        dijkstra(startName);   // Calculate the shortest path from the start node to all other nodes nodes.
-        if (destination.dist == INFINITY){
-            System.out.println(destinationName+ " is unreachable from " + startName);
-        } else {
-            displayPath(destination);
-            System.out.println();
+        ContractionHierarchy hierarchy = getContractionHierarchy();
+        if (hierarchy != null){
+            // Print the path found in the hierarchy, with its shortcuts unpacked into roads.
+            int[] path = hierarchy.path(start.index, destination.index);
+            StringBuilder out = new StringBuilder();
+            if (path == null){
+                out.append(destinationName).append(" is unreachable from ").append(startName);
+            } else {
+                routes.get().fill(path, hierarchy.graph()).appendTo(out, " ");
+            }
+            output.println(out);
+            output.flush();
+            return;
+        }
+        // Calculate the shortest path from the start node, stopping once the destination node is reached.
+        try (ShortestPaths fromStart = search(startName, destinationName)){
+            displayPath(fromStart, destinationName);
         }
     }
 
     /**
-     * Obtain the minimum path to the given destination node.
-     * @param destination The destination node.
+     * Obtain the minimum path to the given destination node from the result of a search.
+     * @param result The result of a search from the start node.
+     * @param destinationName The name associated with the destination node.
+     * @throws NoSuchElementException If the destination vertex is not found.
     */
-    private void displayPath(Vertex destination){
-        if (destination.prev != null){
-            displayPath(destination.prev);
-            System.out.print(" ");
+    public void displayPath(ShortestPaths result, String destinationName){
+        StringBuilder out = new StringBuilder();
+        appendPath(out, result, destinationName);
+        output.print(out);
+        output.flush();
+    }
+
+    /**
+     * Append the minimum path to the given destination node from the result of a search, followed by a new line.
+     * @param out The text being built.
+     * @param result The result of a search from the start node.
+     * @param destinationName The name associated with the destination node.
+     * @throws NoSuchElementException If the destination vertex is not found.
+    */
+    private void appendPath(StringBuilder out, ShortestPaths result, String destinationName){
+        Vertex destination = vertexMap.get(destinationName);
+        if (destination == null){
+            throw new NoSuchElementException( "Client or Destination vertex not found.");
+        }
+        if (result.dist(destination.index) == INFINITY){
+            out.append(destinationName).append(" is unreachable from ").append(result.graph().name(result.source())).append('\n');
+        } else {
+            // Follow the previous vertices back to the start into this thread's route buffer, then append the names in order.
+            routes.get().fill(result, destination.index).appendTo(out, " ");
+            out.append('\n');
         }
-        System.out.print(destination.name);
     }
 
     /**
@@ -308,94 +761,381 @@ public class TaxiSimulator extends Graph
     private void printGraph(){
         for (int i = 0; i < vertexMap.size(); i++){
             if (vertexMap.size() > 0){
-                if (vertexMap.get(Integer.toString(i)).type.equalsIgnoreCase("Client")){
-                    System.out.print("Vertex " + i + " (" + vertexMap.get(Integer.toString(i)).type + ") is connected to: ");
+                if (getRoles().isClient(vertexMap.get(Integer.toString(i)).index)){
+                    output.print("Vertex " + i + " (" + vertexMap.get(Integer.toString(i)).type + ") is connected to: ");
                 } else {
-                    System.out.print("Vertex " + i + " (" + vertexMap.get(Integer.toString(i)).companyName  + " " + vertexMap.get(Integer.toString(i)).type + ") is connected to: ");
+                    output.print("Vertex " + i + " (" + vertexMap.get(Integer.toString(i)).companyName  + " " + vertexMap.get(Integer.toString(i)).type + ") is connected to: ");
                 }
-                for (int j=0; j<vertexMap.get(Integer.toString(i)).adj.size(); j++){
-                    System.out.print(vertexMap.get(Integer.toString(i)).adj.get(j) + " ");
+                CompactGraph graph = compact();
+                int v = vertexMap.get(Integer.toString(i)).index;
+                for (int e = graph.firstEdge(v); e < graph.edgeEnd(v); e++){
+                    output.print(graph.name(graph.target(e)) + " (Cost = " + graph.cost(e) + ") ");
                 }
-                System.out.println();
+                output.println();
             }
         }
+        output.flush();
     }
 
     /**
-     * Run the Simulation using the given user input.
-     * @param args None.
+     * Send all further output of this simulation to the given writer, which is buffered if it is not already.
+     * The previous writer is flushed but left open.
+     * @param out The writer receiving the output, such as a FileWriter.
     */
-    public static void main(String[] args){
-        // Initialize a new Simulation and process the client calls.
-        TaxiSimulator s = new TaxiSimulator();
-        StringTokenizer calls = new StringTokenizer(s.calls);
+    public void setOutput(Writer out){
+        output.flush();
+        if (out instanceof PrintWriter){
+            output = (PrintWriter) out;
+        } else {
+            output = new PrintWriter(out instanceof BufferedWriter ? out : new BufferedWriter(out));
+        }
+    }
 
-        while(calls.hasMoreTokens()){
-            String client = calls.nextToken();
-            String company = calls.nextToken();
+    /**
+     * Obtain the buffered writer all output of this simulation goes through.
+     * Text written to it is only shown once it is flushed.
+     * @return The output writer.
+    */
+    public PrintWriter getOutput(){
+        return output;
+    }
 
-            System.out.println("client " + client);
-            System.out.println("company " + company.toLowerCase());
+    /**
+     * Obtain the chronological order of calls, as pairs of client and company names.
+     * @return The calls read from the input.
+    */
+    public String getCalls(){
+        return calls;
+    }
 
-            ArrayList<Vertex> nearestTaxi = s.findNearestTaxi(client, company);
-            ArrayList<Vertex> nearestShop = s.findNearestShop(client, company);
-            Boolean driverAcceptsCall = driverAcceptsCall();
+    /**
+     * Handle one client call and obtain the text displayed for it.
+     * Only reads the graph, so calls may be dispatched from many threads at the same time.
+     * @param client The name assosiated with the client.
+     * @param company The name of the company chosen by the client.
+     * @param driverAcceptsCall If the driver of the nearest taxi accepts the call.
+     * @return The lines displayed for this call.
+    */
+    @Override
+    public String dispatch(String client, String company, boolean driverAcceptsCall){
+        if (!SimulatorMetrics.isEnabled()){
+            return dispatch(client, company, driverAcceptsCall, null);
+        }
+        // Count the searches run on this thread and time the whole call.
+        long begin = System.nanoTime();
+        long searches = SimulatorMetrics.threadSearches();
+        int[] candidates = new int[2];
+        String text = dispatch(client, company, driverAcceptsCall, candidates);
+        SimulatorMetrics.recordCall(SimulatorMetrics.threadSearches() - searches, candidates[0], candidates[1], System.nanoTime() - begin);
+        return text;
+    }
 
-            // If no nearby preferred taxi can be found, display that the client cannot be helped.
-            if (s.findTaxi(client, company) == null || s.findShop(client, company) == null){
-                System.out.println("cannot be helped");
-                continue;
+    /**
+     * Handle several calls of one client from one search to and one search from the client, shared by every call.
+     * Gives the same text as dispatching the calls one by one. Without single pass, the calls are dispatched one by one.
+     * @param client The name assosiated with the client.
+     * @param companies The name of the company chosen for each call.
+     * @param driverAcceptsCalls If the driver of the nearest taxi accepts each call.
+     * @return The lines displayed for each call, in order.
+    */
+    @Override
+    public String[] dispatch(String client, String[] companies, boolean[] driverAcceptsCalls){
+        if (!singlePass || !vertexMap.containsKey(client) || companies.length == 1){
+            return CallDispatcher.super.dispatch(client, companies, driverAcceptsCalls);
+        }
+        String[] texts = new String[companies.length];
+        boolean metrics = SimulatorMetrics.isEnabled();
+        int[] candidates = metrics ? new int[2] : null;
+        long begin = System.nanoTime();
+        long searches = metrics ? SimulatorMetrics.threadSearches() : 0;
+        try (ShortestPaths toClient = searchTo(client); ShortestPaths fromClient = search(client)){
+            for (int i = 0; i < companies.length; i++){
+                CallText text = new CallText(client, companies[i]);
+                texts[i] = dispatchInOnePass(text, toClient, fromClient, companies[i], driverAcceptsCalls[i], candidates);
+                // The shared searches are counted with the first call, and each call is timed from the end of the last.
+                if (metrics){
+                    long now = System.nanoTime();
+                    long searched = SimulatorMetrics.threadSearches();
+                    SimulatorMetrics.recordCall(searched - searches, candidates[0], candidates[1], now - begin);
+                    begin = now;
+                    searches = searched;
+                }
             }
+        }
+        return texts;
+    }
 
-            // Display the nearest preferred taxi, assuming that the taxi has been found.
-            // Account for the possibility that the driver might decline the call.
+    /**
+     * Handle one client call and obtain the text displayed for it, noting how many nearest taxis and shops it found.
+     * @param client The name assosiated with the client.
+     * @param company The name of the company chosen by the client.
+     * @param driverAcceptsCall If the driver of the nearest taxi accepts the call.
+     * @param candidates Receives the number of nearest taxis and of nearest shops, or null.
+     * @return The lines displayed for this call.
+    */
+    private String dispatch(String client, String company, boolean driverAcceptsCall, int[] candidates){
+        CallText text = new CallText(client, company);
+
+        // A client that is not a node of the graph was never labeled, and no taxi can reach it.
+        if (!vertexMap.containsKey(client)){
+            return text.cannotBeHelped();
+        }
+        if (singlePass){
+            return dispatchInOnePass(text, client, company, driverAcceptsCall, candidates);
+        }
+
+        ArrayList<Vertex> nearestTaxi = findNearestTaxi(client, company);
+        ArrayList<Vertex> nearestShop = findNearestShop(client, company);
+        if (candidates != null){
+            candidates[0] = nearestTaxi.size();
+            candidates[1] = nearestShop.size();
+        }
+
+        // If no nearby preferred taxi can be found, display that the client cannot be helped.
+        if (findTaxi(client, company) == null || findShop(client, company) == null){
+            return text.cannotBeHelped();
+        }
+
+        // Display the nearest preferred taxi, assuming that the taxi has been found.
+        // Account for the possibility that the driver might decline the call.
+        // Each taxi has multiple solutions, and their cost, as found by the search that ran last: the search from the
+        // client for the first taxi, then the search from the last taxi whose path was displayed.
+        int clientIndex = vertexMap.get(client).index;
+        ShortestPaths last = search(client);
+        try {
             for (Vertex taxi : nearestTaxi){
-                if (taxi.duplicatePathsFound){
-                    System.out.println("taxi" + " " + taxi.name);
-                    if (driverAcceptsCall){
-                        System.out.printf("multiple solutions cost %.0f\n", s.getCost(taxi.name));
-                    } else {
-                        System.out.printf("taxi driver declined the call0\n");
-                        break;
-                    }
+                text.taxi(taxi.name);
+                boolean multiple = last.hasDuplicatePaths(taxi.index);
+                // If the driver does not accept the call, stop processing this client.
+                if (!driverAcceptsCall){
+                    return text.declined(multiple);
+                }
+                if (multiple){
+                    text.multipleSolutions(getCost(last, taxi.name));
                 } else {
-                    System.out.println("taxi" + " " + taxi.name);
-                    if (driverAcceptsCall){
-                        s.displayPath(taxi.name,client);    
-                    } else {
-                        System.out.printf("taxi driver declined the call :(\n");
-                        break;
-                    }  
-                }   
-            }
-            // If the driver does not accept the call, stop processing this client.
-            if (!driverAcceptsCall){
-                continue;
+                    ShortestPaths fromTaxi = search(taxi.name);
+                    last.close();
+                    last = fromTaxi;
+                    text.path(routes.get().fill(fromTaxi, clientIndex));
+                }
             }
+        } finally {
+            last.close();
+        }
 
-            nearestTaxi = s.findNearestTaxi(client, company);
-            nearestShop = s.findNearestShop(client, company);
-            // Display the nearest preferred shop, assuming that the shop has been found.
+        nearestTaxi = findNearestTaxi(client, company);
+        nearestShop = findNearestShop(client, company);
+        // Display the nearest preferred shop, assuming that the shop has been found.
+        try (ShortestPaths fromClient = search(client)){
             for (Vertex shop : nearestShop){
-                if (shop.duplicatePathsFound){
-                    System.out.println("shop" + " " + shop.name);
-                    System.out.printf("multiple solutions cost %.0f\n", s.getCost(shop.name));
+                text.shop(shop.name);
+                if (fromClient.hasDuplicatePaths(shop.index)){
+                    text.multipleSolutions(getCost(fromClient, shop.name));
                 } else {
-                    System.out.println("shop" + " " + shop.name);
-                    s.displayPath(client, shop.name);
+                    text.path(routes.get().fill(fromClient, shop.index));
                 }
             }
+        }
 
-            nearestTaxi = s.findNearestTaxi(client, company);
-            nearestShop = s.findNearestShop(client, company);
-            double fare = 0;
-            // Calculate the amount due by this customer, assuming the trip has been completed.
-            for (Vertex taxi : nearestTaxi){
-                for (Vertex shop : nearestShop){
-                    fare += s.getTaxiFare(s.getCost(taxi.name, client), s.getCost(client, shop.name), company);
+        nearestTaxi = findNearestTaxi(client, company);
+        nearestShop = findNearestShop(client, company);
+        double fare = 0;
+        // Calculate the amount due by this customer, assuming the trip has been completed.
+        for (Vertex taxi : nearestTaxi){
+            for (Vertex shop : nearestShop){
+                fare += getTaxiFare(getCost(taxi.name, client), getCost(client, shop.name), company);
+            }
+        }
+        return text.amountDue(fare);
+    }
+
+    /**
+     * Work out one call from a single search to the Client over the reversed roads, which gives the cost of every Taxi,
+     * and a single search from the Client, which gives the cost of every Shop, and finish its text.
+     * @param text The text of the call, which already holds the client and company lines.
+     * @param client The name assosiated with the client, which is a node of the graph.
+     * @param company The name of the company chosen by the client.
+     * @param driverAcceptsCall If the driver of the nearest taxi accepts the call.
+     * @param candidates Receives the number of nearest taxis and of nearest shops, or null.
+     * @return The text of the call.
+    */
+    private String dispatchInOnePass(CallText text, String client, String company, boolean driverAcceptsCall, int[] candidates){
+        // A company without Shops needs neither search.
+        if (getRoles().shopCount(VertexRoles.Company.of(company)) == 0){
+            return dispatchInOnePass(text, null, null, company, driverAcceptsCall, candidates);
+        }
+        try (ShortestPaths toClient = searchTo(client); ShortestPaths fromClient = search(client)){
+            return dispatchInOnePass(text, toClient, fromClient, company, driverAcceptsCall, candidates);
+        }
+    }
+
+    /**
+     * Work out one call from the results of a search to the Client over the reversed roads and a search from the
+     * Client, and finish its text.
+     * The tied Taxis and Shops, the multiple solutions and the fare are all read from these two results: the first
+     * Taxi has multiple solutions when the search from the Client reaches it by more than one road, as when searching
+     * again, and a Taxi with only one shortest path follows the search to the Client. A Taxi with several shortest
+     * paths is searched from, so that its path is the one a search from the Taxi settles on, and so is every Taxi but
+     * the last whose path is displayed, since the multiple solutions of the next Taxi are read from its search.
+     * @param text The text of the call, which already holds the client and company lines.
+     * @param toClient The result of the search to the Client, or null if the company has no Shops.
+     * @param fromClient The result of the search from the Client, or null if the company has no Shops.
+     * @param company The name of the company chosen by the client.
+     * @param driverAcceptsCall If the driver of the nearest taxi accepts the call.
+     * @param candidates Receives the number of nearest taxis and of nearest shops, or null.
+     * @return The text of the call.
+    */
+    private String dispatchInOnePass(CallText text, ShortestPaths toClient, ShortestPaths fromClient, String company,
+                                     boolean driverAcceptsCall, int[] candidates){
+        VertexRoles roles = getRoles();
+        VertexRoles.Company shopCompany = VertexRoles.Company.of(company);
+        if (roles.shopCount(shopCompany) == 0){
+            if (candidates != null){
+                candidates[0] = 0;
+                candidates[1] = 0;
+            }
+            return text.cannotBeHelped();
+        }
+        ArrayList<Vertex> nearestTaxi = nearest(roles, shopCompany, toClient);
+        ArrayList<Vertex> nearestShop = nearest(roles, shopCompany, fromClient);
+        if (candidates != null){
+            candidates[0] = nearestTaxi.size();
+            candidates[1] = nearestShop.size();
+        }
+        // If no preferred taxi or shop can be reached, display that the client cannot be helped.
+        if (toClient.dist(nearestTaxi.get(0).index) == INFINITY || fromClient.dist(nearestShop.get(0).index) == INFINITY){
+            return text.cannotBeHelped();
+        }
+
+        // Display the nearest preferred taxis, reading multiple solutions from the search from the client, as searching
+        // again does for the first taxi, and counting the shortest paths of the last taxi instead of searching from it.
+        ShortestPathCounts taxiPaths = new ShortestPathCounts(toClient);
+        ShortestPaths last = fromClient;
+        try {
+            for (int i = 0; i < nearestTaxi.size(); i++){
+                Vertex taxi = nearestTaxi.get(i);
+                text.taxi(taxi.name);
+                boolean multiple = last.hasDuplicatePaths(taxi.index);
+                if (!driverAcceptsCall){
+                    return text.declined(multiple);
+                }
+                if (multiple){
+                    text.multipleSolutions(getCost(last, taxi.index));
+                } else if (i == nearestTaxi.size() - 1 && taxiPaths.count(taxi.index) == 1){
+                    text.path(routes.get().fillTowards(toClient, taxi.index));
+                } else {
+                    // The search from this taxi also gives the multiple solutions of the next one.
+                    ShortestPaths fromTaxi = search(taxi.name);
+                    if (last != fromClient){
+                        last.close();
+                    }
+                    last = fromTaxi;
+                    text.path(routes.get().fill(fromTaxi, toClient.source()));
                 }
             }
-            System.out.printf("amount due for this client is R%.2f\n", fare);   
-        }  
+        } finally {
+            if (last != fromClient){
+                last.close();
+            }
+        }
+
+        // Display the nearest preferred shops.
+        for (Vertex shop : nearestShop){
+            text.shop(shop.name);
+            if (fromClient.hasDuplicatePaths(shop.index)){
+                text.multipleSolutions(getCost(fromClient, shop.index));
+            } else {
+                text.path(routes.get().fill(fromClient, shop.index));
+            }
+        }
+
+        // Calculate the amount due by this customer over every tied taxi and shop, assuming the trip has been completed.
+        double fare = 0;
+        for (Vertex taxi : nearestTaxi){
+            for (Vertex shop : nearestShop){
+                fare += getTaxiFare(getCost(toClient, taxi.index), getCost(fromClient, shop.index), shopCompany);
+            }
+        }
+        return text.amountDue(fare);
+    }
+
+    /**
+     * Find the Shops of a company at the lowest cost in the result of a search, in the order findNearestTaxi and
+     * findNearestShop give them, which is every Shop when none of them was reached.
+    */
+    private static ArrayList<Vertex> nearest(VertexRoles roles, VertexRoles.Company company, ShortestPaths result){
+        CompactGraph graph = result.graph();
+        ArrayList<Vertex> nearest = new ArrayList<>();
+        for (int shop : VertexRoles.nearest(roles.shopCount(company), i -> roles.shop(company, i), i -> result.dist(roles.shop(company, i)), true)){
+            nearest.add(graph.vertex(shop));
+        }
+        return nearest;
+    }
+
+    /**
+     * Run the Simulation using the given user input.
+     * The calls are dispatched in parallel on all available processors and displayed in their original order.
+     * @param args Optionally, the path of the input file, which is Input.txt by default and may be a snapshot or a
+     *             mapped graph, and the path of a file that receives the output instead of standard output.
+    */
+    public static void main(String[] args){
+        // A mapped graph is searched in place, without loading it.
+        if (MappedSimulator.isMapped(args.length > 0 ? args[0] : DEFAULT_INPUT)){
+            MappedSimulator.main(args);
+            return;
+        }
+        // Initialize a new Simulation and process the client calls.
+        TaxiSimulator s;
+        try {
+            s = new TaxiSimulator(args.length > 0 ? args[0] : DEFAULT_INPUT);
+        } catch (UncheckedIOException e){
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        // Precompute the costs between the Shops and every node when calls search again for every taxi and fare, and there
+        // are enough calls to repay the searches from every Shop.
+        if (s.shopOracleWorthwhile()){
+            s.buildShopDistanceOracle();
+        }
+        // Record metrics when asked to print them periodically or serve them on a local port.
+        Long interval = Long.getLong(SimulatorMetrics.INTERVAL_PROPERTY);
+        Integer port = Integer.getInteger(SimulatorMetrics.PORT_PROPERTY);
+        ScheduledExecutorService reporter = interval == null ? null : SimulatorMetrics.report(System.err, interval);
+        HttpServer server = null;
+        if (port != null){
+            try {
+                server = SimulatorMetrics.serve(port);
+            } catch (IOException e){
+                System.err.println("Cannot serve metrics on port " + port + ": " + e.getMessage());
+            }
+        }
+        if (args.length > 1){
+            try {
+                s.setOutput(new FileWriter(args[1]));
+            } catch (IOException e){
+                System.err.println("Cannot write output file " + args[1] + ": " + e.getMessage());
+                System.exit(1);
+                return;
+            }
+        }
+        BatchDispatcher dispatcher = new BatchDispatcher(s, Runtime.getRuntime().availableProcessors());
+        try {
+            dispatcher.dispatch(s.calls, s.getOutput());
+        } finally {
+            dispatcher.shutdown();
+            if (args.length > 1){
+                s.getOutput().close();
+            } else {
+                s.getOutput().flush();
+            }
+            if (reporter != null){
+                reporter.shutdown();
+                System.err.print(SimulatorMetrics.snapshot());
+            }
+            if (server != null){
+                server.stop(0);
+            }
+        }
     }
- }
\ No newline at end of file
+ }
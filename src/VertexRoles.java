@@ -0,0 +1,291 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The role of every vertex of the simulation, with the Shops of each company and the Clients indexed.
+ * The labels are read once from the type and company name of each vertex, so finding the Taxis or Shops of a call
+ * walks the Shops of its company only, without looking at any other vertex or comparing any names.
+ *
+ * The Shops of each company are kept in the order of the vertex map, which is the order in which the searches
+ * have always reported ties. A vertex has one role: a node listed as a Shop of both companies belongs to the company
+ * listed last, and a Shop that is also listed as a Client is a Client, just as the labels read from the input say.
+ * Vertices without a label, such as those added by a later road, have no role.
+ */
+public class VertexRoles
+{
+    /**
+     * The role of a vertex in the simulation.
+    */
+    public enum Role
+    {
+        NONE, SHOP, CLIENT;
+
+        /**
+         * Obtain the role given by the type label of a vertex.
+         * @param type The type label, which may be null.
+         * @return The role, which is NONE for a missing or unknown label.
+        */
+        public static Role of(String type){
+            if ("Shop".equalsIgnoreCase(type)){
+                return SHOP;
+            } else if ("Client".equalsIgnoreCase(type)){
+                return CLIENT;
+            }
+            return NONE;
+        }
+    }
+
+    /**
+     * The supermarket chains offering taxis.
+    */
+    public enum Company
+    {
+        QNQ("QnQ"), SHOPIFY("Shopify");
+
+        /** The name of the company as written in the input.*/
+        private final String label;
+
+        private Company(String label){
+            this.label = label;
+        }
+
+        /**
+         * Obtain the name of the company as written in the input.
+         * @return The name of the company.
+        */
+        public String label(){
+            return label;
+        }
+
+        /**
+         * Obtain the company with the given name, ignoring case.
+         * @param name The name of the company, which may be null.
+         * @return The company, or null if there is no such company.
+        */
+        public static Company of(String name){
+            for (Company company : values()){
+                if (company.label.equalsIgnoreCase(name)){
+                    return company;
+                }
+            }
+            return null;
+        }
+    }
+
+    /** The role of each vertex, by index.*/
+    private final Role[] roles;
+    /** The company of each Shop, by index, or null for vertices that are not Shops.*/
+    private final Company[] companies;
+    /** The position of each vertex in the order of the vertex map.*/
+    private final int[] order;
+    /** The indices of the Shops of each company, in the order of the vertex map.*/
+    private final Map<Company,int[]> shops = new EnumMap<>(Company.class);
+    /** The Clients.*/
+    private final BitSet clients = new BitSet();
+
+    /**
+     * Read the roles of the given vertices.
+     * @param vertices Every vertex of the graph, in the order of the vertex map.
+    */
+    public VertexRoles(Collection<Vertex> vertices){
+        int numVertices = vertices.size();
+        this.roles = new Role[numVertices];
+        this.companies = new Company[numVertices];
+        this.order = new int[numVertices];
+        Map<Company,int[]> found = new EnumMap<>(Company.class);
+        int[] counts = new int[Company.values().length];
+        int position = 0;
+        for (Vertex vertex : vertices){
+            int v = vertex.index;
+            order[v] = position++;
+            roles[v] = Role.of(vertex.type);
+            if (roles[v] == Role.SHOP){
+                companies[v] = Company.of(vertex.companyName);
+            } else if (roles[v] == Role.CLIENT){
+                clients.set(v);
+            }
+            if (companies[v] != null){
+                Company company = companies[v];
+                int[] list = found.computeIfAbsent(company, c -> new int[16]);
+                if (counts[company.ordinal()] == list.length){
+                    list = Arrays.copyOf(list, list.length * 2);
+                    found.put(company, list);
+                }
+                list[counts[company.ordinal()]++] = v;
+            }
+        }
+        for (Company company : Company.values()){
+            int[] list = found.get(company);
+            shops.put(company, list == null ? new int[0] : Arrays.copyOf(list, counts[company.ordinal()]));
+        }
+    }
+
+    /**
+     * Obtain the number of vertices whose roles are held.
+     * @return The number of vertices.
+    */
+    public int size(){
+        return roles.length;
+    }
+
+    /**
+     * Obtain the role of a vertex.
+     * @param v The index of the vertex.
+     * @return The role of the vertex.
+    */
+    public Role role(int v){
+        return roles[v];
+    }
+
+    /**
+     * Obtain the company of a Shop.
+     * @param v The index of the vertex.
+     * @return The company, or null if the vertex is not a Shop.
+    */
+    public Company company(int v){
+        return companies[v];
+    }
+
+    /**
+     * Obtain the number of Shops of a company.
+     * @param company The company, which may be null.
+     * @return The number of Shops, which is 0 for a null company.
+    */
+    public int shopCount(Company company){
+        return company == null ? 0 : shops.get(company).length;
+    }
+
+    /**
+     * Obtain the number of Shops of all companies.
+     * @return The number of Shops.
+    */
+    public int shopCount(){
+        int count = 0;
+        for (int[] list : shops.values()){
+            count += list.length;
+        }
+        return count;
+    }
+
+    /**
+     * Obtain one of the Shops of a company, in the order of the vertex map.
+     * @param company The company.
+     * @param i The position of the Shop, from 0 to shopCount(company) - 1.
+     * @return The index of the Shop.
+    */
+    public int shop(Company company, int i){
+        return shops.get(company)[i];
+    }
+
+    /**
+     * Pick the Shops of a company at the lowest cost, which is how every way of handling a call chooses its nearest
+     * Taxis and Shops. Shops that cannot be reached, at Graph.INFINITY or Double.POSITIVE_INFINITY, are tied with
+     * each other, so when none can be reached every Shop is picked if ties are asked for, and none otherwise.
+     * @param shopCount The number of Shops of the company.
+     * @param shop Gives the index of the Shop at each position, in the order of the Shops of the company.
+     * @param cost Gives the cost of the trip to or from the Shop at each position.
+     * @param ties True to pick every Shop at the lowest cost, false to pick only the first reachable one.
+     * @return The indices of the Shops picked, in the order of the Shops of the company.
+    */
+    public static int[] nearest(int shopCount, IntUnaryOperator shop, IntToDoubleFunction cost, boolean ties){
+        int[] nearest = new int[shopCount];
+        int count = 0;
+        double minimumCost = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < shopCount; i++){
+            double c = cost.applyAsDouble(i);
+            if (c == Graph.INFINITY){
+                c = Double.POSITIVE_INFINITY;
+            }
+            if (c < minimumCost){
+                minimumCost = c;
+                count = 0;
+                nearest[count++] = shop.applyAsInt(i);
+            } else if (ties && c == minimumCost){
+                nearest[count++] = shop.applyAsInt(i);
+            }
+        }
+        return Arrays.copyOf(nearest, count);
+    }
+
+    /**
+     * Obtain the Shops of a company, in the order of the vertex map.
+     * @param company The company.
+     * @return A copy of the indices of the Shops.
+    */
+    public int[] shops(Company company){
+        return shops.get(company).clone();
+    }
+
+    /**
+     * Determine if a vertex is a Client.
+     * @param v The index of the vertex.
+     * @return True if the vertex is labeled as a Client.
+    */
+    public boolean isClient(int v){
+        return clients.get(v);
+    }
+
+    /**
+     * Obtain the number of Clients.
+     * @return The number of Clients.
+    */
+    public int clientCount(){
+        return clients.cardinality();
+    }
+
+    /**
+     * Make a vertex a Shop of the given company, moving it from any company it belonged to.
+     * Only the Shops of the two companies concerned are copied.
+     * @param v The index of the vertex.
+     * @param company The company of the Shop.
+    */
+    public void addShop(int v, Company company){
+        Company previous = companies[v];
+        if (previous == company){
+            return;
+        }
+        if (previous != null){
+            int[] list = shops.get(previous);
+            int at = position(list, v);
+            int[] removed = new int[list.length - 1];
+            System.arraycopy(list, 0, removed, 0, at);
+            System.arraycopy(list, at + 1, removed, at, removed.length - at);
+            shops.put(previous, removed);
+        }
+        int[] list = shops.get(company);
+        int at = -position(list, v) - 1;
+        int[] added = new int[list.length + 1];
+        System.arraycopy(list, 0, added, 0, at);
+        added[at] = v;
+        System.arraycopy(list, at, added, at + 1, list.length - at);
+        shops.put(company, added);
+        roles[v] = Role.SHOP;
+        companies[v] = company;
+        clients.clear(v);
+    }
+
+    /**
+     * Find a vertex in a list of Shops ordered by the vertex map.
+     * @return The position of the vertex, or -(insertion point) - 1 if it is not in the list.
+    */
+    private int position(int[] list, int v){
+        int low = 0;
+        int high = list.length - 1;
+        while (low <= high){
+            int mid = (low + high) >>> 1;
+            if (order[list[mid]] < order[v]){
+                low = mid + 1;
+            } else if (order[list[mid]] > order[v]){
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+}